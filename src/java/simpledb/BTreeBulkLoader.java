@@ -0,0 +1,662 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile bottom-up from a stream of tuples in any
+ * order. The tuples are first sorted on the key field with an external merge
+ * sort: they are read in runs of at most a given number of tuples, each run is
+ * sorted in memory and written to a temporary file, and the runs are then
+ * merged. At most MERGE_FAN_IN runs are merged at once, so if there are more,
+ * groups of them are first merged into longer runs, in as many passes as
+ * needed. Since the number of tuples is then known, the shape of the tree is
+ * computed up front, and the root pointer page, the leaf pages and then each
+ * level of internal pages are written out in one sequential pass over the
+ * file, with their parent and sibling pointers already set. Pages are written
+ * directly to the file, without going through insertTuple or the BufferPool.
+ * <p>
+ * Leaf and internal pages are filled to the given fill factor, leaving the
+ * rest of each page free for later inserts. Every page except the root holds
+ * at least half as many tuples or entries as it can, so the tree satisfies the
+ * same occupancy invariants as one built by insertTuple.
+ *
+ * @see BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+	/** The default fraction of each page filled by the loader. */
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+	/** The default number of tuples sorted in memory at once. */
+	public static final int DEFAULT_RUN_SIZE = 1 << 18;
+
+	/** The largest number of sorted runs merged at once, each with an open file. */
+	public static final int MERGE_FAN_IN = 64;
+
+	/**
+	 * Builds a B+ tree from the tuples of an iterator with the default fill
+	 * factor and run size.
+	 *
+	 * @see #load(DbFileIterator, File, TupleDesc, int, double, int)
+	 */
+	public static BTreeFile load(DbFileIterator tuples, File bFile, TupleDesc td, int keyField)
+			throws IOException, DbException, TransactionAbortedException {
+		return load(tuples, bFile, td, keyField, DEFAULT_FILL_FACTOR, DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * Builds a B+ tree keyed on several fields from the tuples of an iterator with the
+	 * default fill factor and run size.
+	 *
+	 * @see #load(DbFileIterator, File, TupleDesc, int[], double, int)
+	 */
+	public static BTreeFile load(DbFileIterator tuples, File bFile, TupleDesc td, int[] keyFields)
+			throws IOException, DbException, TransactionAbortedException {
+		return load(tuples, bFile, td, keyFields, DEFAULT_FILL_FACTOR, DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * Builds a B+ tree from the tuples of an iterator. The iterator is opened
+	 * and closed by this method. The returned BTreeFile is not added to the
+	 * catalog, and no pages of its table may be cached in the BufferPool.
+	 *
+	 * @param tuples - the tuples to load, in any order
+	 * @param bFile - the file to write the B+ tree to, which is overwritten
+	 * @param td - the TupleDesc of the tuples
+	 * @param keyField - the index of the field the B+ tree is keyed on
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 * @param runSize - the largest number of tuples to sort in memory at once
+	 * @return the BTreeFile
+	 */
+	public static BTreeFile load(DbFileIterator tuples, File bFile, TupleDesc td, int keyField,
+			double fillFactor, int runSize)
+					throws IOException, DbException, TransactionAbortedException {
+		return load(tuples, bFile, td, new int[] { keyField }, fillFactor, runSize);
+	}
+
+	/**
+	 * Builds a B+ tree keyed on several fields from the tuples of an iterator. The tuples
+	 * are sorted on the first key field, then on the second, and so on.
+	 *
+	 * @param keyFields - the indexes of the fields the B+ tree is keyed on, in order
+	 * @see #load(DbFileIterator, File, TupleDesc, int, double, int)
+	 * @see BTreeFile#BTreeFile(File, int[], TupleDesc)
+	 */
+	public static BTreeFile load(DbFileIterator tuples, File bFile, TupleDesc td, int[] keyFields,
+			double fillFactor, int runSize)
+					throws IOException, DbException, TransactionAbortedException {
+		if(fillFactor < 0.5 || fillFactor > 1.0) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1");
+		}
+		if(runSize < 1) {
+			throw new IllegalArgumentException("run size must be positive");
+		}
+		SortedRuns sorted = new SortedRuns(td, keyFields, runSize);
+		try {
+			sorted.sort(tuples);
+			writeTree(sorted, bFile, td, keyFields, fillFactor);
+		} finally {
+			sorted.close();
+		}
+		return new BTreeFile(bFile, keyFields, td);
+	}
+
+	/**
+	 * Divides n items among pages in order, so that each page holds capacity
+	 * items except the last two, which share the remaining items evenly. If
+	 * that would leave them with fewer than min items each, the remaining items
+	 * go on one page instead, which then holds more than capacity but at most
+	 * max items.
+	 *
+	 * @param n - the number of items, more than max
+	 * @param capacity - the number of items to put on each page, at most max
+	 * @param min - the fewest items a page may hold, at most half of capacity
+	 * @param max - the most items a page may hold
+	 * @return the number of items of each page
+	 */
+	static int[] divide(int n, int capacity, int min, int max) {
+		int pages = (n + capacity - 1) / capacity;
+		int remaining = n - (pages - 2) * capacity;
+		if(remaining / 2 < min && remaining <= max) {
+			pages--;
+		}
+		int[] sizes = new int[pages];
+		Arrays.fill(sizes, capacity);
+		if(pages < (n + capacity - 1) / capacity) {
+			sizes[pages - 1] = remaining;
+		}
+		else {
+			sizes[pages - 2] = remaining / 2;
+			sizes[pages - 1] = remaining - remaining / 2;
+		}
+		return sizes;
+	}
+
+	/**
+	 * Returns the number of tuples a leaf page holds
+	 */
+	static int getMaxTuples(TupleDesc td) {
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
+		int extraBits = 3 * BTreeLeafPage.INDEX_SIZE * 8;
+		return (BufferPool.getPageSize() * 8 - extraBits) / (td.getSize() * 8 + 1);
+	}
+
+	/**
+	 * Returns the number of entries an internal page holds
+	 */
+	static int getMaxEntries(Type[] keyTypes) {
+		return BTreeInternalPage.getMaxEntries(keyTypes, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Divides the children of a level of the tree among the internal pages of the level
+	 * above, in order.
+	 *
+	 * @param separators - the separator key before each child, the first of which is unused
+	 * @param keyTypes - the types of the key fields
+	 * @param fillFactor - the fraction of each page to fill
+	 * @return the number of children of each internal page
+	 */
+	static int[] divideChildren(List<Field> separators, Type[] keyTypes, double fillFactor) {
+		int children = separators.size();
+		int maxEntries = getMaxEntries(keyTypes);
+		if(BTreeInternalPage.isPrefixCompressed(keyTypes)) {
+			return divideCompressed(separators, keyTypes[0], fillFactor);
+		}
+		if(children <= maxEntries + 1) {
+			return new int[] { children };
+		}
+		int capacity = Math.max((int) (fillFactor * maxEntries), maxEntries / 2) + 1;
+		int[] sizes = divide(children, capacity, maxEntries / 2 + 1, maxEntries + 1);
+		// like an internal page split, give the left page of the last two the larger half
+		if(sizes.length > 1 && sizes[sizes.length - 1] > sizes[sizes.length - 2]) {
+			sizes[sizes.length - 2]++;
+			sizes[sizes.length - 1]--;
+		}
+		return sizes;
+	}
+
+	/**
+	 * Divides the children of a level among internal pages with prefix compressed keys,
+	 * whose entries vary in size. Each page is filled with entries up to the fill factor
+	 * of its capacity in bytes, except the last two, which share their entries evenly if
+	 * the last one would be less than half full.
+	 *
+	 * @see #divideChildren(List, Type[], double)
+	 */
+	private static int[] divideCompressed(List<Field> separators, Type keyType, double fillFactor) {
+		int children = separators.size();
+		int maxEntries = BTreeInternalPage.getMaxEntries(keyType, BufferPool.getPageSize());
+		int capacity = BTreeInternalPage.getCapacity(keyType, BufferPool.getPageSize());
+		int target = Math.max((int) (fillFactor * capacity), capacity / 2);
+		if(children <= maxEntries + 1 && getUsedBytes(separators, 0, children) <= capacity) {
+			return new int[] { children };
+		}
+
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		int first = 0;
+		while(first < children) {
+			int size = 1;
+			int used = BTreeInternalPage.INDEX_SIZE;
+			Field prev = null;
+			while(first + size < children && size <= maxEntries) {
+				Field key = separators.get(first + size);
+				int entry = BTreeInternalPage.getCompressedEntrySize(prev, key);
+				if(used + entry > target) {
+					break;
+				}
+				used += entry;
+				prev = key;
+				size++;
+			}
+			sizes.add(size);
+			first += size;
+		}
+
+		// merge the last two pages, or divide their children evenly, if the last one is too small
+		int last = sizes.size() - 1;
+		int start = children - sizes.get(last) - sizes.get(last - 1);
+		if(getUsedBytes(separators, children - sizes.get(last), children) 
+				< BTreeInternalPage.getMinUsedBytes(keyType, BufferPool.getPageSize())) {
+			int total = getUsedBytes(separators, start, children);
+			if(children - start <= maxEntries + 1 && total <= capacity) {
+				sizes.remove(last);
+				sizes.set(last - 1, children - start);
+			}
+			else {
+				// like an internal page split, give the left page the larger half
+				int left = 1;
+				while(getUsedBytes(separators, start, start + left) < total / 2) {
+					left++;
+				}
+				sizes.set(last - 1, left);
+				sizes.set(last, children - start - left);
+			}
+		}
+
+		int[] result = new int[sizes.size()];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = sizes.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes the prefix compressed entries of an internal page with
+	 * the given children take
+	 *
+	 * @param separators - the separator key before each child
+	 * @param from - the first child of the page
+	 * @param to - one past the last child of the page
+	 */
+	private static int getUsedBytes(List<Field> separators, int from, int to) {
+		int used = BTreeInternalPage.INDEX_SIZE;
+		Field prev = null;
+		for(int i = from + 1; i < to; i++) {
+			used += BTreeInternalPage.getCompressedEntrySize(prev, separators.get(i));
+			prev = separators.get(i);
+		}
+		return used;
+	}
+
+	/**
+	 * Computes the shape of the tree and writes it out in page order. The shape of the
+	 * internal levels depends on the separator keys between the leaves if the keys are
+	 * prefix compressed, so the root pointer and the parent pointers of the leaves are
+	 * filled in after the rest of the tree is written.
+	 *
+	 * @param sorted - the sorted tuples
+	 * @param bFile - the file to write
+	 * @param td - the TupleDesc of the tuples
+	 * @param keyFields - the indexes of the key fields
+	 * @param fillFactor - the fraction of each page to fill
+	 */
+	private static void writeTree(SortedRuns sorted, File bFile, TupleDesc td, int[] keyFields,
+			double fillFactor) throws IOException {
+		int maxTuples = getMaxTuples(td);
+		Type[] keyTypes = BTreeFile.getKeyTypes(td, keyFields);
+
+		// the number of tuples of each leaf page, and of children of each internal page,
+		// level by level from the leaves up to the root
+		ArrayList<int[]> levels = new ArrayList<int[]>();
+		int n = sorted.size();
+		if(n <= maxTuples) {
+			levels.add(new int[] { n });
+		}
+		else {
+			int capacity = Math.max((int) (fillFactor * maxTuples), maxTuples / 2);
+			levels.add(divide(n, capacity, maxTuples / 2, maxTuples));
+		}
+		int[] leaves = levels.get(0);
+
+		int tableid = bFile.getAbsoluteFile().hashCode();
+		Type[] typeAr = new Type[td.numFields()];
+		for(int i = 0; i < typeAr.length; i++) {
+			typeAr[i] = td.getFieldType(i);
+		}
+
+		int[] firstPage;
+		int pages;
+		DbFileChannel channel = new DbFileChannel(bFile);
+		try {
+			channel.truncate(0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.outputStream(0)));
+			try {
+				out.write(BTreeFileEncoder.convertToRootPtrPage(0, BTreePageId.LEAF, 0));
+
+				// write the leaf pages, remembering the separator key between each leaf and the
+				// previous one
+				ArrayList<Field> separators = new ArrayList<Field>(leaves.length);
+				Field lastKey = null;
+				for(int i = 0; i < leaves.length; i++) {
+					ArrayList<Tuple> page = new ArrayList<Tuple>(leaves[i]);
+					for(int j = 0; j < leaves[i]; j++) {
+						page.add(sorted.next());
+					}
+					if(!page.isEmpty()) {
+						Field firstKey = BTreeFile.getKey(page.get(0), keyFields);
+						separators.add(lastKey == null ? null : BTreeInternalPage.getSeparator(lastKey, firstKey));
+						lastKey = BTreeFile.getKey(page.get(page.size() - 1), keyFields);
+					}
+					ByteBuffer data = ByteBuffer.wrap(BTreeFileEncoder.convertToLeafPage(page,
+							BufferPool.getPageSize(), typeAr.length, typeAr, keyFields[0]));
+					data.putInt(4, i > 0 ? i : 0);
+					data.putInt(8, i < leaves.length - 1 ? i + 2 : 0);
+					out.write(data.array());
+				}
+
+				// compute the shape of the internal levels. The separator between two pages of a level
+				// is the one before the first child of the right page, which is pushed up
+				ArrayList<List<Field>> levelSeparators = new ArrayList<List<Field>>();
+				levelSeparators.add(separators);
+				while(levels.get(levels.size() - 1).length > 1) {
+					int[] sizes = divideChildren(separators, keyTypes, fillFactor);
+					ArrayList<Field> pushed = new ArrayList<Field>(sizes.length);
+					int child = 0;
+					for(int size : sizes) {
+						pushed.add(separators.get(child));
+						child += size;
+					}
+					levels.add(sizes);
+					levelSeparators.add(pushed);
+					separators = pushed;
+				}
+
+				// pages are numbered from 1 in order of level, starting with the leaves
+				firstPage = new int[levels.size()];
+				pages = 0;
+				for(int i = 0; i < levels.size(); i++) {
+					firstPage[i] = pages + 1;
+					pages += levels.get(i).length;
+				}
+
+				// write each level of internal pages
+				for(int level = 1; level < levels.size(); level++) {
+					int[] children = levels.get(level);
+					List<Field> keys = levelSeparators.get(level - 1);
+					int childCategory = (level == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+					Parents parents = new Parents(levels, firstPage, level);
+					int child = 0;
+					for(int i = 0; i < children.length; i++) {
+						ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>(children[i] - 1);
+						for(int j = child + 1; j < child + children[i]; j++) {
+							entries.add(new BTreeEntry(keys.get(j),
+									new BTreePageId(tableid, firstPage[level - 1] + j - 1, childCategory),
+									new BTreePageId(tableid, firstPage[level - 1] + j, childCategory)));
+						}
+						child += children[i];
+						ByteBuffer data = ByteBuffer.wrap(BTreeFileEncoder.convertToInternalPage(entries,
+								BufferPool.getPageSize(), keyTypes, childCategory));
+						data.putInt(0, parents.next());
+						out.write(data.array());
+					}
+				}
+			} finally {
+				out.close();
+			}
+
+			// fill in the root pointer and the parent pointers of the leaves
+			int rootCategory = (levels.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF);
+			channel.write(BTreeFileEncoder.convertToRootPtrPage(pages, rootCategory, 0), 0);
+			Parents parents = new Parents(levels, firstPage, 0);
+			for(int i = 0; i < leaves.length; i++) {
+				channel.write(ByteBuffer.allocate(BTreeLeafPage.INDEX_SIZE).putInt(parents.next()).array(),
+						BTreeRootPtrPage.getPageSize() + (long) i * BufferPool.getPageSize());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Assigns the pages of a level of the tree, in order, the page numbers of
+	 * their parents on the level above, or 0 (the root pointer) for the root.
+	 */
+	private static class Parents {
+		private final int[] parents;
+		private final int firstParent;
+		private int parent = 0;
+		private int assigned = 0;
+
+		Parents(ArrayList<int[]> levels, int[] firstPage, int level) {
+			this.parents = (level + 1 < levels.size() ? levels.get(level + 1) : null);
+			this.firstParent = (parents == null ? 0 : firstPage[level + 1]);
+		}
+
+		int next() {
+			if(parents == null) {
+				return 0;
+			}
+			if(assigned == parents[parent]) {
+				parent++;
+				assigned = 0;
+			}
+			assigned++;
+			return firstParent + parent;
+		}
+	}
+
+	/**
+	 * The tuples to load sorted on the key field, held in sorted runs which
+	 * are merged as the tuples are read. If all the tuples fit in one run it
+	 * is kept in memory, and otherwise each run is written to a temporary file.
+	 * If there are more than MERGE_FAN_IN runs, they are merged in groups into
+	 * longer runs until there are few enough to merge at once.
+	 */
+	static class SortedRuns {
+		private final TupleDesc td;
+		private final int runSize;
+		private final BTreeFileEncoder.TupleComparator comparator;
+		/** All the temporary files written, which are deleted on close */
+		private final ArrayList<File> temporary = new ArrayList<File>();
+		/** The files of the runs left to merge, and the number of tuples in each */
+		private ArrayList<File> files = new ArrayList<File>();
+		private ArrayList<Integer> runSizes = new ArrayList<Integer>();
+		/** The channels onto the files of the runs being merged */
+		private final ArrayList<DbFileChannel> channels = new ArrayList<DbFileChannel>();
+		private PriorityQueue<Run> heads;
+		private Iterator<Tuple> memory;
+		private int size = 0;
+		private int passes = 0;
+
+		/** The next tuple of a run and the stream of its remaining tuples */
+		private class Run implements Comparable<Run> {
+			final int index;
+			final DataInputStream in;
+			int remaining;
+			Tuple head;
+
+			Run(int index, DataInputStream in, int remaining) throws IOException {
+				this.index = index;
+				this.in = in;
+				this.remaining = remaining;
+				advance();
+			}
+
+			void advance() throws IOException {
+				head = (remaining-- > 0 ? readTuple(in) : null);
+			}
+
+			public int compareTo(Run o) {
+				// merge runs stably, so that tuples with equal keys stay in input order
+				int cmp = comparator.compare(head, o.head);
+				return (cmp != 0 ? cmp : (index < o.index ? -1 : (index == o.index ? 0 : 1)));
+			}
+		}
+
+		SortedRuns(TupleDesc td, int[] keyFields, int runSize) {
+			this.td = td;
+			this.runSize = runSize;
+			this.comparator = new BTreeFileEncoder.TupleComparator(keyFields);
+		}
+
+		/**
+		 * Reads and sorts all the tuples of an iterator
+		 */
+		void sort(DbFileIterator tuples) throws IOException, DbException, TransactionAbortedException {
+			ArrayList<Tuple> run = new ArrayList<Tuple>();
+			tuples.open();
+			try {
+				while(tuples.hasNext()) {
+					run.add(tuples.next());
+					size++;
+					if(run.size() == runSize) {
+						writeRun(run);
+						run = new ArrayList<Tuple>();
+					}
+				}
+			} finally {
+				tuples.close();
+			}
+			if(files.isEmpty()) {
+				Collections.sort(run, comparator);
+				memory = run.iterator();
+				return;
+			}
+			if(!run.isEmpty()) {
+				writeRun(run);
+			}
+
+			// merge consecutive groups of runs, so that the merge stays stable
+			while(files.size() > MERGE_FAN_IN) {
+				ArrayList<File> merged = new ArrayList<File>();
+				ArrayList<Integer> mergedSizes = new ArrayList<Integer>();
+				for(int from = 0; from < files.size(); from += MERGE_FAN_IN) {
+					int to = Math.min(from + MERGE_FAN_IN, files.size());
+					File f = createRunFile();
+					mergedSizes.add(mergeRuns(from, to, f));
+					merged.add(f);
+				}
+				files = merged;
+				runSizes = mergedSizes;
+				passes++;
+			}
+			heads = openRuns(0, files.size());
+		}
+
+		/**
+		 * Merges the runs with the given indexes into one run, and deletes their files
+		 * @return the number of tuples in the merged run
+		 */
+		private int mergeRuns(int from, int to, File f) throws IOException {
+			heads = openRuns(from, to);
+			int n = 0;
+			DbFileChannel channel = new DbFileChannel(f);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.outputStream(0)));
+				while(!heads.isEmpty()) {
+					writeTuple(out, next());
+					n++;
+				}
+				out.flush();
+			} finally {
+				channel.close();
+			}
+			closeRuns();
+			for(int i = from; i < to; i++) {
+				files.get(i).delete();
+			}
+			return n;
+		}
+
+		/**
+		 * Opens the runs with the given indexes for merging
+		 * @return the runs which are not empty, ordered by their first tuple
+		 */
+		private PriorityQueue<Run> openRuns(int from, int to) throws IOException {
+			PriorityQueue<Run> runs = new PriorityQueue<Run>(to - from);
+			for(int i = from; i < to; i++) {
+				DbFileChannel channel = new DbFileChannel(files.get(i));
+				channels.add(channel);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(channel.inputStream(0)));
+				Run r = new Run(i, in, runSizes.get(i));
+				if(r.head != null) {
+					runs.add(r);
+				}
+			}
+			return runs;
+		}
+
+		/**
+		 * Closes the files of the runs being merged
+		 */
+		private void closeRuns() throws IOException {
+			for(DbFileChannel channel : channels) {
+				channel.close();
+			}
+			channels.clear();
+		}
+
+		/**
+		 * Sorts a run of tuples and writes it to a temporary file
+		 */
+		private void writeRun(ArrayList<Tuple> run) throws IOException {
+			Collections.sort(run, comparator);
+			File f = createRunFile();
+			DbFileChannel channel = new DbFileChannel(f);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channel.outputStream(0)));
+				for(Tuple t : run) {
+					writeTuple(out, t);
+				}
+				out.flush();
+			} finally {
+				channel.close();
+			}
+			files.add(f);
+			runSizes.add(run.size());
+		}
+
+		/**
+		 * Creates a temporary file for a run, which is deleted on close
+		 */
+		private File createRunFile() throws IOException {
+			File f = File.createTempFile("btree_run", ".dat");
+			f.deleteOnExit();
+			temporary.add(f);
+			return f;
+		}
+
+		private void writeTuple(DataOutputStream out, Tuple t) throws IOException {
+			for(int i = 0; i < td.numFields(); i++) {
+				t.getField(i).serialize(out);
+			}
+		}
+
+		private Tuple readTuple(DataInputStream in) throws IOException {
+			Tuple t = new Tuple(td);
+			try {
+				for(int i = 0; i < td.numFields(); i++) {
+					t.setField(i, td.getFieldType(i).parse(in));
+				}
+			} catch (ParseException e) {
+				throw new IOException("unable to read a sorted run: " + e.getMessage());
+			}
+			return t;
+		}
+
+		/**
+		 * Returns the number of tuples
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the number of passes which merged runs into longer ones
+		 * before the final merge
+		 */
+		int passes() {
+			return passes;
+		}
+
+		/**
+		 * Returns the next tuple in order of key
+		 */
+		Tuple next() throws IOException {
+			if(memory != null) {
+				return memory.next();
+			}
+			Run r = heads.poll();
+			Tuple t = r.head;
+			r.advance();
+			if(r.head != null) {
+				heads.add(r);
+			}
+			return t;
+		}
+
+		/**
+		 * Closes and deletes the temporary files of the runs
+		 */
+		void close() throws IOException {
+			closeRuns();
+			for(File f : temporary) {
+				f.delete();
+			}
+		}
+	}
+}
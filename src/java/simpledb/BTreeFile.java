@@ -19,10 +19,51 @@ import simpledb.Predicate.Op;
  */
 public class BTreeFile implements DbFile {
 
+	/** The number of pages the file is extended by when it runs out of empty pages */
+	public static final int EXTENT_PAGES = 64;
+
+	/** 
+	 * The value of the first int of a page which has been preallocated at the end of the file 
+	 * but not yet handed out. No page in use starts with it, since no page points to page -1.
+	 */
+	private static final int PREALLOCATED = -1;
+
+	/** The default number of levels of internal pages, from the root down, which are cached */
+	public static final int DEFAULT_CACHED_LEVELS = 2;
+
+	/** The default number of leaf pages reorganized by each transaction of reorganize() */
+	public static final int DEFAULT_REORGANIZE_LEAVES = 8;
+
 	private final File f;
+	private final DbFileChannel channel;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final int[] keyFields;
+
+	// the number of pages in use, counted from the file on first use. The pages after them up 
+	// to the end of the file are preallocated. Guarded by this
+	private int numPages = -1;
+
+	// true if the header pages had no empty slots when they were last searched, and no page 
+	// has been marked empty since, so that allocations can skip the search
+	private volatile boolean headersFull = false;
+
+	// a header page in which each transaction that may not have completed yet marked slots 
+	// used. Those slots are empty again if the transaction aborts, so headersFull is cleared 
+	// once any of them no longer holds its lock on the page. Guarded by itself
+	private final HashMap<TransactionId, BTreePageId> headerClaims = new HashMap<TransactionId, BTreePageId>();
+
+	// copies of the committed root id and of the internal pages of the top cachedLevels levels
+	// of the tree, which read-only descents use without going through the buffer pool. They are
+	// dropped and the structure version is incremented whenever a transaction locks an internal
+	// page or the root pointer page for writing, and when the buffer pool they were read through
+	// is replaced. Guarded by upperLevels
+	private final HashMap<BTreePageId, BTreeInternalPage> upperLevels = new HashMap<BTreePageId, BTreeInternalPage>();
+	private BufferPool cachePool = null;
+	private BTreePageId cachedRootId = null;
+	private long structureVersion = 0;
+	private volatile int cachedLevels = DEFAULT_CACHED_LEVELS;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -33,9 +74,27 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[] { key }, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields, backed by the specified file.
+	 * The keys are CompositeFields of the values of the key fields, ordered by the
+	 * first key field, then by the second one, and so on. Predicates on a prefix of
+	 * the key fields can be answered with a scan of the range of keys with that prefix.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keys - the fields which the index is keyed on, in order of significance
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @see CompositeField
+	 */
+	public BTreeFile(File f, int[] keys, TupleDesc td) {
 		this.f = f;
+		this.channel = new DbFileChannel(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyField = keys[0];
+		this.keyFields = keys.clone();
 		this.td = td;
 	}
 
@@ -77,13 +136,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = channel.read(pageBuf, 0);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -97,12 +154,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = channel.read(pageBuf, pageOffset(id.pageNumber()));
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -112,11 +164,11 @@ public class BTreeFile implements DbFile {
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyFields);
 					return p;
 				}
 				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyFields);
 					return p;
 				}
 				else { // id.pgcateg() == BTreePageId.HEADER
@@ -126,14 +178,6 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -145,85 +189,240 @@ public class BTreeFile implements DbFile {
 	 */
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
+		if(id.pgcateg() == BTreePageId.ROOT_PTR || id.pgcateg() == BTreePageId.INTERNAL) {
+			invalidateUpperLevels();
+		}
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(id.pageNumber()));
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Sets the number of levels of internal pages, from the root down, of which read-only 
+	 * descents use cached copies instead of locking the pages in the buffer pool. The root 
+	 * pointer is cached whenever any levels are, so that with all internal levels cached a 
+	 * point lookup reads only its leaf page.
+	 * 
+	 * @param levels - the number of levels to cache, or 0 to disable the cache
+	 * @see #findLeafPage(TransactionId, Field, boolean, LinkedList)
+	 */
+	public void setCachedLevels(int levels) {
+		cachedLevels = levels;
+		invalidateUpperLevels();
+	}
+
+	/**
+	 * Drops the cached root id and upper level pages. Called whenever the structure of the 
+	 * tree may change, i.e. when an internal page or the root pointer page is locked for 
+	 * writing or written.
+	 */
+	private void invalidateUpperLevels() {
+		synchronized(upperLevels) {
+			structureVersion++;
+			upperLevels.clear();
+			cachedRootId = null;
 		}
 	}
+
+	/**
+	 * Returns the offset in the file of the page with the given page number. Pages
+	 * are numbered from 1, following the root pointer page.
+	 * 
+	 * @param pageNo - the page number
+	 */
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo-1) * BufferPool.getPageSize();
+	}
 	
 	/**
-	 * Returns the number of pages in this BTreeFile.
+	 * Returns the number of pages in this BTreeFile. Pages preallocated at the end of the
+	 * file which have not been handed out by getEmptyPageNo() are not counted.
 	 */
 	public int numPages() {
+		synchronized(this) {
+			if(numPages < 0) {
+				numPages = countPages();
+			}
+			return numPages;
+		}
+	}
+
+	/**
+	 * Counts the pages of the file in use, skipping the pages preallocated at its end.
+	 */
+	private int countPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		int pages = Math.max(0, (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize()));
+		byte[] first = new byte[BTreePage.INDEX_SIZE];
+		try {
+			while(pages > 0 && channel.read(first, pageOffset(pages)) == first.length 
+					&& new DataInputStream(new ByteArrayInputStream(first)).readInt() == PREALLOCATED) {
+				pages--;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return pages;
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on, or of the first
+	 * of its key fields if it is keyed on several fields
 	 */
 	public int keyField() {
 		return keyField;
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Returns the indexes of the fields that this B+ tree is keyed on
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of a tuple of this B+ tree
+	 * @see #getKey(Tuple, int[])
+	 */
+	public Field getKey(Tuple t) {
+		return getKey(t, keyFields);
+	}
+
+	/**
+	 * Returns the key of a tuple: the value of its key field, or a CompositeField of
+	 * the values of its key fields if there are several
+	 * 
+	 * @param t - the tuple
+	 * @param keyFields - the indexes of the key fields
+	 */
+	public static Field getKey(Tuple t, int[] keyFields) {
+		if(keyFields.length == 1) {
+			return t.getField(keyFields[0]);
+		}
+		Field[] fields = new Field[keyFields.length];
+		for(int i = 0; i < keyFields.length; i++) {
+			fields[i] = t.getField(keyFields[i]);
+		}
+		return new CompositeField(fields);
+	}
+
+	/**
+	 * Returns the types of the key fields of tuples with the given TupleDesc
+	 * 
+	 * @param td - the TupleDesc of the tuples
+	 * @param keyFields - the indexes of the key fields
+	 */
+	static Type[] getKeyTypes(TupleDesc td, int[] keyFields) {
+		Type[] types = new Type[keyFields.length];
+		for(int i = 0; i < keyFields.length; i++) {
+			types[i] = td.getFieldType(keyFields[i]);
+		}
+		return types;
+	}
+
+	/**
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f. Internal nodes along the path are latched with
+	 * READ_ONLY permission and the leaf node is locked with permission perm.
+	 * 
+	 * Latches are crabbed down the tree: an internal page is only held until its child has
+	 * been locked and is known to be safe, so the upper levels of the tree do not become a
+	 * serialization point for concurrent transactions. For READ_ONLY descents every child is
+	 * safe and the parent is released as soon as the child is locked. For READ_WRITE descents
+	 * the path is released once the leaf is found to have an empty slot, since the insert
+	 * cannot split the leaf and propagate up the tree; otherwise the path is kept latched for
+	 * the split. Pages which the transaction already had locked before the descent are never
+	 * released.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
+	 * If last is true, it finds the right-most leaf page possibly containing f instead, or
+	 * the right-most leaf page if f is null -- used for descending scans
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @param last - whether to find the right-most rather than the left-most leaf page
+	 * @param latched - collects the ids of the pages newly locked by this descent which are
+	 * still held on return, i.e. which the caller may release again
+	 * @return the left-most (or right-most) leaf page possibly containing the key field f
 	 * 
 	 */
 	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-			Field f)
+			Field f, boolean last, LinkedList<BTreePageId> latched)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-		if (pid.pgcateg() == BTreePageId.LEAF) {
-			BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-			return leafPage;
-		}
-		BTreeInternalPage curPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-		BTreeEntry curEntry;
-		BTreePageId nextPid;
-		Iterator<BTreeEntry> curIterator= curPage.iterator();
-		// check empty page
-		if (!curIterator.hasNext()) {
-			throw new DbException("Page" + curPage + "with pageId: " + curPage.getId() + "has no entries");
-		} else {
-			curEntry = curIterator.next();
-		}
+		while (pid.pgcateg() != BTreePageId.LEAF) {
+			boolean heldBefore = isLockedBy(tid, dirtypages, pid);
+			BTreeInternalPage curPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
 
-		if (f == null) {
-			nextPid = curEntry.getLeftChild();
-			return findLeafPage(tid, dirtypages, nextPid, perm, f);
-		} else {
-			while (curIterator.hasNext()) {
-				if (f.compare(Op.GREATER_THAN, curEntry.getKey())) {    //right: >
-					curEntry = curIterator.next();
-				} else {
-					break;
-				}
+			// the child is latched, so the ancestors of a read-only descent are no longer needed
+			if (perm == Permissions.READ_ONLY) {
+				releaseLatches(tid, latched);
 			}
-			if (f.compare(Op.LESS_THAN_OR_EQ, curEntry.getKey())) nextPid = curEntry.getLeftChild();
-			else nextPid = curEntry.getRightChild();		// right most
-			return findLeafPage(tid, dirtypages, nextPid, perm, f);
+			if (!heldBefore) {
+				latched.add(pid);
+			}
+
+			pid = last ? curPage.findLastChild(f) : curPage.findChild(f);
+		}
+
+		boolean heldBefore = isLockedBy(tid, dirtypages, pid);
+		BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		if (perm == Permissions.READ_ONLY || leafPage.getNumEmptySlots() > 0) {
+			releaseLatches(tid, latched);
+		}
+		if (!heldBefore) {
+			latched.add(pid);
+		}
+		return leafPage;
+	}
+
+	/**
+	 * Convenience method to find a leaf page without keeping track of the pages latched
+	 * by the descent.
+	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field, boolean, LinkedList)
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+			Field f)
+					throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, dirtypages, pid, perm, f, false, new LinkedList<BTreePageId>());
+	}
+
+	/**
+	 * Returns true if the given transaction already holds a lock on the page, either through
+	 * the buffer pool or because the page is in the local dirtypages cache.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param pid - the id of the page
+	 */
+	private boolean isLockedBy(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid) {
+		return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+	}
+
+	/**
+	 * Release the latches taken on internal pages during a descent and clear the list.
+	 * 
+	 * @param tid - the transaction id
+	 * @param latched - the ids of the pages latched by the descent
+	 */
+	private void releaseLatches(TransactionId tid, LinkedList<BTreePageId> latched) {
+		for (BTreePageId latch : latched) {
+			Database.getBufferPool().releasePage(tid, latch);
 		}
+		latched.clear();
 	}
 	
 	/**
@@ -244,6 +443,158 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
 	}
 
+	/**
+	 * Finds and read-locks the left-most (or right-most, if last is true) leaf page possibly 
+	 * containing the key field f, starting from the root pointer. Used by the BTreeFile 
+	 * iterators.
+	 * 
+	 * The descent first goes through the cached copies of the root id and of the top levels 
+	 * of the tree, so that it locks neither the root pointer page nor the cached internal pages 
+	 * in the buffer pool. Copies are only made of pages read-locked by the descent, which are 
+	 * therefore committed. After the leaf is locked, the descent is valid if no transaction has 
+	 * locked an internal page or the root pointer page for writing since it started: splits and 
+	 * merges which move keys between leaves lock the parents of the leaves for writing, and hold 
+	 * the lock on the leaf until they commit. Otherwise the descent is repeated from the root 
+	 * pointer page in the buffer pool.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the left-most (right-most) leaf page
+	 * @param last - whether to find the right-most rather than the left-most leaf page
+	 * @param latched - collects the ids of the pages newly locked by this descent which are
+	 * still held on return, i.e. which the caller may release again
+	 * @return the left-most (or right-most) leaf page possibly containing the key field f
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f, boolean last, LinkedList<BTreePageId> latched)
+			throws DbException, TransactionAbortedException {
+		BTreeLeafPage leaf = findCachedLeafPage(tid, f, last, latched);
+		if(leaf != null) {
+			return leaf;
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		return findLeafPage(tid, new HashMap<PageId, Page>(), rootPtr.getRootId(), Permissions.READ_ONLY, 
+				f, last, latched);
+	}
+
+	/**
+	 * Finds and read-locks a leaf page through the cached upper levels of the tree.
+	 * @see #findLeafPage(TransactionId, Field, boolean, LinkedList)
+	 * 
+	 * @return the leaf page, or null if the cache cannot be used or the structure of the tree
+	 * changed during the descent
+	 */
+	private BTreeLeafPage findCachedLeafPage(TransactionId tid, Field f, boolean last, 
+			LinkedList<BTreePageId> latched) throws DbException, TransactionAbortedException {
+		int levels = cachedLevels;
+		if(levels <= 0) {
+			return null;
+		}
+		long version;
+		BTreePageId pid;
+		synchronized(upperLevels) {
+			if(cachePool != Database.getBufferPool()) {
+				// the cached pages go with the buffer pool they were read through
+				cachePool = Database.getBufferPool();
+				structureVersion++;
+				upperLevels.clear();
+				cachedRootId = null;
+			}
+			version = structureVersion;
+			pid = cachedRootId;
+		}
+		if(pid == null) {
+			pid = cacheRootId(tid, version);
+			if(pid == null) {
+				return null;
+			}
+		}
+
+		for(int level = 0; level < levels && pid.pgcateg() == BTreePageId.INTERNAL; level++) {
+			BTreeInternalPage page = getCachedPage(tid, pid, version);
+			if(page == null) {
+				break;
+			}
+			pid = last ? page.findLastChild(f) : page.findChild(f);
+		}
+
+		LinkedList<BTreePageId> locked = new LinkedList<BTreePageId>();
+		BTreeLeafPage leaf = findLeafPage(tid, new HashMap<PageId, Page>(), pid, Permissions.READ_ONLY, 
+				f, last, locked);
+		synchronized(upperLevels) {
+			if(structureVersion == version) {
+				latched.addAll(locked);
+				return leaf;
+			}
+		}
+		releaseLatches(tid, locked);
+		return null;
+	}
+
+	/**
+	 * Reads the root id from the root pointer page and caches it, unless the structure of the 
+	 * tree has changed since the given version.
+	 * 
+	 * @return the root id, or null if the file or its root have not been created yet
+	 */
+	private BTreePageId cacheRootId(TransactionId tid, long version) 
+			throws DbException, TransactionAbortedException {
+		if(f.length() == 0) {
+			return null;
+		}
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		boolean heldBefore = Database.getBufferPool().holdsLock(tid, rootPtrId);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, rootPtrId, Permissions.READ_ONLY);
+		BTreePageId root = rootPtr.getRootId();
+		if(!heldBefore) {
+			if(root != null) {
+				synchronized(upperLevels) {
+					if(structureVersion == version) {
+						cachedRootId = root;
+					}
+				}
+			}
+			Database.getBufferPool().releasePage(tid, rootPtrId);
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the cached copy of an internal page, reading and caching a copy if there is none
+	 * and the structure of the tree has not changed since the given version. Pages the 
+	 * transaction already holds a lock on are not cached, since it may have modified them.
+	 * 
+	 * @return the copy of the page, or null if the page is locked by the transaction
+	 */
+	private BTreeInternalPage getCachedPage(TransactionId tid, BTreePageId pid, long version) 
+			throws DbException, TransactionAbortedException {
+		synchronized(upperLevels) {
+			BTreeInternalPage page = upperLevels.get(pid);
+			if(page != null) {
+				return page;
+			}
+		}
+		if(Database.getBufferPool().holdsLock(tid, pid)) {
+			return null;
+		}
+		BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, pid, Permissions.READ_ONLY);
+		try {
+			// copy the page while it is locked, since writers modify the buffer pool's copy in place
+			page = new BTreeInternalPage(pid, page.getPageData(), keyFields);
+		} catch (IOException e) {
+			throw new DbException("could not copy page " + pid + ": " + e.getMessage());
+		} finally {
+			Database.getBufferPool().releasePage(tid, pid);
+		}
+		synchronized(upperLevels) {
+			if(structureVersion == version) {
+				upperLevels.put(pid, page);
+			}
+		}
+		return page;
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -288,7 +639,10 @@ public class BTreeFile implements DbFile {
 				throw new DbException("No more tuple to immigrate");
 			}
 		}
-		Field middleKey = newPage.getTuple(0).getField(keyField);
+		// the separator is the shortest key between the two pages, which is the first key of the
+		// new page unless suffixes of string keys can be truncated
+		Field middleKey = BTreeInternalPage.getSeparator(getKey(oldPage.reverseIterator().next()),
+				getKey(newPage.iterator().next()));
 		// copy middleKey up to parent and update parent pointer
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, oldPage.getParentId(), middleKey);
 	    BTreeEntry newEntry = new BTreeEntry(middleKey, oldPage.getId(), newPage.getId());
@@ -340,7 +694,10 @@ public class BTreeFile implements DbFile {
 		BTreeInternalPage newInPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 		BTreeInternalPage oldInPage = page;
  		Iterator<BTreeEntry> reIterator = oldInPage.reverseIterator();
-		for (int i = 0; i < oldInPage.getMaxEntries() / 2; i++) {
+		// prefix compressed entries vary in size, so the new page gets about half of the bytes
+		// rather than half of the entries
+		for (int i = 0; oldInPage.isPrefixCompressed() ? newInPage.getUsedBytes() < oldInPage.getUsedBytes()
+				: i < oldInPage.getMaxEntries() / 2; i++) {
 			if (reIterator.hasNext()) {
 				BTreeEntry each = reIterator.next();
 				// Split and delete entries needed to put into new page from old page
@@ -427,7 +784,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		if(!parent.hasRoomFor(field)) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -513,6 +870,10 @@ public class BTreeFile implements DbFile {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
+				// the page is locked, so no descent can cache it until this transaction completes
+				if(pid.pgcateg() == BTreePageId.ROOT_PTR || pid.pgcateg() == BTreePageId.INTERNAL) {
+					invalidateUpperLevels();
+				}
 			}
 			return p;
 		}
@@ -532,21 +893,30 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
-
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+		// find the left-most leaf page corresponding to the key field, through the cached upper
+		// levels of the tree if possible. The leaf is only read-locked until the next-key lock is 
+		// granted, so that an insert waiting for a range scan to complete does not in turn block 
+		// that scan from reading the leaf
+		Field key = getKey(t);
+		BTreeLeafPage leafPage = findCachedLeafPage(tid, key, false, new LinkedList<BTreePageId>());
+		if(leafPage == null) {
+			// get a read lock on the root pointer page and use it to locate the root page
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+			BTreePageId rootId = rootPtr.getRootId();
+
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+			}
+			leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_ONLY, key);
 		}
+		lockNextKey(tid, dirtypages, leafPage, key);
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// lock the leaf page for writing, and split it if there are no more slots available
+		leafPage = (BTreeLeafPage) getPage(tid, dirtypages, leafPage.getId(), Permissions.READ_WRITE);
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			leafPage = splitLeafPage(tid, dirtypages, leafPage, getKey(t));	
 		}
 
 		// insert the tuple into the leaf page
@@ -556,6 +926,72 @@ public class BTreeFile implements DbFile {
 		dirtyPagesArr.addAll(dirtypages.values());
 		return dirtyPagesArr;
 	}
+
+	/**
+	 * Acquire an instant-duration exclusive lock on the key range a tuple with key field "key"
+	 * is inserted into, i.e. on the next key in the index which is greater than "key". If a
+	 * range scan of another transaction has read that key range, the insert blocks until the
+	 * scanning transaction completes, which prevents phantoms. The lock is released as soon as
+	 * it is granted (unless the transaction already held it) so that concurrent inserts into
+	 * the same key range do not block each other.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the leaf page the tuple will be inserted into
+	 * @param key - the key field of the tuple to be inserted
+	 * @see BTreeKeyRangeId
+	 * 
+	 * @throws DbException
+	 * @throws TransactionAbortedException
+	 */
+	private void lockNextKey(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page, Field key) 
+			throws DbException, TransactionAbortedException {
+		BTreeKeyRangeId range = new BTreeKeyRangeId(tableid, nextKey(tid, dirtypages, page, key));
+		boolean heldBefore = Database.getBufferPool().holdsLock(tid, range);
+		Database.getBufferPool().acquireLock(tid, range, Permissions.READ_WRITE);
+		if(!heldBefore) {
+			Database.getBufferPool().releasePage(tid, range);
+		}
+	}
+
+	/**
+	 * Find the smallest key in the index which is greater than the given key, starting at the
+	 * given leaf page and following right sibling pointers as needed. Sibling pages are only
+	 * latched while they are read.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the left-most leaf page possibly containing the key
+	 * @param key - the key to search for
+	 * @return the next key greater than key, or null if there is none
+	 * 
+	 * @throws DbException
+	 * @throws TransactionAbortedException
+	 */
+	private Field nextKey(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page, Field key) 
+			throws DbException, TransactionAbortedException {
+		LinkedList<BTreePageId> latched = new LinkedList<BTreePageId>();
+		try {
+			while(true) {
+				int slot = page.upperBound(key);
+				if(slot < page.getMaxTuples()) {
+					return getKey(page.getTuple(slot));
+				}
+
+				BTreePageId nextId = page.getRightSiblingId();
+				if(nextId == null) {
+					return null;
+				}
+				releaseLatches(tid, latched);
+				if(!isLockedBy(tid, dirtypages, nextId)) {
+					latched.add(nextId);
+				}
+				page = (BTreeLeafPage) getPage(tid, dirtypages, nextId, Permissions.READ_ONLY);
+			}
+		} finally {
+			releaseLatches(tid, latched);
+		}
+	}
 	
 	/**
 	 * Handle the case when a B+ tree page becomes less than half full due to deletions.
@@ -700,7 +1136,14 @@ public class BTreeFile implements DbFile {
 		}
 
 		// update the parent's entry key field
-		entry.setKey(t.getField(keyField));
+		if(isRightSibling) {
+			entry.setKey(BTreeInternalPage.getSeparator(getKey(page.reverseIterator().next()),
+					getKey(t)));
+		}
+		else {
+			entry.setKey(BTreeInternalPage.getSeparator(getKey(sibling.reverseIterator().next()),
+					getKey(t)));
+		}
 		parent.updateEntry(entry);
 
 	}
@@ -732,12 +1175,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -748,7 +1190,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -779,13 +1221,40 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
-		int totalEntries = leftSibling.getNumEntries() + page.getNumEntries();
-		int moveEntriesCount = totalEntries/2 - page.getNumEntries();
+		if(page.isPrefixCompressed()) {
+			// entries vary in size, so rotate them one at a time until the page holds about 
+			// as many bytes as its sibling
+			while(page.getUsedBytes() < leftSibling.getUsedBytes()) {
+				rotateFromLeftInternalPage(page, leftSibling, parent, parentEntry, 1);
+			}
+		}
+		else {
+			int totalEntries = leftSibling.getNumEntries() + page.getNumEntries();
+			rotateFromLeftInternalPage(page, leftSibling, parent, parentEntry, totalEntries/2 - page.getNumEntries());
+		}
+
+		// update the child parent pointers
+		updateParentPointers(tid, dirtypages, page);
+	}
 
+	/**
+	 * Move entries from the left sibling to the given page through the parent entry.
+	 * 
+	 * @param page - the internal page which is less than half full
+	 * @param leftSibling - the left sibling which has entries to spare
+	 * @param parent - the parent of the two internal pages
+	 * @param parentEntry - the entry in the parent pointing to the two internal pages
+	 * @param moveEntriesCount - the number of entries to remove from the left sibling
+	 * @see #stealFromLeftInternalPage(TransactionId, HashMap, BTreeInternalPage, BTreeInternalPage, BTreeInternalPage, BTreeEntry)
+	 * 
+	 * @throws DbException
+	 */
+	private void rotateFromLeftInternalPage(BTreeInternalPage page, BTreeInternalPage leftSibling, 
+			BTreeInternalPage parent, BTreeEntry parentEntry, int moveEntriesCount) throws DbException {
 		// find the left child for the new entry from the last child in the leftSibling,
 		// and the right child for the new entry from the first child in the page
-		BTreePageId leftChildId = leftSibling.reverseIterator().next().getRightChild();
-		BTreePageId rightChildId = page.iterator().next().getLeftChild();
+		BTreePageId leftChildId = leftSibling.getLastChildId();
+		BTreePageId rightChildId = page.getChildId(0);
 
 		// copy the first key from the parent to the page
 		page.insertEntry(new BTreeEntry(parentEntry.getKey(), leftChildId, rightChildId));
@@ -805,9 +1274,6 @@ public class BTreeFile implements DbFile {
 		leftSibling.deleteKeyAndRightChild(e);
 		parentEntry.setKey(e.getKey());
 		parent.updateEntry(parentEntry);
-
-		// update the child parent pointers
-		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -836,13 +1302,40 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
-		int totalEntries = rightSibling.getNumEntries() + page.getNumEntries();
-		int moveEntriesCount = totalEntries/2 - page.getNumEntries();
+		if(page.isPrefixCompressed()) {
+			// entries vary in size, so rotate them one at a time until the page holds about 
+			// as many bytes as its sibling
+			while(page.getUsedBytes() < rightSibling.getUsedBytes()) {
+				rotateFromRightInternalPage(page, rightSibling, parent, parentEntry, 1);
+			}
+		}
+		else {
+			int totalEntries = rightSibling.getNumEntries() + page.getNumEntries();
+			rotateFromRightInternalPage(page, rightSibling, parent, parentEntry, totalEntries/2 - page.getNumEntries());
+		}
+
+		// update the child parent pointers
+		updateParentPointers(tid, dirtypages, page);
+	}
 
+	/**
+	 * Move entries from the right sibling to the given page through the parent entry.
+	 * 
+	 * @param page - the internal page which is less than half full
+	 * @param rightSibling - the right sibling which has entries to spare
+	 * @param parent - the parent of the two internal pages
+	 * @param parentEntry - the entry in the parent pointing to the two internal pages
+	 * @param moveEntriesCount - the number of entries to remove from the right sibling
+	 * @see #stealFromRightInternalPage(TransactionId, HashMap, BTreeInternalPage, BTreeInternalPage, BTreeInternalPage, BTreeEntry)
+	 * 
+	 * @throws DbException
+	 */
+	private void rotateFromRightInternalPage(BTreeInternalPage page, BTreeInternalPage rightSibling, 
+			BTreeInternalPage parent, BTreeEntry parentEntry, int moveEntriesCount) throws DbException {
 		// find the left child for the new entry from the last child in the page,
 		// and the right child for the new entry from the first child in the rightSibling
-		BTreePageId leftChildId = page.reverseIterator().next().getRightChild();
-		BTreePageId rightChildId = rightSibling.iterator().next().getLeftChild();
+		BTreePageId leftChildId = page.getLastChildId();
+		BTreePageId rightChildId = rightSibling.getChildId(0);
 
 		// copy the first key from the parent to the page
 		page.insertEntry(new BTreeEntry(parentEntry.getKey(), leftChildId, rightChildId));
@@ -862,9 +1355,6 @@ public class BTreeFile implements DbFile {
 		rightSibling.deleteKeyAndLeftChild(e);
 		parentEntry.setKey(e.getKey());
 		parent.updateEntry(parentEntry);
-
-		// update the child parent pointers
-		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -954,18 +1444,10 @@ public class BTreeFile implements DbFile {
 		// delete the entry in the parent corresponding to the two pages that are merging.
 		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 
-		// find the last entry in the left page
-		BTreeEntry lastEntry = leftPage.reverseIterator().next();
-
 		// insert a new entry into the left page corresponding to the parent's deleted entry
 		// then move all entries from the right page to the left page
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), leftPage.getLastChildId(), rightPage.getChildId(0)));
 		Iterator<BTreeEntry> it = rightPage.iterator();
-		if(it.hasNext()) {
-			BTreeEntry firstEntry = it.next();
-			leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), lastEntry.getRightChild(), firstEntry.getLeftChild()));
-			rightPage.deleteKeyAndLeftChild(firstEntry);
-			leftPage.insertEntry(firstEntry);
-		}
 		while(it.hasNext()) {
 			BTreeEntry e = it.next();
 			rightPage.deleteKeyAndLeftChild(e);
@@ -1006,8 +1488,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -1022,26 +1503,61 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
 
 	/**
-	 * Delete a tuple from this BTreeFile. 
-	 * May cause pages to merge or redistribute entries/tuples if the pages 
-	 * become less than half full.
+	 * Split the prefix compressed internal pages which the key updates of redistributing 
+	 * entries filled beyond their capacity, so that each page has room for the next update.
 	 * 
 	 * @param tid - the transaction id
-	 * @param t - the tuple to delete
-	 * @return a list of all pages that were dirtied by this operation. Could include
-	 * many pages since parent pointers will need to be updated when an internal node merges.
-	 * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @see BTreeInternalPage#isOverfull()
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void splitOverfullPages(TransactionId tid, HashMap<PageId, Page> dirtypages) 
+			throws DbException, IOException, TransactionAbortedException {
+		if(!BTreeInternalPage.isPrefixCompressed(getKeyTypes(td, keyFields))) {
+			return;
+		}
+		boolean split = true;
+		while(split) {
+			split = false;
+			for(Page p : new ArrayList<Page>(dirtypages.values())) {
+				if(p instanceof BTreeInternalPage && ((BTreeInternalPage) p).isOverfull()) {
+					BTreeInternalPage page = (BTreeInternalPage) p;
+					splitInternalPage(tid, dirtypages, page, page.reverseIterator().next().getKey());
+					split = true;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete a tuple from this BTreeFile. 
+	 * May cause pages to merge or redistribute entries/tuples if the pages 
+	 * become less than half full.
+	 * 
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation. Could include
+	 * many pages since parent pointers will need to be updated when an internal node merges.
+	 * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
 	 */
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) 
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
+		// lock the key being deleted so that range scans which have read it are repeatable
+		Database.getBufferPool().acquireLock(tid, new BTreeKeyRangeId(tableid, getKey(t)), 
+				Permissions.READ_WRITE);
+
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(), 
 				BTreePageId.LEAF);
 		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
@@ -1053,12 +1569,301 @@ public class BTreeFile implements DbFile {
 		if(page.getNumEmptySlots() > maxEmptySlots) { 
 			handleMinOccupancyPage(tid, dirtypages, page);
 		}
+		splitOverfullPages(tid, dirtypages);
 
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
 		dirtyPagesArr.addAll(dirtypages.values());
 		return dirtyPagesArr;
 	}
 
+	/**
+	 * Reorganize the leaves of this B+ tree online with the default fill factor and number of
+	 * leaf pages per transaction.
+	 * @see #reorganize(double, int)
+	 */
+	public int reorganize() throws DbException, IOException {
+		return reorganize(BTreeBulkLoader.DEFAULT_FILL_FACTOR, DEFAULT_REORGANIZE_LEAVES);
+	}
+
+	/**
+	 * Reorganize the leaves of this B+ tree online, e.g. after many deletes have left them 
+	 * sparse and scattered over the file. The leaves are visited in key order: each leaf is 
+	 * filled to the given fill factor with tuples from its right sibling, merging the sibling 
+	 * into it if they fit, and is then moved to the first empty page after the page of the 
+	 * previous leaf if there is one, or to the end of the file if the leaf lies before the 
+	 * previous leaf. Range scans over the reorganized tree thus read fewer leaves, and read 
+	 * them in the order of the file.
+	 * <p>
+	 * The leaves are reorganized in a series of short transactions of about leavesPerTransaction 
+	 * leaves each, which lock only the pages they change, so concurrent transactions are only 
+	 * blocked for the length of one of them. A transaction which is aborted because it deadlocks 
+	 * with a concurrent transaction is retried. The leaves which concurrent transactions insert 
+	 * behind the reorganization are not reorganized.
+	 * 
+	 * @param fillFactor - the fraction of each leaf page to fill, between 0.5 and 1
+	 * @param leavesPerTransaction - the number of leaf pages reorganized by each transaction
+	 * @return the number of leaf pages of the reorganized tree
+	 * @see BTreeBulkLoader#DEFAULT_FILL_FACTOR
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 */
+	public int reorganize(double fillFactor, int leavesPerTransaction) throws DbException, IOException {
+		if(fillFactor < 0.5 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1");
+		}
+		if(leavesPerTransaction < 1) {
+			throw new IllegalArgumentException("a transaction must reorganize at least one leaf page");
+		}
+		ReorganizeCursor cursor = new ReorganizeCursor(null, 0, 0, false);
+		while(!cursor.done) {
+			TransactionId tid = new TransactionId();
+			HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+			try {
+				ReorganizeCursor next = reorganizeLeaves(tid, dirtypages, cursor, fillFactor, leavesPerTransaction);
+				Database.getBufferPool().cacheDirtyPages(tid, new ArrayList<Page>(dirtypages.values()));
+				Database.getBufferPool().transactionComplete(tid);
+				cursor = next;
+			} catch(TransactionAbortedException e) {
+				// roll back the changes of this transaction and start it over
+				Database.getBufferPool().transactionComplete(tid, false);
+			}
+		}
+		return cursor.leaves;
+	}
+
+	/**
+	 * The position of reorganize() between transactions.
+	 */
+	private static class ReorganizeCursor {
+		/** the first key of the next leaf to reorganize, or null for the left-most leaf */
+		final Field key;
+		/** the page number of the last leaf reorganized, or 0 */
+		final int prevPageNo;
+		/** the number of leaves reorganized */
+		final int leaves;
+		/** whether all leaves have been reorganized */
+		final boolean done;
+
+		ReorganizeCursor(Field key, int prevPageNo, int leaves, boolean done) {
+			this.key = key;
+			this.prevPageNo = prevPageNo;
+			this.leaves = leaves;
+			this.done = done;
+		}
+	}
+
+	/**
+	 * Reorganize the leaves following the given cursor, in key order, until at least maxLeaves 
+	 * leaves have been reorganized. The transaction only stops between two leaves whose keys 
+	 * differ, and before a leaf which is at least half full, so that the cursor of the next 
+	 * transaction is the first key of a leaf which no earlier transaction reorganized.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param cursor - where the previous transaction stopped
+	 * @param fillFactor - the fraction of each leaf page to fill
+	 * @param maxLeaves - the number of leaves to reorganize
+	 * @return where this transaction stopped
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private ReorganizeCursor reorganizeLeaves(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+			ReorganizeCursor cursor, double fillFactor, int maxLeaves) 
+					throws DbException, IOException, TransactionAbortedException {
+		BTreePageId rootId = getRootPtrPage(tid, dirtypages).getRootId();
+		if(rootId == null || rootId.pgcateg() == BTreePageId.LEAF) {
+			// a tree of at most one page has nothing to reorganize
+			return new ReorganizeCursor(null, 0, rootId == null ? 0 : 1, true);
+		}
+
+		// skip the leaves holding only keys before the cursor, which were already reorganized
+		BTreeLeafPage page = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, cursor.key);
+		while(cursor.key != null && page.lowerBound(cursor.key) == page.getMaxTuples() 
+				&& page.getRightSiblingId() != null) {
+			page = (BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), Permissions.READ_WRITE);
+		}
+
+		int prevPageNo = cursor.prevPageNo;
+		int leaves = cursor.leaves;
+		int fill = (int) Math.ceil(page.getMaxTuples() * fillFactor);
+		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+		for(int count = 1; ; count++) {
+			page = compactLeafPage(tid, dirtypages, page, fill);
+			if(page.getId().pageNumber() != prevPageNo) {
+				page = relocateLeafPage(tid, dirtypages, page, prevPageNo);
+				leaves++;
+			}
+			prevPageNo = page.getId().pageNumber();
+
+			BTreePageId nextId = page.getRightSiblingId();
+			if(nextId == null) {
+				splitOverfullPages(tid, dirtypages);
+				return new ReorganizeCursor(null, prevPageNo, leaves, true);
+			}
+			BTreeLeafPage next = (BTreeLeafPage) getPage(tid, dirtypages, nextId, Permissions.READ_WRITE);
+			Field nextKey = getKey(next.iterator().next());
+			if(count >= maxLeaves && next.getNumEmptySlots() <= maxEmptySlots 
+					&& getKey(page.reverseIterator().next()).compare(Op.LESS_THAN, nextKey)) {
+				splitOverfullPages(tid, dirtypages);
+				return new ReorganizeCursor(nextKey, prevPageNo, leaves, false);
+			}
+			page = next;
+		}
+	}
+
+	/**
+	 * Fill a leaf page with tuples from its right siblings until it holds the given number of 
+	 * tuples, merging the siblings which fit into it. Only siblings with the same parent are 
+	 * used, and the page is left at least half full, possibly by redistributing tuples with, 
+	 * or merging into, its left sibling.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the leaf page to fill
+	 * @param fill - the number of tuples to fill the page with
+	 * @return the page, or its left sibling if the page was merged into it
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private BTreeLeafPage compactLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+			BTreeLeafPage page, int fill) throws DbException, IOException, TransactionAbortedException {
+		while(page.getNumTuples() < fill && page.getRightSiblingId() != null 
+				&& page.getParentId().pgcateg() == BTreePageId.INTERNAL) {
+			BTreeLeafPage sibling = (BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), 
+					Permissions.READ_WRITE);
+			if(!sibling.getParentId().equals(page.getParentId())) {
+				break;
+			}
+			BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, page.getParentId(), 
+					Permissions.READ_WRITE);
+			BTreeEntry entry = null;
+			Iterator<BTreeEntry> ite = parent.iterator();
+			while(entry == null && ite.hasNext()) {
+				BTreeEntry e = ite.next();
+				if(e.getLeftChild().equals(page.getId())) {
+					entry = e;
+				}
+			}
+
+			int room = fill - page.getNumTuples();
+			if(sibling.getNumTuples() <= room) {
+				mergeLeafPages(tid, dirtypages, page, sibling, parent, entry);
+			}
+			else {
+				// move the first tuples of the sibling, and update the key of the parent's entry
+				Iterator<Tuple> it = sibling.iterator();
+				for(int i = 0; i < room; i++) {
+					Tuple t = it.next();
+					sibling.deleteTuple(t);
+					page.insertTuple(t);
+				}
+				entry.setKey(BTreeInternalPage.getSeparator(getKey(page.reverseIterator().next()), 
+						getKey(it.next())));
+				parent.updateEntry(entry);
+			}
+		}
+
+		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+		if(page.getNumEmptySlots() > maxEmptySlots && page.getParentId().pgcateg() == BTreePageId.INTERNAL) {
+			BTreePageId leftSiblingId = page.getLeftSiblingId();
+			handleMinOccupancyPage(tid, dirtypages, page);
+			if(page.getNumTuples() == 0) {
+				return (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Move a leaf page to the first empty page after the page of the previous leaf, if that 
+	 * brings it closer to the previous leaf, or to the end of the file if the leaf lies before 
+	 * the previous leaf and there is no empty page after it.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the leaf page to move
+	 * @param prevPageNo - the page number of the previous leaf, or 0 for the left-most leaf
+	 * @return the leaf page at its new position, or the page if it was not moved
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private BTreeLeafPage relocateLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+			BTreeLeafPage page, int prevPageNo) throws DbException, IOException, TransactionAbortedException {
+		int pageNo = page.getId().pageNumber();
+		int newPageNo;
+		if(pageNo > prevPageNo) {
+			newPageNo = getEmptyPageNoBetween(tid, dirtypages, prevPageNo, pageNo);
+		}
+		else {
+			newPageNo = getEmptyPageNoBetween(tid, dirtypages, prevPageNo, Integer.MAX_VALUE);
+			if(newPageNo == 0) {
+				newPageNo = getNewPageNo();
+			}
+		}
+		if(newPageNo == 0) {
+			return page;
+		}
+
+		// move all tuples to the new page
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF, newPageNo);
+		Iterator<Tuple> it = page.iterator();
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+
+		// update the sibling pointers
+		BTreePageId leftSiblingId = page.getLeftSiblingId();
+		BTreePageId rightSiblingId = page.getRightSiblingId();
+		newPage.setLeftSiblingId(leftSiblingId);
+		newPage.setRightSiblingId(rightSiblingId);
+		if(leftSiblingId != null) {
+			BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
+			leftSibling.setRightSiblingId(newPage.getId());
+		}
+		if(rightSiblingId != null) {
+			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+			rightSibling.setLeftSiblingId(newPage.getId());
+		}
+
+		// point the parent's entry, or the root pointer, to the new page
+		BTreePageId parentId = page.getParentId();
+		if(parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+			rootPtr.setRootId(newPage.getId());
+		}
+		else {
+			BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+			Iterator<BTreeEntry> ite = parent.iterator();
+			while(ite.hasNext()) {
+				BTreeEntry e = ite.next();
+				if(e.getLeftChild().equals(page.getId())) {
+					e.setLeftChild(newPage.getId());
+					parent.updateEntry(e);
+					break;
+				}
+				else if(e.getRightChild().equals(page.getId())) {
+					e.setRightChild(newPage.getId());
+					parent.updateEntry(e);
+					break;
+				}
+			}
+		}
+		newPage.setParentId(parentId);
+
+		// make the old page available for reuse
+		setEmptyPage(tid, dirtypages, pageNo);
+		return newPage;
+	}
+
 	/**
 	 * Get a read lock on the root pointer page. Create the root pointer page and root page
 	 * if necessary.
@@ -1074,13 +1879,11 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.append(emptyRootPtrData);
+				channel.append(emptyLeafData);
+				numPages = 1;
 			}
 		}
 
@@ -1090,7 +1893,9 @@ public class BTreeFile implements DbFile {
 
 	/**
 	 * Get the page number of the first empty page in this BTreeFile.
-	 * Creates a new page if none of the existing pages are empty.
+	 * Hands out a preallocated page at the end of the file if none of the existing pages are 
+	 * empty, extending the file by EXTENT_PAGES pages at once when none are left. The search 
+	 * of the header pages is skipped while they are known to have no empty slots.
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -1104,7 +1909,10 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		// get a read lock on the root pointer page and use it to locate the first header page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId headerId = rootPtr.getHeaderId();
+		if(headersFull) {
+			settleHeaderClaims();
+		}
+		BTreePageId headerId = (headersFull ? null : rootPtr.getHeaderId());
 		int emptyPageNo = 0;
 
 		if(headerId != null) {
@@ -1127,26 +1935,128 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
+				claimHeaderSlot(tid, headerId);
 				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
 			}
+			else {
+				headersFull = true;
+			}
 		}
 
 		// at this point if headerId is null, either there are no header pages 
 		// or there are no free slots
 		if(headerId == null) {		
-			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
-			}
+			emptyPageNo = getNewPageNo();
 		}
 
 		return emptyPageNo; 
 	}
+
+	/**
+	 * Records that the given transaction marked a slot of the given header page used. The 
+	 * claims of transactions which have completed are forgotten first, so that only those of 
+	 * running transactions are kept.
+	 * 
+	 * @param tid - the transaction id
+	 * @param headerId - the id of the header page
+	 */
+	private void claimHeaderSlot(TransactionId tid, BTreePageId headerId) {
+		synchronized(headerClaims) {
+			settleHeaderClaims();
+			if(!headerClaims.containsKey(tid)) {
+				headerClaims.put(tid, headerId);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the header slots claimed by transactions which have completed since, and clears 
+	 * headersFull if there were any, so that the header pages are searched again: the slots 
+	 * are still used if the transaction committed, but empty again if it aborted.
+	 */
+	private void settleHeaderClaims() {
+		synchronized(headerClaims) {
+			Iterator<Map.Entry<TransactionId, BTreePageId>> it = headerClaims.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<TransactionId, BTreePageId> e = it.next();
+				if(!Database.getBufferPool().holdsLock(e.getKey(), e.getValue())) {
+					it.remove();
+					headersFull = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands out the next preallocated page at the end of this BTreeFile, extending the file by 
+	 * EXTENT_PAGES pages if there are none left.
+	 * 
+	 * @return the page number of the new page
+	 * @throws IOException
+	 */
+	private synchronized int getNewPageNo() throws IOException {
+		int newPageNo = numPages() + 1;
+		if(pageOffset(newPageNo) >= f.length()) {
+			channel.append(createExtentData());
+		}
+		numPages = newPageNo;
+		return newPageNo;
+	}
+
+	/**
+	 * Get the page number of the first empty page of this BTreeFile whose page number lies 
+	 * strictly between the given page numbers, and mark it as used.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param after - the page number the empty page must be greater than
+	 * @param before - the page number the empty page must be less than
+	 * @return the page number of the empty page, or 0 if there is none
+	 * @see #getEmptyPageNo(TransactionId, HashMap)
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private int getEmptyPageNoBetween(TransactionId tid, HashMap<PageId, Page> dirtypages, int after, int before) 
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+		BTreePageId headerId = rootPtr.getHeaderId();
+		int numSlots = BTreeHeaderPage.getNumSlots();
+		int headerPageCount = 0;
+
+		// search the slots of each header page which correspond to pages between after and before
+		while(headerId != null && (long) headerPageCount * numSlots < before) {
+			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			int first = Math.max(after + 1 - headerPageCount * numSlots, 0);
+			int last = (int) Math.min((long) before - (long) headerPageCount * numSlots, numSlots);
+			for(int slot = first; slot < last; slot++) {
+				if(!headerPage.isSlotUsed(slot)) {
+					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+					headerPage.markSlotUsed(slot, true);
+					claimHeaderSlot(tid, headerId);
+					return headerPageCount * numSlots + slot;
+				}
+			}
+			headerId = headerPage.getNextPageId();
+			headerPageCount++;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the data of EXTENT_PAGES preallocated pages, which start with PREALLOCATED so 
+	 * that they are not counted as pages in use when the file is opened again.
+	 */
+	private static byte[] createExtentData() {
+		byte[] data = new byte[EXTENT_PAGES * BufferPool.getPageSize()];
+		for(int i = 0; i < EXTENT_PAGES; i++) {
+			for(int j = 0; j < BTreePage.INDEX_SIZE; j++) {
+				data[i * BufferPool.getPageSize() + j] = (byte) (PREALLOCATED >>> (8 * (BTreePage.INDEX_SIZE - 1 - j)));
+			}
+		}
+		return data;
+	}
 	
 	/**
 	 * Method to encapsulate the process of creating a new page.  It reuses old pages if possible,
@@ -1166,15 +2076,20 @@ public class BTreeFile implements DbFile {
 	 */
 	private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
 			throws DbException, IOException, TransactionAbortedException {
+		return getEmptyPage(tid, dirtypages, pgcateg, getEmptyPageNo(tid, dirtypages));
+	}
+
+	/**
+	 * Creates a new page with the given page number, which has already been marked as used.
+	 * @see #getEmptyPage(TransactionId, HashMap, int)
+	 */
+	private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg, int emptyPageNo)
+			throws DbException, IOException, TransactionAbortedException {
 		// create the new page
-		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1267,13 +2182,16 @@ public class BTreeFile implements DbFile {
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
 		headerPage.markSlotUsed(emptySlot, false);
+		headersFull = false;
 	}
 
 	/**
 	 * get the specified tuples from the file based on its IndexPredicate value on
-	 * behalf of the specified transaction. This method will acquire a read lock on
-	 * the affected pages of the file, and may block until the lock can be
-	 * acquired.
+	 * behalf of the specified transaction. Only the leaves holding the range of keys
+	 * of the predicate are read: the scan starts at the lower bound of the range and
+	 * stops at the first key past its upper bound. This method will acquire read locks on
+	 * the scanned key ranges of the file (next-key locking), and may block until
+	 * the locks can be acquired. Leaf pages are only latched while they are read.
 	 * 
 	 * @param tid - the transaction id
 	 * @param ipred - the index predicate value to filter on
@@ -1283,6 +2201,55 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * get the tuples of the file matching the given IndexPredicate in descending order of
+	 * their keys, on behalf of the specified transaction. The scan starts at the upper bound
+	 * of the range of the predicate, or at the right-most leaf if it has none, follows the
+	 * left sibling pointers of the leaves and stops at the first key below the lower bound.
+	 * Like indexIterator(), this method acquires read locks on the scanned key ranges.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on, or null for all tuples
+	 * @return an iterator for the filtered tuples in descending order
+	 * @see #indexIterator(TransactionId, IndexPredicate)
+	 */
+	public DbFileIterator reverseIndexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new BTreeReverseSearchIterator(this, tid, ipred);
+	}
+
+	/**
+	 * get the tuples of the file whose keys are equal to any of the given keys, on behalf
+	 * of the specified transaction, e.g. for the probes of an index join or the values of
+	 * an IN list. The keys are sorted and looked up in a single ascending pass over the
+	 * leaves: a key found on the current leaf is looked up with a binary search of that
+	 * leaf, and the tree is only descended again, through its cached upper levels, for
+	 * keys past the end of the current leaf, so each leaf is read at most once. The tuples
+	 * are returned in order of their keys, and tuples matching several of the keys are
+	 * only returned once. Like indexIterator(), this method acquires read locks on the
+	 * key ranges of the keys looked up.
+	 *
+	 * @param tid - the transaction id
+	 * @param keys - the keys to look up, in any order. The keys of a B+ tree keyed on
+	 * several fields must all be values of the same number of leading key fields.
+	 * @return an iterator for the tuples matching the keys, in ascending order
+	 * @throws IllegalArgumentException if the keys have different numbers of fields
+	 * @see #indexIterator(TransactionId, IndexPredicate)
+	 */
+	public DbFileIterator multiKeyIterator(TransactionId tid, Collection<? extends Field> keys) {
+		return new BTreeMultiKeyIterator(this, tid, keys);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in descending order of their keys.
+	 * 
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file in descending order
+	 * @see #reverseIndexIterator(TransactionId, IndexPredicate)
+	 */
+	public DbFileIterator reverseIterator(TransactionId tid) {
+		return new BTreeReverseSearchIterator(this, tid, null);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1295,6 +2262,11 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	// see DbFile.java for javadocs
+	public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates) {
+		return iterator(tid);
+	}
+
 }
 
 /**
@@ -1322,10 +2294,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = f.findLeafPage(tid, null, false, new LinkedList<BTreePageId>());
 		it = curp.iterator();
 	}
 
@@ -1379,12 +2348,17 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
+ * B+ Tree File. Phantoms are prevented with next-key locking: the key of every
+ * tuple returned is read-locked, as is the first key past the end of the scanned
+ * range (or the supremum). Leaf pages are only latched while they are scanned.
+ * @see BTreeKeyRangeId
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	boolean releaseCurp = false;
+	Field lastLocked = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1407,17 +2381,20 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+		LinkedList<BTreePageId> latched = new LinkedList<BTreePageId>();
+		Field lower = ipred.getLowerBound();
+		curp = f.findLeafPage(tid, lower, false, latched);
+		if(lower == null) {
+			it = curp.iterator();
+		}
+		else if(ipred.isLowerInclusive()) {
+			it = curp.iterator(curp.lowerBound(lower));
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			it = curp.iterator(curp.upperBound(lower));
 		}
-		it = curp.iterator();
+		releaseCurp = latched.contains(curp.getId());
+		lastLocked = null;
 	}
 
 	/**
@@ -1433,30 +2410,34 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
+				Field key = f.getKey(t);
+				if (ipred.isAboveRange(key)) {
+					// we have passed the upper bound of the range. Lock the next key to cover
+					// the gap at the end of the range
+					lockKey(key);
+					finish();
 					return null;
 				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
+				else if (ipred.matches(key)) {
+					lockKey(key);
+					return t;
 				}
 			}
 
 			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
+			// if there are no more pages to the right, lock the supremum and end the iteration
 			if(nextp == null) {
+				lockKey(null);
+				finish();
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				boolean heldBefore = Database.getBufferPool().holdsLock(tid, nextp);
+				BTreeLeafPage nextPage = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				releaseCurrentPage();
+				curp = nextPage;
+				releaseCurp = !heldBefore;
 				it = curp.iterator();
 			}
 		}
@@ -1464,6 +2445,224 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		return null;
 	}
 
+	/**
+	 * Read-lock the key range ending at the given key, unless it was the last one locked
+	 * @param key - the key, or null for the supremum
+	 */
+	private void lockKey(Field key) throws TransactionAbortedException {
+		if(key != null && lastLocked != null && key.equals(lastLocked)) {
+			return;
+		}
+		Database.getBufferPool().acquireLock(tid, new BTreeKeyRangeId(f.getId(), key), 
+				Permissions.READ_ONLY);
+		lastLocked = key;
+	}
+
+	/**
+	 * Release the latch on the current leaf page if it was taken by this iterator
+	 */
+	private void releaseCurrentPage() {
+		if(curp != null && releaseCurp) {
+			Database.getBufferPool().releasePage(tid, curp.getId());
+		}
+		releaseCurp = false;
+	}
+
+	/**
+	 * End the iteration, releasing the latch on the current page
+	 */
+	private void finish() {
+		releaseCurrentPage();
+		it = null;
+		curp = null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		finish();
+	}
+}
+
+/**
+ * Helper class that implements the DbFileIterator for descending scans of a B+ Tree
+ * File, which follow the left sibling pointers of the leaf pages. Like the
+ * BTreeSearchIterator, phantoms are prevented with next-key locking: the first key past
+ * the end of the scanned range (or the supremum) is read-locked when the iterator is
+ * opened, and the key of every tuple returned is read-locked as it is returned.
+ * @see BTreeSearchIterator
+ */
+class BTreeReverseSearchIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+	boolean releaseCurp = false;
+	Field lastLocked = null;
+
+	TransactionId tid;
+	BTreeFile f;
+	IndexPredicate ipred;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on, or null for all tuples
+	 */
+	public BTreeReverseSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	/**
+	 * Open this iterator by getting a reverse iterator on the last leaf page applicable
+	 * for the upper bound of the predicate, and locking the first key past that bound
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		LinkedList<BTreePageId> latched = new LinkedList<BTreePageId>();
+		Field upper = ipred == null ? null : ipred.getUpperBound();
+		int slot;
+		if(upper == null) {
+			curp = f.findLeafPage(tid, null, true, latched);
+			slot = curp.getMaxTuples();
+		}
+		else if(ipred.isUpperInclusive()) {
+			curp = f.findLeafPage(tid, upper, true, latched);
+			slot = curp.upperBound(upper);
+		}
+		else {
+			curp = f.findLeafPage(tid, upper, false, latched);
+			slot = curp.lowerBound(upper);
+		}
+		releaseCurp = latched.contains(curp.getId());
+		lastLocked = null;
+		lockKey(keyAtOrAfter(slot));
+		it = curp.reverseIterator(slot);
+	}
+
+	/**
+	 * Find the first key at or after the given slot of the current page, following right
+	 * sibling pointers as needed. Sibling pages are only latched while they are read.
+	 * @param slot - the slot of the current page
+	 * @return the key, or null if there is none
+	 */
+	private Field keyAtOrAfter(int slot) throws DbException, TransactionAbortedException {
+		BTreeLeafPage page = curp;
+		boolean releasePage = false;
+		Iterator<Tuple> next = page.iterator(slot);
+		try {
+			while(!next.hasNext()) {
+				BTreePageId nextId = page.getRightSiblingId();
+				if(nextId == null) {
+					return null;
+				}
+				if(releasePage) {
+					Database.getBufferPool().releasePage(tid, page.getId());
+				}
+				releasePage = !Database.getBufferPool().holdsLock(tid, nextId);
+				page = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextId, Permissions.READ_ONLY);
+				next = page.iterator();
+			}
+			return f.getKey(next.next());
+		} finally {
+			if(releasePage) {
+				Database.getBufferPool().releasePage(tid, page.getId());
+			}
+		}
+	}
+
+	/**
+	 * Read the previous tuple either from the current page if it has more tuples matching
+	 * the predicate or from the previous page by following the left sibling pointer.
+	 * 
+	 * @return the next tuple matching the predicate in descending order, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (it != null) {
+
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field key = f.getKey(t);
+				if (ipred == null) {
+					lockKey(key);
+					return t;
+				}
+				else if (ipred.isBelowRange(key)) {
+					// we have passed the lower bound of the range. The gap below the last key
+					// returned is covered by the lock on that key
+					finish();
+					return null;
+				}
+				else if (ipred.matches(key)) {
+					lockKey(key);
+					return t;
+				}
+			}
+
+			BTreePageId prevp = curp.getLeftSiblingId();
+			if(prevp == null) {
+				finish();
+				return null;
+			}
+			else {
+				boolean heldBefore = Database.getBufferPool().holdsLock(tid, prevp);
+				BTreeLeafPage prevPage = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						prevp, Permissions.READ_ONLY);
+				releaseCurrentPage();
+				curp = prevPage;
+				releaseCurp = !heldBefore;
+				it = curp.reverseIterator();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Read-lock the key range ending at the given key, unless it was the last one locked
+	 * @param key - the key, or null for the supremum
+	 */
+	private void lockKey(Field key) throws TransactionAbortedException {
+		if(key != null && lastLocked != null && key.equals(lastLocked)) {
+			return;
+		}
+		Database.getBufferPool().acquireLock(tid, new BTreeKeyRangeId(f.getId(), key), 
+				Permissions.READ_ONLY);
+		lastLocked = key;
+	}
+
+	/**
+	 * Release the latch on the current leaf page if it was taken by this iterator
+	 */
+	private void releaseCurrentPage() {
+		if(curp != null && releaseCurp) {
+			Database.getBufferPool().releasePage(tid, curp.getId());
+		}
+		releaseCurp = false;
+	}
+
+	/**
+	 * End the iteration, releasing the latch on the current page
+	 */
+	private void finish() {
+		releaseCurrentPage();
+		it = null;
+		curp = null;
+	}
+
 	/**
 	 * rewind this iterator back to the beginning of the tuples
 	 */
@@ -1477,6 +2676,196 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		finish();
+	}
+}
+
+/**
+ * Helper class that implements the DbFileIterator for looking up a batch of keys in a
+ * B+ Tree File. The keys are sorted, and each key is searched for from the leaf where
+ * the previous key was found, so consecutive keys on the same leaf share a single
+ * descent. Like the BTreeSearchIterator, the key of every tuple returned is read-locked,
+ * as is the first key past each key looked up (or the supremum), and leaf pages are only
+ * latched while they are scanned.
+ * @see BTreeSearchIterator
+ */
+class BTreeMultiKeyIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+	boolean releaseCurp = false;
+	Field lastLocked = null;
+	Field probe = null;
+	int nextKey = 0;
+
+	TransactionId tid;
+	BTreeFile f;
+	Field[] keys;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param keys - the keys to look up
+	 */
+	public BTreeMultiKeyIterator(BTreeFile f, TransactionId tid, Collection<? extends Field> keys) {
+		this.f = f;
+		this.tid = tid;
+		TreeSet<Field> sorted = new TreeSet<Field>(new Comparator<Field>() {
+			public int compare(Field a, Field b) {
+				if(a.compare(Op.LESS_THAN, b)) {
+					return -1;
+				}
+				return a.compare(Op.GREATER_THAN, b) ? 1 : 0;
+			}
+		});
+		int numFields = -1;
+		for(Field key : keys) {
+			int n = (key instanceof CompositeField ? ((CompositeField) key).numFields() : 1);
+			if(numFields != -1 && n != numFields) {
+				throw new IllegalArgumentException("keys with different numbers of fields");
+			}
+			numFields = n;
+			sorted.add(key);
+		}
+		this.keys = sorted.toArray(new Field[sorted.size()]);
+		this.nextKey = this.keys.length;
+	}
+
+	/**
+	 * Open this iterator at the first key to look up
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		finish();
+		lastLocked = null;
+		probe = null;
+		nextKey = 0;
+	}
+
+	/**
+	 * Read the next tuple matching the key being looked up, moving on to the next key
+	 * once a larger key is found, and to the right sibling of the current page once the
+	 * page is exhausted.
+	 * 
+	 * @return the next tuple matching one of the keys, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (true) {
+			if (probe == null) {
+				if (nextKey >= keys.length) {
+					finish();
+					return null;
+				}
+				probe = keys[nextKey++];
+				seek(probe);
+			}
+
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field key = f.getKey(t);
+				if (key.compare(Op.EQUALS, probe)) {
+					lockKey(key);
+					return t;
+				}
+				else if (key.compare(Op.GREATER_THAN, probe)) {
+					// lock the next key to cover the gap after the key looked up
+					lockKey(key);
+					probe = null;
+					break;
+				}
+			}
+			if (probe == null) {
+				continue;
+			}
+
+			BTreePageId nextp = curp.getRightSiblingId();
+			// there are no larger keys in the tree, so none of the remaining keys match
+			if(nextp == null) {
+				lockKey(null);
+				nextKey = keys.length;
+				probe = null;
+			}
+			else {
+				boolean heldBefore = Database.getBufferPool().holdsLock(tid, nextp);
+				BTreeLeafPage nextPage = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+				releaseCurrentPage();
+				curp = nextPage;
+				releaseCurp = !heldBefore;
+				it = curp.iterator();
+			}
+		}
+	}
+
+	/**
+	 * Position the iterator on the first tuple whose key is greater than or equal to the
+	 * given key, searching the current page if the key is not past its end and descending
+	 * the tree otherwise
+	 */
+	private void seek(Field key) throws DbException, TransactionAbortedException {
+		if(curp != null) {
+			int slot = curp.lowerBound(key);
+			if(slot < curp.getMaxTuples()) {
+				it = curp.iterator(slot);
+				return;
+			}
+			releaseCurrentPage();
+		}
+		LinkedList<BTreePageId> latched = new LinkedList<BTreePageId>();
+		curp = f.findLeafPage(tid, key, false, latched);
+		releaseCurp = latched.contains(curp.getId());
+		it = curp.iterator(curp.lowerBound(key));
+	}
+
+	/**
+	 * Read-lock the key range ending at the given key, unless it was the last one locked
+	 * @param key - the key, or null for the supremum
+	 */
+	private void lockKey(Field key) throws TransactionAbortedException {
+		if(key != null && lastLocked != null && key.equals(lastLocked)) {
+			return;
+		}
+		Database.getBufferPool().acquireLock(tid, new BTreeKeyRangeId(f.getId(), key), 
+				Permissions.READ_ONLY);
+		lastLocked = key;
+	}
+
+	/**
+	 * Release the latch on the current leaf page if it was taken by this iterator
+	 */
+	private void releaseCurrentPage() {
+		if(curp != null && releaseCurp) {
+			Database.getBufferPool().releasePage(tid, curp.getId());
+		}
+		releaseCurp = false;
+	}
+
+	/**
+	 * End the iteration, releasing the latch on the current page
+	 */
+	private void finish() {
+		releaseCurrentPage();
 		it = null;
+		curp = null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		finish();
+		probe = null;
+		nextKey = keys.length;
 	}
 }
@@ -18,9 +18,21 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	private final boolean prefixCompressed; // see isPrefixCompressed(Type)
 	
 	private int childCategory; // either leaf or internal
 
+	/**
+	 * The bytes of a prefix compressed entry besides the suffix of its key: the lengths of
+	 * the shared prefix and of the suffix, and the child pointer
+	 */
+	private static final int COMPRESSED_ENTRY_OVERHEAD = 2 + INDEX_SIZE;
+
+	/**
+	 * The most bytes a prefix compressed entry can take
+	 */
+	static final int MAX_COMPRESSED_ENTRY_SIZE = COMPRESSED_ENTRY_OVERHEAD + Type.STRING_LEN;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -37,7 +49,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (!isLessThanHalfFull());
 		}
 	}
 	
@@ -57,16 +69,36 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * If the keys are prefix compressed, the entry slots hold only the entries in use,
+	 * in slot order, each with the length of the prefix its key shares with the key of
+	 * the previous entry, the rest of the key and the child pointer, after the first 
+	 * child pointer. The number of entry slots is then computed from the smallest 
+	 * possible entry, an entry with an empty suffix.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
+	 * @see #isPrefixCompressed(Type)
 	 * 
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeInternalPage of a B+ tree keyed on several fields. The keys of the
+	 * page are CompositeFields stored at the combined width of the key fields.
+	 * @see #BTreeInternalPage(BTreePageId, byte[], int)
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.prefixCompressed = isPrefixCompressed(getKeyTypes());
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -87,6 +119,14 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (prefixCompressed) {
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -98,7 +138,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -115,15 +154,255 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
-		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
+		return getMaxEntries(getKeyTypes(), BufferPool.getPageSize());
+	}
+
+	/**
+	 * Retrieve the maximum number of entries a page of the given size can hold with keys 
+	 * of the given types, one for each key field.
+	 * @param keyTypes - the types of the key fields
+	 * @param pageSize - the size of the page in bytes
+	 */
+	static int getMaxEntries(Type[] keyTypes, int pageSize) {
+		if (keyTypes.length == 1)
+			return getMaxEntries(keyTypes[0], pageSize);
+		int bitsPerEntryIncludingHeader = (CompositeField.getLen(keyTypes) + INDEX_SIZE) * 8 + 1;
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+		return (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader;
+	}
+
+	/**
+	 * Retrieve the maximum number of entries a page of the given size can hold with keys 
+	 * of the given type. If the keys are prefix compressed, fewer entries may fit.
+	 * @param keyType - the type of the key field
+	 * @param pageSize - the size of the page in bytes
+	 */
+	static int getMaxEntries(Type keyType, int pageSize) {
+		int entrySize = isPrefixCompressed(keyType) ? COMPRESSED_ENTRY_OVERHEAD : keyType.getLen() + INDEX_SIZE;
+		int bitsPerEntryIncludingHeader = entrySize * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
-		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
+		int entriesPerPage = (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
 
+	/**
+	 * Returns true if internal pages store keys of the given type prefix compressed. String 
+	 * keys are long and fixed width, so a page holding them at full width has a small fanout. 
+	 * Instead each key is stored as the length of the prefix it shares with the previous key
+	 * on the page and the remaining characters, so that entries take a varying number of
+	 * bytes and the page holds as many as fit. Together with short separator keys (see 
+	 * {@link #getSeparator(Field, Field)}) this raises the fanout of the tree and lowers 
+	 * its height.
+	 * @param keyType - the type of the key field
+	 */
+	public static boolean isPrefixCompressed(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	/**
+	 * Returns true if internal pages store keys of the given types prefix compressed. Only
+	 * keys of a single string field are; composite keys are stored at full width.
+	 * @param keyTypes - the types of the key fields
+	 * @see #isPrefixCompressed(Type)
+	 */
+	public static boolean isPrefixCompressed(Type[] keyTypes) {
+		return keyTypes.length == 1 && isPrefixCompressed(keyTypes[0]);
+	}
+
+	/**
+	 * Returns the shortest key which is greater than lower and less than or equal to upper,
+	 * or upper if lower is not less than upper. Used as the separator copied up to the parent
+	 * when the keys of a leaf page are divided between two pages with lower the last key of 
+	 * the left page and upper the first key of the right page. For string keys this is a prefix 
+	 * of upper (suffix truncation); for other keys it is upper.
+	 * @param lower - the largest key to the left of the separator
+	 * @param upper - the smallest key to the right of the separator
+	 */
+	public static Field getSeparator(Field lower, Field upper) {
+		if (!(upper instanceof StringField) || !(lower instanceof StringField) 
+				|| !lower.compare(Op.LESS_THAN, upper))
+			return upper;
+		String l = ((StringField) lower).getValue();
+		String u = ((StringField) upper).getValue();
+		return new StringField(u.substring(0, sharedPrefix(l, u) + 1), Type.STRING_LEN);
+	}
+
+	/**
+	 * Returns the length of the common prefix of two strings
+	 */
+	private static int sharedPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Returns the number of bytes a prefix compressed entry with the given key takes when it
+	 * follows an entry with key prev
+	 * @param prev - the key of the previous entry, or null for the first entry
+	 * @param key - the key of the entry
+	 */
+	static int getCompressedEntrySize(Field prev, Field key) {
+		String s = ((StringField) key).getValue();
+		int shared = (prev == null ? 0 : sharedPrefix(((StringField) prev).getValue(), s));
+		return COMPRESSED_ENTRY_OVERHEAD + s.length() - shared;
+	}
+
+	/**
+	 * Writes the key of a prefix compressed entry following an entry with key prev
+	 * @param dos - the stream to write to
+	 * @param prev - the key of the previous entry, or null for the first entry
+	 * @param key - the key to write
+	 */
+	static void writeCompressedKey(DataOutputStream dos, Field prev, Field key) throws IOException {
+		String s = ((StringField) key).getValue();
+		int shared = (prev == null ? 0 : sharedPrefix(((StringField) prev).getValue(), s));
+		dos.writeByte(shared);
+		dos.writeByte(s.length() - shared);
+		dos.writeBytes(s.substring(shared));
+	}
+
+	/**
+	 * Read the prefix compressed entries of the page, in slot order
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		String prev = "";
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			if (i > 0) {
+				int shared = dis.readUnsignedByte();
+				byte[] suffix = new byte[dis.readUnsignedByte()];
+				dis.readFully(suffix);
+				prev = prev.substring(0, shared) + new String(suffix);
+				keys[i] = new StringField(prev, Type.STRING_LEN);
+			}
+			children[i] = dis.readInt();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes the entries of this page take, including the first child
+	 * pointer
+	 */
+	public int getUsedBytes() {
+		if (!prefixCompressed)
+			return INDEX_SIZE + getNumEntries() * (CompositeField.getLen(getKeyTypes()) + INDEX_SIZE);
+		int used = INDEX_SIZE;
+		Field prev = null;
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i)) {
+				used += getCompressedEntrySize(prev, keys[i]);
+				prev = keys[i];
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the number of bytes the entries of a prefix compressed page may take after 
+	 * inserts. The rest of the page is kept free, so that the key of an entry can be 
+	 * updated, e.g. when entries are redistributed, even though a longer key or a shorter
+	 * shared prefix takes more space.
+	 */
+	private int getCapacity() {
+		return getCapacity(td.getFieldType(keyField), BufferPool.getPageSize());
+	}
+
+	/**
+	 * Returns the number of bytes the prefix compressed entries of a page of the given size
+	 * may take after inserts, including the first child pointer
+	 * @param keyType - the type of the key field
+	 * @param pageSize - the size of the page in bytes
+	 * @see #getCapacity()
+	 */
+	static int getCapacity(Type keyType, int pageSize) {
+		int slots = getMaxEntries(keyType, pageSize) + 1;
+		int headerBytes = (slots + 7) / 8;
+		return pageSize - INDEX_SIZE - 1 - headerBytes - 2 * Type.STRING_LEN;
+	}
+
+	/**
+	 * Returns the fewest bytes the prefix compressed entries of a page of the given size
+	 * other than the root may take
+	 * @param keyType - the type of the key field
+	 * @param pageSize - the size of the page in bytes
+	 * @see #isLessThanHalfFull()
+	 */
+	static int getMinUsedBytes(Type keyType, int pageSize) {
+		return getCapacity(keyType, pageSize) / 2 - 4 * MAX_COMPRESSED_ENTRY_SIZE;
+	}
+
+	/**
+	 * Returns true if an entry with the given key can be inserted into this page without 
+	 * splitting it.
+	 * @param key - the key of the entry
+	 */
+	public boolean hasRoomFor(Field key) {
+		if (getNumEmptySlots() == 0)
+			return false;
+		if (!prefixCompressed)
+			return true;
+
+		// the new entry and the entry after it are stored relative to different keys
+		int next = nextUsedSlot(1, numSlots);
+		while (next < numSlots && keys[next].compare(Op.LESS_THAN, key))
+			next = nextUsedSlot(next + 1, numSlots);
+		int prevSlot = previousUsedSlot(next - 1);
+		Field prev = (prevSlot > 0 ? keys[prevSlot] : null);
+		int growth = getCompressedEntrySize(prev, key);
+		if (next < numSlots)
+			growth += getCompressedEntrySize(key, keys[next]) - getCompressedEntrySize(prev, keys[next]);
+		return getUsedBytes() + growth <= getCapacity();
+	}
+
+	/**
+	 * Returns true if this page is less than half full, i.e. if it is below the minimum
+	 * occupancy of pages other than the root. For prefix compressed pages, this is the
+	 * case if the entries take less than half the capacity of the page, less the size of a 
+	 * few entries since entries are divided between pages whole.
+	 */
+	public boolean isLessThanHalfFull() {
+		if (!prefixCompressed)
+			return getNumEntries() < getMaxEntries() / 2;
+		return getNumEntries() == 0 
+				|| getUsedBytes() < getMinUsedBytes(td.getFieldType(keyField), BufferPool.getPageSize());
+	}
+
+	/**
+	 * Returns true if the entries of this page and of the given sibling fit on one page 
+	 * together with the key pulled down from their parent, where this page is less than 
+	 * half full. Otherwise entries should be redistributed between the two pages.
+	 * @param sibling - the left or right sibling of this page
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling) {
+		if (!prefixCompressed)
+			return sibling.getNumEmptySlots() >= getMaxEntries() - getMaxEntries() / 2;
+		return getNumEntries() + sibling.getNumEntries() < getMaxEntries() 
+				&& getUsedBytes() + sibling.getUsedBytes() + MAX_COMPRESSED_ENTRY_SIZE <= getCapacity();
+	}
+
+	/**
+	 * Returns true if the entries of this prefix compressed page take more than its 
+	 * capacity, after the key of an entry was updated. Such a page must be split before
+	 * any other entry is updated.
+	 */
+	public boolean isOverfull() {
+		return prefixCompressed && getUsedBytes() > getCapacity();
+	}
+
+	/**
+	 * Returns true if the keys of this page are prefix compressed
+	 * @see #isPrefixCompressed(Type)
+	 */
+	public boolean isPrefixCompressed() {
+		return prefixCompressed;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
@@ -145,7 +424,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -168,7 +447,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<CompositeField.getLen(getKeyTypes()); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -181,7 +460,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -262,6 +541,11 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		if (prefixCompressed) {
+			writeCompressedEntries(dos);
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -269,7 +553,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<CompositeField.getLen(getKeyTypes()); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -316,7 +600,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				CompositeField.getLen(getKeyTypes()) * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -333,6 +617,28 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Write the entries in use in slot order, prefix compressed, and pad the rest of the page
+	 */
+	private void writeCompressedEntries(DataOutputStream dos) {
+		try {
+			Field prev = null;
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				if (i > 0) {
+					writeCompressedKey(dos, prev, keys[i]);
+					prev = keys[i];
+				}
+				dos.writeInt(children[i]);
+			}
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -441,7 +747,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!e.getKey().getType().equals(td.getFieldType(keyField)) 
+				|| (keyFields.length > 1 && !(e.getKey() instanceof CompositeField)))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -545,6 +852,101 @@ public class BTreeInternalPage extends BTreePage {
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
 
+	/**
+	 * Returns the id of the left-most child page which may contain the given key, i.e. the
+	 * left child of the first entry whose key is greater than or equal to the key, or the
+	 * right child of the last entry if there is none. The entries are searched with a binary
+	 * search over the slots which skips over empty slots with the header, without creating
+	 * any BTreeEntry objects.
+	 * @param key - the key to search for, or null for the left-most child
+	 * @throws DbException if the page has no entries
+	 */
+	public BTreePageId findChild(Field key) throws DbException {
+		return searchChild(key, Op.LESS_THAN);
+	}
+
+	/**
+	 * Returns the id of the right-most child page which may contain the given key, i.e. the
+	 * left child of the first entry whose key is greater than the key, or the right child of
+	 * the last entry if there is none. Used by descending scans, which start at the last
+	 * occurrence of a key.
+	 * @param key - the key to search for, or null for the right-most child
+	 * @throws DbException if the page has no entries
+	 * @see #findChild(Field)
+	 */
+	public BTreePageId findLastChild(Field key) throws DbException {
+		return searchChild(key, Op.LESS_THAN_OR_EQ);
+	}
+
+	/**
+	 * Binary search for the child to the left of the first entry whose key does not compare
+	 * to the search key with the given operator
+	 * @param key - the key to search for, or null for the left-most child (LESS_THAN) or the
+	 * right-most child (LESS_THAN_OR_EQ)
+	 * @param op - LESS_THAN or LESS_THAN_OR_EQ
+	 * @throws DbException if the page has no entries
+	 */
+	private BTreePageId searchChild(Field key, Op op) throws DbException {
+		int first = nextUsedSlot(1, numSlots);
+		if (!isSlotUsed(0) || first == numSlots)
+			throw new DbException("page " + pid.pageNumber() + " of table " + pid.getTableId() + " has no entries");
+
+		int lo = first;
+		int hi = numSlots;
+		if (key == null) {
+			if (op == Op.LESS_THAN)
+				hi = lo;
+			else
+				lo = hi;
+		}
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int slot = nextUsedSlot(mid, hi);
+			if (slot < hi && keys[slot].compare(op, key))
+				lo = slot + 1;
+			else
+				hi = mid;
+		}
+
+		// the child to the left of the first key not matching the search
+		int child = previousUsedSlot(nextUsedSlot(lo, numSlots) - 1);
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
+	}
+
+	/**
+	 * Returns the id of the right-most child page, or null if the page has no children. 
+	 * Unlike the right child of the last entry, this is also defined for a page whose 
+	 * entries have all been deleted but its first child pointer.
+	 */
+	public BTreePageId getLastChildId() {
+		int slot = previousUsedSlot(numSlots - 1);
+		if (slot < 0)
+			return null;
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+	}
+
+	/**
+	 * Returns the first used slot in [from, to), or to if there is none
+	 */
+	private int nextUsedSlot(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (isSlotUsed(i))
+				return i;
+		}
+		return to;
+	}
+
+	/**
+	 * Returns the last used slot at or before the given slot, or -1 if there is none
+	 */
+	private int previousUsedSlot(int slot) {
+		for (int i = slot; i >= 0; i--) {
+			if (isSlotUsed(i))
+				return i;
+		}
+		return -1;
+	}
+
 	/**
 	 * Move an entry from one slot to another slot, and update the corresponding
 	 * headers
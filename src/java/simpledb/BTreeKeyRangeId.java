@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/** Identifier for a key range of a BTreeFile, used as the name of a next-key lock.
+ *  A lock on key k covers k itself and the gap between k and the previous key in
+ *  the index. A null key stands for the supremum, i.e. the gap after the largest
+ *  key in the index.
+ *  <p>
+ *  BTreeKeyRangeIds are only ever passed to the lock manager; there is no page
+ *  behind them, so they are never read or written.
+ */
+public class BTreeKeyRangeId implements PageId {
+
+	private final int tableId;
+	private final Field key;
+
+	/**
+	 * Constructor. Create a key range id for a key of a specific table.
+	 *
+	 * @param tableId The table that is being referenced
+	 * @param key The key at the upper end of the range, or null for the supremum
+	 */
+	public BTreeKeyRangeId(int tableId, Field key) {
+		this.tableId = tableId;
+		this.key = key;
+	}
+
+	/**
+	 * Constructor. Create a key range id from the integers returned by serialize().
+	 *
+	 * @param data The serialized key range
+	 * @see #serialize()
+	 */
+	public BTreeKeyRangeId(int[] data) {
+		this(data[0], deserializeKey(data));
+	}
+
+	/** @return the table associated with this key range */
+	public int getTableId() {
+		return tableId;
+	}
+
+	/**
+	 * @return the key at the upper end of this range, or null for the supremum
+	 */
+	public Field getKey() {
+		return key;
+	}
+
+	/**
+	 * Key ranges do not correspond to a page.
+	 * @return -1
+	 */
+	public int pageNumber() {
+		return -1;
+	}
+
+	public int hashCode() {
+		int code = tableId;
+		if (key != null)
+			code = 31 * code + key.hashCode();
+		return code;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof BTreeKeyRangeId))
+			return false;
+		BTreeKeyRangeId r = (BTreeKeyRangeId)o;
+		if (tableId != r.tableId)
+			return false;
+		if (key == null || r.key == null)
+			return key == r.key;
+		return key.getType() == r.key.getType() && key.equals(r.key);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("(tableId: ").append(tableId)
+				.append(", key: ").append(key == null ? "+inf" : key.toString())
+				.append(")");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a representation of this key range as integers: the table id, the
+	 * number of fields of the key (-1 for the supremum, 0 for a key which is not a
+	 * CompositeField), the ordinals of the types of its fields, the length of the
+	 * serialized key in bytes and those bytes, four to an integer.
+	 * @see #BTreeKeyRangeId(int[])
+	 */
+	public int[] serialize() {
+		if (key == null)
+			return new int[] { tableId, -1 };
+		Field[] fields;
+		if (key instanceof CompositeField) {
+			CompositeField cf = (CompositeField) key;
+			fields = new Field[cf.numFields()];
+			for (int i = 0; i < fields.length; i++)
+				fields[i] = cf.getField(i);
+		} else {
+			fields = new Field[] { key };
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			key.serialize(dos);
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		byte[] bytes = baos.toByteArray();
+		int words = (bytes.length + 3) / 4;
+
+		int[] data = new int[3 + fields.length + words];
+		data[0] = tableId;
+		data[1] = key instanceof CompositeField ? fields.length : 0;
+		for (int i = 0; i < fields.length; i++)
+			data[2 + i] = fields[i].getType().ordinal();
+		data[2 + fields.length] = bytes.length;
+		ByteBuffer bb = ByteBuffer.wrap(Arrays.copyOf(bytes, words * 4));
+		for (int i = 0; i < words; i++)
+			data[3 + fields.length + i] = bb.getInt();
+		return data;
+	}
+
+	/**
+	 * Reads the key of a key range back from the integers returned by serialize().
+	 */
+	private static Field deserializeKey(int[] data) {
+		if (data[1] < 0)
+			return null;
+		Type[] types = new Type[Math.max(data[1], 1)];
+		for (int i = 0; i < types.length; i++)
+			types[i] = Type.values()[data[2 + i]];
+		int length = data[2 + types.length];
+		ByteBuffer bb = ByteBuffer.allocate((length + 3) / 4 * 4);
+		for (int i = 3 + types.length; i < data.length; i++)
+			bb.putInt(data[i]);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bb.array(), 0, length));
+		try {
+			if (data[1] == 0)
+				return types[0].parse(dis);
+			return CompositeField.parse(types, dis);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("not a serialized key range", e);
+		}
+	}
+
+}
@@ -19,15 +19,15 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
-	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
+	public void checkRep(Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
 
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, getKey(t)));
+			prev = getKey(t);
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
@@ -62,7 +62,20 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeLeafPage of a B+ tree keyed on several fields from a set of bytes of
+	 * data read from disk.
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -137,7 +150,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -323,16 +336,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int lessOrEqKey = previousUsedSlot(upperBound(getKey(t)) - 1);
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -358,6 +362,66 @@ public class BTreeLeafPage extends BTreePage {
 		tuples[goodSlot] = t;
 	}
 
+	/**
+	 * Returns the first used slot on this page whose key is greater than or equal to the
+	 * given key, or getMaxTuples() if there is none. The search is a binary search over the
+	 * slots; empty slots between the sorted records are skipped over with the header.
+	 * @param key - the key to search for
+	 */
+	public int lowerBound(Field key) {
+		return search(key, Predicate.Op.LESS_THAN);
+	}
+
+	/**
+	 * Returns the first used slot on this page whose key is greater than the given key, or
+	 * getMaxTuples() if there is none.
+	 * @param key - the key to search for
+	 * @see #lowerBound(Field)
+	 */
+	public int upperBound(Field key) {
+		return search(key, Predicate.Op.LESS_THAN_OR_EQ);
+	}
+
+	/**
+	 * Binary search for the first used slot whose key does not satisfy "slot key op key".
+	 * All used slots before lo satisfy the comparison and no used slot from hi on does.
+	 */
+	private int search(Field key, Predicate.Op op) {
+		int lo = 0;
+		int hi = numSlots;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int slot = nextUsedSlot(mid, hi);
+			if (slot < hi && getKey(tuples[slot]).compare(op, key))
+				lo = slot + 1;
+			else
+				hi = mid;
+		}
+		return nextUsedSlot(lo, numSlots);
+	}
+
+	/**
+	 * Returns the first used slot in [from, to), or to if there is none
+	 */
+	private int nextUsedSlot(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (isSlotUsed(i))
+				return i;
+		}
+		return to;
+	}
+
+	/**
+	 * Returns the last used slot at or before the given slot, or -1 if there is none
+	 */
+	private int previousUsedSlot(int slot) {
+		for (int i = slot; i >= 0; i--) {
+			if (isSlotUsed(i))
+				return i;
+		}
+		return -1;
+	}
+
 	/**
 	 * Move a record from one slot to another slot, and update the corresponding
 	 * headers and RecordId
@@ -483,6 +547,15 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param slot - the slot to start at, e.g. as returned by lowerBound()
+	 * @return an iterator over the tuples on this page stored at or after the given slot
+	 * @see #iterator()
+	 */
+	public Iterator<Tuple> iterator(int slot) {
+		return new BTreeLeafPageIterator(this, slot);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -491,6 +564,15 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * @param slot - the slot to stop before, e.g. as returned by upperBound()
+	 * @return a reverse iterator over the tuples on this page stored before the given slot
+	 * @see #reverseIterator()
+	 */
+	public Iterator<Tuple> reverseIterator(int slot) {
+		return new BTreeLeafPageReverseIterator(this, slot - 1);
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -529,6 +611,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int curTuple) {
+		this.p = p;
+		this.curTuple = curTuple;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -578,6 +665,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		this.curTuple = p.getMaxTuples() - 1;
 	}
 
+	public BTreeLeafPageReverseIterator(BTreeLeafPage p, int curTuple) {
+		this.p = p;
+		this.curTuple = curTuple;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
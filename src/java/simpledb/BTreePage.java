@@ -22,6 +22,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -49,14 +50,43 @@ public abstract class BTreePage implements Page {
 	 * 
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
-	 * @param key - the field which the index is keyed on
+	 * @param keys - the fields which the index is keyed on
 	 */
-	public BTreePage(BTreePageId id, int key) throws IOException {
+	public BTreePage(BTreePageId id, int[] keys) throws IOException {
 		this.pid = id;
-		this.keyField = key;
+		this.keyField = keys[0];
+		this.keyFields = keys.clone();
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @param t - a tuple of this page's B+ tree
+	 * @return the key of the tuple: the value of its key field, or a CompositeField of the
+	 * values of its key fields if the index is keyed on several fields
+	 * @see BTreeFile#getKey(Tuple, int[])
+	 */
+	protected Field getKey(Tuple t) {
+		return BTreeFile.getKey(t, keyFields);
+	}
+
+	/**
+	 * @return the types of the key fields of this page's B+ tree
+	 */
+	protected Type[] getKeyTypes() {
+		return BTreeFile.getKeyTypes(td, keyFields);
+	}
+
+	/**
+	 * Read a key of this page's B+ tree
+	 * @param dis - the stream to read the key from
+	 * @return the key, a CompositeField if the index is keyed on several fields
+	 */
+	protected Field parseKey(DataInputStream dis) throws java.text.ParseException {
+		if (keyFields.length == 1)
+			return td.getFieldType(keyField).parse(dis);
+		return CompositeField.parse(getKeyTypes(), dis);
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
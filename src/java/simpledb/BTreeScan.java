@@ -4,7 +4,7 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate, in ascending or descending order of their keys
  */
 public class BTreeScan implements DbIterator {
 
@@ -14,6 +14,7 @@ public class BTreeScan implements DbIterator {
 	private TransactionId tid;
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
+	private boolean reverse = false;
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
@@ -34,12 +35,36 @@ public class BTreeScan implements DbIterator {
 	 *            are, but the resulting name can be null.fieldName,
 	 *            tableAlias.null, or null.null).
 	 * @param ipred
-	 * 			  The index predicate to match. If null, the scan will return all tuples
-	 *            in sorted order
+	 * 			  The index predicate to match, either a single comparison or a range
+	 *            of keys with inclusive or exclusive bounds. If null, the scan will
+	 *            return all tuples in sorted order
 	 */
 	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this(tid, tableid, tableAlias, ipred, false);
+	}
+
+	/**
+	 * Creates a B+ tree scan over the specified table as a part of the
+	 * specified transaction, returning the tuples in ascending or descending
+	 * order of their keys.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan.
+	 * @param tableAlias
+	 *            the alias of this table (needed by the parser)
+	 * @param ipred
+	 * 			  The index predicate to match. If null, the scan will return all tuples
+	 * @param reverse
+	 *            true to return the tuples in descending order of their keys
+	 * @see BTreeFile#reverseIndexIterator(TransactionId, IndexPredicate)
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred,
+			boolean reverse) {
 		this.tid = tid;
 		this.ipred = ipred;
+		this.reverse = reverse;
 		reset(tableid,tableAlias);
 	}
 
@@ -60,6 +85,21 @@ public class BTreeScan implements DbIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return true if this operator returns the tuples in descending order of their keys
+	 */
+	public boolean isReverse() {
+		return reverse;
+	}
+
+	/**
+	 * @return the index predicate this operator matches the keys of the tuples against,
+	 * or null if it returns all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -76,7 +116,10 @@ public class BTreeScan implements DbIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
+		if(reverse) {
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).reverseIndexIterator(tid, ipred);
+		}
+		else if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		else {
@@ -0,0 +1,107 @@
+package simpledb;
+
+/**
+ * BloomFilter is a set of fields which may report fields that were never
+ * added as members, with a bounded probability, but never misses one that was.
+ * <p>
+ * The filter is sized for an expected number of fields and a target false
+ * positive rate p: it has m = -n ln p / (ln 2)^2 bits for n fields, and sets
+ * k = (m / n) ln 2 of them for each field, at positions derived from two
+ * hashes of the field by double hashing.
+ */
+public class BloomFilter {
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+    private int numFields;
+
+    /**
+     * Creates an empty Bloom filter.
+     *
+     * @param expectedFields the number of fields the filter is sized for
+     * @param falsePositiveRate the probability that a field which was not
+     *        added is reported as a member, once expectedFields fields have
+     *        been added
+     */
+    public BloomFilter(int expectedFields, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+        int n = Math.max(expectedFields, 1);
+        this.numBits = Math.max(64, (int) Math.ceil(-n * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2))));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        this.bits = new long[(numBits + 63) / 64];
+    }
+
+    /**
+     * Mixes the bits of the hash code of a field, since the hash code of an
+     * IntField is its value.
+     */
+    private static long hash(Field f) {
+        long h = f.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return h;
+    }
+
+    /**
+     * Adds a field to this filter.
+     */
+    public void add(Field f) {
+        long h = hash(f);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        numFields++;
+    }
+
+    /**
+     * Returns false if the given field was never added to this filter, and
+     * true if it may have been.
+     */
+    public boolean mightContain(Field f) {
+        long h = hash(f);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bits of this filter.
+     */
+    public int getNumBits() {
+        return numBits;
+    }
+
+    /**
+     * Returns the number of bits set for each field.
+     */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * Returns the number of fields added to this filter, counting repeated
+     * fields each time they were added.
+     */
+    public int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Returns the expected false positive rate of this filter with the fields
+     * added to it so far, (1 - e^(-kn/m))^k.
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) numHashes * numFields / numBits), numHashes);
+    }
+}
@@ -76,22 +76,45 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        if (this.pool.size() == this.numPages) {
-            this.evictPage();
-        }
+        this.locker.acquireLock(tid, pid, perm);
 
-        if (!(this.pool.containsKey(pid))) {
-            Page p = Database
+        // The page is loaded only once the lock is held, since another
+        // transaction may evict it while we wait for the lock.
+        Page p = this.pool.get(pid);
+        if (p == null) {
+            if (this.pool.size() >= this.numPages) {
+                this.evictPage();
+            }
+            p = Database
                     .getCatalog()
                     .getDatabaseFile(pid.getTableId())
                     .readPage(pid);
             p.setBeforeImage();
-            this.pool.put(pid, p);
+            // Another transaction may have put its updated copy of the page
+            // into the pool while we were reading; never overwrite it with
+            // the version from disk.
+            Page cached = this.pool.putIfAbsent(pid, p);
+            if (cached != null) {
+                p = cached;
+            }
         }
-
         this.mostRecent = pid;
+        return p;
+    }
+
+    /**
+     * Acquire a lock on a resource that is not backed by a page in the buffer
+     * pool, such as a key range of a B+ tree. The lock is held until the
+     * transaction completes or it is released with {@link #releasePage}.
+     * May block if the lock is held by another transaction.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the resource to lock
+     * @param perm the requested permissions on the resource
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
         this.locker.acquireLock(tid, pid, perm);
-        return this.pool.get(pid);
     }
 
     /**
@@ -107,6 +130,19 @@ public class BufferPool {
         this.locker.releaseLock(tid, pid);
     }
 
+    /**
+     * Turns the read-write lock of a transaction on a page into a read-only
+     * lock, which it holds until it completes. Other transactions can then
+     * read the page, including its uncommitted changes, but not update it,
+     * so that the page can still be restored if the transaction aborts.
+     *
+     * @param tid the ID of the transaction holding the lock
+     * @param pid the ID of the page
+     */
+    public void downgradeLock(TransactionId tid, PageId pid) {
+        this.locker.downgradeLock(tid, pid);
+    }
+
     /**
      * Release all locks associated with a given transaction.
      *
@@ -147,7 +183,7 @@ public class BufferPool {
 
                     // Use current page contents as the before-image
                     // for the next transaction that modifies this page.
-                    this.pool.get(pid).setBeforeImage();
+                    p.setBeforeImage();
                 }
             }
         } else {
@@ -159,9 +195,13 @@ public class BufferPool {
 
                     // It should be enough to check that isPageDirty returns a
                     // non-null value, but this ensures that it was dirtied by
-                    // the correct transaction.
-                    if (p.isDirty() != null &&
-                            p.isDirty().equals(tid)) {
+                    // the correct transaction. Pages which are write locked
+                    // are restored as well, since an operation aborted half
+                    // way through may have updated them before they could be
+                    // marked dirty.
+                    if ((p.isDirty() != null &&
+                            p.isDirty().equals(tid)) ||
+                            this.locker.holdsExclusiveLock(tid, pid)) {
                         this.pool.put(pid, p.getBeforeImage());
                     }
                 }
@@ -190,12 +230,11 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> changed =
                 Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+        cacheDirtyPages(tid, changed);
 
-        Iterator<Page> it = changed.iterator();
-        while (it.hasNext()) {
-            Page p = it.next();
-            p.markDirty(true, tid);
-            this.pool.put(p.getId(), p);
+        // maintain the secondary indexes of the table
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            cacheDirtyPages(tid, index.insertEntry(tid, t));
         }
     }
 
@@ -214,12 +253,28 @@ public class BufferPool {
      */
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        int tableId = rid.getPageId().getTableId();
         ArrayList<Page> changed =
                 Database
                         .getCatalog()
-                        .getDatabaseFile(t.getRecordId().getPageId().getTableId())
+                        .getDatabaseFile(tableId)
                         .deleteTuple(tid, t);
+        cacheDirtyPages(tid, changed);
+
+        // maintain the secondary indexes of the table
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            cacheDirtyPages(tid, index.deleteEntry(tid, t.getField(index.getField()), rid));
+        }
+    }
 
+    /**
+     * Marks the pages dirtied by an insert or delete as dirty, and adds them
+     * to the cache. Also used by {@link BTreeFile#reorganize} for the pages
+     * dirtied by each of its transactions, and by {@link HeapFile#insertTuple}
+     * for the pages it appends.
+     */
+    void cacheDirtyPages(TransactionId tid, ArrayList<Page> changed) {
         Iterator<Page> it = changed.iterator();
         while (it.hasNext()) {
             Page p = it.next();
@@ -252,6 +307,18 @@ public class BufferPool {
         this.pool.remove(pid);
     }
 
+    /** Remove all pages of the specified table from the buffer pool,
+     without flushing them. Used when the file of a table is rewritten
+     directly on disk, as by {@link BTreeBulkLoader}.
+     */
+    public synchronized void discardPages(int tableid) {
+        Iterator<PageId> it = this.pool.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getTableId() == tableid)
+                it.remove();
+        }
+    }
+
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
@@ -293,12 +360,16 @@ public class BufferPool {
      */
     private synchronized void evictPage() throws DbException {
         PageId evict = this.mostRecent;
+        Page p = (evict == null) ? null : this.pool.get(evict);
         Iterator<PageId> it = this.pool.keySet().iterator();
-        while (it.hasNext() && (this.pool.get(evict).isDirty() != null)) {
+        // The most recent page may already have been discarded by another
+        // thread, so skip over missing pages as well as dirty ones.
+        while (it.hasNext() && (p == null || p.isDirty() != null)) {
             evict = it.next();
+            p = this.pool.get(evict);
         }
 
-        if (this.pool.get(evict).isDirty() != null) {
+        if (p == null || p.isDirty() != null) {
             throw new DbException(
                     "Cannot evict a page because all pages are dirty.");
         }
@@ -39,6 +39,7 @@ public class Catalog {
     private final Map<String, Integer> name2id;
     private final Map<Integer, String> id2name;
     private final Map<Integer, String> pkey;
+    private final Map<Integer, List<SecondaryIndex>> indexes;
 
 //    private Map<Integer, Table> catalog;        //DbFile_id - Table
 //    private Map<String, Table> nameMap;        //Table_name - Table
@@ -54,6 +55,7 @@ public class Catalog {
         name2id = new ConcurrentHashMap<String,Integer>();
         id2name = new ConcurrentHashMap<Integer,String>();
         pkey = new ConcurrentHashMap<Integer,String>();
+        indexes = new ConcurrentHashMap<Integer, List<SecondaryIndex>>();
 
 //        catalog = new HashMap<>();
 //        nameMap = new HashMap<>();
@@ -177,6 +179,118 @@ public class Catalog {
 //        return null;
     }
 
+    /**
+     * Registers a secondary index of a table, whose entries are then
+     * maintained by BufferPool.insertTuple and deleteTuple.
+     * @param index the index, whose file must already be in the catalog
+     */
+    public synchronized void addIndex(SecondaryIndex index) {
+        List<SecondaryIndex> tableIndexes = new ArrayList<SecondaryIndex>(getIndexes(index.getTableId()));
+        tableIndexes.add(index);
+        indexes.put(index.getTableId(), Collections.unmodifiableList(tableIndexes));
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table, which may be empty.
+     * @param tableid The id of the table
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> tableIndexes = indexes.get(tableid);
+        return tableIndexes == null ? Collections.<SecondaryIndex>emptyList() : tableIndexes;
+    }
+
+    /**
+     * Returns a secondary index on a field of the specified table, or null
+     * if the field has none.
+     * @param tableid The id of the table
+     * @param field The index of the field
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the secondary index of the specified table which stores all of
+     * the given fields in its entries, or null if there is none. An index on
+     * one of the preferred fields is returned if there is one, and otherwise
+     * the index with the fewest included fields.
+     * @param tableid The id of the table
+     * @param fields The indexes of the fields which must be covered
+     * @param preferred The indexes of the fields on which an index is preferred
+     */
+    public SecondaryIndex getCoveringIndex(int tableid, int[] fields, Set<Integer> preferred) {
+        SecondaryIndex best = null;
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (!index.covers(fields))
+                continue;
+            if (best == null) {
+                best = index;
+                continue;
+            }
+            boolean isPreferred = preferred.contains(index.getField());
+            boolean bestPreferred = preferred.contains(best.getField());
+            if ((isPreferred && !bestPreferred) || (isPreferred == bestPreferred
+                    && index.getIncludedFields().length < best.getIncludedFields().length))
+                best = index;
+        }
+        return best;
+    }
+
+    /**
+     * Creates a secondary index on a field of a heap table, builds it from the
+     * tuples of the table and registers it. The index is stored in the file
+     * name.idx in the directory of the table's file, and is added to the
+     * catalog as a table with the name of the index.
+     * @param name the name of the index
+     * @param tableName the name of the table
+     * @param fieldName the name of the field to index
+     * @param includedNames the names of the fields to store in the entries of
+     *     the index, so that it covers them
+     * @throws NoSuchElementException if the table or a field does not exist
+     * @throws DbException if the name is taken or the table is not a heap table
+     * @see SecondaryIndex#build
+     */
+    public SecondaryIndex createIndex(String name, String tableName, String fieldName,
+            String... includedNames) throws DbException, IOException, TransactionAbortedException {
+        int tableid = getTableId(tableName);
+        int field = getTupleDesc(tableid).fieldNameToIndex(fieldName);
+        int[] included = new int[includedNames.length];
+        for (int i = 0; i < included.length; i++)
+            included[i] = getTupleDesc(tableid).fieldNameToIndex(includedNames[i]);
+        if (name2id.containsKey(name) && !dropIndex(name))
+            throw new DbException("a table named " + name + " already exists");
+        DbFile table = getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new DbException("secondary indexes are only supported on heap tables");
+        File f = new File(((HeapFile) table).getFile().getAbsoluteFile().getParentFile(), name + ".idx");
+        SecondaryIndex index = SecondaryIndex.build(name, tableid, field, included, f);
+        addIndex(index);
+        return index;
+    }
+
+    /**
+     * Unregisters the secondary index with the given name, if there is one.
+     * Its file stays in the catalog until it is replaced.
+     * @return true if there was an index with that name
+     */
+    private synchronized boolean dropIndex(String name) {
+        for (Map.Entry<Integer, List<SecondaryIndex>> e : indexes.entrySet()) {
+            List<SecondaryIndex> tableIndexes = new ArrayList<SecondaryIndex>(e.getValue());
+            for (SecondaryIndex index : e.getValue()) {
+                if (index.getName().equals(name)) {
+                    tableIndexes.remove(index);
+                    indexes.put(e.getKey(), Collections.unmodifiableList(tableIndexes));
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return id2table.keySet().iterator();
@@ -193,14 +307,22 @@ public class Catalog {
 //        return name;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (DbFile file : id2table.values()) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         id2table.clear();
         id2tupledesc.clear();
         name2id.clear();
         id2name.clear();
         pkey.clear();
+        indexes.clear();
 
 //        catalog.clear();
 //        nameMap.clear();
@@ -208,6 +330,21 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line of the file describes a table as
+     * <code>name (field type [pk] [bloom[(rate)]] [index], ...) [storage] [zonemap]</code>, where
+     * the optional storage format is one of <code>heap</code> (a HeapFile, the
+     * default), <code>slotted</code> (a SlottedHeapFile, the default for
+     * tables with varchar fields, which rejects inserted values longer than
+     * n characters in fields declared as <code>varchar(n)</code>, see
+     * {@link SlottedHeapFile#setMaxLength}), <code>pax</code> (a PaxFile),
+     * <code>columnar</code> (a ColumnarFile) or <code>hash</code> (a HashFile
+     * keyed on the primary key, or on the first field). Fields of heap tables annotated
+     * with <code>bloom</code> get Bloom filters with the given false positive
+     * rate (see {@link HeapFile#addBloomFilter}), which are built as the table
+     * is loaded. Fields of heap tables annotated with <code>index</code> get a
+     * secondary index named name_field_idx, rebuilt as the table is loaded
+     * (see {@link #createIndex}). Heap tables followed by <code>zonemap</code>
+     * keep a zone map of their int fields (see {@link HeapFile#enableZoneMap}).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -217,14 +354,22 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) storage
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
+                String storage = line.substring(line.lastIndexOf(")") + 1).trim().toLowerCase();
+                boolean zoneMap = storage.matches("(\\w+\\s+)?zonemap");
+                if (zoneMap)
+                    storage = storage.substring(0, storage.length() - "zonemap".length()).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                boolean varchar = false;
+                TreeMap<Integer, Integer> maxLengths = new TreeMap<Integer, Integer>();
+                TreeMap<Integer, Double> bloomFilters = new TreeMap<Integer, Double>();
+                ArrayList<String> indexed = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -232,15 +377,38 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().matches("varchar(\\(\\d+\\))?")) {
+                        // strings stored in variable-length records, see SlottedHeapFile
+                        String type = els2[1].trim();
+                        if (!type.equalsIgnoreCase("varchar")) {
+                            int length = Integer.parseInt(type.substring(8, type.length() - 1));
+                            if (length < 1 || length > Type.STRING_LEN) {
+                                System.out.println("Invalid length " + els2[1] + ", must be between 1 and "
+                                        + Type.STRING_LEN);
+                                System.exit(0);
+                            }
+                            maxLengths.put(types.size(), length);
+                        }
+                        types.add(Type.STRING_TYPE);
+                        varchar = true;
+                    }
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int j = 2; j < els2.length; j++) {
+                        String annotation = els2[j].trim();
+                        if (annotation.equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (annotation.matches("bloom(\\(0?\\.\\d+\\))?")) {
+                            double rate = annotation.equals("bloom") ? HeapFile.DEFAULT_BLOOM_FALSE_POSITIVE_RATE
+                                    : Double.parseDouble(annotation.substring(6, annotation.length() - 1));
+                            bloomFilters.put(names.size() - 1, rate);
+                        }
+                        else if (annotation.equals("index"))
+                            indexed.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[j]);
                             System.exit(0);
                         }
                     }
@@ -248,9 +416,80 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                if (storage.isEmpty())
+                    storage = varchar ? "slotted" : "heap";
+                DbFile tabHf;
+                if (storage.equals("heap"))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (storage.equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (storage.equals("pax"))
+                    tabHf = new PaxFile(dataFile, t);
+                else if (storage.equals("columnar"))
+                    tabHf = new ColumnarFile(dataFile, t);
+                else if (storage.equals("hash"))
+                    tabHf = new HashFile(dataFile, Math.max(0, names.indexOf(primaryKey)), t);
+                else {
+                    System.out.println("Unknown storage format " + storage);
+                    System.exit(0);
+                    return;
+                }
+                if (!maxLengths.isEmpty()) {
+                    if (!(tabHf instanceof SlottedHeapFile)) {
+                        System.out.println("varchar(n) fields are only supported on slotted tables: " + name);
+                        System.exit(0);
+                    }
+                    for (Map.Entry<Integer, Integer> e : maxLengths.entrySet())
+                        ((SlottedHeapFile) tabHf).setMaxLength(e.getKey(), e.getValue());
+                }
+                if (!bloomFilters.isEmpty()) {
+                    if (!(tabHf instanceof HeapFile)) {
+                        System.out.println("Bloom filters are only supported on heap tables: " + name);
+                        System.exit(0);
+                    }
+                    HeapFile hf = (HeapFile) tabHf;
+                    for (Map.Entry<Integer, Double> e : bloomFilters.entrySet())
+                        hf.addBloomFilter(e.getKey(), e.getValue(), HeapFile.DEFAULT_PAGES_PER_BLOOM_GROUP);
+                }
+                if (zoneMap) {
+                    if (!(tabHf instanceof HeapFile)) {
+                        System.out.println("Zone maps are only supported on heap tables: " + name);
+                        System.exit(0);
+                    }
+                    ((HeapFile) tabHf).enableZoneMap();
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (!bloomFilters.isEmpty()) {
+                    HeapFile hf = (HeapFile) tabHf;
+                    TransactionId tid = new TransactionId();
+                    try {
+                        hf.buildBloomFilters(tid);
+                    } catch (DbException e) {
+                        System.out.println("Unable to build the Bloom filters of " + name + ": "
+                                + e.getMessage());
+                        System.exit(0);
+                    } catch (TransactionAbortedException e) {
+                        e.printStackTrace();
+                        System.exit(0);
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                    for (PageGroupBloomFilter filter : hf.getBloomFilters())
+                        System.out.println("  " + filter);
+                }
+                for (String field : indexed) {
+                    try {
+                        System.out.println("  " + createIndex(name + "_" + field + "_idx", name, field));
+                    } catch (DbException e) {
+                        System.out.println("Unable to create index on " + name + "." + field + ": "
+                                + e.getMessage());
+                        System.exit(0);
+                    } catch (TransactionAbortedException e) {
+                        e.printStackTrace();
+                        System.exit(0);
+                    }
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,641 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of ColumnPage stores data for one page of a column of a
+ * ColumnarFile, or of its row map, and implements the Page interface that is
+ * used by BufferPool.
+ * <p>
+ * A page of a column holds the values of that column for a contiguous range
+ * of rows, in row order, and is compressed with whichever encoding is
+ * smallest for its values; see {@link Encoding}. A page of the row map holds
+ * one bit for each of a contiguous range of rows, which is set while the row
+ * has not been deleted.
+ *
+ * @see ColumnarFile
+ * @see BufferPool
+ */
+public class ColumnPage implements Page {
+
+    /**
+     * The encodings of the values of a column page. The encoding of a page is
+     * chosen when the page is written, from statistics on its values which
+     * are kept up to date as values are added.
+     */
+    public enum Encoding {
+        /** Ints in 4 bytes, strings as their length (2 bytes) and characters. */
+        PLAIN,
+        /**
+         * Frame of reference plus bit packing, for ints: the minimum (4
+         * bytes), the number of bits b of the largest difference (1 byte),
+         * then the difference of each value from the minimum in b bits.
+         */
+        FRAME_OF_REFERENCE,
+        /**
+         * Run-length encoding: the number of runs (4 bytes), then for each
+         * run its value, encoded as in PLAIN, and its length (4 bytes).
+         */
+        RLE,
+        /**
+         * Dictionary encoding, for strings: the number of distinct values (2
+         * bytes), the distinct values encoded as in PLAIN, the number of bits
+         * b of the largest code (1 byte), then the code of each value, its
+         * index in the dictionary, in b bits.
+         */
+        DICTIONARY
+    }
+
+    /** The number of bytes of the header of a column page. */
+    private static final int HEADER_SIZE = 9;
+    /** The number of bytes of the value count at the start of a row map page. */
+    private static final int ROW_MAP_HEADER_SIZE = 4;
+    /** The largest number of values on a column page, however well they compress. */
+    private static final int MAX_VALUES = BufferPool.getPageSize() * 8;
+
+    private final ColumnPageId pid;
+    private final Type type;    //Type of the values of this page, null for the row map
+    private int numValues;      //Number of values (or rows of the row map) on this page
+    private TransactionId dirtyTid;
+
+    // row map pages
+    private byte[] live;        //Bitmap of the live rows
+
+    // column pages
+    private int firstRow;                   //Row of the first value on this page
+    private int[] values;                   //Int values, or dictionary codes of string values
+    private ArrayList<String> dictionary;   //Distinct string values, by code
+    private HashMap<String, Integer> codes; //Code of each distinct string value
+
+    // statistics on the values of a column page, from which the sizes of the encodings follow
+    private int min, max;       //Smallest and largest int value
+    private int runs;           //Number of runs of equal values
+    private int plainBytes;     //Size of the values of a string page as PLAIN
+    private int rleBytes;       //Size of the runs of a string page as RLE
+    private int dictionaryBytes; //Size of the dictionary of a string page
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     * The format of a page of a column is the row of its first value (4
+     * bytes), the number of values on the page (4 bytes), the ordinal of its
+     * {@link Encoding} (1 byte) and the values in that encoding. The format
+     * of a page of the row map is the number of rows on the page (4 bytes)
+     * and a bitmap of the live rows.
+     *
+     * @see Catalog#getTupleDesc
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = id.getColumn() == ColumnPageId.ROW_MAP ? null
+                : Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (type == null) {
+            numValues = dis.readInt();
+            live = new byte[(getRowMapCapacity() + 7) / 8];
+            dis.readFully(live);
+        } else {
+            firstRow = dis.readInt();
+            int n = dis.readInt();
+            Encoding encoding = Encoding.values()[dis.readUnsignedByte()];
+            values = new int[Math.max(n, 16)];
+            if (type == Type.STRING_TYPE) {
+                dictionary = new ArrayList<String>();
+                codes = new HashMap<String, Integer>();
+            }
+            readValues(dis, encoding, n);
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of rows a page of the row map holds.
+     */
+    public static int getRowMapCapacity() {
+        return (BufferPool.getPageSize() - ROW_MAP_HEADER_SIZE) * 8;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk. The values of a column page are
+     * written in the encoding returned by {@link #getEncoding}.
+     *
+     * @see #ColumnPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            if (type == null) {
+                dos.writeInt(numValues);
+                dos.write(live);
+            } else {
+                Encoding encoding = getEncoding();
+                dos.writeInt(firstRow);
+                dos.writeInt(numValues);
+                dos.writeByte(encoding.ordinal());
+                writeValues(dos, encoding);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.getPageSize());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     * Used to add new, empty pages to the file. Passing the results of
+     * this method to the ColumnPage constructor will create a ColumnPage
+     * with no values in it.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Generates the data of an empty page of a column whose first value will
+     * be that of the given row.
+     *
+     * @param firstRow the row of the first value to be added to the page
+     */
+    public static byte[] createEmptyPageData(int firstRow) {
+        byte[] data = createEmptyPageData();
+        data[0] = (byte) (firstRow >>> 24);
+        data[1] = (byte) (firstRow >>> 16);
+        data[2] = (byte) (firstRow >>> 8);
+        data[3] = (byte) firstRow;
+        return data;
+    }
+
+    /**
+     * Returns the number of values on this page, or the number of rows on
+     * this page of the row map (including deleted ones).
+     */
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /**
+     * Returns the row of the first value on this column page.
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * Returns true if the value of the given row is on this column page.
+     */
+    public boolean containsRow(int row) {
+        return row >= firstRow && row - firstRow < numValues;
+    }
+
+    // ------------------------------------------------------------------
+    // column pages
+
+    /**
+     * Returns the value at the given position of this column page.
+     *
+     * @param i the position of the value, less than getNumValues()
+     */
+    public Field getField(int i) {
+        if (type == null || i < 0 || i >= numValues)
+            throw new NoSuchElementException("no value " + i + " on " + pid);
+        if (type == Type.INT_TYPE)
+            return new IntField(values[i]);
+        return new StringField(dictionary.get(values[i]), Type.STRING_LEN);
+    }
+
+    /**
+     * Returns true if the given value can be appended to this column page.
+     */
+    public boolean hasRoomFor(Field f) {
+        if (type == null || numValues >= MAX_VALUES)
+            return false;
+        return HEADER_SIZE + minSize(statsWith(f)) <= BufferPool.getPageSize();
+    }
+
+    /**
+     * Appends a value to this column page.
+     *
+     * @throws DbException if the page is full or the value has the wrong type
+     * @param f the value to add
+     */
+    public void addField(Field f) throws DbException {
+        if (type == null || f.getType() != type) throw new DbException("Type mismatch");
+        if (!hasRoomFor(f)) throw new DbException("Page is full");
+        addValue(f);
+    }
+
+    /**
+     * Returns the encoding this column page is written in: the one which
+     * takes the fewest bytes for its values.
+     */
+    public Encoding getEncoding() {
+        int[] stats = { min, max, runs, plainBytes, rleBytes, dictionaryBytes, numValues, dictionarySize() };
+        Encoding best = Encoding.PLAIN;
+        for (Encoding e : Encoding.values()) {
+            if (size(e, stats) < size(best, stats))
+                best = e;
+        }
+        return best;
+    }
+
+    /**
+     * Evaluates the given predicate on the values of this column page without
+     * decoding them into fields. Int pages first compare the operand with the
+     * smallest and largest value on the page, so many predicates are decided
+     * for the whole page at once; string pages evaluate the predicate once
+     * per dictionary entry and then only compare codes.
+     *
+     * @param op the operator of the predicate
+     * @param operand the operand of the predicate
+     * @return for each value on the page, whether it satisfies the predicate
+     */
+    public boolean[] matches(Predicate.Op op, Field operand) {
+        boolean[] match = new boolean[numValues];
+        if (numValues == 0)
+            return match;
+        if (type == Type.INT_TYPE) {
+            int v = ((IntField) operand).getValue();
+            Boolean decided = Predicate.matchesRange(op, v, min, max);
+            if (decided == null)
+                Predicate.matchInts(values, numValues, op, v, match);
+            else if (decided)
+                Arrays.fill(match, true);
+        } else {
+            boolean[] codeMatches = new boolean[dictionary.size()];
+            for (int c = 0; c < codeMatches.length; c++)
+                codeMatches[c] = new StringField(dictionary.get(c), Type.STRING_LEN).compare(op, operand);
+            for (int i = 0; i < numValues; i++)
+                match[i] = codeMatches[values[i]];
+        }
+        return match;
+    }
+
+    private static String truncate(String s) {
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    private int dictionarySize() {
+        return dictionary == null ? 0 : dictionary.size();
+    }
+
+    /**
+     * Returns the code of the given string, adding it to the dictionary if it
+     * is not in it yet.
+     */
+    private int code(String s) {
+        Integer c = codes.get(s);
+        if (c == null) {
+            c = dictionary.size();
+            dictionary.add(s);
+            codes.put(s, c);
+        }
+        return c;
+    }
+
+    private void append(int value) {
+        if (numValues == values.length)
+            values = Arrays.copyOf(values, 2 * values.length);
+        values[numValues++] = value;
+    }
+
+    /**
+     * Returns the statistics of this page as if the given value were added:
+     * min, max, runs, plainBytes, rleBytes, dictionaryBytes, the number of
+     * values and the number of distinct strings.
+     */
+    private int[] statsWith(Field f) {
+        int[] stats = { min, max, runs, plainBytes, rleBytes, dictionaryBytes,
+                numValues + 1, dictionarySize() };
+        if (type == Type.INT_TYPE) {
+            int v = ((IntField) f).getValue();
+            stats[0] = numValues == 0 ? v : Math.min(min, v);
+            stats[1] = numValues == 0 ? v : Math.max(max, v);
+            if (numValues == 0 || values[numValues - 1] != v)
+                stats[2]++;
+        } else {
+            String s = truncate(((StringField) f).getValue());
+            Integer c = codes.get(s);
+            stats[3] += 2 + s.length();
+            if (numValues == 0 || c == null || values[numValues - 1] != c) {
+                stats[2]++;
+                stats[4] += 2 + s.length() + 4;
+            }
+            if (c == null) {
+                stats[5] += 2 + s.length();
+                stats[7]++;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the number of bytes of the values with the given statistics in
+     * the given encoding, or Integer.MAX_VALUE if the encoding does not apply
+     * to the type of this page.
+     */
+    private int size(Encoding encoding, int[] stats) {
+        int n = stats[6];
+        switch (encoding) {
+        case PLAIN:
+            return type == Type.INT_TYPE ? 4 * n : stats[3];
+        case FRAME_OF_REFERENCE:
+            if (type != Type.INT_TYPE)
+                return Integer.MAX_VALUE;
+            return 5 + packedSize(n, bitsFor((long) stats[1] - stats[0]));
+        case RLE:
+            return type == Type.INT_TYPE ? 4 + 8 * stats[2] : 4 + stats[4];
+        case DICTIONARY:
+            if (type == Type.INT_TYPE)
+                return Integer.MAX_VALUE;
+            return 2 + stats[5] + 1 + packedSize(n, bitsFor(stats[7] - 1));
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private int minSize(int[] stats) {
+        int best = Integer.MAX_VALUE;
+        for (Encoding e : Encoding.values())
+            best = Math.min(best, size(e, stats));
+        return best;
+    }
+
+    /** Returns the number of bits needed for values from 0 to range. */
+    private static int bitsFor(long range) {
+        return range <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /** Returns the number of bytes of n values packed in the given number of bits. */
+    private static int packedSize(int n, int bits) {
+        return (int) (((long) n * bits + 7) / 8);
+    }
+
+    /**
+     * Writes the values of this column page in the given encoding.
+     */
+    private void writeValues(DataOutputStream dos, Encoding encoding) throws IOException {
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < numValues; i++)
+                writeValue(dos, values[i]);
+            break;
+        case FRAME_OF_REFERENCE: {
+            int bits = bitsFor((long) max - min);
+            dos.writeInt(min);
+            dos.writeByte(bits);
+            pack(dos, values, numValues, min, bits);
+            break;
+        }
+        case RLE:
+            dos.writeInt(runs);
+            for (int i = 0; i < numValues; ) {
+                int j = i;
+                while (j < numValues && values[j] == values[i])
+                    j++;
+                writeValue(dos, values[i]);
+                dos.writeInt(j - i);
+                i = j;
+            }
+            break;
+        case DICTIONARY: {
+            int bits = bitsFor(dictionary.size() - 1);
+            dos.writeShort(dictionary.size());
+            for (String s : dictionary)
+                writeString(dos, s);
+            dos.writeByte(bits);
+            pack(dos, values, numValues, 0, bits);
+            break;
+        }
+        }
+    }
+
+    /**
+     * Reads n values in the given encoding, appending them to this page and
+     * updating its statistics.
+     */
+    private void readValues(DataInputStream dis, Encoding encoding, int n) throws IOException {
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < n; i++)
+                addValue(readValue(dis));
+            break;
+        case FRAME_OF_REFERENCE: {
+            int base = dis.readInt();
+            int bits = dis.readUnsignedByte();
+            for (int v : unpack(dis, n, base, bits))
+                addValue(new IntField(v));
+            break;
+        }
+        case RLE: {
+            int numRuns = dis.readInt();
+            for (int r = 0; r < numRuns; r++) {
+                Field f = readValue(dis);
+                int length = dis.readInt();
+                for (int i = 0; i < length; i++)
+                    addValue(f);
+            }
+            break;
+        }
+        case DICTIONARY: {
+            String[] entries = new String[dis.readUnsignedShort()];
+            for (int c = 0; c < entries.length; c++)
+                entries[c] = readString(dis);
+            int bits = dis.readUnsignedByte();
+            for (int c : unpack(dis, n, 0, bits))
+                addValue(new StringField(entries[c], Type.STRING_LEN));
+            break;
+        }
+        }
+    }
+
+    /** Appends a value to this column page and updates its statistics. */
+    private void addValue(Field f) {
+        int[] stats = statsWith(f);
+        append(type == Type.INT_TYPE ? ((IntField) f).getValue()
+                : code(truncate(((StringField) f).getValue())));
+        min = stats[0];
+        max = stats[1];
+        runs = stats[2];
+        plainBytes = stats[3];
+        rleBytes = stats[4];
+        dictionaryBytes = stats[5];
+    }
+
+    private void writeValue(DataOutputStream dos, int value) throws IOException {
+        if (type == Type.INT_TYPE)
+            dos.writeInt(value);
+        else
+            writeString(dos, dictionary.get(value));
+    }
+
+    private Field readValue(DataInputStream dis) throws IOException {
+        if (type == Type.INT_TYPE)
+            return new IntField(dis.readInt());
+        return new StringField(readString(dis), Type.STRING_LEN);
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        dos.writeShort(s.length());
+        dos.writeBytes(s);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] bs = new byte[dis.readUnsignedShort()];
+        dis.readFully(bs);
+        return new String(bs);
+    }
+
+    /**
+     * Writes the differences of the first n values from base in the given
+     * number of bits each, least significant bits first.
+     */
+    private static void pack(DataOutputStream dos, int[] values, int n, int base, int bits)
+            throws IOException {
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < n; i++) {
+            buffer |= ((long) values[i] - base) << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                dos.writeByte((int) buffer);
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        if (buffered > 0)
+            dos.writeByte((int) buffer);
+    }
+
+    /**
+     * Reads n values written by {@link #pack}.
+     */
+    private static int[] unpack(DataInputStream dis, int n, int base, int bits) throws IOException {
+        int[] result = new int[n];
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < n; i++) {
+            while (buffered < bits) {
+                buffer |= (long) dis.readUnsignedByte() << buffered;
+                buffered += 8;
+            }
+            result[i] = (int) (base + (buffer & mask));
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------
+    // row map pages
+
+    /**
+     * Returns true if no more rows can be added to this row map page.
+     */
+    public boolean isFull() {
+        return type == null && numValues >= getRowMapCapacity();
+    }
+
+    /**
+     * Appends a live row to this row map page.
+     *
+     * @throws DbException if the page is full or not a page of the row map
+     * @return the position of the new row on this page
+     */
+    public int addRow() throws DbException {
+        if (type != null) throw new DbException("Not a page of the row map");
+        if (isFull()) throw new DbException("Page is full");
+        setLive(numValues, true);
+        return numValues++;
+    }
+
+    /**
+     * Returns true if the row at the given position of this row map page
+     * exists and has not been deleted.
+     */
+    public boolean isLive(int i) {
+        return type == null && i >= 0 && i < numValues
+                && (live[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Marks the row at the given position of this row map page as live or
+     * deleted.
+     */
+    private void setLive(int i, boolean value) {
+        if (value)
+            live[i / 8] |= (1 << (i % 8));
+        else
+            live[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * Marks the row at the given position of this row map page as deleted.
+     *
+     * @throws DbException if the row does not exist or is already deleted
+     */
+    public void deleteRow(int i) throws DbException {
+        if (!isLive(i)) throw new DbException("Tuple slot is empty");
+        setLive(i, false);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+}
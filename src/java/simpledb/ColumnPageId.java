@@ -0,0 +1,100 @@
+package simpledb;
+
+/**
+ * Unique identifier for ColumnPage objects: a page of one column of a
+ * ColumnarFile, or of its row map.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnPageId implements PageId {
+
+    /** The column number of the pages of the row map of a ColumnarFile. */
+    public static final int ROW_MAP = -1;
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the page, or ROW_MAP
+     * @param pgNo The page number in that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the column of this page, or ROW_MAP for a page of the row map
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column getColumn() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, combining the table number, the
+     *   column and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        int result = 1;
+        result = 31 * result + tableId;
+        result = 31 * result + column;
+        result = 31 * result + pgNo;
+        return result;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., table ids, columns and page
+     *   numbers are the same)
+     */
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass()) {
+            return false;
+        }
+        ColumnPageId other = (ColumnPageId) o;
+        return other.tableId == this.tableId && other.column == this.column
+                && other.pgNo == this.pgNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        int data[] = new int[3];
+
+        data[0] = getTableId();
+        data[1] = getColumn();
+        data[2] = pageNumber();
+
+        return data;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
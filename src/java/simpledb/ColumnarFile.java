@@ -0,0 +1,426 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnarFile is an implementation of a DbFile that stores each column of a
+ * table in its own chain of pages, in a file of its own, so a scan which only
+ * needs a few columns of a wide table only reads the pages of those columns.
+ * <p>
+ * Rows are numbered in insertion order. The row map, stored in the file given
+ * to the constructor, holds one bit per row which is cleared when the row is
+ * deleted. Column i is stored in a file with the same name followed by
+ * <code>.i</code>, and holds the value of every row of the column in row
+ * order. Each page of a column is compressed on its own, so pages hold
+ * different numbers of values; see {@link ColumnPage}. The row of the first
+ * value of each page of a column is kept in a directory in memory, read from
+ * the headers of the pages when the column is first accessed, through which
+ * the page holding the value of a row is found. The space of deleted rows is
+ * not reused.
+ *
+ * @see ColumnPage
+ * @see SeqScan
+ */
+public class ColumnarFile implements DbFile {
+    private final File file;
+    private final TupleDesc tupleDesc;
+    private final DbFileChannel[] channels; //Channels of the row map and of each column
+    private final ArrayList<ArrayList<Integer>> firstRows; //First row of each page of each column, null until read
+
+    /**
+     * Constructs a columnar file backed by the specified file and column files
+     * next to it.
+     *
+     * @param f the file that stores the row map of this file; the columns are
+     *        stored in files with the name of f followed by the column number
+     * @param td the TupleDesc of the tuples in this file
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.tupleDesc = td;
+        this.channels = new DbFileChannel[td.numFields() + 1];
+        channels[0] = new DbFileChannel(f);
+        for (int i = 0; i < td.numFields(); i++) {
+            channels[i + 1] = new DbFileChannel(getColumnFile(i));
+        }
+        this.firstRows = new ArrayList<ArrayList<Integer>>(
+                Collections.<ArrayList<Integer>>nCopies(td.numFields(), null));
+    }
+
+    /**
+     * Returns the File backing the row map of this ColumnarFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the File backing the given column of this ColumnarFile on disk.
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + "." + column);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnarFile, the hash of the
+     * absolute file name of its row map.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    private DbFileChannel channel(int column) {
+        return channels[column + 1];
+    }
+
+    private File file(int column) {
+        return column == ColumnPageId.ROW_MAP ? file : getColumnFile(column);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        long offset = (long) cpid.pageNumber() * BufferPool.getPageSize();
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            if (channel(cpid.getColumn()).read(data, offset) < 0) {
+                throw new IllegalArgumentException("page " + pid + " does not exist");
+            }
+            return new ColumnPage(cpid, data);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        long offset = (long) cpid.pageNumber() * BufferPool.getPageSize();
+        channel(cpid.getColumn()).write(page.getPageData(), offset);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        for (DbFileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages of the given column, or of the row map.
+     */
+    private int numPages(int column) {
+        return (int) (file(column).length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the total number of pages of the row map and all the columns of
+     * this ColumnarFile.
+     */
+    public int numPages() {
+        int num = numPages(ColumnPageId.ROW_MAP);
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            num += numPages(i);
+        }
+        return num;
+    }
+
+    /**
+     * Makes sure the given page of the row map exists on disk, appending
+     * empty pages to the row map if it does not.
+     */
+    private synchronized void ensureRowMapPage(int pageNo) throws IOException {
+        int numPages = numPages(ColumnPageId.ROW_MAP);
+        for (int i = numPages; i <= pageNo; i++) {
+            long offset = (long) i * BufferPool.getPageSize();
+            channel(ColumnPageId.ROW_MAP).write(ColumnPage.createEmptyPageData(), offset);
+        }
+    }
+
+    /**
+     * Returns the directory of the given column: the row of the first value
+     * of each of its pages, by page number. The directory is read from the
+     * page headers on disk the first time it is needed.
+     */
+    private synchronized ArrayList<Integer> firstRows(int column) throws IOException {
+        ArrayList<Integer> rows = firstRows.get(column);
+        if (rows == null) {
+            rows = new ArrayList<Integer>();
+            byte[] header = new byte[4];
+            for (int i = 0; i < numPages(column); i++) {
+                channel(column).read(header, (long) i * BufferPool.getPageSize());
+                rows.add(new DataInputStream(new ByteArrayInputStream(header)).readInt());
+            }
+            firstRows.set(column, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the number of the page of the given column which holds the
+     * value of the given row, or -1 if the column has no pages.
+     */
+    private synchronized int pageOf(int column, int row) throws IOException {
+        int i = Collections.binarySearch(firstRows(column), row);
+        // otherwise the last page starting before the row
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Appends an empty page to the given column, whose first value will be
+     * that of the given row.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendPage(int column, int firstRow) throws IOException {
+        ArrayList<Integer> rows = firstRows(column);
+        int pageNo = rows.size();
+        channel(column).write(ColumnPage.createEmptyPageData(firstRow),
+                (long) pageNo * BufferPool.getPageSize());
+        rows.add(firstRow);
+        return pageNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!tupleDesc.equals(t.getTupleDesc())) throw new DbException("Tuple descriptor mismatch");
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+
+        // claim a row at the end of the row map; the lock on its last page
+        // serializes inserts, so the ends of the columns stay in step with it
+        int pageNo = Math.max(numPages(ColumnPageId.ROW_MAP) - 1, 0);
+        ColumnPageId rowPid;
+        ColumnPage rowPage;
+        while (true) {
+            ensureRowMapPage(pageNo);
+            rowPid = new ColumnPageId(getId(), ColumnPageId.ROW_MAP, pageNo);
+            boolean heldBefore = bufferPool.holdsLock(tid, rowPid);
+            rowPage = (ColumnPage) bufferPool.getPage(tid, rowPid, Permissions.READ_WRITE);
+            if (!rowPage.isFull()) {
+                break;
+            }
+            if (!heldBefore) {
+                bufferPool.releasePage(tid, rowPid);
+            }
+            pageNo++;
+        }
+        int slot = rowPage.addRow();
+        rowPage.markDirty(true, tid);
+        modifiedPages.add(rowPage);
+
+        // append the values to the last pages of the columns, or to new pages
+        // when they do not fit
+        int row = pageNo * ColumnPage.getRowMapCapacity() + slot;
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            Field f = t.getField(i);
+            int colPageNo = firstRows(i).size() - 1;
+            if (colPageNo < 0) {
+                colPageNo = appendPage(i, row);
+            }
+            ColumnPageId pid = new ColumnPageId(getId(), i, colPageNo);
+            boolean heldBefore = bufferPool.holdsLock(tid, pid);
+            ColumnPage page = (ColumnPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getFirstRow() + page.getNumValues() != row) {
+                throw new DbException("column " + i + " is out of step with the row map");
+            }
+            if (!page.hasRoomFor(f)) {
+                if (!heldBefore) {
+                    bufferPool.releasePage(tid, pid);
+                }
+                pid = new ColumnPageId(getId(), i, appendPage(i, row));
+                page = (ColumnPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            }
+            page.addField(f);
+            page.markDirty(true, tid);
+            modifiedPages.add(page);
+        }
+        t.setRecordId(new RecordId(rowPid, slot));
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || !(rid.getPageId() instanceof ColumnPageId)) {
+            throw new DbException("Tuple to delete not in this ColumnarFile");
+        }
+        ColumnPage rowPage = (ColumnPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_WRITE);
+        rowPage.deleteRow(rid.tupleno());
+        rowPage.markDirty(true, tid);
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        modifiedPages.add(rowPage);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file which only reads the
+     * given columns. The other fields of the returned tuples are null.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param columns the columns to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid, columns, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file which satisfy all of
+     * the given predicates and only reads the given columns. The predicates
+     * are evaluated on the compressed pages of their columns, a page at a
+     * time, before any field of a row is read. The other fields of the
+     * returned tuples are null.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param columns the columns to read, or null to read all of them
+     * @param predicates the predicates the returned tuples satisfy, or null
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate[] predicates) {
+        if (columns == null) {
+            columns = new int[tupleDesc.numFields()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+        }
+        return new ColumnarFileIterator(tid, columns.clone(),
+                predicates == null ? new Predicate[0] : predicates.clone());
+    }
+
+    /**
+     * Iterator over the tuples of a ColumnarFile, which walks the row map and
+     * reads the pages of the requested columns as the rows reach them.
+     */
+    private class ColumnarFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final ColumnPage[] columnPages;
+        private final Predicate[] predicates;
+        private final ColumnPage[] predicatePages; //Current page of the column of each predicate
+        private final boolean[][] matches;         //Which values of that page satisfy the predicate
+        private int numPages;
+        private int pageNo;
+        private ColumnPage rowPage;
+        private int slot;
+
+        public ColumnarFileIterator(TransactionId tid, int[] columns, Predicate[] predicates) {
+            this.tid = tid;
+            this.columns = columns;
+            this.columnPages = new ColumnPage[columns.length];
+            this.predicates = predicates;
+            this.predicatePages = new ColumnPage[predicates.length];
+            this.matches = new boolean[predicates.length][];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            // rows appended to new pages while the iterator is open are not visited
+            this.numPages = numPages(ColumnPageId.ROW_MAP);
+            this.pageNo = -1;
+            this.rowPage = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (rowPage != null) {
+                    while (slot < rowPage.getNumValues()) {
+                        int s = slot++;
+                        int row = pageNo * ColumnPage.getRowMapCapacity() + s;
+                        if (rowPage.isLive(s) && satisfiesPredicates(row)) {
+                            return readRow(row, s);
+                        }
+                    }
+                }
+                pageNo++;
+                if (pageNo >= numPages) {
+                    rowPage = null;
+                    return null;
+                }
+                PageId pid = new ColumnPageId(getId(), ColumnPageId.ROW_MAP, pageNo);
+                rowPage = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                slot = 0;
+            }
+        }
+
+        /**
+         * Returns the page of the given column holding the value of the given
+         * row, unless the given current page already holds it.
+         */
+        private ColumnPage columnPage(ColumnPage current, int column, int row)
+                throws DbException, TransactionAbortedException {
+            if (current != null && current.containsRow(row)) {
+                return current;
+            }
+            int colPageNo;
+            try {
+                colPageNo = pageOf(column, row);
+            } catch (IOException e) {
+                throw new DbException("could not read the directory of column " + column);
+            }
+            PageId pid = new ColumnPageId(getId(), column, colPageNo);
+            return (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        }
+
+        /**
+         * Returns true if the given row satisfies all the predicates. The
+         * predicates are evaluated on a whole page of their column when the
+         * scan reaches it.
+         */
+        private boolean satisfiesPredicates(int row) throws DbException, TransactionAbortedException {
+            for (int i = 0; i < predicates.length; i++) {
+                ColumnPage page = columnPage(predicatePages[i], predicates[i].getField(), row);
+                if (page != predicatePages[i]) {
+                    predicatePages[i] = page;
+                    matches[i] = page.matches(predicates[i].getOp(), predicates[i].getOperand());
+                }
+                if (!matches[i][row - page.getFirstRow()]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Assembles the tuple of the given row, at the given position of the
+         * current row map page, from the requested columns.
+         */
+        private Tuple readRow(int row, int s) throws DbException, TransactionAbortedException {
+            Tuple t = new Tuple(tupleDesc);
+            for (int i = 0; i < columns.length; i++) {
+                columnPages[i] = columnPage(columnPages[i], columns[i], row);
+                t.setField(columns[i], columnPages[i].getField(row - columnPages[i].getFirstRow()));
+            }
+            t.setRecordId(new RecordId(rowPage.getId(), s));
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            this.numPages = 0;
+            this.rowPage = null;
+            Arrays.fill(columnPages, null);
+            Arrays.fill(predicatePages, null);
+            Arrays.fill(matches, null);
+        }
+    }
+}
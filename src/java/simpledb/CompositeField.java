@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that combines the values of several fields, ordered
+ * lexicographically: by the first field, then by the second field among
+ * values with equal first fields, and so on. CompositeFields are the keys of
+ * B+ trees keyed on several fields.
+ * <p>
+ * A CompositeField is compared with a CompositeField of fewer fields as with
+ * a prefix: only the leading fields both have are compared, so a prefix is
+ * equal to every value which starts with it. A predicate on a prefix of the
+ * key fields of a B+ tree, such as EQUALS (5), thus matches every key with
+ * those leading values, and ranges of keys can be bounded by prefixes. A
+ * Field other than a CompositeField is compared as a prefix of one field.
+ *
+ * @see BTreeFile#BTreeFile(File, int[], TupleDesc)
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields The values of the fields, in order of significance.
+     */
+    public CompositeField(Field... fields) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("a composite field needs at least one field");
+        this.fields = fields.clone();
+    }
+
+    /**
+     * @return the number of fields of this value
+     */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /**
+     * @return the value of the ith field
+     */
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    /**
+     * @return a CompositeField with the fields of this value followed by the
+     *   given field
+     */
+    public CompositeField append(Field f) {
+        Field[] appended = Arrays.copyOf(fields, fields.length + 1);
+        appended[fields.length] = f;
+        return new CompositeField(appended);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i]);
+        }
+        return sb.append(")").toString();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof CompositeField && Arrays.equals(fields, ((CompositeField) field).fields);
+    }
+
+    /**
+     * Writes the fields one after the other.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields)
+            f.serialize(dos);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, comparing only
+     * the leading fields both have.
+     * Return semantics are as specified by Field.compare
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        Field[] other = val instanceof CompositeField ? ((CompositeField) val).fields : new Field[] { val };
+        int cmp = 0;
+        for (int i = 0; i < Math.min(fields.length, other.length) && cmp == 0; i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other[i]))
+                cmp = -1;
+            else if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i]))
+                cmp = 1;
+        }
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmp >= 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_OR_EQ:
+            return cmp <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of the first field. The types of all of the fields of a
+     * key are given by the TupleDesc of its B+ tree.
+     */
+    public Type getType() {
+        return fields[0].getType();
+    }
+
+    /**
+     * @return the number of bytes required to store a value of fields of the
+     *   given types
+     */
+    public static int getLen(Type[] types) {
+        int len = 0;
+        for (Type t : types)
+            len += t.getLen();
+        return len;
+    }
+
+    /**
+     * @return a CompositeField of fields of the given types read from the
+     *   specified DataInputStream
+     * @throws ParseException if the data read from the input stream is not
+     *   of the appropriate types.
+     */
+    public static CompositeField parse(Type[] types, DataInputStream dis) throws ParseException {
+        Field[] fields = new Field[types.length];
+        for (int i = 0; i < types.length; i++)
+            fields[i] = types[i].parse(dis);
+        return new CompositeField(fields);
+    }
+}
@@ -28,6 +28,14 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Closes the files on disk this DbFile keeps open. The DbFile can still
+     * be used afterwards, which opens them again.
+     *
+     * @throws IOException if closing a file fails
+     */
+    public void close() throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +76,27 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile of which only
+     * the given fields of the tuples satisfying the given predicates are
+     * needed. Files which can read some fields of a tuple without the others,
+     * or evaluate predicates before assembling tuples, use them to read less
+     * and may leave the other fields of the returned tuples null; other files
+     * return whole tuples, and may return tuples which do not satisfy the
+     * predicates, so the predicates must still be applied to the tuples.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param fields the indexes of the needed fields, or null if all of them are
+     * @param predicates predicates on the fields of this file, or null
+     * @see SeqScan
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates);
+
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    public int numPages();
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
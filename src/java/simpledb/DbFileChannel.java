@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DbFileChannel is a long-lived channel onto the file backing a DbFile.
+ * Pages are read and written with positional I/O, which does not move a
+ * shared file pointer, so many threads can read and write pages of the same
+ * file at once without opening, seeking and closing the file for every page.
+ * <p>
+ * The channel is opened lazily. If it is closed, by {@link #close} or because
+ * another thread using it was interrupted, it is reopened on the next access.
+ * The file can also be read and written sequentially through streams, which
+ * use positional I/O on the channel as well.
+ *
+ * @see HeapFile
+ * @see BTreeFile
+ */
+public class DbFileChannel {
+    private final File file;
+    private volatile FileChannel channel;
+
+    /**
+     * Creates a channel onto the specified file. The file is created when it
+     * is first accessed if it does not exist.
+     *
+     * @param f the file to read and write
+     */
+    public DbFileChannel(File f) {
+        this.file = f;
+    }
+
+    /**
+     * Returns the open channel, opening the file if this is the first access
+     * or the previous channel has been closed.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel fc = this.channel;
+        if (fc == null || !fc.isOpen()) {
+            synchronized (this) {
+                fc = this.channel;
+                if (fc == null || !fc.isOpen()) {
+                    fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    this.channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Reads bytes from the file into data, starting at the given position.
+     * Reads until data is full or the end of the file is reached.
+     *
+     * @param data the buffer to read into
+     * @param position the offset in the file of the first byte to read
+     * @return the number of bytes read, or -1 if position is at or past the end
+     *         of the file
+     */
+    public int read(byte[] data, long position) throws IOException {
+        return read(data, 0, data.length, position);
+    }
+
+    /**
+     * Reads up to length bytes from the file into data at the given offset,
+     * starting at the given position in the file. Reads until length bytes
+     * have been read or the end of the file is reached.
+     *
+     * @param data the buffer to read into
+     * @param offset the offset in data of the first byte to read
+     * @param length the number of bytes to read
+     * @param position the offset in the file of the first byte to read
+     * @return the number of bytes read, or -1 if position is at or past the end
+     *         of the file
+     */
+    public int read(byte[] data, int offset, int length, long position) throws IOException {
+        while (true) {
+            ByteBuffer buf = ByteBuffer.wrap(data, offset, length);
+            try {
+                FileChannel fc = channel();
+                while (buf.hasRemaining()) {
+                    if (fc.read(buf, position + buf.position() - offset) < 0) {
+                        break;
+                    }
+                }
+                int n = buf.position() - offset;
+                return (n == 0 && length > 0) ? -1 : n;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (AsynchronousCloseException e) {
+                // closed by an interrupt in another thread; retry on a new channel
+            }
+        }
+    }
+
+
+    /**
+     * Writes all of data to the file, starting at the given position. The file
+     * is extended if the position is past its end.
+     *
+     * @param data the bytes to write
+     * @param position the offset in the file of the first byte to write
+     */
+    public void write(byte[] data, long position) throws IOException {
+        write(data, 0, data.length, position);
+    }
+
+    /**
+     * Writes length bytes of data at the given offset to the file, starting at
+     * the given position. The file is extended if the position is past its end.
+     *
+     * @param data the bytes to write
+     * @param offset the offset in data of the first byte to write
+     * @param length the number of bytes to write
+     * @param position the offset in the file of the first byte to write
+     */
+    public void write(byte[] data, int offset, int length, long position) throws IOException {
+        while (true) {
+            ByteBuffer buf = ByteBuffer.wrap(data, offset, length);
+            try {
+                FileChannel fc = channel();
+                while (buf.hasRemaining()) {
+                    fc.write(buf, position + buf.position() - offset);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (AsynchronousCloseException e) {
+                // closed by an interrupt in another thread; retry on a new channel
+            }
+        }
+    }
+
+    /**
+     * Appends data to the end of the file.
+     *
+     * @param data the bytes to write
+     * @return the offset in the file at which data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = file.length();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Truncates the file to the given size if it is longer.
+     *
+     * @param size the new size of the file in bytes
+     */
+    public synchronized void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /**
+     * Returns an unbuffered stream which reads the file sequentially, starting
+     * at the given position. Closing the stream does not close this channel.
+     *
+     * @param position the offset in the file of the first byte to read
+     */
+    public InputStream inputStream(final long position) {
+        return new InputStream() {
+            private long next = position;
+
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int n = DbFileChannel.this.read(b, off, len, next);
+                if (n > 0) {
+                    next += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Returns an unbuffered stream which writes the file sequentially,
+     * starting at the given position. Closing the stream does not close this
+     * channel.
+     *
+     * @param position the offset in the file of the first byte to write
+     */
+    public OutputStream outputStream(final long position) {
+        return new OutputStream() {
+            private long next = position;
+
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                DbFileChannel.this.write(b, off, len, next);
+                next += len;
+            }
+        };
+    }
+
+    /**
+     * Closes the channel. The channel is reopened if the file is accessed
+     * again.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel fc = this.channel;
+        this.channel = null;
+        if (fc != null) {
+            fc.close();
+        }
+    }
+}
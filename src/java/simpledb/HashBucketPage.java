@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one page of a bucket
+ * of a HashFile. A bucket is a chain of pages: its first page is the one the
+ * directory refers to, and each page refers to the next page of the chain,
+ * holding the tuples which did not fit on the previous pages.
+ *
+ * @see HashFile
+ */
+public class HashBucketPage implements Page {
+    private volatile TransactionId dirtier = null;
+
+    final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final byte[] header;
+    private final Tuple[] tuples;
+    private int localDepth;     //Number of low bits of the hash shared by the keys of the bucket
+    private int nextPage;       //Next page of the bucket, or 0
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The format of a HashBucketPage is the local depth of its bucket and the
+     * page number of the next page of the bucket (or 0), followed by a bitmap
+     * of the slots in use, like the header of a HeapPage, and the tuple slots.
+     *
+     * @see Catalog#getTupleDesc
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getMaxTuples(td);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.localDepth = dis.readInt();
+        this.nextPage = dis.readInt();
+        this.header = new byte[(numSlots + 7) / 8];
+        dis.readFully(header);
+        this.tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                tuples[i] = readTuple(dis, i);
+            } else {
+                dis.skipBytes(td.getSize());
+            }
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    private Tuple readTuple(DataInputStream dis, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parse(dis));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * Returns the number of tuples a bucket page of a table with the given
+     * TupleDesc holds: each tuple takes its size and one bit of the bitmap, after
+     * the local depth and the next page pointer.
+     */
+    public static int getMaxTuples(TupleDesc td) {
+        return ((BufferPool.getPageSize() - 2 * INDEX_SIZE) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Returns the local depth of the bucket of this page.
+     */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /**
+     * Returns the page number of the next page of the bucket, or 0 if this
+     * is its last page.
+     */
+    public int getNextPageNo() {
+        return nextPage;
+    }
+
+    public void setNextPageNo(int nextPage) {
+        this.nextPage = nextPage;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(localDepth);
+            dos.writeInt(nextPage);
+            dos.write(header);
+            for (int i = 0; i < numSlots; i++) {
+                if (tuples[i] == null) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dos);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - 2 * INDEX_SIZE - header.length
+                    - numSlots * td.getSize()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HashBucketPage, of local depth 0 and without a next page.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid))
+            throw new DbException("tuple is not on this page");
+        int slotId = rid.tupleno();
+        if (!isSlotUsed(slotId))
+            throw new DbException("tuple slot is already empty");
+        tuples[slotId] = null;
+        markSlotUsed(slotId, false);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the page is full or the tupledesc is mismatched.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("type mismatch, in addTuple");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                return;
+            }
+        }
+        throw new DbException("called addTuple on page with no empty slots.");
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= (1 << (i % 8));
+        else
+            header[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> used = new ArrayList<Tuple>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                used.add(tuples[i]);
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashBucketPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashBucketPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage stores a contiguous part of the directory of a HashFile:
+ * the page number of the bucket of each of getNumEntries() consecutive
+ * directory entries. The first directory page holds entries 0 to
+ * getNumEntries() - 1, the second the following ones, and so on.
+ *
+ * @see HashFile
+ * @see HashMetaPage
+ */
+public class HashDirectoryPage implements Page {
+    private volatile TransactionId dirtier = null;
+
+    final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+    private final HashPageId pid;
+    private final int[] entries;    //Page number of the bucket of each entry
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     * The format of a HashDirectoryPage is the page number of the bucket of
+     * each entry, in order.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.entries = new int[getNumEntries()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = dis.readInt();
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of directory entries on a directory page.
+     */
+    public static int getNumEntries() {
+        return BufferPool.getPageSize() / INDEX_SIZE;
+    }
+
+    /**
+     * Returns the page number of the bucket of the i-th entry of this page.
+     */
+    public int getEntry(int i) {
+        return entries[i];
+    }
+
+    /**
+     * Sets the page number of the bucket of the i-th entry of this page.
+     */
+    public void setEntry(int i, int bucketPageNo) {
+        entries[i] = bucketPageNo;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < entries.length; i++)
+                dos.writeInt(entries[i]);
+            dos.write(new byte[BufferPool.getPageSize() - entries.length * INDEX_SIZE]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HashDirectoryPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashDirectoryPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
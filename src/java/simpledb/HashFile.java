@@ -0,0 +1,663 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores an extendible hash
+ * table keyed on one field of its tuples, for tables which are mostly
+ * accessed by point lookups on that field: an equality lookup reads the meta
+ * page, one directory page and the pages of one bucket, whatever the size of
+ * the table.
+ * <p>
+ * Page 0 of the file is a HashMetaPage holding the global depth d of the
+ * directory, which is stored on HashDirectoryPages. The directory has 2^d
+ * entries, and the tuples whose key hashes to h are stored in the bucket of
+ * entry h mod 2^d. Each bucket is a chain of HashBucketPages, and has a local
+ * depth: its keys share the low (local depth) bits of their hash, so
+ * 2^(d - local depth) entries refer to it.
+ * <p>
+ * When a tuple is inserted into a full bucket, the bucket is split in two on
+ * the next bit of the hash, doubling the directory first if its local depth
+ * is the global depth. Since entry i + 2^d of the doubled directory refers to
+ * the same bucket as entry i, doubling only appends entries. Buckets whose
+ * keys cannot be split apart, such as many tuples with the same key, get
+ * overflow pages instead. Deletes never merge buckets or shrink the
+ * directory.
+ * <p>
+ * Like a BTreeFile, a HashFile modifies its pages through the BufferPool, so
+ * pages are locked, logged and recovered as those of any other file. The meta
+ * page and the directory pages are only latched while a bucket is looked up:
+ * their locks are released once the bucket is locked, unless the transaction
+ * held them before, so that buckets can be split while other transactions
+ * hold locks on other buckets. A split locks the meta page and the directory
+ * with read-write permission while it updates them, then downgrades these
+ * locks to read-only ones held until the end of the transaction: other
+ * transactions can look buckets up, but not split one, until the split
+ * commits or is rolled back. Since a split may be rolled back while a
+ * lookup which read it waits for the bucket, lookups check the directory
+ * again once they hold the bucket.
+ *
+ * @see HashMetaPage
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ * @see HashIndexScan
+ */
+public class HashFile implements DbFile {
+
+    private final File f;
+    private final DbFileChannel channel;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this hash
+     *        file
+     * @param key the field which the hash table is keyed on
+     * @param td the tuple descriptor of tuples in the file
+     */
+    public HashFile(File f, int key, TupleDesc td) {
+        this.f = f;
+        this.channel = new DbFileChannel(f);
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, the hash code of the
+     * absolute file name of the file underlying it.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the index of the field that this hash table is keyed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the number of pages in this HashFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the hash of a key. The hash code of an IntField is its value,
+     * so its bits are mixed for the low bits to depend on all of them.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the largest global depth of the directory, which is limited by
+     * the number of directory pages the meta page can refer to.
+     */
+    static int getMaxGlobalDepth() {
+        long entries = (long) HashMetaPage.getMaxDirectoryPages() * HashDirectoryPage.getNumEntries();
+        return Math.min(30, 63 - Long.numberOfLeadingZeros(entries));
+    }
+
+    /**
+     * Read a page from the file on disk. This should not be called directly
+     * but should be called from the BufferPool via getPage()
+     */
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        byte[] pageBuf = new byte[BufferPool.getPageSize()];
+        try {
+            int retval = channel.read(pageBuf, (long) id.pageNumber() * BufferPool.getPageSize());
+            if (retval == -1)
+                throw new IllegalArgumentException("Read past end of table");
+            if (retval < BufferPool.getPageSize())
+                throw new IllegalArgumentException("Unable to read "
+                        + BufferPool.getPageSize() + " bytes from HashFile");
+            Debug.log(1, "HashFile.readPage: read page %d", id.pageNumber());
+            switch (id.pgcateg()) {
+                case HashPageId.META:
+                    return new HashMetaPage(id, pageBuf);
+                case HashPageId.DIRECTORY:
+                    return new HashDirectoryPage(id, pageBuf);
+                default:
+                    return new HashBucketPage(id, pageBuf);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write a page to disk. This should not be called directly but should
+     * be called from the BufferPool when pages are flushed to disk
+     */
+    public void writePage(Page page) throws IOException {
+        channel.write(page.getPageData(), (long) page.getId().pageNumber() * BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Fetches a page through the local cache of the pages dirtied by the
+     * current operation, as BTreeFile.getPage does.
+     *
+     * @param tid the transaction id
+     * @param dirtypages the pages dirtied by the current operation, which is
+     *        updated with the pages fetched with read-write permission
+     * @param pid the id of the requested page
+     * @param perm the requested permissions on the page
+     */
+    Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (dirtypages.containsKey(pid))
+            return dirtypages.get(pid);
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    /**
+     * Fetches a page with getPage, and adds its id to latched if the
+     * transaction did not hold a lock on it before, as BTreeFile.findLeafPage
+     * does.
+     *
+     * @param latched the ids of the pages whose locks were taken by the
+     *        current operation, which may be released with releaseLatches
+     */
+    private Page getLatchedPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid,
+            Permissions perm, LinkedList<HashPageId> latched) throws DbException, TransactionAbortedException {
+        boolean heldBefore = dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+        Page p = getPage(tid, dirtypages, pid, perm);
+        if (!heldBefore)
+            latched.add(pid);
+        return p;
+    }
+
+    /**
+     * Releases the locks on the latched pages which were not fetched with
+     * read-write permission, and clears the list.
+     *
+     * @param latched the ids of the pages latched by the current operation
+     */
+    void releaseLatches(TransactionId tid, HashMap<PageId, Page> dirtypages, LinkedList<HashPageId> latched) {
+        for (HashPageId pid : latched) {
+            if (!dirtypages.containsKey(pid))
+                Database.getBufferPool().releasePage(tid, pid);
+        }
+        latched.clear();
+    }
+
+    /**
+     * Locks the meta page with the given permission, creating the meta page,
+     * a directory page and an empty bucket if the file is empty.
+     */
+    HashMetaPage getMetaPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+            LinkedList<HashPageId> latched) throws DbException, TransactionAbortedException {
+        synchronized (this) {
+            if (f.length() == 0) {
+                try {
+                    HashMetaPage meta = new HashMetaPage(new HashPageId(tableid, 0, HashPageId.META),
+                            HashMetaPage.createEmptyPageData());
+                    meta.addDirectoryPage(1);
+                    HashDirectoryPage directory = new HashDirectoryPage(
+                            new HashPageId(tableid, 1, HashPageId.DIRECTORY),
+                            HashDirectoryPage.createEmptyPageData());
+                    directory.setEntry(0, 2);
+                    channel.append(meta.getPageData());
+                    channel.append(directory.getPageData());
+                    channel.append(HashBucketPage.createEmptyPageData());
+                } catch (IOException e) {
+                    throw new DbException("unable to create hash file: " + e.getMessage());
+                }
+            }
+        }
+        return (HashMetaPage) getLatchedPage(tid, dirtypages, new HashPageId(tableid, 0, HashPageId.META),
+                perm, latched);
+    }
+
+    /**
+     * Returns the page number of the bucket of the given directory entry.
+     */
+    int getBucketPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta, int index,
+            LinkedList<HashPageId> latched) throws DbException, TransactionAbortedException {
+        HashDirectoryPage directory = getDirectoryPage(tid, dirtypages, meta, index, Permissions.READ_ONLY,
+                latched);
+        return directory.getEntry(index % HashDirectoryPage.getNumEntries());
+    }
+
+    private void setBucketPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta,
+            int index, int bucketPageNo, LinkedList<HashPageId> latched)
+            throws DbException, TransactionAbortedException {
+        HashDirectoryPage directory = getDirectoryPage(tid, dirtypages, meta, index, Permissions.READ_WRITE,
+                latched);
+        directory.setEntry(index % HashDirectoryPage.getNumEntries(), bucketPageNo);
+    }
+
+    private HashDirectoryPage getDirectoryPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int index, Permissions perm, LinkedList<HashPageId> latched)
+            throws DbException, TransactionAbortedException {
+        int pageNo = meta.getDirectoryPageNo(index / HashDirectoryPage.getNumEntries());
+        return (HashDirectoryPage) getLatchedPage(tid, dirtypages,
+                new HashPageId(tableid, pageNo, HashPageId.DIRECTORY), perm, latched);
+    }
+
+    /**
+     * Returns the pages of the bucket starting at the given page, in order.
+     */
+    private ArrayList<HashBucketPage> getBucketPages(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashBucketPage first, Permissions perm, LinkedList<HashPageId> latched)
+            throws DbException, TransactionAbortedException {
+        ArrayList<HashBucketPage> pages = new ArrayList<HashBucketPage>();
+        for (HashBucketPage page = first; page != null; ) {
+            pages.add(page);
+            int next = page.getNextPageNo();
+            page = next == 0 ? null : (HashBucketPage) getLatchedPage(tid, dirtypages,
+                    new HashPageId(tableid, next, HashPageId.BUCKET), perm, latched);
+        }
+        return pages;
+    }
+
+    /**
+     * Creates a new page at the end of the file and returns it locked with
+     * read-write permission, as BTreeFile.getEmptyPage does.
+     */
+    private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo;
+        synchronized (this) {
+            pageNo = numPages();
+            channel.write(HashBucketPage.createEmptyPageData(), (long) pageNo * BufferPool.getPageSize());
+        }
+        HashPageId pid = new HashPageId(tableid, pageNo, pgcateg);
+
+        // make sure the page is not in the buffer pool or in the local cache
+        Database.getBufferPool().discardPage(pid);
+        dirtypages.remove(pid);
+
+        return getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Inserts a tuple into the bucket of its key, splitting the bucket if it
+     * is full and its keys can be split apart, or adding an overflow page to
+     * it otherwise. The bucket is looked up with the meta page locked with
+     * read-only permission; if it needs a split, the lookup is started over
+     * with the meta page locked with read-write permission, which is
+     * downgraded again once the directory is updated.
+     *
+     * @return a list of all pages that were dirtied by this operation
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        LinkedList<HashPageId> latched = new LinkedList<HashPageId>();
+        Permissions metaPerm = Permissions.READ_ONLY;
+        int h = hash(t.getField(keyField));
+
+        while (true) {
+            HashMetaPage meta = getMetaPage(tid, dirtypages, metaPerm, latched);
+            int index = h & ((1 << meta.getGlobalDepth()) - 1);
+            int pageNo = getBucketPageNo(tid, dirtypages, meta, index, latched);
+            HashBucketPage first = (HashBucketPage) getLatchedPage(tid, dirtypages,
+                    new HashPageId(tableid, pageNo, HashPageId.BUCKET), Permissions.READ_WRITE, latched);
+            ArrayList<HashBucketPage> pages = getBucketPages(tid, dirtypages, first, Permissions.READ_WRITE,
+                    latched);
+            if (getBucketPageNo(tid, dirtypages, h, latched) != pageNo) {
+                // the split this lookup read was rolled back while it waited
+                restartLookup(tid, dirtypages, latched);
+                continue;
+            }
+
+            if (!hasEmptySlots(pages) && first.getLocalDepth() < getMaxGlobalDepth()
+                    && canSplit(pages, h)) {
+                if (metaPerm == Permissions.READ_ONLY) {
+                    // two inserts upgrading their shared locks on the meta page
+                    // would deadlock, so nothing has been modified yet: release
+                    // the locks taken for the lookup and look the bucket up again
+                    restartLookup(tid, dirtypages, latched);
+                    metaPerm = Permissions.READ_WRITE;
+                    continue;
+                }
+                splitBucket(tid, dirtypages, index, pages, latched);
+                continue;
+            }
+            insertIntoBucket(tid, dirtypages, pages, t);
+            break;
+        }
+
+        releaseLatches(tid, dirtypages, latched);
+        if (metaPerm == Permissions.READ_WRITE)
+            downgradeDirectory(tid, dirtypages);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Returns the page number of the bucket of the given hash, as the
+     * directory has it now. Unless a split is rolled back, this stays the
+     * same while the transaction holds its lock on the meta page.
+     */
+    int getBucketPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages, int h,
+            LinkedList<HashPageId> latched) throws DbException, TransactionAbortedException {
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY, latched);
+        return getBucketPageNo(tid, dirtypages, meta, h & ((1 << meta.getGlobalDepth()) - 1), latched);
+    }
+
+    /**
+     * Releases the locks taken by a lookup which has not modified any page,
+     * so that it can be started over.
+     */
+    private void restartLookup(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            LinkedList<HashPageId> latched) {
+        for (HashPageId pid : latched)
+            dirtypages.remove(pid);
+        releaseLatches(tid, dirtypages, latched);
+    }
+
+    /**
+     * Downgrades the read-write locks on the meta page and the directory
+     * pages taken to split buckets to read-only locks, once the directory is
+     * updated, so that other transactions can look buckets up before the
+     * transaction completes. The pages are marked dirty first, so that they
+     * stay in the buffer pool and are restored if the transaction aborts.
+     */
+    private void downgradeDirectory(TransactionId tid, HashMap<PageId, Page> dirtypages) {
+        for (Page p : dirtypages.values()) {
+            int categ = ((HashPageId) p.getId()).pgcateg();
+            if (categ == HashPageId.META || categ == HashPageId.DIRECTORY) {
+                p.markDirty(true, tid);
+                Database.getBufferPool().downgradeLock(tid, p.getId());
+            }
+        }
+    }
+
+    private static boolean hasEmptySlots(ArrayList<HashBucketPage> pages) {
+        for (HashBucketPage page : pages) {
+            if (page.getNumEmptySlots() > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if some key of the given bucket differs from a key with
+     * the given hash in the bits a split may use, so that splitting the bucket
+     * can make room for the key.
+     */
+    private boolean canSplit(ArrayList<HashBucketPage> pages, int h) {
+        int mask = (1 << getMaxGlobalDepth()) - 1;
+        for (HashBucketPage page : pages) {
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                if (((hash(it.next().getField(keyField)) ^ h) & mask) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inserts a tuple into the first page of a bucket with an empty slot,
+     * adding an overflow page at the end of the bucket if it is full.
+     */
+    private void insertIntoBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<HashBucketPage> pages, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        for (HashBucketPage page : pages) {
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                return;
+            }
+        }
+        HashBucketPage last = pages.get(pages.size() - 1);
+        HashBucketPage overflow = (HashBucketPage) getEmptyPage(tid, dirtypages, HashPageId.BUCKET);
+        overflow.setLocalDepth(last.getLocalDepth());
+        last.setNextPageNo(overflow.getId().pageNumber());
+        pages.add(overflow);
+        overflow.insertTuple(t);
+    }
+
+    /**
+     * Splits the bucket of a directory entry on the next bit of the hash of
+     * its keys: the tuples whose hash has that bit set move to a new bucket,
+     * which the directory entries with that bit set then refer to. The
+     * directory is doubled first if the local depth of the bucket is the
+     * global depth.
+     *
+     * @param index the directory entry of the bucket
+     * @param pages the pages of the bucket, locked with read-write permission
+     */
+    private void splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, int index,
+            ArrayList<HashBucketPage> pages, LinkedList<HashPageId> latched)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE, latched);
+        int depth = pages.get(0).getLocalDepth();
+        if (depth == meta.getGlobalDepth())
+            doubleDirectory(tid, dirtypages, meta, latched);
+
+        ArrayList<Tuple> stays = new ArrayList<Tuple>();
+        ArrayList<Tuple> moves = new ArrayList<Tuple>();
+        for (HashBucketPage page : pages) {
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                (((hash(t.getField(keyField)) >>> depth) & 1) != 0 ? moves : stays).add(t);
+            }
+        }
+        for (HashBucketPage page : pages) {
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext())
+                page.deleteTuple(it.next());
+            page.setLocalDepth(depth + 1);
+        }
+
+        // the pages of the bucket the tuples which stay do not need go to the
+        // image, so that overflow pages are reused rather than left empty
+        int capacity = HashBucketPage.getMaxTuples(td);
+        int keep = Math.max(1, (stays.size() + capacity - 1) / capacity);
+        ArrayList<HashBucketPage> imagePages = new ArrayList<HashBucketPage>(pages.subList(keep, pages.size()));
+        pages.subList(keep, pages.size()).clear();
+        pages.get(keep - 1).setNextPageNo(0);
+        if (imagePages.isEmpty()) {
+            HashBucketPage page = (HashBucketPage) getEmptyPage(tid, dirtypages, HashPageId.BUCKET);
+            page.setLocalDepth(depth + 1);
+            imagePages.add(page);
+        }
+        HashBucketPage image = imagePages.get(0);
+        for (Tuple t : stays)
+            insertIntoBucket(tid, dirtypages, pages, t);
+        for (Tuple t : moves)
+            insertIntoBucket(tid, dirtypages, imagePages, t);
+
+        // every entry whose low (depth + 1) bits are those of the image refers to it
+        int low = (index & ((1 << depth) - 1)) | (1 << depth);
+        for (int i = low; i < (1 << meta.getGlobalDepth()); i += 1 << (depth + 1))
+            setBucketPageNo(tid, dirtypages, meta, i, image.getId().pageNumber(), latched);
+    }
+
+    /**
+     * Doubles the directory, appending a copy of its entries and adding
+     * directory pages as needed.
+     */
+    private void doubleDirectory(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta,
+            LinkedList<HashPageId> latched) throws DbException, IOException, TransactionAbortedException {
+        int size = 1 << meta.getGlobalDepth();
+        int pagesNeeded = (2 * size + HashDirectoryPage.getNumEntries() - 1) / HashDirectoryPage.getNumEntries();
+        while (meta.getNumDirectoryPages() < pagesNeeded) {
+            Page directory = getEmptyPage(tid, dirtypages, HashPageId.DIRECTORY);
+            meta.addDirectoryPage(directory.getId().pageNumber());
+        }
+        for (int i = 0; i < size; i++)
+            setBucketPageNo(tid, dirtypages, meta, size + i, getBucketPageNo(tid, dirtypages, meta, i, latched),
+                    latched);
+        meta.setGlobalDepth(meta.getGlobalDepth() + 1);
+    }
+
+    /**
+     * Deletes a tuple from its bucket page. Empty pages stay in their
+     * bucket, where later inserts reuse them.
+     *
+     * @return a list of all pages that were dirtied by this operation
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not in this table");
+        HashPageId pid = new HashPageId(tableid, rid.getPageId().pageNumber(), HashPageId.BUCKET);
+        HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Returns an iterator over the tuples satisfying an index predicate on
+     * the key field. An EQUALS predicate only reads the bucket of its key;
+     * other predicates read every bucket.
+     *
+     * @param tid the transaction id
+     * @param ipred the index predicate to filter on
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashFileIterator(this, tid, ipred);
+    }
+
+    /**
+     * Returns an iterator over all the tuples of this file, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(this, tid, null);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates) {
+        return iterator(tid);
+    }
+}
+
+/**
+ * Helper class that implements the DbFileIterator for the tuples of the
+ * buckets of a HashFile, optionally filtered by an index predicate.
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+    private final HashFile f;
+    private final TransactionId tid;
+    private final IndexPredicate ipred;
+    private final Field equalKey;
+    private Iterator<Integer> buckets = null;
+    private HashBucketPage curp = null;
+    private Iterator<Tuple> it = null;
+
+    /**
+     * Constructor for this iterator
+     * @param f the HashFile containing the tuples
+     * @param tid the transaction id
+     * @param ipred the predicate to filter on, or null for all tuples
+     */
+    public HashFileIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+        this.equalKey = ipred != null && ipred.getOp() == Predicate.Op.EQUALS ? ipred.getField() : null;
+    }
+
+    /**
+     * Open this iterator by reading the page numbers of the buckets to scan
+     * from the directory. The buckets are locked before the locks on the meta
+     * page and the directory are released, so that they cannot be split
+     * while they are scanned, but other buckets can.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        LinkedList<HashPageId> latched = new LinkedList<HashPageId>();
+        LinkedHashSet<Integer> pageNos = getBucketPageNos(dirtypages, latched);
+        while (true) {
+            for (int pageNo : pageNos) {
+                Database.getBufferPool().acquireLock(tid, new HashPageId(f.getId(), pageNo, HashPageId.BUCKET),
+                        Permissions.READ_ONLY);
+            }
+            // a split read from the directory may have been rolled back
+            // while the buckets were waited for
+            LinkedHashSet<Integer> current = getBucketPageNos(dirtypages, latched);
+            if (current.equals(pageNos))
+                break;
+            pageNos = current;
+        }
+        f.releaseLatches(tid, dirtypages, latched);
+        buckets = pageNos.iterator();
+    }
+
+    /**
+     * Returns the page numbers of the buckets to scan, as the directory has
+     * them now.
+     */
+    private LinkedHashSet<Integer> getBucketPageNos(HashMap<PageId, Page> dirtypages,
+            LinkedList<HashPageId> latched) throws DbException, TransactionAbortedException {
+        LinkedHashSet<Integer> pageNos = new LinkedHashSet<Integer>();
+        if (equalKey != null) {
+            pageNos.add(f.getBucketPageNo(tid, dirtypages, HashFile.hash(equalKey), latched));
+        } else {
+            HashMetaPage meta = f.getMetaPage(tid, dirtypages, Permissions.READ_ONLY, latched);
+            for (int i = 0; i < (1 << meta.getGlobalDepth()); i++)
+                pageNos.add(f.getBucketPageNo(tid, dirtypages, meta, i, latched));
+        }
+        return pageNos;
+    }
+
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (it != null && it.hasNext()) {
+                Tuple t = it.next();
+                if (ipred == null || ipred.matches(t.getField(f.keyField())))
+                    return t;
+            }
+            int next;
+            if (curp != null && curp.getNextPageNo() != 0)
+                next = curp.getNextPageNo();
+            else if (buckets != null && buckets.hasNext())
+                next = buckets.next();
+            else
+                return null;
+            curp = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                    new HashPageId(f.getId(), next, HashPageId.BUCKET), Permissions.READ_ONLY);
+            it = curp.iterator();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        buckets = null;
+        curp = null;
+        it = null;
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashIndexScan is an operator which reads the tuples of a HashFile
+ * satisfying an index predicate on its key field. Equality predicates only
+ * read the bucket of their key.
+ *
+ * @see HashFile#indexIterator
+ */
+public class HashIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private TransactionId tid;
+    private TupleDesc myTd;
+    private IndexPredicate ipred = null;
+    private transient DbFileIterator it;
+    private String tablename;
+    private String alias;
+
+    /**
+     * Creates a hash index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a HashFile.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser); the returned
+     *            tupleDesc should have fields with name tableAlias.fieldName
+     * @param ipred
+     *            The index predicate to match. If null, the scan will return
+     *            all tuples, in no particular order
+     */
+    public HashIndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        this.tid = tid;
+        this.ipred = ipred;
+        reset(tableid, tableAlias);
+    }
+
+    public HashIndexScan(TransactionId tid, int tableid, IndexPredicate ipred) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return this.tablename;
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    /**
+     * Reset the tableid, and tableAlias of this operator.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     */
+    public void reset(int tableid, String tableAlias) {
+        this.isOpen = false;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        HashFile f = (HashFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.it = ipred == null ? f.iterator(tid) : f.indexIterator(tid, ipred);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the underlying HashFile,
+     * prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is the first page of a HashFile. It stores the global depth
+ * of the directory of the extendible hash table, and the page numbers of the
+ * directory pages holding it, in order.
+ *
+ * @see HashFile
+ * @see HashDirectoryPage
+ */
+public class HashMetaPage implements Page {
+    private volatile TransactionId dirtier = null;
+
+    final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+    private final HashPageId pid;
+    private int globalDepth;
+    private int[] directoryPages;   //Page numbers of the directory pages
+    private int numDirectoryPages;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashMetaPage from a set of bytes of data read from disk. The
+     * format of a HashMetaPage is the global depth and the number of directory
+     * pages, followed by the page number of each directory page.
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.globalDepth = dis.readInt();
+        this.numDirectoryPages = dis.readInt();
+        this.directoryPages = new int[getMaxDirectoryPages()];
+        for (int i = 0; i < numDirectoryPages; i++)
+            directoryPages[i] = dis.readInt();
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of directory pages a meta page can refer to.
+     */
+    public static int getMaxDirectoryPages() {
+        return BufferPool.getPageSize() / INDEX_SIZE - 2;
+    }
+
+    /**
+     * Returns the global depth of the directory: the number of low bits of
+     * the hash of a key which select its directory entry.
+     */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    public void setGlobalDepth(int globalDepth) {
+        this.globalDepth = globalDepth;
+    }
+
+    /**
+     * Returns the number of directory pages.
+     */
+    public int getNumDirectoryPages() {
+        return numDirectoryPages;
+    }
+
+    /**
+     * Returns the page number of the i-th directory page.
+     */
+    public int getDirectoryPageNo(int i) {
+        if (i < 0 || i >= numDirectoryPages)
+            throw new IllegalArgumentException("no directory page " + i);
+        return directoryPages[i];
+    }
+
+    /**
+     * Appends a directory page to the directory.
+     *
+     * @throws DbException if the meta page cannot refer to more directory pages
+     */
+    public void addDirectoryPage(int pageNo) throws DbException {
+        if (numDirectoryPages == directoryPages.length)
+            throw new DbException("the directory is full");
+        directoryPages[numDirectoryPages++] = pageNo;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(globalDepth);
+            dos.writeInt(numDirectoryPages);
+            for (int i = 0; i < directoryPages.length; i++)
+                dos.writeInt(i < numDirectoryPages ? directoryPages[i] : 0);
+            dos.write(new byte[BufferPool.getPageSize() - (directoryPages.length + 2) * INDEX_SIZE]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HashMetaPage: a global depth of 0 and no directory pages.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashMetaPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashMetaPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
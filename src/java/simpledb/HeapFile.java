@@ -9,6 +9,12 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can keep a zone map of its pages in a side file, which lets scans
+ * with predicates on int fields skip the pages that cannot hold a matching
+ * tuple; see {@link #enableZoneMap} and {@link ZoneMap}. Bloom filters can also be kept on chosen fields,
+ * which let scans for a value of such a field skip the groups of pages
+ * that do not hold it; see {@link #addBloomFilter}.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -16,6 +22,37 @@ import java.util.*;
 public class HeapFile implements DbFile {
     private File file;
     private TupleDesc tupleDesc;
+    private DbFileChannel channel;
+
+    /**
+     * Free-space map of this file: bit i is set if page i was found to have no
+     * empty slots, so inserts can skip straight to a page with room. The map
+     * is a hint kept in memory, which starts out empty and is filled in as
+     * inserts probe the pages.
+     */
+    private final BitSet fullPages = new BitSet();
+
+    /**
+     * The pages of the free-space map which were found full while they held
+     * uncommitted inserts, with the transaction which made them. The page has
+     * room again if that transaction aborts, so its bit is only trusted
+     * while the transaction holds its lock on the page.
+     */
+    private final HashMap<Integer, TransactionId> filledBy = new HashMap<Integer, TransactionId>();
+
+    /** Zone map of this file, null unless it has been enabled. */
+    private volatile ZoneMap zoneMap;
+
+    /** The false positive rate of Bloom filters declared in the catalog without one. */
+    public static final double DEFAULT_BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    /** The number of pages of the groups of Bloom filters declared in the catalog. */
+    public static final int DEFAULT_PAGES_PER_BLOOM_GROUP = 8;
+
+    /** Bloom filters on fields of this file, by field. */
+    private final TreeMap<Integer, PageGroupBloomFilter> bloomFilters =
+            new TreeMap<Integer, PageGroupBloomFilter>();
+    /** The number of pages whose tuples have been added to the Bloom filters. */
+    private int bloomFilterPages = 0;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -28,6 +65,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.file = f;
         this.tupleDesc = td;
+        this.channel = new DbFileChannel(f);
     }
 
     /**
@@ -69,39 +107,188 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the side file storing the zone map of this HeapFile, which has
+     * the name of the file backing it followed by <code>.zm</code>.
+     */
+    public File getZoneMapFile() {
+        return getZoneMapFile(file);
+    }
+
+    /**
+     * Returns the side file storing the zone map of the heap file backed by
+     * the given file.
+     */
+    static File getZoneMapFile(File f) {
+        return new File(f.getPath() + ".zm");
+    }
+
+    /**
+     * Keeps a zone map of this file in its side file, creating the side file
+     * if it does not exist. The zones already in the side file are read, and
+     * the zones of the other pages are learned as scans read the pages and as
+     * pages are written, so enabling the zone map does not read the file.
+     */
+    public synchronized void enableZoneMap() throws IOException {
+        if (zoneMap == null) {
+            ZoneMap zm = new ZoneMap(getZoneMapFile(), tupleDesc);
+            zm.read();
+            zoneMap = zm;
+        }
+    }
+
+    /**
+     * Returns true if this file keeps a zone map.
+     */
+    public boolean hasZoneMap() {
+        return zoneMap != null;
+    }
+
+    /**
+     * Widens the zone of a page of the zone map, if there is one, to cover
+     * a tuple inserted into it.
+     */
+    private void widenZone(int pageNo, Tuple t) {
+        ZoneMap zm = zoneMap;
+        if (zm != null) {
+            zm.widen(pageNo, t);
+        }
+    }
+
+    /**
+     * Keeps a Bloom filter for each group of pages of this file on the given
+     * field. The filters are sized so that a full group of pages has the
+     * given false positive rate, so the memory they take is about
+     * -ln(falsePositiveRate) / (ln 2)^2 bits per tuple. Adding a filter
+     * rebuilds all the filters of this file when they are next needed, so
+     * filters should be added before the file is used.
+     *
+     * @param field the index of the field
+     * @param falsePositiveRate the false positive rate of the filter of a
+     *        full group of pages
+     * @param pagesPerGroup the number of pages of a group
+     */
+    public synchronized void addBloomFilter(int field, double falsePositiveRate, int pagesPerGroup) {
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (tupleDesc.getSize() * 8 + 1);
+        bloomFilters.put(field, new PageGroupBloomFilter(field, falsePositiveRate, pagesPerGroup,
+                tuplesPerPage));
+        for (PageGroupBloomFilter filter : bloomFilters.values()) {
+            filter.clear();
+        }
+        bloomFilterPages = 0;
+    }
+
+    /**
+     * Returns the Bloom filters on the given field, which report their
+     * configuration and memory use, or null if the field has none.
+     */
+    public synchronized PageGroupBloomFilter getBloomFilter(int field) {
+        return bloomFilters.get(field);
+    }
+
+    /**
+     * Returns the Bloom filters of this file, in field order.
+     */
+    public synchronized Collection<PageGroupBloomFilter> getBloomFilters() {
+        return new ArrayList<PageGroupBloomFilter>(bloomFilters.values());
+    }
+
+    /**
+     * Adds the tuples of the pages of this file which have not been added to
+     * the Bloom filters yet. The pages are read through the buffer pool with
+     * a shared lock, so the filters also hold the uncommitted inserts of the
+     * given transaction, and wait for those of other transactions to
+     * complete. The lock is released again after the page is added unless
+     * the transaction held it before. Inserts add their tuples to the filters
+     * as they go, after calling this method.
+     *
+     * @param tid the transaction reading the pages
+     */
+    public void buildBloomFilters(TransactionId tid) throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        while (true) {
+            int pageNo;
+            synchronized (this) {
+                if (bloomFilters.isEmpty() || bloomFilterPages >= numPages()) {
+                    return;
+                }
+                pageNo = bloomFilterPages;
+            }
+
+            // the page is locked without holding the lock on this file, which
+            // inserters holding the lock on the page need to add their tuples
+            HeapPageId pid = new HeapPageId(getId(), pageNo);
+            boolean heldBefore = bufferPool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            synchronized (this) {
+                // another thread may have added the page in the meantime
+                if (bloomFilterPages == pageNo) {
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        for (PageGroupBloomFilter filter : bloomFilters.values()) {
+                            filter.add(pageNo, t);
+                        }
+                    }
+                    bloomFilterPages++;
+                }
+            }
+            if (!heldBefore && page.isDirty() == null) {
+                bufferPool.releasePage(tid, pid);
+            }
+        }
+    }
+
+    /**
+     * Adds a tuple inserted into the given page to the Bloom filters, if the
+     * tuples of the page have been added. The other pages are added with
+     * all their tuples, including this one, when the filters are next built.
+     */
+    private synchronized void addToBloomFilters(int pageNo, Tuple t) {
+        if (pageNo >= bloomFilterPages) {
+            return;
+        }
+        for (PageGroupBloomFilter filter : bloomFilters.values()) {
+            filter.add(pageNo, t);
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int offset = pid.pageNumber() * BufferPool.getPageSize();
+        long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
         byte[] data = new byte[BufferPool.getPageSize()];
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(offset);
-            raf.read(data);
-            raf.close();
+            if (channel.read(data, offset) == -1) {
+                throw new IllegalArgumentException("Read past end of table");
+            }
             Page hp = new HeapPage((HeapPageId) pid, data);
             return hp;
-        } catch (FileNotFoundException fnf) {
-            System.out.println(fnf.toString());
         } catch (IOException ioe) {
-            System.out.println(ioe.toString());
+            throw new IllegalArgumentException(ioe);
         }
-        throw new IllegalArgumentException();
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int offset = page.getId().pageNumber() * BufferPool.getPageSize();
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
         byte[] data = page.getPageData();
-        try {
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            raf.seek(offset);
-            raf.write(data);
-            raf.close();
-        } catch (IOException ioe) {
-            System.out.println(ioe.toString());
+        channel.write(data, offset);
+        // the zone of the page is recomputed from the version on disk
+        ZoneMap zm = zoneMap;
+        if (zm != null) {
+            zm.update(page.getId().pageNumber(), ((HeapPage) page).iterator());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+        ZoneMap zm = zoneMap;
+        if (zm != null) {
+            zm.close();
         }
     }
 
@@ -119,27 +306,66 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        boolean isEmptyPage = false;
+        BufferPool bufferPool = Database.getBufferPool();
         ArrayList<Page> modifiedPages = new ArrayList<>();
-        for (int i = 0; i < numPages(); i ++) {
-            HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
-                isEmptyPage = true;
-                page.insertTuple(t);
-                page.markDirty(true, tid);
-                modifiedPages.add(page);
-                break;
+        // the filters must hold the tuples already on the pages before one is added
+        buildBloomFilters(tid);
+        int numPages = numPages();
+        boolean settled = false;
+        while (true) {
+            for (int i = nextFreePage(0); i < numPages; i = nextFreePage(i + 1)) {
+                HeapPageId pid = new HeapPageId(getId(), i);
+                boolean heldBefore = bufferPool.holdsLock(tid, pid);
+
+                // probe the page with a shared lock, which is released again if
+                // the page is full or before asking for the exclusive lock, so
+                // that concurrent inserters neither lock the full pages nor
+                // deadlock upgrading the same candidate page
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+                boolean hasSpace = page.getNumEmptySlots() > 0;
+                if (!heldBefore) {
+                    bufferPool.releasePage(tid, pid);
+                }
+                if (hasSpace) {
+                    page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                    if (page.getNumEmptySlots() > 0) {
+                        page.insertTuple(t);
+                        page.markDirty(true, tid);
+                        widenZone(i, t);
+                        addToBloomFilters(i, t);
+                        modifiedPages.add(page);
+                        return modifiedPages;
+                    }
+                    // another transaction filled the page in the meantime
+                    if (!heldBefore) {
+                        bufferPool.releasePage(tid, pid);
+                    }
+                }
+                setPageFull(i, page.isDirty());
             }
+            // pages filled by transactions which aborted since have room
+            // again, so look at them before appending a page
+            if (!settled && settleFullPages()) {
+                settled = true;
+                continue;
+            }
+            break;
         }
-        if (!isEmptyPage) {
+
+        // every page is full, so append a new one. It is locked before it is
+        // added to the file and only written to disk empty, so that the
+        // insert is rolled back like any other if the transaction aborts
+        synchronized (this) {
             HeapPageId newPid = new HeapPageId(getId(), numPages());
-            HeapPage emptyPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
-            emptyPage.insertTuple(t);
-            emptyPage.markDirty(true, tid);
-            // write new page to disk directly
-            writePage(emptyPage);       // need insert first and then writePage()
-            modifiedPages.add(emptyPage);
+            bufferPool.acquireLock(tid, newPid, Permissions.READ_WRITE);
+            HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
+            writePage(newPage);
+            newPage.insertTuple(t);
+            newPage.markDirty(true, tid);
+            widenZone(newPid.pageNumber(), t);
+            addToBloomFilters(newPid.pageNumber(), t);
+            modifiedPages.add(newPage);
+            bufferPool.cacheDirtyPages(tid, modifiedPages);
         }
         return modifiedPages;
     }
@@ -156,6 +382,7 @@ public class HeapFile implements DbFile {
             HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             page.deleteTuple(t);
             page.markDirty(true, tid);
+            setPageFree(pid.pageNumber());
             modifiedPages.add(page);
             return modifiedPages;
         } else {
@@ -163,25 +390,124 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * Returns the number of the first page at or after the given page which is
+     * not known to be full. The free-space map is only a hint: pages it
+     * reports as free may have been filled since, and are checked again by
+     * the caller once they are locked.
+     *
+     * @param from the page number to start searching from
+     * @return the number of the first candidate page, which may be past the
+     *         end of the file
+     */
+    private int nextFreePage(int from) {
+        synchronized (fullPages) {
+            return fullPages.nextClearBit(from);
+        }
+    }
+
+    /**
+     * Records in the free-space map that the given page has no empty slots.
+     *
+     * @param pageNo the number of the page
+     * @param filler the transaction whose uncommitted inserts the page holds,
+     *               or null if its contents are committed
+     */
+    private void setPageFull(int pageNo, TransactionId filler) {
+        synchronized (fullPages) {
+            fullPages.set(pageNo);
+            if (filler != null) {
+                filledBy.put(pageNo, filler);
+            } else {
+                filledBy.remove(pageNo);
+            }
+        }
+    }
+
+    /**
+     * Records in the free-space map that a tuple has been deleted from the
+     * given page.
+     */
+    private void setPageFree(int pageNo) {
+        synchronized (fullPages) {
+            fullPages.clear(pageNo);
+            filledBy.remove(pageNo);
+        }
+    }
+
+    /**
+     * Clears the bits of the pages found full while they held uncommitted
+     * inserts, if the transaction which made them has completed since, so
+     * that they are probed again: they are still full if it committed, but
+     * have room again if it aborted. This is only done before a page is
+     * appended, so that inserts do not check the transactions every time.
+     *
+     * @return true if any bit was cleared
+     */
+    private boolean settleFullPages() {
+        boolean cleared = false;
+        synchronized (fullPages) {
+            Iterator<Map.Entry<Integer, TransactionId>> it = filledBy.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, TransactionId> e = it.next();
+                if (!Database.getBufferPool().holdsLock(e.getValue(), new HeapPageId(getId(), e.getKey()))) {
+                    fullPages.clear(e.getKey());
+                    it.remove();
+                    cleared = true;
+                }
+            }
+        }
+        return cleared;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid) ;
+        return new HeapFileIterator(tid, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file which satisfy all of
+     * the given predicates. The pages that the zone map or the Bloom filters
+     * show cannot hold a matching tuple are skipped without reading them;
+     * Bloom filters are consulted for equality predicates on their fields.
+     * On the other pages, the predicates are evaluated on the fields they are
+     * on before the rest of each tuple is decoded.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param predicates predicates on the fields of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIterator(tid, predicates.clone());
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates) {
+        return predicates == null ? iterator(tid) : iterator(tid, predicates);
     }
 
+    /**
+     * Iterator over the tuples of a HeapFile. Pages are read one at a time as
+     * the iteration reaches them, and tuples are decoded as they are returned,
+     * so an open iterator does not hold the whole file in memory.
+     */
     private class HeapFileIterator extends AbstractDbFileIterator {
         TransactionId tid;
-        int tupleNum;
         int tableId;
-        Tuple next;
-        LinkedList<Tuple> tupleQueue;
+        int pageNo;
+        int numPages;
+        Iterator<Tuple> pageIterator;
+        Predicate[] predicates;
+        ZoneMap zoneMap;    // null if this file keeps no zone map
+        PageGroupBloomFilter[] filters; // Bloom filter for each predicate, or null
 
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, Predicate[] predicates) {
             super();
             this.tid = tid;
             this.tableId = getId();
-            this.next = null;
-            this.tupleQueue = new LinkedList<>();
+            this.pageIterator = null;
+            this.predicates = predicates;
+            this.filters = new PageGroupBloomFilter[predicates.length];
         }
 
         /**
@@ -190,56 +516,83 @@ public class HeapFile implements DbFile {
          */
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            // enqueue pages
-            for (int i = 0; i < numPages(); i ++ ) {
-                PageId pid = new HeapPageId(tableId, i);
-                HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                // enqueue tuples
-                Iterator<Tuple> pageIterator = hp.iterator();
-                while (true) {
-                    if (pageIterator.hasNext()) {
-                        tupleQueue.add(pageIterator.next());
-                    } else {
-                        break;
+            // pages appended while the iterator is open are not visited, so
+            // that e.g. inserting the results of a scan into the same table
+            // terminates
+            this.numPages = numPages();
+            this.pageNo = 0;
+            this.zoneMap = HeapFile.this.zoneMap;
+            if (predicates.length > 0) {
+                for (int i = 0; i < predicates.length; i++) {
+                    if (predicates[i].getOp() == Predicate.Op.EQUALS) {
+                        filters[i] = getBloomFilter(predicates[i].getField());
                     }
                 }
+                buildBloomFilters(tid);
             }
+            this.pageIterator = pageIterator(pageNo);
         }
 
-        /** @return true if there are more tuples available, false if no more tuples or iterator isn't open. */
-        @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (next == null) next = readNext();
-            return next != null;
+        /**
+         * Returns true unless the zone map or the Bloom filters show that the
+         * given page holds no tuple satisfying the predicates.
+         */
+        private boolean mayMatch(int pageNo) {
+            for (int i = 0; i < predicates.length; i++) {
+                if (zoneMap != null && !zoneMap.mayMatch(pageNo, predicates[i])) {
+                    return false;
+                }
+                if (filters[i] != null && !filters[i].mightContain(pageNo, predicates[i].getOperand())) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         /**
-         * Gets the next tuple from the operator (typically implementing by reading
-         * from a child operator or an access method).
-         *
-         * @return The next tuple in the iterator.
-         * @throws NoSuchElementException if there are no more tuples
+         * Returns an iterator over the tuples of the given page, or an empty
+         * iterator if the page is past the end of the file or is skipped.
          */
-        @Override
-        public Tuple next() throws DbException, TransactionAbortedException,
-                NoSuchElementException {
-            if (next == null) {
-                next = readNext();
-                if (next == null) throw new NoSuchElementException();
+        private Iterator<Tuple> pageIterator(int pageNo)
+                throws DbException, TransactionAbortedException {
+            if (pageNo >= numPages || !mayMatch(pageNo)) {
+                return Collections.<Tuple>emptyList().iterator();
             }
-
-            Tuple result = next;
-            this.tupleQueue.removeFirst();
-            next = null;
-            return result;
+            PageId pid = new HeapPageId(tableId, pageNo);
+            HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            if (zoneMap != null && !zoneMap.isKnown(pageNo) && hp.isDirty() == null) {
+                // learn the zone of the page from its committed tuples
+                try {
+                    zoneMap.update(pageNo, hp.iterator());
+                } catch (IOException e) {
+                    throw new DbException("could not update the zone map: " + e);
+                }
+            }
+            if (predicates.length == 0) {
+                return hp.iterator();
+            }
+            int[] slots = hp.getUsedSlots();
+            for (int i = 0; i < predicates.length && slots.length > 0; i++) {
+                slots = hp.filterSlots(predicates[i], slots);
+            }
+            return hp.iterator(slots);
         }
 
         /** Reads the next tuple from the underlying source.
          @return the next Tuple in the iterator, null if the iteration is finished. */
         @Override
         protected Tuple readNext() throws DbException, TransactionAbortedException {
-            Tuple head = tupleQueue.peek();
-            return head;
+            if (pageIterator == null) {
+                return null;
+            }
+            while (!pageIterator.hasNext()) {
+                pageNo++;
+                if (pageNo >= numPages) {
+                    return null;
+                }
+                pageIterator = pageIterator(pageNo);
+            }
+            return pageIterator.next();
         }
 
         /**
@@ -257,12 +610,9 @@ public class HeapFile implements DbFile {
         public void close() {
             // Ensures that a future call to next() will fail
             super.close();
-            //next = null;
-            //this.tid = null;
-            //this.tupleNum = 0;
-            this.next = null;
-            this.tupleQueue.clear();
+            this.pageIterator = null;
+            this.zoneMap = null;
+            Arrays.fill(filters, null);
         }
     }
 }
-
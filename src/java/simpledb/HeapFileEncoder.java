@@ -106,6 +106,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the zones of a zone map kept for the file no longer describe it
+    ZoneMap.invalidate(HeapFile.getZoneMapFile(outFile));
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -15,7 +15,8 @@ public class HeapPage implements Page {
     private byte header[];    //Bitmap    #slotId, each bit of #slotId in bitmap corresponds to a status of tuple of #slotId
                               // status = ?empty:used 0:1
                               // R0 status | R1 status | R2 status | R3 status |
-    private Tuple tuples[];   //Records in this page
+    private Tuple tuples[];   //Records in this page, null until decoded from data
+    private final byte[] data;    //Page data read from disk; never modified
     private int numSlots;     //Number of record slots
     private boolean isDirty;
     private TransactionId dirtyTid;
@@ -35,6 +36,12 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p>
+     * Tuples are decoded lazily: the page keeps the data it was created from
+     * and only decodes a tuple (or a single field of it) when it is accessed,
+     * so scans which reject most tuples or only need some of their fields do
+     * not pay for decoding the rest.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -43,21 +50,14 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        // copied, since the caller may reuse its buffer
+        this.data = data.clone();
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
         tuples = new Tuple[numSlots];
-        try{
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // the data is never modified, so it serves as the before image as is
+        oldData = this.data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -121,24 +121,32 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the offset in the page data of the tuple in the given slot.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in the given slot, decoding it from the page data if
+     * it has not been accessed before.
+     *
+     * @param slotId the slot of the tuple
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Tuple getTuple(int slotId) throws NoSuchElementException {
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
         }
 
         // read fields in the tuple
-        Tuple t = new Tuple(td);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data, slotOffset(slotId), td.getSize()));
+        t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
@@ -151,9 +159,41 @@ public class HeapPage implements Page {
             throw new NoSuchElementException("parsing error!");
         }
 
+        tuples[slotId] = t;
         return t;
     }
 
+    /**
+     * Returns a single field of the tuple in the given slot. If the tuple has
+     * not been accessed before, only that field is decoded from the page data.
+     *
+     * @param slotId the slot of the tuple
+     * @param i the index of the field
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int i) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t.getField(i);
+        }
+
+        int offset = slotOffset(slotId);
+        for (int j = 0; j < i; j++) {
+            offset += td.getFieldType(j).getLen();
+        }
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data, offset, td.getFieldType(i).getLen()));
+        try {
+            return td.getFieldType(i).parse(dis);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -196,6 +236,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot which was never decoded, so is unchanged
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -356,28 +406,64 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @return the slots on this page which are in use, in slot order
+     */
+    public int[] getUsedSlots() {
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                slots[n++] = i;
+        }
+        return Arrays.copyOf(slots, n);
+    }
+
+    /**
+     * Returns the slots among the given ones whose tuples satisfy the given
+     * predicate. Only the field the predicate is on is decoded for the tuples
+     * which have not been accessed before.
+     *
+     * @param p the predicate to evaluate
+     * @param slots the candidate slots, which must be in use
+     * @return the candidate slots which satisfy p, in the same order
+     */
+    public int[] filterSlots(Predicate p, int[] slots) {
+        int[] result = new int[slots.length];
+        int n = 0;
+        for (int slot : slots) {
+            if (getField(slot, p.getField()).compare(p.getOp(), p.getOperand()))
+                result[n++] = slot;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new PageTupleIterator();
+        return new PageTupleIterator(getUsedSlots());
+    }
+
+    /**
+     * @return an iterator over the tuples in the given slots of this page,
+     *         which are decoded as they are returned
+     * @param slots the slots to return, which must be in use
+     */
+    public Iterator<Tuple> iterator(int[] slots) {
+        return new PageTupleIterator(slots);
     }
+
     private class PageTupleIterator implements Iterator<Tuple> {
-        private Tuple[] tupleList;     //tuples which have been set
+        private int[] slots;     //slots to return, in use when the iterator was created
         private int size;
         private int index;
 
-        public PageTupleIterator() {
-            this.size = getNumTuples() - getNumEmptySlots();
-            this.tupleList= new Tuple[size];
-            for (int i = 0, j = 0; i < numSlots; i++) {
-                if (isSlotUsed(i)) {
-                    tupleList[j] = tuples[i];
-                    j++;
-                }
-            }
+        public PageTupleIterator(int[] slots) {
+            this.slots = slots;
+            this.size = slots.length;
             this.index = 0;
         }
 
@@ -391,7 +477,10 @@ public class HeapPage implements Page {
         }
         @Override
         public Tuple next() {
-            Tuple returnValue = tupleList[index];
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple returnValue = getTuple(slots[index]);
             index++;
             return returnValue;
         }
@@ -404,4 +493,3 @@ public class HeapPage implements Page {
     }
 
 }
-
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an operator which reads the tuples of a heap table
+ * satisfying an index predicate on the indexed field of a secondary index
+ * from the entries of the index alone, without reading the table. Its
+ * tuples have the fields of the table, but only the fields covered by the
+ * index are set. Tuples are returned in order of the indexed field.
+ *
+ * @see SecondaryIndex#covers
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private final int[] entryFields;
+    private TupleDesc myTd;
+    private String alias;
+    private transient DbFileIterator entries;
+
+    /**
+     * Creates a scan of a table from the entries of a secondary index, as a
+     * part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the secondary index to scan
+     * @param tableAlias
+     *            the alias of the table (needed by the parser); the returned
+     *            tupleDesc should have fields with name tableAlias.fieldName
+     * @param ipred
+     *            The index predicate on the indexed field to match. If null,
+     *            the scan will return all tuples
+     */
+    public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        entryFields = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+            entryFields[i] = index.getEntryField(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the index this operator scans
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        entries = ipred == null ? index.getFile().iterator(tid) : index.getFile().indexIterator(tid, ipred);
+        entries.open();
+        isOpen = true;
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the indexed table, prefixed
+     * with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return entries.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple entry = entries.next();
+        Tuple t = new Tuple(myTd);
+        for (int i = 0; i < entryFields.length; i++) {
+            if (entryFields[i] >= 0)
+                t.setField(i, entry.getField(entryFields[i]));
+        }
+        return t;
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -4,7 +4,11 @@ import java.io.File;
 import java.io.Serializable;
 
 /**
- * IndexPredicate compares a field which has index on it against a given value
+ * IndexPredicate compares a field which has index on it against a given value,
+ * or restricts it to a range of values between a lower and an upper bound, each
+ * of which may be inclusive or exclusive. Predicates other than NOT_EQUALS and
+ * LIKE are represented by the bounds of the range of values they match, so
+ * that an index can scan only that range.
  * @see simpledb.IndexDbIterator
  */
 public class IndexPredicate implements Serializable {
@@ -12,6 +16,10 @@ public class IndexPredicate implements Serializable {
     private static final long serialVersionUID = 1L;
 	private Predicate.Op op;
 	private Field fValue;
+	private Field lower = null;
+	private boolean lowerInclusive = false;
+	private Field upper = null;
+	private boolean upperInclusive = false;
     /**
      * Constructor.
      *
@@ -25,20 +33,171 @@ public class IndexPredicate implements Serializable {
         // some code goes here
         this.op = op;
         this.fValue = fvalue;
+        switch (op) {
+        case EQUALS:
+            lower = upper = fvalue;
+            lowerInclusive = upperInclusive = true;
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            lower = fvalue;
+            lowerInclusive = op == Predicate.Op.GREATER_THAN_OR_EQ;
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            upper = fvalue;
+            upperInclusive = op == Predicate.Op.LESS_THAN_OR_EQ;
+            break;
+        default:
+            break;
+        }
     }
 
+    /**
+     * Constructor for a predicate matching the values in a range. A range
+     * with equal inclusive bounds is the EQUALS predicate on that value, and a
+     * range with a single bound is the corresponding single comparison.
+     *
+     * @param lower The lower bound of the range, or null if it has none.
+     * @param lowerInclusive Whether the lower bound is in the range.
+     * @param upper The upper bound of the range, or null if it has none.
+     * @param upperInclusive Whether the upper bound is in the range.
+     */
+    public IndexPredicate(Field lower, boolean lowerInclusive, Field upper, boolean upperInclusive) {
+        this.lower = lower;
+        this.lowerInclusive = lower != null && lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upper != null && upperInclusive;
+        if (lower != null && upper != null && this.lowerInclusive && this.upperInclusive
+                && lower.equals(upper)) {
+            op = Predicate.Op.EQUALS;
+            fValue = lower;
+        } else if (upper == null && lower != null) {
+            op = this.lowerInclusive ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+            fValue = lower;
+        } else if (lower == null && upper != null) {
+            op = this.upperInclusive ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+            fValue = upper;
+        }
+    }
+
+    /**
+     * @return the value that a single comparison compares against, or null if
+     *   this predicate is a range with both a lower and an upper bound
+     */
     public Field getField() {
         // some code goes here
         Field fieldValue = this.fValue;
         return fieldValue;
     }
 
+    /**
+     * @return the operation of a single comparison, or null if this predicate
+     *   is a range with both a lower and an upper bound
+     */
     public Predicate.Op getOp() {
         // some code goes here
         Predicate.Op operation = this.op;
         return operation;
     }
 
+    /**
+     * @return the lower bound of the values this predicate matches, or null if
+     *   it has none
+     */
+    public Field getLowerBound() {
+        return lower;
+    }
+
+    /**
+     * @return whether the lower bound is matched by this predicate
+     */
+    public boolean isLowerInclusive() {
+        return lowerInclusive;
+    }
+
+    /**
+     * @return the upper bound of the values this predicate matches, or null if
+     *   it has none
+     */
+    public Field getUpperBound() {
+        return upper;
+    }
+
+    /**
+     * @return whether the upper bound is matched by this predicate
+     */
+    public boolean isUpperInclusive() {
+        return upperInclusive;
+    }
+
+    /**
+     * @return true if the given value is above the upper bound of this
+     *   predicate, so that no greater value matches it either
+     */
+    public boolean isAboveRange(Field value) {
+        return upper != null && !value.compare(upperInclusive ?
+                Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN, upper);
+    }
+
+    /**
+     * @return true if the given value is below the lower bound of this
+     *   predicate, so that no smaller value matches it either
+     */
+    public boolean isBelowRange(Field value) {
+        return lower != null && !value.compare(lowerInclusive ?
+                Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN, lower);
+    }
+
+    /**
+     * @return true if the given value satisfies this predicate
+     */
+    public boolean matches(Field value) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return value.compare(op, fValue);
+        return !isBelowRange(value) && !isAboveRange(value);
+    }
+
+    /**
+     * Returns the predicate matching the values matched by both this predicate
+     * and the given comparison, narrowing the range of this predicate to the
+     * tighter of the bounds.
+     *
+     * @param op The operation of the comparison; any operation other than
+     *   NOT_EQUALS or LIKE.
+     * @param value The value the comparison compares against.
+     * @throws IllegalArgumentException if either this predicate or the
+     *   comparison is a NOT_EQUALS or LIKE predicate
+     */
+    public IndexPredicate and(Predicate.Op op, Field value) {
+        IndexPredicate other = new IndexPredicate(op, value);
+        if (!isRange() || !other.isRange())
+            throw new IllegalArgumentException("only ranges can be combined");
+        Field newLower = lower;
+        boolean newLowerInclusive = lowerInclusive;
+        if (other.lower != null && (newLower == null || other.lower.compare(Predicate.Op.GREATER_THAN, newLower)
+                || (other.lower.equals(newLower) && !other.lowerInclusive))) {
+            newLower = other.lower;
+            newLowerInclusive = other.lowerInclusive;
+        }
+        Field newUpper = upper;
+        boolean newUpperInclusive = upperInclusive;
+        if (other.upper != null && (newUpper == null || other.upper.compare(Predicate.Op.LESS_THAN, newUpper)
+                || (other.upper.equals(newUpper) && !other.upperInclusive))) {
+            newUpper = other.upper;
+            newUpperInclusive = other.upperInclusive;
+        }
+        return new IndexPredicate(newLower, newLowerInclusive, newUpper, newUpperInclusive);
+    }
+
+    /**
+     * @return true if this predicate matches a range of values, that is, it is
+     *   not a NOT_EQUALS or LIKE predicate
+     */
+    public boolean isRange() {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -47,7 +206,13 @@ public class IndexPredicate implements Serializable {
     public boolean equals(IndexPredicate ipd) {
         // some code goes here
         if (ipd == null) return false;
-        return ipd.op.equals(this.op) && ipd.fValue.equals(this.fValue);
+        return ipd.op == this.op && equal(ipd.fValue, this.fValue)
+                && equal(ipd.lower, this.lower) && ipd.lowerInclusive == this.lowerInclusive
+                && equal(ipd.upper, this.upper) && ipd.upperInclusive == this.upperInclusive;
+    }
+
+    private static boolean equal(Field f1, Field f2) {
+        return f1 == null ? f2 == null : f1.equals(f2);
     }
 
 }
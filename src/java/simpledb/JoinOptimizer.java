@@ -236,6 +236,10 @@ public class JoinOptimizer {
             throws ParsingException {
         //Not necessary for labs 1--3
         // some code goes here
+        if (joins.isEmpty()) {
+            // nothing to order; the plan cache has no entry for the empty set
+            return joins;
+        }
         PlanCache cache = new PlanCache();
         Set<LogicalJoinNode> hash = new HashSet<>(joins);
         Set<Set<LogicalJoinNode>> join = enumerateSubsets(joins,1);
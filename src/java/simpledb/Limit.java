@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns at most a given number of tuples of its
+ * child, in the order of the child. It stops reading the child once the limit
+ * is reached, so a child which returns its tuples in order of some field can
+ * answer the minimum or maximum of that field from its first tuple.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int limit;
+    private int count = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            The maximum number of tuples to return
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, DbIterator child) {
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the maximum number of tuples this operator returns
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        count = 0;
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        count = 0;
+        child.rewind();
+    }
+
+    /**
+     * Returns the next tuple of the child, unless the limit has been reached.
+     *
+     * @return The next tuple, or null if there are no more tuples or the limit
+     *         has been reached
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (count >= limit || !child.hasNext())
+            return null;
+        count++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
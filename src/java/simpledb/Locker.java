@@ -3,6 +3,7 @@ package simpledb;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Locker {
@@ -15,6 +16,7 @@ public class Locker {
     private ConcurrentHashMap<PageId, TransactionId> exclusiveLocks;
     private ConcurrentHashMap<TransactionId, HashSet<PageId>> transactionPageMap;
     private ConcurrentHashMap<TransactionId, HashSet<TransactionId>> dependencyMap;
+    private ConcurrentHashMap<TransactionId, PageId> waitingFor;
 
     public Locker() {
         this.locks = new ConcurrentHashMap<PageId, Object>();
@@ -22,9 +24,10 @@ public class Locker {
         this.exclusiveLocks = new ConcurrentHashMap<PageId, TransactionId>();
         this.transactionPageMap = new ConcurrentHashMap<TransactionId, HashSet<PageId>>();
         this.dependencyMap = new ConcurrentHashMap<TransactionId, HashSet<TransactionId>>();
+        this.waitingFor = new ConcurrentHashMap<TransactionId, PageId>();
     }
 
-    private Object getLock(PageId pid) {
+    private synchronized Object getLock(PageId pid) {
         if (!(this.locks.containsKey(pid))) {
             this.locks.put(pid, new Object());
             this.sharedLocks.put(pid, new HashSet<TransactionId>());
@@ -34,20 +37,24 @@ public class Locker {
         return this.locks.get(pid);
     }
 
-    // Run BFS to detect cycles.
+    // Run BFS to detect a cycle back to tid. Any new cycle goes through the
+    // transaction whose dependencies just changed, and reaching another
+    // transaction twice does not mean there is a cycle.
     private boolean containsCycle(TransactionId tid) {
         HashSet<TransactionId> visited = new HashSet<TransactionId>();
         LinkedList<TransactionId> queue = new LinkedList<TransactionId>();
 
-        queue.add(tid);
+        queue.addAll(this.dependencyMap.get(tid));
 
         while (!(queue.isEmpty())) {
             TransactionId cur = queue.remove();
-            if (visited.contains(cur)) {
+            if (cur.equals(tid)) {
                 return true;
             }
 
-            visited.add(cur);
+            if (!(visited.add(cur))) {
+                continue;
+            }
 
             if (this.dependencyMap.containsKey(cur) && !(this.dependencyMap.get(cur).isEmpty())) {
                 Iterator<TransactionId> it = this.dependencyMap.get(cur).iterator();
@@ -60,6 +67,51 @@ public class Locker {
         return false;
     }
 
+    // Record the transactions tid waits for to lock pid, replacing those it
+    // waited for before, and abort tid if it now waits for itself.
+    private void waitFor(TransactionId tid, PageId pid, HashSet<TransactionId> deps)
+            throws TransactionAbortedException {
+        synchronized(this.dependencyMap) {
+            this.waitingFor.put(tid, pid);
+            if (deps.equals(this.dependencyMap.get(tid))) {
+                return;
+            }
+
+            this.dependencyMap.put(tid, new HashSet<TransactionId>(deps));
+            if (this.containsCycle(tid)) {
+                this.stopWaiting(tid);
+                throw new TransactionAbortedException();
+            }
+        }
+    }
+
+    private boolean waitsFor(TransactionId tid, TransactionId other) {
+        synchronized(this.dependencyMap) {
+            return this.dependencyMap.containsKey(tid) &&
+                this.dependencyMap.get(tid).contains(other);
+        }
+    }
+
+    private void stopWaiting(TransactionId tid) {
+        synchronized(this.dependencyMap) {
+            this.dependencyMap.remove(tid);
+            this.waitingFor.remove(tid);
+        }
+    }
+
+    // Called with the lock of pid held when tid releases its lock on pid:
+    // the transactions waiting to lock pid no longer wait for tid, even if
+    // they have not checked the lock again yet.
+    private void released(TransactionId tid, PageId pid) {
+        synchronized(this.dependencyMap) {
+            for (Map.Entry<TransactionId, PageId> e : this.waitingFor.entrySet()) {
+                if (e.getValue().equals(pid) && this.dependencyMap.containsKey(e.getKey())) {
+                    this.dependencyMap.get(e.getKey()).remove(tid);
+                }
+            }
+        }
+    }
+
     public void acquireLock(TransactionId tid, PageId pid, Permissions p)
             throws TransactionAbortedException {
 
@@ -68,6 +120,7 @@ public class Locker {
         }
 
         Object lock = this.getLock(pid);
+        HashSet<TransactionId> deps = new HashSet<TransactionId>();
         if ((p == Permissions.READ_ONLY) &&
                 !(this.sharedLocks.get(pid).contains(tid))) {
             while (true) {
@@ -79,31 +132,29 @@ public class Locker {
                             this.sharedLocks.get(pid).add(tid);
                         }
 
-                        synchronized(this.dependencyMap) {
-                            this.dependencyMap.remove(tid);
-                        }
+                        this.stopWaiting(tid);
 
                         break;
                     }
 
                     // Check for deadlock.
-                    synchronized(this.dependencyMap) {
-                        if (this.dependencyMap
-                                .get(tid)
-                                .add(this.exclusiveLocks.get(pid))) {
-                            if (this.containsCycle(tid)) {
-                                throw new TransactionAbortedException();
-                            }
-                        }
+                    TransactionId holder = this.exclusiveLocks.get(pid);
+                    if (!(this.waitsFor(tid, holder))) {
+                        deps.clear();
+                        deps.add(holder);
+                        this.waitFor(tid, pid, deps);
                     }
                 }
+
+                // Let the holders in to release the lock.
+                Thread.yield();
             }
         } else if ((p == Permissions.READ_WRITE) &&
                 !(this.exclusiveLocks.get(pid).equals(tid))) {
             while (true) {
                 synchronized(lock) {
                     // Gather the dependencies.
-                    HashSet<TransactionId> deps = new HashSet<TransactionId>();
+                    deps.clear();
                     if (!(this.exclusiveLocks.get(pid).equals(NO_LOCK))) {
                         deps.add(this.exclusiveLocks.get(pid));
                     }
@@ -127,26 +178,17 @@ public class Locker {
 
                         this.exclusiveLocks.put(pid, tid);
 
-                        synchronized(this.dependencyMap) {
-                            this.dependencyMap.remove(tid);
-                        }
+                        this.stopWaiting(tid);
 
                         break;
                     }
 
                     // Check for deadlock.
-                    synchronized(this.dependencyMap) {
-                        if (this.dependencyMap
-                                .get(tid)
-                                .add(this.exclusiveLocks.get(pid)) ||
-                                this.dependencyMap.get(tid).addAll(deps)) {
-
-                            if (this.containsCycle(tid)) {
-                                throw new TransactionAbortedException();
-                            }
-                        }
-                    }
+                    this.waitFor(tid, pid, deps);
                 }
+
+                // Let the holders in to release the lock.
+                Thread.yield();
             }
         }
 
@@ -173,6 +215,7 @@ public class Locker {
             synchronized(this.sharedLocks.get(pid)) {
                 this.sharedLocks.get(pid).remove(tid);
             }
+            this.released(tid, pid);
         }
 
         synchronized(this.transactionPageMap.get(tid)) {
@@ -198,12 +241,29 @@ public class Locker {
                 synchronized(this.sharedLocks.get(pid)) {
                     this.sharedLocks.get(pid).remove(tid);
                 }
+                this.released(tid, pid);
             }
         }
 
         this.transactionPageMap.remove(tid);
     }
 
+    // Turn the exclusive lock of tid on pid into a shared one, which tid
+    // keeps until it releases its locks.
+    public void downgradeLock(TransactionId tid, PageId pid) {
+        Object lock = this.getLock(pid);
+        synchronized(lock) {
+            if (this.exclusiveLocks.get(pid).equals(tid)) {
+                synchronized(this.sharedLocks.get(pid)) {
+                    this.sharedLocks.get(pid).add(tid);
+                }
+
+                this.exclusiveLocks.put(pid, NO_LOCK);
+                this.released(tid, pid);
+            }
+        }
+    }
+
     public Iterator<PageId> getPages(TransactionId tid) {
         if (!(this.transactionPageMap.containsKey(tid))) {
             return null;
@@ -221,4 +281,8 @@ public class Locker {
             return this.transactionPageMap.get(tid).contains(pid);
         }
     }
+
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        return tid.equals(this.exclusiveLocks.get(pid));
+    }
 }
\ No newline at end of file
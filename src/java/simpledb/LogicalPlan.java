@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -22,6 +23,10 @@ import java.util.NoSuchElementException;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /** Largest estimated selectivity of a filter for which a secondary
+     *  index on its field is used rather than a sequential scan */
+    public static final double INDEX_SCAN_SELECTIVITY = 0.1;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -271,6 +276,266 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Returns the indexes of the fields of the table with the given alias which
+     *  the select list, filters, joins, aggregate or ORDER BY of this plan refer to,
+     *  so a scan of the table can skip the other fields.
+     *  @param alias the alias of the table
+     *  @param td the TupleDesc of the table
+     *  @return the referenced fields, or null if all fields are needed (SELECT *)
+     */
+    private int[] getReferencedFields(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(alias + "." + td.getFieldName(i)))
+                fields.add(i);
+        }
+        int[] result = new int[fields.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = fields.get(i);
+        return result;
+    }
+
+    /** Builds the predicate of a filter over tuples with the given TupleDesc.
+     *  @param lf the filter
+     *  @param td the TupleDesc of the tuples to filter
+     *  @param fieldName the name of the filtered field in td
+     *  @throws ParsingException if td has no field with the given name
+     */
+    private Predicate getFilterPredicate(LogicalFilterNode lf, TupleDesc td, String fieldName)
+            throws ParsingException {
+        int id;
+        try {
+            id = td.fieldNameToIndex(fieldName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        Field f;
+        if (td.getFieldType(id) == Type.INT_TYPE)
+            f = new IntField(new Integer(lf.c).intValue());
+        else
+            f = new StringField(lf.c, Type.STRING_LEN);
+        return new Predicate(id, lf.p, f);
+    }
+
+    /** Returns the predicates of the filters on the table with the given alias,
+     *  over its unqualified field names, so they can be pushed down to a scan of the table.
+     *  @param alias the alias of the table
+     *  @param td the TupleDesc of the table
+     *  @throws ParsingException if a filter refers to a field the table does not have
+     */
+    private Predicate[] getFilterPredicates(String alias, TupleDesc td) throws ParsingException {
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                predicates.add(getFilterPredicate(lf, td, lf.fieldPureName));
+        }
+        return predicates.toArray(new Predicate[0]);
+    }
+
+    /** Returns a scan of a table from the entries of a secondary index alone, if an index
+     *  covers all of the fields of the table referenced by the query, or null otherwise.
+     *  An index on the field of a filter which can use the index is preferred, and the
+     *  scan then only reads the entries matching that filter. The filters are still
+     *  applied to the tuples of the scan.
+     *  @param t the transaction of the scan
+     *  @param table the table to scan
+     *  @param fields the referenced fields of the table, or null if all are referenced
+     *  @param predicates the predicates of the filters on the table
+     */
+    private DbIterator getIndexOnlyScan(TransactionId t, LogicalScanNode table, int[] fields,
+            Predicate[] predicates) {
+        if (fields == null)
+            return null;
+        HashSet<Integer> filtered = new HashSet<Integer>();
+        for (Predicate p : predicates) {
+            if (p.getOp() != Predicate.Op.NOT_EQUALS && p.getOp() != Predicate.Op.LIKE)
+                filtered.add(p.getField());
+        }
+        SecondaryIndex index = Database.getCatalog().getCoveringIndex(table.t, fields, filtered);
+        if (index == null)
+            return null;
+        return new IndexOnlyScan(t, index, table.alias, getIndexPredicate(predicates, index.getField()));
+    }
+
+    /** Returns the range of values of a field matched by all of the filters on it which
+     *  can use an index, as an IndexPredicate, or null if there are no such filters.
+     *  @param predicates the predicates of the filters on a table
+     *  @param field the field of the table
+     */
+    private static IndexPredicate getIndexPredicate(Predicate[] predicates, int field) {
+        IndexPredicate ipred = null;
+        for (Predicate p : predicates) {
+            if (p.getField() != field || p.getOp() == Predicate.Op.NOT_EQUALS
+                    || p.getOp() == Predicate.Op.LIKE)
+                continue;
+            if (ipred == null)
+                ipred = new IndexPredicate(p.getOp(), p.getOperand());
+            else
+                ipred = ipred.and(p.getOp(), p.getOperand());
+        }
+        return ipred;
+    }
+
+    /** Returns the range of keys of a B+ tree matched by the filters on its key fields,
+     *  as an IndexPredicate, or null if there are no such filters. For a tree keyed on
+     *  several fields, this is the range of keys matched by equality filters on the
+     *  leading key fields and by the filters on the next key field, with bounds which
+     *  are prefixes of the keys (see {@link CompositeField}).
+     *  @param predicates the predicates of the filters on a table
+     *  @param keyFields the key fields of the table
+     */
+    private static IndexPredicate getKeyPredicate(Predicate[] predicates, int[] keyFields) {
+        if (keyFields.length == 1)
+            return getIndexPredicate(predicates, keyFields[0]);
+        CompositeField prefix = null;
+        for (int keyField : keyFields) {
+            IndexPredicate ipred = getIndexPredicate(predicates, keyField);
+            if (ipred == null)
+                break;
+            if (ipred.getOp() == Predicate.Op.EQUALS) {
+                prefix = extend(prefix, ipred.getField());
+                continue;
+            }
+            Field lower = ipred.getLowerBound();
+            Field upper = ipred.getUpperBound();
+            return new IndexPredicate(lower == null ? prefix : extend(prefix, lower),
+                    lower == null || ipred.isLowerInclusive(),
+                    upper == null ? prefix : extend(prefix, upper),
+                    upper == null || ipred.isUpperInclusive());
+        }
+        return prefix == null ? null : new IndexPredicate(Predicate.Op.EQUALS, prefix);
+    }
+
+    /** Returns the prefix of a composite key extended with the value of the next field.
+     *  @param prefix the prefix, or null for the empty prefix
+     *  @param f the value of the next field
+     */
+    private static CompositeField extend(CompositeField prefix, Field f) {
+        return prefix == null ? new CompositeField(f) : prefix.append(f);
+    }
+
+    /** Estimates the selectivity of the range of values of a field matched by an index
+     *  predicate. The selectivity of a range with both bounds is estimated from the
+     *  selectivities of its bounds, as the fraction of values matched by both.
+     *  @param stats the statistics of the table
+     *  @param field the field of the table
+     *  @param ipred the index predicate on the field
+     */
+    private static double estimateSelectivity(TableStats stats, int field, IndexPredicate ipred) {
+        if (ipred.getOp() != null)
+            return stats.estimateSelectivity(field, ipred.getOp(), ipred.getField());
+        double lower = stats.estimateSelectivity(field, ipred.isLowerInclusive() ?
+                Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN, ipred.getLowerBound());
+        double upper = stats.estimateSelectivity(field, ipred.isUpperInclusive() ?
+                Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN, ipred.getUpperBound());
+        return Math.max(0.0, lower + upper - 1.0);
+    }
+
+    /** Returns a scan of a table through the secondary index on the field with the most
+     *  selective filters, if those filters can use the index and their estimated selectivity
+     *  is below INDEX_SCAN_SELECTIVITY, or null if a sequential scan should be used.
+     *  The scan reads the range of the index matched by all of the filters on the field.
+     *  The filters are still applied to the tuples of the scan.
+     *  @param t the transaction of the scan
+     *  @param table the table to scan
+     *  @param predicates the predicates of the filters on the table
+     *  @param stats the statistics of the table, or null if it has none
+     */
+    private DbIterator getIndexScan(TransactionId t, LogicalScanNode table, Predicate[] predicates,
+            TableStats stats) {
+        if (stats == null)
+            return null;
+        SecondaryIndex best = null;
+        IndexPredicate bestPredicate = null;
+        double bestSelectivity = INDEX_SCAN_SELECTIVITY;
+        for (Predicate p : predicates) {
+            SecondaryIndex index = Database.getCatalog().getIndex(table.t, p.getField());
+            IndexPredicate ipred = getIndexPredicate(predicates, p.getField());
+            if (index == null || ipred == null)
+                continue;
+            double selectivity = estimateSelectivity(stats, p.getField(), ipred);
+            if (selectivity < bestSelectivity) {
+                best = index;
+                bestPredicate = ipred;
+                bestSelectivity = selectivity;
+            }
+        }
+        if (best == null)
+            return null;
+        return new SecondaryIndexScan(t, best, table.alias, bestPredicate);
+    }
+
+    /** Returns a scan of the range of a B+ tree table matched by the filters on its key
+     *  fields, or null if the table is not a B+ tree or has no such filters. The filters
+     *  are still applied to the tuples of the scan.
+     *  @see #getKeyPredicate(Predicate[], int[])
+     *  @param t the transaction of the scan
+     *  @param table the table to scan
+     *  @param predicates the predicates of the filters on the table
+     */
+    private DbIterator getBTreeScan(TransactionId t, LogicalScanNode table, Predicate[] predicates) {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(f instanceof BTreeFile))
+            return null;
+        IndexPredicate ipred = getKeyPredicate(predicates, ((BTreeFile) f).keyFields());
+        if (ipred == null)
+            return null;
+        return new BTreeScan(t, table.t, table.alias, ipred);
+    }
+
+    /** Returns a scan of a B+ tree table which returns its tuples in the order of its key
+     *  the query needs them in, or null if the query does not need them in key order.
+     *  This is the case for a query over a single table which orders by the (first) key
+     *  field without aggregates, so the sort can be skipped, and for a query computing the
+     *  minimum or maximum of that field without grouping, which only needs the first
+     *  tuple of the scan that passes the filters. The scan reads the range of the key
+     *  matched by the filters on the key fields, in descending order for ORDER BY ... DESC
+     *  and for MAX.
+     *  @param t the transaction of the scan
+     *  @param table the table to scan
+     *  @param predicates the predicates of the filters on the table
+     */
+    private BTreeScan getOrderedScan(TransactionId t, LogicalScanNode table, Predicate[] predicates)
+            throws ParsingException {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        if (tables.size() != 1 || !joins.isEmpty() || !(f instanceof BTreeFile))
+            return null;
+        int keyField = ((BTreeFile) f).keyField();
+        String key = table.alias + "." + f.getTupleDesc().getFieldName(keyField);
+        boolean reverse;
+        if (hasAgg) {
+            if (groupByField != null || !aggField.equals(key))
+                return null;
+            Aggregator.Op op = getAggOp(aggOp);
+            if (op != Aggregator.Op.MIN && op != Aggregator.Op.MAX)
+                return null;
+            reverse = op == Aggregator.Op.MAX;
+        } else if (hasOrderBy && oByField.equals(key)) {
+            reverse = !oByAsc;
+        } else {
+            return null;
+        }
+        return new BTreeScan(t, table.t, table.alias,
+                getKeyPredicate(predicates, ((BTreeFile) f).keyFields()), reverse);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,18 +554,31 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        boolean keyOrdered = false;
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
+            String baseTableName = Database.getCatalog().getTableName(table.t);
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                 Predicate[] predicates = getFilterPredicates(table.alias, f.getTupleDesc());
+                 int[] fields = getReferencedFields(table.alias, f.getTupleDesc());
+                 ss = getOrderedScan(t, table, predicates);
+                 keyOrdered = ss != null;
+                 if (ss == null)
+                     ss = getBTreeScan(t, table, predicates);
+                 if (ss == null)
+                     ss = getIndexOnlyScan(t, table, fields, predicates);
+                 if (ss == null)
+                     ss = getIndexScan(t, table, predicates, baseTableStats.get(baseTableName));
+                 if (ss == null)
+                     ss = new SeqScan(t, f.getId(), table.alias, fields, predicates);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -314,31 +592,15 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
+            Predicate p = getFilterPredicate(lf, subplan.getTupleDesc(), lf.fieldQuantifiedName);
+            Field f = p.getOperand();
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
+            int tableId = this.getTableId(lf.tableAlias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the scan may only have some fields, so look the field up in the table
+            double sel= s.estimateSelectivity(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -459,6 +721,9 @@ public class LogicalPlan {
         }
 
         if (hasAgg) {
+            // the first tuple of a scan in key order has the minimum or maximum key
+            if (keyOrdered)
+                node = new Limit(1, node);
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
@@ -474,7 +739,8 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        // a scan in the order of the ORDER BY field needs no sort
+        if (hasOrderBy && (hasAgg || !keyOrdered)) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
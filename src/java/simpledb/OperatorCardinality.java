@@ -32,6 +32,9 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof Limit) {
+            return updateLimitCardinality((Limit) o, tableAliasToId,
+                    tableStats);
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -41,9 +44,9 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
+                } else if (getScanTableName(children[0]) != null) {
                     childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
+                            getScanTableName(children[0]))
                             .estimateTableCardinality(1.0);
                 }
             }
@@ -52,6 +55,20 @@ public class OperatorCardinality {
         }
     }
 
+    /**
+     * Returns the name of the table a leaf of an operator tree scans, or null
+     * if the iterator is not a scan whose cardinality is that of its table.
+     * The filters a scan applies are also applied by the Filter operators
+     * above it, so they are not counted here.
+     */
+    private static String getScanTableName(DbIterator scan) {
+        if (scan instanceof SeqScan)
+            return ((SeqScan) scan).getTableName();
+        if (scan instanceof BTreeScan)
+            return ((BTreeScan) scan).getTableName();
+        return null;
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -77,9 +94,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
+            } else if (getScanTableName(child) != null) {
                 f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
+                        getScanTableName(child))
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
             }
@@ -120,9 +137,9 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (getScanTableName(child1) != null) {
+            child1Card = (int) (tableStats.get(getScanTableName(child1))
+                    .estimateTableCardinality(1.0));
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +149,9 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (getScanTableName(child2) != null) {
+            child2Card = (int) (tableStats.get(getScanTableName(child2))
+                    .estimateTableCardinality(1.0));
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -177,9 +194,9 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (getScanTableName(child1) != null) {
+            child1Card = (int) (tableStats.get(getScanTableName(child1))
+                    .estimateTableCardinality(1.0));
         }
 
         if (child2 instanceof Operator) {
@@ -189,9 +206,9 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (getScanTableName(child2) != null) {
+            child2Card = (int) (tableStats.get(getScanTableName(child2))
+                    .estimateTableCardinality(1.0));
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -201,6 +218,25 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    private static boolean updateLimitCardinality(Limit l,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        DbIterator child = l.getChildren()[0];
+        int childCard = 1;
+        boolean hasJoinPK = false;
+        if (child instanceof Operator) {
+            Operator oChild = (Operator) child;
+            hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                    tableStats);
+            childCard = oChild.getEstimatedCardinality();
+        } else if (getScanTableName(child) != null) {
+            childCard = tableStats.get(getScanTableName(child))
+                    .estimateTableCardinality(1.0);
+        }
+        l.setEstimatedCardinality(Math.min(childCard, l.getLimit()));
+        return hasJoinPK;
+    }
+
     private static boolean updateAggregateCardinality(Aggregate a,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -219,8 +255,8 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
+        if (getScanTableName(child) != null) {
+            childCard = (int) (tableStats.get(getScanTableName(child))
                     .estimateTableCardinality(1.0));
         }
 
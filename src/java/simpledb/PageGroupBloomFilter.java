@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PageGroupBloomFilter holds Bloom filters on one field of a HeapFile: the
+ * pages of the file are divided into groups of consecutive pages, and the
+ * filter of a group holds the values of the field on those pages. A scan for
+ * tuples with a given value of the field can skip every group whose filter
+ * does not contain it.
+ * <p>
+ * Each filter is sized for a full group of pages at the configured false
+ * positive rate, so the memory used grows with the number of groups.
+ * Values are never removed from a filter, so deleted values may still be
+ * reported as present.
+ *
+ * @see BloomFilter
+ * @see HeapFile#addBloomFilter
+ */
+public class PageGroupBloomFilter {
+    private final int field;
+    private final double falsePositiveRate;
+    private final int pagesPerGroup;
+    private final int tuplesPerGroup;
+    private final ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+
+    /**
+     * Creates empty Bloom filters on a field.
+     *
+     * @param field the index of the field
+     * @param falsePositiveRate the false positive rate of the filter of a
+     *        full group of pages
+     * @param pagesPerGroup the number of pages of a group
+     * @param tuplesPerPage the number of tuples of a full page
+     */
+    public PageGroupBloomFilter(int field, double falsePositiveRate, int pagesPerGroup,
+            int tuplesPerPage) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+        if (pagesPerGroup < 1)
+            throw new IllegalArgumentException("a group has at least one page");
+        this.field = field;
+        this.falsePositiveRate = falsePositiveRate;
+        this.pagesPerGroup = pagesPerGroup;
+        this.tuplesPerGroup = pagesPerGroup * tuplesPerPage;
+    }
+
+    /**
+     * Returns the index of the field these filters are on.
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * Returns the configured false positive rate of the filter of a full
+     * group of pages.
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Returns the number of pages of a group.
+     */
+    public int getPagesPerGroup() {
+        return pagesPerGroup;
+    }
+
+    /**
+     * Returns the number of groups with a filter.
+     */
+    public synchronized int getNumGroups() {
+        return filters.size();
+    }
+
+    /**
+     * Returns the number of bytes of the bits of all the filters.
+     */
+    public synchronized long getMemoryBytes() {
+        long bits = 0;
+        for (BloomFilter f : filters)
+            bits += f.getNumBits();
+        return (bits + 7) / 8;
+    }
+
+    /**
+     * Returns the expected false positive rate of the filters with the values
+     * added so far, averaged over the groups.
+     */
+    public synchronized double getExpectedFalsePositiveRate() {
+        if (filters.isEmpty())
+            return 0;
+        double sum = 0;
+        for (BloomFilter f : filters)
+            sum += f.getFalsePositiveRate();
+        return sum / filters.size();
+    }
+
+    /**
+     * Adds the value of the field of a tuple on the given page to the filter
+     * of the page's group.
+     */
+    public synchronized void add(int pageNo, Tuple t) {
+        int group = pageNo / pagesPerGroup;
+        while (filters.size() <= group)
+            filters.add(new BloomFilter(tuplesPerGroup, falsePositiveRate));
+        filters.get(group).add(t.getField(field));
+    }
+
+    /**
+     * Returns false if no tuple with the given value of the field was added
+     * to the group of the given page, and true if one may have been, or if
+     * the group has no filter.
+     */
+    public synchronized boolean mightContain(int pageNo, Field value) {
+        int group = pageNo / pagesPerGroup;
+        return group >= filters.size() || filters.get(group).mightContain(value);
+    }
+
+    /**
+     * Removes every filter.
+     */
+    public synchronized void clear() {
+        filters.clear();
+    }
+
+    /**
+     * Returns a summary of the configuration and memory use of these filters.
+     */
+    public synchronized String toString() {
+        return String.format("bloom filter on field %d: %d groups of %d pages, %d bytes, "
+                + "false positive rate %.4f configured, %.4f expected", field, filters.size(),
+                pagesPerGroup, getMemoryBytes(), falsePositiveRate, getExpectedFalsePositiveRate());
+    }
+}
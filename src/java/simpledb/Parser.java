@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -463,6 +465,68 @@ public class Parser {
         }
     }
 
+    /** The CREATE INDEX statement, which Zql does not parse */
+    static final Pattern CREATE_INDEX = Pattern.compile(
+            "\\s*create\\s+index\\s+(\\w+)\\s+on\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)"
+            + "(?:\\s*include\\s*\\(\\s*(\\w+(?:\\s*,\\s*\\w+)*)\\s*\\))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /** Handles a CREATE INDEX name ON table (field) [INCLUDE (field, ...)] statement,
+     *  which builds a secondary index on the field of the table, covering the
+     *  included fields, outside of any transaction.
+     *  @see Catalog#createIndex
+     */
+    public void handleCreateIndexStatement(String s)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        Matcher m = CREATE_INDEX.matcher(s);
+        if (!m.matches())
+            throw new simpledb.ParsingException("Invalid statement " + s.trim()
+                    + ", expected CREATE INDEX name ON table (field) [INCLUDE (field, ...)]");
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "CREATE INDEX cannot be run inside a transaction");
+        SecondaryIndex index;
+        try {
+            String[] included = m.group(4) == null ? new String[0] : m.group(4).trim().split("\\s*,\\s*");
+            index = Database.getCatalog().createIndex(m.group(1), m.group(2), m.group(3), included);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table or field in " + s.trim());
+        }
+        System.out.println("Created " + index + ".");
+    }
+
+    /** The REORGANIZE INDEX statement, which Zql does not parse */
+    static final Pattern REORGANIZE_INDEX = Pattern.compile(
+            "\\s*reorganize\\s+index\\s+(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+
+    /** Handles a REORGANIZE INDEX name statement, which compacts the leaves of the
+     *  B+ tree of a secondary index or table and rewrites them in key order, in
+     *  short transactions of its own.
+     *  @see BTreeFile#reorganize()
+     */
+    public void handleReorganizeIndexStatement(String s)
+            throws DbException, IOException, simpledb.ParsingException {
+        Matcher m = REORGANIZE_INDEX.matcher(s);
+        if (!m.matches())
+            throw new simpledb.ParsingException("Invalid statement " + s.trim()
+                    + ", expected REORGANIZE INDEX name");
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "REORGANIZE INDEX cannot be run inside a transaction");
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(m.group(1)));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown index " + m.group(1));
+        }
+        if (!(file instanceof BTreeFile))
+            throw new simpledb.ParsingException(m.group(1) + " is not a B+ tree");
+        int leaves = ((BTreeFile) file).reorganize();
+        System.out.println("Reorganized " + m.group(1) + " into " + leaves + " leaf pages.");
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -503,6 +567,28 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
+            // look for a CREATE INDEX or REORGANIZE INDEX statement before handing
+            // the statement to Zql
+            is = new BufferedInputStream(is);
+            byte[] prefix = new byte[64];
+            is.mark(prefix.length);
+            int n = 0;
+            for (int r; n < prefix.length && (r = is.read(prefix, n, prefix.length - n)) > 0; )
+                n += r;
+            is.reset();
+            String start = new String(prefix, 0, n, "UTF-8");
+            if (start.matches("(?is)\\s*(create|reorganize)\\s+index\\b.*")) {
+                ByteArrayOutputStream statement = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                for (int r; (r = is.read(buf)) > 0; )
+                    statement.write(buf, 0, r);
+                if (start.trim().toLowerCase().startsWith("create"))
+                    handleCreateIndexStatement(statement.toString("UTF-8"));
+                else
+                    handleReorganizeIndexStatement(statement.toString("UTF-8"));
+                return;
+            }
+
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
@@ -581,7 +667,8 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "create index", "on", "include",
+            "reorganize index" };
 
     public static void main(String argv[]) throws IOException {
 
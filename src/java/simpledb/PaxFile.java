@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is an implementation of a DbFile that stores a collection of tuples
+ * in no particular order, like HeapFile, on PaxPages, which lay the tuples of
+ * each page out column by column. Scans given predicates evaluate them a
+ * minipage at a time and only assemble the tuples which satisfy them.
+ *
+ * @see PaxPage
+ * @see HeapFile
+ */
+public class PaxFile implements DbFile {
+    private final File file;
+    private final TupleDesc tupleDesc;
+    private final DbFileChannel channel;
+
+    /**
+     * Free-space map of this file: bit i is set if page i was found to have no
+     * empty slots, as in HeapFile.
+     */
+    private final BitSet fullPages = new BitSet();
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param td the TupleDesc of the tuples in this file
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.file = f;
+        this.tupleDesc = td;
+        this.channel = new DbFileChannel(f);
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash of the
+     * absolute file name of the underlying file.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.read(data, offset);
+            return new PaxPage((HeapPageId) pid, data);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
+        channel.write(page.getPageData(), offset);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        int numPages = numPages();
+        for (int i = nextFreePage(0); i < numPages; i = nextFreePage(i + 1)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean heldBefore = bufferPool.holdsLock(tid, pid);
+
+            // probe the page with a shared lock first, as in HeapFile.insertTuple
+            PaxPage page = (PaxPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            boolean hasSpace = page.getNumEmptySlots() > 0;
+            if (!heldBefore) {
+                bufferPool.releasePage(tid, pid);
+            }
+            if (hasSpace) {
+                page = (PaxPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0) {
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    modifiedPages.add(page);
+                    return modifiedPages;
+                }
+                // another transaction filled the page in the meantime
+                if (!heldBefore) {
+                    bufferPool.releasePage(tid, pid);
+                }
+            }
+            setPageFull(i, true);
+        }
+
+        // every page is full, so append a new one
+        synchronized (this) {
+            HeapPageId newPid = new HeapPageId(getId(), numPages());
+            PaxPage emptyPage = new PaxPage(newPid, PaxPage.createEmptyPageData());
+            emptyPage.insertTuple(t);
+            emptyPage.markDirty(true, tid);
+            writePage(emptyPage);
+            modifiedPages.add(emptyPage);
+        }
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("Tuple to delete not in this PaxFile");
+        }
+        HeapPageId pid = (HeapPageId) rid.getPageId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        setPageFull(pid.pageNumber(), false);
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    /**
+     * Returns the number of the first page at or after the given page which is
+     * not known to be full.
+     */
+    private int nextFreePage(int from) {
+        synchronized (fullPages) {
+            return fullPages.nextClearBit(from);
+        }
+    }
+
+    /**
+     * Records in the free-space map whether the given page has no empty slots.
+     */
+    private void setPageFull(int pageNo, boolean full) {
+        synchronized (fullPages) {
+            fullPages.set(pageNo, full);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PaxFileIterator(tid, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file which satisfy all of
+     * the given predicates. The predicates are evaluated on each page before
+     * any tuple is assembled.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param predicates the predicates the returned tuples satisfy
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new PaxFileIterator(tid, predicates.clone());
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates) {
+        return predicates == null ? iterator(tid) : iterator(tid, predicates);
+    }
+
+    /**
+     * Iterator over the tuples of a PaxFile, which reads pages one at a time
+     * as the iteration reaches them.
+     */
+    private class PaxFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate[] predicates;
+        private int pageNo;
+        private int numPages;
+        private Iterator<Tuple> pageIterator;
+
+        public PaxFileIterator(TransactionId tid, Predicate[] predicates) {
+            this.tid = tid;
+            this.predicates = predicates;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            // pages appended while the iterator is open are not visited
+            this.numPages = numPages();
+            this.pageNo = 0;
+            this.pageIterator = pageIterator(pageNo);
+        }
+
+        /**
+         * Returns an iterator over the tuples of the given page which satisfy
+         * the predicates, or an empty iterator if the page is past the end of
+         * the file.
+         */
+        private Iterator<Tuple> pageIterator(int pageNo)
+                throws DbException, TransactionAbortedException {
+            if (pageNo >= numPages) {
+                return Collections.<Tuple>emptyList().iterator();
+            }
+            PageId pid = new HeapPageId(getId(), pageNo);
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            int[] slots = page.getUsedSlots();
+            for (int i = 0; i < predicates.length && slots.length > 0; i++) {
+                slots = page.filterSlots(predicates[i], slots);
+            }
+            return page.iterator(slots);
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (pageIterator == null) {
+                return null;
+            }
+            while (!pageIterator.hasNext()) {
+                pageNo++;
+                if (pageNo >= numPages) {
+                    return null;
+                }
+                pageIterator = pageIterator(pageNo);
+            }
+            return pageIterator.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            this.pageIterator = null;
+        }
+    }
+}
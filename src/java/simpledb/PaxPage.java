@@ -0,0 +1,393 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A PaxPage holds the same tuples a HeapPage would, but stores them column by
+ * column (partition attributes across): the values of each field of all the
+ * tuples on the page are stored next to each other in a minipage. A
+ * predicate on an int field is evaluated by walking the contiguous ints of
+ * its minipage, without decoding the other fields of the tuples.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;     //Number of record slots
+    private final byte[] header;    //Bitmap of the slots in use, as in HeapPage
+    private final byte[] data;      //Page data read from disk; never modified
+    private final Object[] columns; //Values of each field by slot, an int[] or a String[], null until decoded
+    private TransactionId dirtyTid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * The format of a PaxPage is a set of header bytes indicating the slots
+     * of the page that are in use, as in HeapPage, followed by a minipage for
+     * each field. The minipage of a field holds the value of that field for
+     * every slot, in slot order, each taking the length of its type. A page
+     * has as many slots as a HeapPage of the same table.
+     * <p>
+     * Fields are decoded lazily, a minipage at a time, when they are first
+     * accessed.
+     *
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.data = data;
+        this.header = Arrays.copyOf(data, (numSlots + 7) / 8);
+        this.columns = new Object[td.numFields()];
+
+        // the data is never modified, so it serves as the before image as is
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the offset in the page data of the minipage of the given field.
+     */
+    private int minipageOffset(int field) {
+        int offset = header.length;
+        for (int j = 0; j < field; j++) {
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the values of the given field for every slot, decoding its
+     * minipage if it has not been accessed before.
+     *
+     * @return an int[] for int fields, a String[] for string fields
+     */
+    private Object getColumn(int field) {
+        Object column = columns[field];
+        if (column != null) {
+            return column;
+        }
+
+        Type type = td.getFieldType(field);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data, minipageOffset(field), numSlots * type.getLen()));
+        try {
+            if (type == Type.INT_TYPE) {
+                int[] ints = new int[numSlots];
+                for (int i = 0; i < numSlots; i++) {
+                    ints[i] = dis.readInt();
+                }
+                column = ints;
+            } else {
+                String[] strings = new String[numSlots];
+                for (int i = 0; i < numSlots; i++) {
+                    strings[i] = ((StringField) type.parse(dis)).getValue();
+                }
+                column = strings;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+
+        columns[field] = column;
+        return column;
+    }
+
+    /**
+     * Returns a single field of the tuple in the given slot.
+     *
+     * @param slotId the slot of the tuple
+     * @param i the index of the field
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int i) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        Object column = getColumn(i);
+        if (column instanceof int[]) {
+            return new IntField(((int[]) column)[slotId]);
+        } else {
+            return new StringField(((String[]) column)[slotId], Type.STRING_LEN);
+        }
+    }
+
+    /**
+     * Assembles the tuple in the given slot from the minipages.
+     *
+     * @param slotId the slot of the tuple, which must be in use
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, getField(slotId, j));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the slots among the given ones whose tuples satisfy the given
+     * predicate. For an int field, the predicate is first evaluated on every
+     * value of the field's minipage in a tight loop over an int array.
+     *
+     * @param p the predicate to evaluate
+     * @param slots the candidate slots, which must be in use
+     * @return the candidate slots which satisfy p, in the same order
+     */
+    public int[] filterSlots(Predicate p, int[] slots) {
+        int[] result = new int[slots.length];
+        int n = 0;
+        Object column = getColumn(p.getField());
+        if (column instanceof int[]) {
+            boolean[] match = new boolean[numSlots];
+            Predicate.matchInts((int[]) column, numSlots, p.getOp(),
+                    ((IntField) p.getOperand()).getValue(), match);
+            for (int slot : slots) {
+                if (match[slot])
+                    result[n++] = slot;
+            }
+        } else {
+            String[] strings = (String[]) column;
+            for (int slot : slots) {
+                if (new StringField(strings[slot], Type.STRING_LEN).compare(p.getOp(), p.getOperand()))
+                    result[n++] = slot;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, pageData, 0, header.length);
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = minipageOffset(j);
+            int len = numSlots * td.getFieldType(j).getLen();
+            Object column = columns[j];
+            if (column == null) {
+                // never decoded, so unchanged
+                System.arraycopy(data, offset, pageData, offset, len);
+                continue;
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                for (int i = 0; i < numSlots; i++) {
+                    if (column instanceof int[])
+                        dos.writeInt(((int[]) column)[i]);
+                    else
+                        new StringField(((String[]) column)[i], Type.STRING_LEN).serialize(dos);
+                }
+                dos.flush();
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, pageData, offset, len);
+        }
+        return pageData;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     * Used to add new, empty pages to the file. Passing the results of
+     * this method to the PaxPage constructor will create a PaxPage with
+     * no valid tuples in it.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated to
+     * reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(this.pid)) throw new DbException("Tuple does not belong to page");
+        int slotId = rid.tupleno();
+        if (!isSlotUsed(slotId)) throw new DbException("Tuple slot is empty");
+        markSlotUsed(slotId, false);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw new DbException("Tuple descriptor mismatch");
+        int slotId = 0;
+        while (slotId < numSlots && isSlotUsed(slotId)) {
+            slotId++;
+        }
+        if (slotId == numSlots) throw new DbException("Page is full");
+
+        for (int j = 0; j < td.numFields(); j++) {
+            Object column = getColumn(j);
+            if (column instanceof int[])
+                ((int[]) column)[slotId] = ((IntField) t.getField(j)).getValue();
+            else
+                ((String[]) column)[slotId] = ((StringField) t.getField(j)).getValue();
+        }
+        t.setRecordId(new RecordId(this.pid, slotId));
+        markSlotUsed(slotId, true);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Abstraction to fill or clear a slot on this page.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            this.header[i / 8] |= (1 << (i % 8));
+        } else {
+            this.header[i / 8] &= ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * @return the slots on this page which are in use, in slot order
+     */
+    public int[] getUsedSlots() {
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                slots[n++] = i;
+        }
+        return Arrays.copyOf(slots, n);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(getUsedSlots());
+    }
+
+    /**
+     * @return an iterator over the tuples in the given slots of this page,
+     *         which are assembled as they are returned
+     * @param slots the slots to return, which must be in use
+     */
+    public Iterator<Tuple> iterator(final int[] slots) {
+        return new Iterator<Tuple>() {
+            private int index = 0;
+
+            public boolean hasNext() {
+                return index < slots.length;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(slots[index++]);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
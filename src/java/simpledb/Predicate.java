@@ -107,6 +107,84 @@ public class Predicate implements Serializable {
         return t.getField(this.fNum).compare(this.op, this.operand);
     }
 
+    /**
+     * Decides a comparison with an operand for all the int values in the
+     * given range at once, if possible.
+     *
+     * @param op the operator to compare the values with
+     * @param operand the value they are compared to
+     * @param min the smallest of the values
+     * @param max the largest of the values
+     * @return true if the comparison is true for every value in the range,
+     *         false if it is true for none, or null if the values have to be
+     *         compared one by one
+     */
+    public static Boolean matchesRange(Op op, int operand, int min, int max) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            if (operand < min || operand > max) return false;
+            return min == max ? Boolean.TRUE : null;
+        case NOT_EQUALS:
+            if (operand < min || operand > max) return true;
+            return min == max ? Boolean.FALSE : null;
+        case GREATER_THAN:
+            if (min > operand) return true;
+            return max <= operand ? Boolean.FALSE : null;
+        case GREATER_THAN_OR_EQ:
+            if (min >= operand) return true;
+            return max < operand ? Boolean.FALSE : null;
+        case LESS_THAN:
+            if (max < operand) return true;
+            return min >= operand ? Boolean.FALSE : null;
+        case LESS_THAN_OR_EQ:
+            if (max <= operand) return true;
+            return min > operand ? Boolean.FALSE : null;
+        }
+        return null;
+    }
+
+    /**
+     * Compares each of the first n of the given int values with an operand,
+     * as filter would compare int fields. Each operator gets its own loop
+     * without branches, which the JIT can vectorize.
+     *
+     * @param values the values to compare
+     * @param n the number of values to compare
+     * @param op the operator to compare them with
+     * @param operand the value they are compared to
+     * @param match receives, for each value, whether the comparison is true
+     */
+    public static void matchInts(int[] values, int n, Op op, int operand, boolean[] match) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++)
+                match[i] = values[i] == operand;
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++)
+                match[i] = values[i] != operand;
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++)
+                match[i] = values[i] > operand;
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++)
+                match[i] = values[i] >= operand;
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++)
+                match[i] = values[i] < operand;
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++)
+                match[i] = values[i] <= operand;
+            break;
+        }
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
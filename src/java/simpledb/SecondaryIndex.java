@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SecondaryIndex is a B+ tree index on one field of a HeapFile table. The
+ * index is a BTreeFile keyed on its first field, holding for each tuple of
+ * the table an entry (key, included..., page, slot): the value of the
+ * indexed field, the values of the included fields of the index, and the
+ * page number and slot of the tuple's RecordId.
+ * <p>
+ * An index covers the indexed field and its included fields, so queries
+ * reading only those fields can be answered from the entries of the index
+ * alone, with an IndexOnlyScan.
+ * <p>
+ * The indexes of a table are registered in the Catalog, and BufferPool
+ * inserts and deletes their entries along with the tuples of the table, in
+ * the same transaction.
+ *
+ * @see Catalog#createIndex
+ * @see SecondaryIndexScan
+ * @see IndexOnlyScan
+ */
+public class SecondaryIndex {
+    private final String name;
+    private final int tableid;
+    private final int field;
+    private final int[] included;
+    private final BTreeFile file;
+
+    /**
+     * Creates a secondary index stored in an existing BTreeFile of entries.
+     *
+     * @param name the name of the index
+     * @param tableid the id of the indexed table
+     * @param field the index of the indexed field
+     * @param file the B+ tree of the entries of the index
+     */
+    public SecondaryIndex(String name, int tableid, int field, BTreeFile file) {
+        this(name, tableid, field, new int[0], file);
+    }
+
+    /**
+     * Creates a secondary index with included fields stored in an existing
+     * BTreeFile of entries.
+     *
+     * @param name the name of the index
+     * @param tableid the id of the indexed table
+     * @param field the index of the indexed field
+     * @param included the indexes of the fields of the table stored in the
+     *            entries after the key
+     * @param file the B+ tree of the entries of the index
+     */
+    public SecondaryIndex(String name, int tableid, int field, int[] included, BTreeFile file) {
+        this.name = name;
+        this.tableid = tableid;
+        this.field = field;
+        this.included = included.clone();
+        this.file = file;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the id of the indexed table.
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the indexed field of the table.
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * Returns the indexes of the fields of the table stored in the entries of
+     * this index after the key.
+     */
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    /**
+     * Returns the position in the entries of this index of a field of the
+     * table, or -1 if the entries do not store the field.
+     *
+     * @param tableField the index of a field of the table
+     */
+    public int getEntryField(int tableField) {
+        if (tableField == field)
+            return 0;
+        for (int i = 0; i < included.length; i++) {
+            if (included[i] == tableField)
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the entries of this index store all of the given
+     * fields of the table.
+     *
+     * @param fields the indexes of fields of the table
+     */
+    public boolean covers(int[] fields) {
+        for (int f : fields) {
+            if (getEntryField(f) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the B+ tree of the entries of this index.
+     */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of an index on a field of a
+     * table, with the given included fields.
+     *
+     * @param td the TupleDesc of the table
+     * @param field the index of the indexed field
+     * @param included the indexes of the included fields
+     */
+    public static TupleDesc getTupleDesc(TupleDesc td, int field, int[] included) {
+        Type[] types = new Type[included.length + 3];
+        String[] names = new String[included.length + 3];
+        types[0] = td.getFieldType(field);
+        names[0] = "key";
+        for (int i = 0; i < included.length; i++) {
+            types[i + 1] = td.getFieldType(included[i]);
+            names[i + 1] = td.getFieldName(included[i]);
+        }
+        types[included.length + 1] = types[included.length + 2] = Type.INT_TYPE;
+        names[included.length + 1] = "page";
+        names[included.length + 2] = "slot";
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns the entry of this index for a tuple of the table.
+     *
+     * @param t the tuple
+     * @param rid the RecordId of the tuple
+     */
+    private Tuple getEntry(Tuple t, RecordId rid) {
+        Tuple entry = new Tuple(file.getTupleDesc());
+        entry.setField(0, t.getField(field));
+        for (int i = 0; i < included.length; i++)
+            entry.setField(i + 1, t.getField(included[i]));
+        entry.setField(included.length + 1, new IntField(rid.getPageId().pageNumber()));
+        entry.setField(included.length + 2, new IntField(rid.tupleno()));
+        return entry;
+    }
+
+    /**
+     * Returns the RecordId of the tuple of the table an entry refers to.
+     */
+    public RecordId getRecordId(Tuple entry) {
+        return new RecordId(new HeapPageId(tableid, ((IntField) entry.getField(included.length + 1)).getValue()),
+                ((IntField) entry.getField(included.length + 2)).getValue());
+    }
+
+    /**
+     * Inserts the entry of a tuple which was inserted into the table.
+     *
+     * @return the pages dirtied by the insert
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.insertTuple(tid, getEntry(t, t.getRecordId()));
+    }
+
+    /**
+     * Deletes the entry of a tuple which was deleted from the table.
+     *
+     * @param key the value of the indexed field of the tuple
+     * @param rid the RecordId the tuple had
+     * @return the pages dirtied by the delete
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        Field page = new IntField(rid.getPageId().pageNumber());
+        Field slot = new IntField(rid.tupleno());
+        Tuple found = null;
+        // close the iterator before deleting, since closing it releases the
+        // latch it took on the leaf page
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+        it.open();
+        try {
+            while (found == null && it.hasNext()) {
+                Tuple entry = it.next();
+                if (entry.getField(included.length + 1).equals(page)
+                        && entry.getField(included.length + 2).equals(slot))
+                    found = entry;
+            }
+        } finally {
+            it.close();
+        }
+        if (found == null)
+            throw new DbException("index " + name + " has no entry for " + rid);
+        return file.deleteTuple(tid, found);
+    }
+
+    /**
+     * Creates an index on a field of a HeapFile table, stored in the given
+     * file, and fills it with the entries of the tuples of the table with
+     * {@link BTreeBulkLoader}. The index file is registered in the catalog as
+     * a table named after the index, but the index is not registered as an
+     * index of the table.
+     * <p>
+     * The table is scanned in a transaction of its own, and the index is
+     * written directly to disk, so the table must not be modified while the
+     * index is built.
+     *
+     * @param name the name of the index
+     * @param tableid the id of the table
+     * @param field the index of the field to index
+     * @param f the file to store the index in, which is overwritten
+     */
+    public static SecondaryIndex build(String name, int tableid, int field, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        return build(name, tableid, field, new int[0], f);
+    }
+
+    /**
+     * Creates an index on a field of a HeapFile table with the given
+     * included fields, as {@link #build(String, int, int, File)} does.
+     *
+     * @param name the name of the index
+     * @param tableid the id of the table
+     * @param field the index of the field to index
+     * @param included the indexes of the fields to store in the entries
+     * @param f the file to store the index in, which is overwritten
+     */
+    public static SecondaryIndex build(String name, int tableid, int field, int[] included, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new DbException("secondary indexes are only supported on heap tables");
+        TupleDesc td = getTupleDesc(table.getTupleDesc(), field, included);
+        // the file of the index is not read until it has been loaded
+        final SecondaryIndex index = new SecondaryIndex(name, tableid, field, included,
+                new BTreeFile(f, 0, td));
+
+        TransactionId tid = new TransactionId();
+        final DbFileIterator it = table.iterator(tid);
+        DbFileIterator entries = new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!it.hasNext())
+                    return null;
+                Tuple t = it.next();
+                return index.getEntry(t, t.getRecordId());
+            }
+        };
+        try {
+            BTreeBulkLoader.load(entries, f, td, 0);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        Database.getBufferPool().discardPages(index.getFile().getId());
+        Database.getCatalog().addTable(index.getFile(), name);
+        return index;
+    }
+
+    public String toString() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String s = "index " + name + " on " + Database.getCatalog().getTableName(tableid) + "("
+                + td.getFieldName(field) + ")";
+        for (int i = 0; i < included.length; i++)
+            s += (i == 0 ? " include (" : ", ") + td.getFieldName(included[i]);
+        return included.length == 0 ? s : s + ")";
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan is an operator which reads the tuples of a heap table
+ * satisfying an index predicate on a field with a secondary index. It reads
+ * the entries of the index satisfying the predicate in batches of
+ * BATCH_SIZE, and fetches the tuples of each batch from the table in order
+ * of page and slot, so that each page of the table is read once per batch.
+ * Tuples are therefore returned in no particular order.
+ *
+ * @see SecondaryIndex
+ */
+public class SecondaryIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of index entries fetched from the table at once. */
+    public static final int BATCH_SIZE = 256;
+
+    private static final Comparator<RecordId> PAGE_ORDER = new Comparator<RecordId>() {
+        public int compare(RecordId r1, RecordId r2) {
+            int p1 = r1.getPageId().pageNumber(), p2 = r2.getPageId().pageNumber();
+            if (p1 != p2)
+                return p1 < p2 ? -1 : 1;
+            return r1.tupleno() < r2.tupleno() ? -1 : (r1.tupleno() == r2.tupleno() ? 0 : 1);
+        }
+    };
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private TupleDesc myTd;
+    private String alias;
+    private transient DbFileIterator entries;
+    private transient ArrayList<Tuple> batch = new ArrayList<Tuple>();
+    private int next = 0;
+
+    /**
+     * Creates a scan of a table through a secondary index, as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the secondary index to scan
+     * @param tableAlias
+     *            the alias of the table (needed by the parser); the returned
+     *            tupleDesc should have fields with name tableAlias.fieldName
+     * @param ipred
+     *            The index predicate on the indexed field to match. If null,
+     *            the scan will return all tuples
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the index this operator scans
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        entries = ipred == null ? index.getFile().iterator(tid) : index.getFile().indexIterator(tid, ipred);
+        entries.open();
+        batch = new ArrayList<Tuple>();
+        next = 0;
+        isOpen = true;
+    }
+
+    /**
+     * Reads the next batch of entries of the index, and fetches their tuples
+     * from the table in order of page.
+     */
+    private void fetchBatch() throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        while (rids.size() < BATCH_SIZE && entries.hasNext())
+            rids.add(index.getRecordId(entries.next()));
+        Collections.sort(rids, PAGE_ORDER);
+
+        batch = new ArrayList<Tuple>(rids.size());
+        next = 0;
+        HeapPage page = null;
+        for (RecordId rid : rids) {
+            if (page == null || !page.getId().equals(rid.getPageId()))
+                page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            batch.add(page.getTuple(rid.tupleno()));
+        }
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the indexed table, prefixed
+     * with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        if (next == batch.size())
+            fetchBatch();
+        return next < batch.size();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.get(next++);
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        batch = new ArrayList<Tuple>();
+        next = 0;
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
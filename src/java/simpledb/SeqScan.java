@@ -14,6 +14,8 @@ public class SeqScan implements DbIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator heapFileIt;
+    private int[] fields;
+    private TupleDesc myTd;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -39,6 +41,67 @@ public class SeqScan implements DbIterator {
         heapFileIt = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan over the specified table which only needs the
+     * given fields of its tuples. The returned tuples, and the TupleDesc of
+     * this scan, only have those fields, in the given order. Tables stored in
+     * a {@link ColumnarFile} then only read the pages of those fields.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table
+     * @param fields
+     *            the indexes of the fields needed by the operators above this
+     *            scan, or null if all of them are
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias, fields, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table which only needs the
+     * given fields of the tuples satisfying the given predicates. The
+     * returned tuples only have the given fields, as in
+     * {@link #SeqScan(TransactionId, int, String, int[])}. The fields and
+     * predicates are passed on to {@link DbFile#iterator(TransactionId, int[], Predicate[])},
+     * so tables which can evaluate the predicates before assembling tuples,
+     * such as a {@link PaxFile}, a {@link ColumnarFile} or a {@link HeapFile},
+     * return fewer tuples; other tables return all tuples, so the predicates
+     * must still be applied above this scan.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table
+     * @param fields
+     *            the indexes of the fields needed by the operators above this
+     *            scan, or null if all of them are
+     * @param predicates
+     *            predicates on the fields of the table which the operators
+     *            above this scan apply, or null
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields,
+            Predicate[] predicates) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.fields = fields == null ? null : fields.clone();
+        heapFileIt = Database.getCatalog().getDatabaseFile(tableid).iterator(tid, fields, predicates);
+    }
+
+    /**
+     * @return the indexes of the fields this scan reads, or null if it reads
+     *         all of them
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -76,6 +139,8 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.fields = null;
+        this.myTd = null;
         this.heapFileIt = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 
     }
@@ -94,29 +159,30 @@ public class SeqScan implements DbIterator {
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.  The alias and name should be separated with a "." character
-     * (e.g., "alias.fieldName").
+     * (e.g., "alias.fieldName"). If this scan only needs some fields, the
+     * TupleDesc only has those fields.
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        if (myTd != null)
+            return myTd;
         TupleDesc td = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
-        String[] fieldAr = new String[td.numFields()];
-        Type[] typeAr = new Type[td.numFields()];
+        int numFields = fields == null ? td.numFields() : fields.length;
+        String[] fieldAr = new String[numFields];
+        Type[] typeAr = new Type[numFields];
         // get Tuple descriptor for this table
         // read and modify each type and name in two new type&name array;
         // create and return new object of TupleDesc with new argument;
-        Iterator<TupleDesc.TDItem> it = td.iterator();
-        int index = 0;
-        while (it.hasNext()) {
-            TupleDesc.TDItem item = it.next();
-            fieldAr[index] = getAlias() + "." + item.fieldName;
-            typeAr[index] = item.fieldType;
-            index++;
+        for (int index = 0; index < numFields; index++) {
+            int field = fields == null ? index : fields[index];
+            fieldAr[index] = getAlias() + "." + td.getFieldName(field);
+            typeAr[index] = td.getFieldType(field);
         }
-        TupleDesc newTD = new TupleDesc(typeAr, fieldAr);
-        return newTD;
+        myTd = new TupleDesc(typeAr, fieldAr);
+        return myTd;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -127,7 +193,14 @@ public class SeqScan implements DbIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return heapFileIt.next();
+        Tuple t = heapFileIt.next();
+        if (fields == null)
+            return t;
+        Tuple projected = new Tuple(getTupleDesc());
+        for (int i = 0; i < fields.length; i++)
+            projected.setField(i, t.getField(fields[i]));
+        projected.setRecordId(t.getRecordId());
+        return projected;
     }
 
     public void close() {
@@ -15,6 +15,7 @@ public class SimpleDb {
             File targetDatFile=new File(args[1].replaceAll(".txt", ".dat"));
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
+            boolean varchar = false;
             char fieldSeparator=',';
 
             if (args.length == 3) 
@@ -25,25 +26,31 @@ public class SimpleDb {
                 String[] typeStringAr = typeString.split(",");
                 if (typeStringAr.length!=numOfAttributes)
                 {
-                        System.err.println("The number of types does not agree with the number of columns");
-                        return;
+                    System.err.println("The number of types does not agree with the number of columns");
+                    return;
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
+                    if (s.toLowerCase().equals("int"))
+                        ts[index++]=Type.INT_TYPE;
+                    else if (s.toLowerCase().equals("string"))
+                        ts[index++]=Type.STRING_TYPE;
+                    else if (s.toLowerCase().equals("varchar")) {
+                        ts[index++]=Type.STRING_TYPE;
+                        varchar = true;
+                    } else {
+                        System.err.println("Unknown type " + s);
+                        return;
+                    }
                 }
                 if (args.length==5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (varchar)
+                SlottedHeapFileEncoder.convert(sourceTxtFile,targetDatFile,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
@@ -0,0 +1,288 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order, like HeapFile, but in variable-length records
+ * on SlottedHeapPages. String fields only take up as many bytes as their
+ * values, so tables with short strings need far fewer pages than a HeapFile.
+ *
+ * @see SlottedHeapPage
+ * @see HeapFile
+ */
+public class SlottedHeapFile implements DbFile {
+    private final File file;
+    private final TupleDesc tupleDesc;
+    private final DbFileChannel channel;
+
+    /**
+     * Free-space map of this file: the number of free bytes last seen on each
+     * page, or -1 for pages which have not been looked at yet.
+     */
+    private int[] freeSpace = new int[0];
+
+    /**
+     * Maximum length of the values of each string field, see setMaxLength.
+     */
+    private final int[] maxLengths;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param td the TupleDesc of the tuples in this file
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.file = f;
+        this.tupleDesc = td;
+        this.channel = new DbFileChannel(f);
+        this.maxLengths = new int[td.numFields()];
+        Arrays.fill(maxLengths, Type.STRING_LEN);
+    }
+
+    /**
+     * Limits the values of a string field to the given number of characters,
+     * as declared by a <code>varchar(n)</code> field in the catalog. Inserting
+     * a tuple with a longer value fails. By default values may be up to
+     * Type.STRING_LEN characters long.
+     *
+     * @param field the index of the string field
+     * @param length the maximum length of its values
+     * @throws IllegalArgumentException if field is not a string field, or
+     *     length is not between 1 and Type.STRING_LEN
+     */
+    public void setMaxLength(int field, int length) {
+        if (tupleDesc.getFieldType(field) != Type.STRING_TYPE)
+            throw new IllegalArgumentException("field " + field + " is not a string field");
+        if (length < 1 || length > Type.STRING_LEN)
+            throw new IllegalArgumentException("length must be between 1 and " + Type.STRING_LEN);
+        maxLengths[field] = length;
+    }
+
+    /**
+     * Returns the maximum length of the values of a string field.
+     */
+    public int getMaxLength(int field) {
+        return maxLengths[field];
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedHeapFile, the hash of the
+     * absolute file name of the underlying file.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.read(data, offset);
+            return new SlottedHeapPage((HeapPageId) pid, data);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
+        channel.write(page.getPageData(), offset);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            if (tupleDesc.getFieldType(i) == Type.STRING_TYPE
+                    && ((StringField) t.getField(i)).getValue().length() > maxLengths[i])
+                throw new DbException("value of field " + tupleDesc.getFieldName(i)
+                        + " is longer than " + maxLengths[i] + " characters");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        int needed = SlottedHeapPage.getSpaceNeeded(SlottedHeapPage.getRecordSize(t));
+        int numPages = numPages();
+        for (int i = 0; i < numPages; i++) {
+            int free = getFreeSpace(i);
+            if (free != -1 && free < needed) {
+                continue;
+            }
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean heldBefore = bufferPool.holdsLock(tid, pid);
+
+            // probe the page with a shared lock first, as in HeapFile.insertTuple
+            SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            boolean hasRoom = page.hasRoomFor(t);
+            if (!heldBefore) {
+                bufferPool.releasePage(tid, pid);
+            }
+            if (hasRoom) {
+                page = (SlottedHeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.hasRoomFor(t)) {
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    setFreeSpace(i, page.getFreeSpace());
+                    modifiedPages.add(page);
+                    return modifiedPages;
+                }
+                // another transaction filled the page in the meantime
+                if (!heldBefore) {
+                    bufferPool.releasePage(tid, pid);
+                }
+            }
+            setFreeSpace(i, page.getFreeSpace());
+        }
+
+        // no page has room, so append a new one
+        synchronized (this) {
+            HeapPageId newPid = new HeapPageId(getId(), numPages());
+            SlottedHeapPage emptyPage = new SlottedHeapPage(newPid,
+                    SlottedHeapPage.createEmptyPageData());
+            emptyPage.insertTuple(t);
+            emptyPage.markDirty(true, tid);
+            writePage(emptyPage);
+            setFreeSpace(newPid.pageNumber(), emptyPage.getFreeSpace());
+            modifiedPages.add(emptyPage);
+        }
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("Tuple to delete not in this SlottedHeapFile");
+        }
+        HeapPageId pid = (HeapPageId) rid.getPageId();
+        SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        setFreeSpace(pid.pageNumber(), page.getFreeSpace());
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    /**
+     * Returns the number of free bytes last seen on the given page, or -1 if
+     * the page has not been looked at yet. The free-space map is only a hint;
+     * pages are checked again once they are locked.
+     */
+    private int getFreeSpace(int pageNo) {
+        synchronized (this) {
+            return pageNo < freeSpace.length ? freeSpace[pageNo] : -1;
+        }
+    }
+
+    /**
+     * Records the number of free bytes on the given page in the free-space map.
+     */
+    private void setFreeSpace(int pageNo, int free) {
+        synchronized (this) {
+            if (pageNo >= freeSpace.length) {
+                int oldLength = freeSpace.length;
+                freeSpace = Arrays.copyOf(freeSpace, Math.max(pageNo + 1, 2 * oldLength));
+                Arrays.fill(freeSpace, oldLength, freeSpace.length, -1);
+            }
+            freeSpace[pageNo] = free;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedHeapFileIterator(tid);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates) {
+        return iterator(tid);
+    }
+
+    /**
+     * Iterator over the tuples of a SlottedHeapFile, which reads pages one at
+     * a time as the iteration reaches them.
+     */
+    private class SlottedHeapFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private int pageNo;
+        private int numPages;
+        private Iterator<Tuple> pageIterator;
+
+        public SlottedHeapFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            // pages appended while the iterator is open are not visited
+            this.numPages = numPages();
+            this.pageNo = 0;
+            this.pageIterator = pageIterator(pageNo);
+        }
+
+        private Iterator<Tuple> pageIterator(int pageNo)
+                throws DbException, TransactionAbortedException {
+            if (pageNo >= numPages) {
+                return Collections.<Tuple>emptyList().iterator();
+            }
+            PageId pid = new HeapPageId(getId(), pageNo);
+            SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            return page.iterator();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (pageIterator == null) {
+                return null;
+            }
+            while (!pageIterator.hasNext()) {
+                pageNo++;
+                if (pageNo >= numPages) {
+                    return null;
+                }
+                pageIterator = pageIterator(pageNo);
+            }
+            return pageIterator.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            this.pageIterator = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * SlottedHeapFileEncoder reads a delimited text file and converts it to pages
+ * of binary data in the format of SlottedHeapPage, written consecutively in a
+ * data file.
+ *
+ * @see SlottedHeapFile
+ * @see HeapFileEncoder
+ */
+public class SlottedHeapFileEncoder {
+
+    /**
+     * Convert the specified input text file into a slotted heap file. Each
+     * line of the input file is a tuple whose fields are separated by
+     * fieldSeparator.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param typeAr The types of the fields of each tuple
+     * @param fieldSeparator The character separating the fields on a line
+     * @throws IOException if the input/output file can't be opened
+     */
+    public static void convert(File inFile, File outFile, Type[] typeAr,
+            char fieldSeparator) throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        FileOutputStream os = new FileOutputStream(outFile);
+
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+        int free = SlottedHeapPage.getCapacity();
+        int npages = 0;
+        String line;
+        try {
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                if (values.length != typeAr.length)
+                    throw new IOException("BAD LINE : " + line);
+
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < typeAr.length; i++) {
+                    String s = values[i].trim();
+                    if (typeAr[i] == Type.INT_TYPE) {
+                        try {
+                            t.setField(i, new IntField(Integer.parseInt(s)));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("BAD LINE : " + line);
+                        }
+                    } else {
+                        t.setField(i, new StringField(s, Type.STRING_LEN));
+                    }
+                }
+
+                byte[] record = SlottedHeapPage.encode(t);
+                int needed = SlottedHeapPage.getSpaceNeeded(record.length);
+                if (needed > free) {
+                    os.write(SlottedHeapPage.createPageData(records));
+                    npages++;
+                    records.clear();
+                    free = SlottedHeapPage.getCapacity();
+                }
+                records.add(record);
+                free -= needed;
+            }
+
+            // if this file is empty, do write an empty page
+            if (!records.isEmpty() || npages == 0)
+                os.write(SlottedHeapPage.createPageData(records));
+        } finally {
+            br.close();
+            os.close();
+        }
+    }
+}
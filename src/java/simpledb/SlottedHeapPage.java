@@ -0,0 +1,369 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of SlottedHeapPage stores data for one page of a
+ * SlottedHeapFile and implements the Page interface that is used by
+ * BufferPool.
+ * <p>
+ * Unlike HeapPage, records are variable-length: a string field only takes as
+ * many bytes as its value rather than Type.STRING_LEN, so tables of short
+ * strings fit many more tuples on a page.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements Page {
+
+    /** The number of bytes of the slot count at the start of the page. */
+    private static final int HEADER_SIZE = 2;
+    /** The number of bytes of each slot in the slot directory. */
+    private static final int SLOT_SIZE = 4;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final ArrayList<byte[]> records;  //Encoded records by slot, null for empty slots
+    private final ArrayList<Tuple> tuples;    //Records by slot, null until decoded
+    private int recordBytes;                  //Total size of the records on this page
+    private TransactionId dirtyTid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The format of a SlottedHeapPage is:
+     * <ul>
+     * <li> the number of slots on the page (2 bytes)
+     * <li> the slot directory: for every slot, the offset (2 bytes) and
+     *      length (2 bytes) of its record, with an offset of 0 for empty slots
+     * <li> free space
+     * <li> the records, packed at the end of the page
+     * </ul>
+     * A record stores each int field in 4 bytes and each string field as its
+     * length (2 bytes) followed by its characters.
+     *
+     * @param id the id of this page
+     * @param data the data of this page
+     * @see Catalog#getTupleDesc
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int numSlots = dis.readUnsignedShort();
+        this.records = new ArrayList<byte[]>(numSlots);
+        this.tuples = new ArrayList<Tuple>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            int offset = dis.readUnsignedShort();
+            int length = dis.readUnsignedShort();
+            if (offset == 0) {
+                records.add(null);
+            } else {
+                records.add(Arrays.copyOfRange(data, offset, offset + length));
+                recordBytes += length;
+            }
+            tuples.add(null);
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of bytes a tuple takes up as a record on a
+     * SlottedHeapPage, not counting its slot.
+     */
+    public static int getRecordSize(Tuple t) {
+        return encode(t).length;
+    }
+
+    /**
+     * Encodes a tuple as a record.
+     */
+    static byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                Field f = t.getField(j);
+                if (f.getType() == Type.INT_TYPE) {
+                    dos.writeInt(((IntField) f).getValue());
+                } else {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Returns the tuple in the given slot, decoding it from its record if it
+     * has not been accessed before.
+     *
+     * @param slotId the slot of the tuple, which must be in use
+     */
+    private Tuple getTuple(int slotId) throws NoSuchElementException {
+        Tuple t = tuples.get(slotId);
+        if (t != null) {
+            return t;
+        }
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(records.get(slotId)));
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    t.setField(j, new IntField(dis.readInt()));
+                } else {
+                    byte[] bs = new byte[dis.readUnsignedShort()];
+                    dis.readFully(bs);
+                    t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+
+        tuples.set(slotId, t);
+        return t;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk. Records are packed at the end of
+     * the page, so the space of deleted records is reclaimed.
+     *
+     * @see #SlottedHeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return createPageData(records);
+    }
+
+    /**
+     * Lays out the given records on a page.
+     *
+     * @param records the records by slot, null for empty slots; they must fit
+     *        on a page
+     * @return the data of the page
+     * @see #getPageData
+     */
+    static byte[] createPageData(List<byte[]> records) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE + SLOT_SIZE * records.size());
+        DataOutputStream dos = new DataOutputStream(baos);
+        int end = data.length;
+        try {
+            dos.writeShort(records.size());
+            for (byte[] record : records) {
+                if (record == null) {
+                    dos.writeShort(0);
+                    dos.writeShort(0);
+                    continue;
+                }
+                end -= record.length;
+                System.arraycopy(record, 0, data, end, record.length);
+                dos.writeShort(end);
+                dos.writeShort(record.length);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        byte[] directory = baos.toByteArray();
+        System.arraycopy(directory, 0, data, 0, directory.length);
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     * Used to add new, empty pages to the file. Passing the results of
+     * this method to the SlottedHeapPage constructor will create a
+     * SlottedHeapPage with no valid tuples in it.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated to
+     * reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(this.pid))
+            throw new DbException("Tuple does not belong to page");
+        int slotId = rid.tupleno();
+        if (!isSlotUsed(slotId)) throw new DbException("Tuple slot is empty");
+        recordBytes -= records.get(slotId).length;
+        records.set(slotId, null);
+        tuples.set(slotId, null);
+
+        // drop empty slots at the end of the directory; no tuple refers to them
+        while (!records.isEmpty() && records.get(records.size() - 1) == null) {
+            records.remove(records.size() - 1);
+            tuples.remove(tuples.size() - 1);
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw new DbException("Tuple descriptor mismatch");
+        byte[] record = encode(t);
+        int slotId = records.indexOf(null);
+        int needed = record.length + (slotId == -1 ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace()) throw new DbException("Page is full");
+
+        if (slotId == -1) {
+            slotId = records.size();
+            records.add(null);
+            tuples.add(null);
+        }
+        t.setRecordId(new RecordId(this.pid, slotId));
+        records.set(slotId, record);
+        tuples.set(slotId, t);
+        recordBytes += record.length;
+    }
+
+    /**
+     * Returns the number of bytes on this page which are not used by the slot
+     * directory or records.
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE * records.size() - recordBytes;
+    }
+
+    /**
+     * Returns true if the given tuple fits on this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int needed = getRecordSize(t) + (records.contains(null) ? 0 : SLOT_SIZE);
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Returns the number of bytes a new tuple with the given record size
+     * needs on a page which has no empty slot.
+     */
+    static int getSpaceNeeded(int recordSize) {
+        return recordSize + SLOT_SIZE;
+    }
+
+    /**
+     * Returns the number of bytes available for records and their slots on an
+     * empty page.
+     */
+    static int getCapacity() {
+        return BufferPool.getPageSize() - HEADER_SIZE;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < records.size() && records.get(i) != null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> iterator() {
+        // the slots in use when the iterator is created; tuples are decoded as they are returned
+        final ArrayList<Integer> slots = new ArrayList<Integer>();
+        for (int i = 0; i < records.size(); i++) {
+            if (records.get(i) != null)
+                slots.add(i);
+        }
+        return new Iterator<Tuple>() {
+            private int index = 0;
+
+            public boolean hasNext() {
+                return index < slots.size();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(slots.get(index++));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
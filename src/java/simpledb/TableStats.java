@@ -93,15 +93,6 @@ public class TableStats {
         DbFile f = Database.getCatalog().getDatabaseFile(tableid);
         td = f.getTupleDesc();
 
-        if (!(f instanceof HeapFile)) {
-            basePages = 0;
-            baseTups = 0;
-            this.costPerPageIO=ioCostPerPage;
-            histograms=null;
-            mins=maxs=null;
-            return;
-        }
-
         costPerPageIO = ioCostPerPage;
         histograms = new Object[td.numFields()];
         maxs = new int[td.numFields()];
@@ -142,7 +133,7 @@ public class TableStats {
             }
         }
 
-        basePages = ((HeapFile) f).numPages();
+        basePages = f.numPages();
         int count = 0;
         try {
             Transaction t = new Transaction();
@@ -0,0 +1,232 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every int field on each
+ * page of a HeapFile, so that scans with predicates on those fields can skip
+ * the pages which cannot hold a matching tuple without reading them.
+ * <p>
+ * The zone map is stored in a side file, which starts with the version of the
+ * zone map (4 bytes), followed for each page of the heap file, in page order,
+ * by the version the zone of the page was computed at (4 bytes) and the
+ * smallest and the largest value (4 bytes each) of each int field, in field
+ * order. A page without tuples has a smallest value greater than its largest.
+ * Only the zones computed at the current version are known, so that the whole
+ * zone map is made stale by bumping the version when the heap file is
+ * rewritten outside of HeapFile (see {@link #invalidate(File)}), and gaps in
+ * the side file, which read as version 0, are unknown.
+ * <p>
+ * Zones are learned page by page, as the pages are read by scans or written
+ * to disk; pages whose zone is not known may hold any values. The zone of a
+ * page is widened in memory as soon as a tuple is inserted into it, and
+ * recomputed from the page when it is written to disk. Since pages are only
+ * written when their changes commit, or when recovery restores them, the zone
+ * of a page always covers both its tuples on disk and those of transactions
+ * still running, and deletes narrow it when they commit.
+ *
+ * @see HeapFile
+ */
+public class ZoneMap {
+    /** The size of the header of the side file, which holds the version. */
+    private static final int HEADER_SIZE = 4;
+
+    private final File file;
+    private final DbFileChannel channel;
+    private final int[] intFields;  //Indexes of the int fields
+    private final int[] positions;  //Position of each field among the int fields, or -1
+    private int[] bounds;           //Smallest and largest value of each int field, by page
+    private final BitSet known = new BitSet();  //Pages with a zone
+    private int version = 0;        //Version of the zone map, 0 until the side file is read
+
+    /**
+     * Creates an empty zone map for a heap file with the given TupleDesc,
+     * stored in the given side file.
+     *
+     * @param f the side file storing the zone map
+     * @param td the TupleDesc of the heap file
+     */
+    public ZoneMap(File f, TupleDesc td) {
+        this.file = f;
+        this.channel = new DbFileChannel(f);
+        this.positions = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            positions[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.intFields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (positions[i] >= 0) {
+                intFields[positions[i]] = i;
+            }
+        }
+        this.bounds = new int[0];
+    }
+
+    /**
+     * Returns the number of bytes the zone of one page takes in the side file.
+     */
+    private int entrySize() {
+        return 4 + intFields.length * 8;
+    }
+
+    /**
+     * Returns true if the zone of the given page is known.
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return known.get(pageNo);
+    }
+
+    /**
+     * Reads the zones of the side file computed at its current version,
+     * replacing those in memory. The side file is created at version 1 if it
+     * does not exist.
+     */
+    public synchronized void read() throws IOException {
+        known.clear();
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            version = 1;
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(version).array(), 0);
+            return;
+        }
+        int n = (int) ((file.length() - HEADER_SIZE) / entrySize());
+        byte[] data = new byte[HEADER_SIZE + n * entrySize()];
+        channel.read(data, 0);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        version = dis.readInt();
+        ensureCapacity(n);
+        for (int pageNo = 0; pageNo < n; pageNo++) {
+            if (dis.readInt() == version) {
+                known.set(pageNo);
+            }
+            int base = pageNo * 2 * intFields.length;
+            for (int i = base; i < base + 2 * intFields.length; i++) {
+                bounds[i] = dis.readInt();
+            }
+        }
+    }
+
+    /**
+     * Makes all the zones stale, both in memory and in the side file.
+     */
+    public synchronized void invalidate() throws IOException {
+        if (version == 0) {
+            read();
+        }
+        version++;
+        known.clear();
+        channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(version).array(), 0);
+    }
+
+    /**
+     * Makes all the zones of the given side file stale, if it exists. This
+     * must be done when the heap file is written other than through a
+     * HeapFile, which keeps its zone map up to date.
+     *
+     * @param f the side file storing the zone map
+     */
+    public static void invalidate(File f) throws IOException {
+        if (!f.exists()) {
+            return;
+        }
+        DbFileChannel channel = new DbFileChannel(f);
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            int version = (channel.read(header, 0) == HEADER_SIZE ? ByteBuffer.wrap(header).getInt() : 0);
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(version + 1).array(), 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the side file, which is opened again if the zone map is used.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensureCapacity(int pages) {
+        int size = pages * 2 * intFields.length;
+        if (bounds.length < size) {
+            bounds = Arrays.copyOf(bounds, Math.max(size, 2 * bounds.length));
+        }
+    }
+
+    /**
+     * Recomputes the zone of a page from its tuples and writes it to the
+     * side file.
+     *
+     * @param pageNo the number of the page
+     * @param tuples the tuples on the page
+     */
+    public synchronized void update(int pageNo, Iterator<Tuple> tuples) throws IOException {
+        if (version == 0) {
+            read();
+        }
+        ensureCapacity(pageNo + 1);
+        int base = pageNo * 2 * intFields.length;
+        for (int j = 0; j < intFields.length; j++) {
+            bounds[base + 2 * j] = Integer.MAX_VALUE;
+            bounds[base + 2 * j + 1] = Integer.MIN_VALUE;
+        }
+        known.set(pageNo);
+        while (tuples.hasNext()) {
+            widen(pageNo, tuples.next());
+        }
+
+        ByteBuffer entry = ByteBuffer.allocate(entrySize());
+        entry.putInt(version);
+        for (int i = base; i < base + 2 * intFields.length; i++) {
+            entry.putInt(bounds[i]);
+        }
+        channel.write(entry.array(), HEADER_SIZE + (long) pageNo * entrySize());
+    }
+
+    /**
+     * Widens the zone of a page to cover a tuple inserted into it. The zone
+     * in the side file is updated when the page is written.
+     *
+     * @param pageNo the number of the page
+     * @param t the tuple inserted into the page
+     */
+    public synchronized void widen(int pageNo, Tuple t) {
+        if (!known.get(pageNo)) {
+            // the zone of the page is not known, so it may hold any values anyway
+            return;
+        }
+        int base = pageNo * 2 * intFields.length;
+        for (int j = 0; j < intFields.length; j++) {
+            int v = ((IntField) t.getField(intFields[j])).getValue();
+            bounds[base + 2 * j] = Math.min(bounds[base + 2 * j], v);
+            bounds[base + 2 * j + 1] = Math.max(bounds[base + 2 * j + 1], v);
+        }
+    }
+
+    /**
+     * Returns false if the given page cannot hold a tuple satisfying the given
+     * predicate, because the page has no tuples or the predicate is false for
+     * every value of the zone of the page. Returns true otherwise, which
+     * includes predicates on fields other than int fields and pages whose
+     * zone is not known.
+     *
+     * @param pageNo the number of the page
+     * @param p the predicate
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) {
+        int j = positions[p.getField()];
+        if (j < 0 || !known.get(pageNo)) {
+            return true;
+        }
+        int base = pageNo * 2 * intFields.length;
+        int min = bounds[base + 2 * j];
+        int max = bounds[base + 2 * j + 1];
+        if (min > max) {
+            return false;
+        }
+        return !Boolean.FALSE.equals(Predicate.matchesRange(p.getOp(),
+                ((IntField) p.getOperand()).getValue(), min, max));
+    }
+}
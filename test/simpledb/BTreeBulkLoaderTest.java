@@ -0,0 +1,200 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// small pages, so that the trees have several levels
+		BufferPool.setPageSize(1024);
+		Database.resetBufferPool(500);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+	}
+
+	/**
+	 * Loads the tuples of a random heap file into a B+ tree keyed on the first
+	 * field, and adds the B+ tree to the catalog.
+	 */
+	private BTreeFile load(HeapFile hf, double fillFactor, int runSize) throws Exception {
+		File bFile = File.createTempFile("bulk", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile bf = BTreeBulkLoader.load(hf.iterator(tid), bFile, hf.getTupleDesc(), 0,
+				fillFactor, runSize);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		return bf;
+	}
+
+	/**
+	 * Returns the keys of the tuples of a DbFile in iteration order.
+	 */
+	private List<Integer> keys(DbFile f) throws Exception {
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		DbFileIterator it = f.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Unit test for BTreeBulkLoader.load() merging many sorted runs, with
+	 * duplicate keys
+	 */
+	@Test
+	public void externalSort() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 500, null, tuples);
+		BTreeFile bf = load(hf, 1.0, 1000);
+
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		for (ArrayList<Integer> t : tuples)
+			expected.add(t.get(0));
+		Collections.sort(expected);
+		assertEquals(expected, keys(bf));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// the leaves are full, except for the last two
+		int maxTuples = BTreeBulkLoader.getMaxTuples(hf.getTupleDesc());
+		int leaves = (20000 + maxTuples - 1) / maxTuples;
+		assertTrue(bf.numPages() > leaves);
+		assertTrue(bf.numPages() < leaves + leaves / 10 + 2);
+
+		// equality lookups find every duplicate
+		int key = tuples.get(0).get(0);
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			assertEquals(new IntField(key), it.next().getField(0));
+			count++;
+		}
+		it.close();
+		assertEquals(Collections.frequency(expected, key), count);
+	}
+
+	/**
+	 * Unit test for sorting more runs than BTreeBulkLoader merges at once,
+	 * which takes several merge passes
+	 */
+	@Test
+	public void multiPassMerge() throws Exception {
+		// few distinct keys, with the second field numbering the tuples in input order
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		Random rand = new Random(0);
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 15000; i++) {
+			int key = rand.nextInt(100);
+			expected.add(key);
+			Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { key, i }));
+		}
+		Collections.sort(expected);
+
+		// runs of 3 tuples make 5000 runs, which are merged into 79 and then into 2
+		BTreeBulkLoader.SortedRuns sorted = new BTreeBulkLoader.SortedRuns(hf.getTupleDesc(), new int[] { 0 }, 3);
+		try {
+			sorted.sort(hf.iterator(tid));
+			assertEquals(2, sorted.passes());
+			assertEquals(15000, sorted.size());
+
+			// the sort is stable, so tuples with equal keys keep their input order
+			Tuple prev = sorted.next();
+			for (int i = 1; i < 15000; i++) {
+				Tuple t = sorted.next();
+				assertTrue(prev.getField(0).compare(Predicate.Op.LESS_THAN, t.getField(0))
+						|| (prev.getField(0).equals(t.getField(0))
+								&& prev.getField(1).compare(Predicate.Op.LESS_THAN, t.getField(1))));
+				prev = t;
+			}
+		} finally {
+			sorted.close();
+		}
+
+		BTreeFile bf = load(hf, 1.0, 3);
+		assertEquals(expected, keys(bf));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+	}
+
+	/**
+	 * Unit test for the fill factor of BTreeBulkLoader.load(), and for
+	 * inserts into the free space it leaves
+	 */
+	@Test
+	public void fillFactor() throws Exception {
+		int maxValue = 1 << 16;
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, maxValue, null, null);
+		BTreeFile full = load(hf, 1.0, BTreeBulkLoader.DEFAULT_RUN_SIZE);
+		BTreeFile sparse = load(hf, 0.6, BTreeBulkLoader.DEFAULT_RUN_SIZE);
+		BTreeChecker.checkRep(sparse, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(keys(full), keys(sparse));
+		assertTrue(sparse.numPages() * 0.6 >= full.numPages() * 0.95);
+
+		// tuples spread over the key range fit into their leaves without splits
+		int numPages = sparse.numPages();
+		for (int i = 0; i < 20; i++) {
+			int key = (2 * i + 1) * maxValue / 40;
+			Database.getBufferPool().insertTuple(tid, sparse.getId(),
+					Utility.getHeapTuple(new int[] { key, i }));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertEquals(numPages, sparse.numPages());
+		assertEquals(10020, keys(sparse).size());
+		BTreeChecker.checkRep(sparse, tid, new HashMap<PageId, Page>(), true);
+
+		try {
+			load(hf, 0.3, BTreeBulkLoader.DEFAULT_RUN_SIZE);
+			fail("expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Unit test for BTreeBulkLoader.load() with no tuples, and with a single
+	 * leaf page of tuples
+	 */
+	@Test
+	public void smallTrees() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		BTreeFile bf = load(hf, 1.0, 10);
+		assertEquals(1, bf.numPages());
+		assertEquals(Collections.emptyList(), keys(bf));
+		Database.getBufferPool().insertTuple(tid, bf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+		assertEquals(Arrays.asList(7), keys(bf));
+
+		hf = SystemTestUtil.createRandomHeapFile(2, 50, null, null);
+		bf = load(hf, 1.0, 10);
+		assertEquals(1, bf.numPages());
+		assertEquals(50, keys(bf).size());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
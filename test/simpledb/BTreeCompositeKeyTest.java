@@ -0,0 +1,251 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeCompositeKeyTest extends SimpleDbTestBase {
+	private static final int[] KEYS = new int[] { 0, 1 };
+	private static final int TENANTS = 10;
+
+	private TupleDesc td;
+	private Random rand;
+
+	/**
+	 * Set up initial resources for each unit test: a TupleDesc of (tenant, ts, value)
+	 * tuples keyed on (tenant, ts).
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		td = Utility.getTupleDesc(3, "c");
+		rand = new Random(23);
+	}
+
+	private Tuple tuple(int tenant, int ts, int value) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(tenant));
+		t.setField(1, new IntField(ts));
+		t.setField(2, new IntField(value));
+		return t;
+	}
+
+	private static CompositeField key(int... values) {
+		Field[] fields = new Field[values.length];
+		for (int i = 0; i < values.length; i++)
+			fields[i] = new IntField(values[i]);
+		return new CompositeField(fields);
+	}
+
+	private static CompositeField key(Tuple t) {
+		return new CompositeField(t.getField(0), t.getField(1));
+	}
+
+	/**
+	 * Returns the keys of the tuples of an iterator in iteration order.
+	 */
+	private static List<CompositeField> keys(DbFileIterator it) throws Exception {
+		ArrayList<CompositeField> keys = new ArrayList<CompositeField>();
+		it.open();
+		while (it.hasNext())
+			keys.add(key(it.next()));
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Returns the keys of a list of tuples which match a predicate, in order.
+	 */
+	private static List<CompositeField> matching(List<Tuple> tuples, IndexPredicate ipred) {
+		ArrayList<CompositeField> keys = new ArrayList<CompositeField>();
+		for (Tuple t : tuples) {
+			if (ipred.matches(key(t)))
+				keys.add(key(t));
+		}
+		return keys;
+	}
+
+	/**
+	 * Inserts tuples with random keys into a B+ tree or heap file, and returns them
+	 * sorted on the key.
+	 */
+	private List<Tuple> insertTuples(DbFile f, int n) throws Exception {
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < n; i++) {
+			Tuple t = tuple(rand.nextInt(TENANTS), rand.nextInt(100000), i);
+			Database.getBufferPool().insertTuple(tid, f.getId(), t);
+			tuples.add(t);
+			if (i % 100 == 99) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(KEYS));
+		return tuples;
+	}
+
+	/**
+	 * Unit test for CompositeField.compare(), which compares the leading fields both
+	 * values have
+	 */
+	@Test public void compare() {
+		assertTrue(key(1, 5).compare(Op.LESS_THAN, key(2, 0)));
+		assertTrue(key(1, 5).compare(Op.LESS_THAN, key(1, 6)));
+		assertTrue(key(1, 5).compare(Op.GREATER_THAN_OR_EQ, key(1, 5)));
+		assertFalse(key(1, 5).compare(Op.NOT_EQUALS, key(1, 5)));
+
+		// a prefix is equal to every value which starts with it
+		assertTrue(key(1, 5).compare(Op.EQUALS, key(1)));
+		assertTrue(key(1).compare(Op.EQUALS, key(1, 5)));
+		assertTrue(key(1, 5).compare(Op.GREATER_THAN, key(0)));
+		assertTrue(key(1, 5).compare(Op.EQUALS, new IntField(1)));
+		assertFalse(key(1, 5).equals(key(1)));
+
+		IndexPredicate ipred = new IndexPredicate(key(3, 100), false, key(3), true);
+		assertFalse(ipred.matches(key(3, 100)));
+		assertTrue(ipred.matches(key(3, 101)));
+		assertTrue(ipred.isBelowRange(key(2, 500)));
+		assertTrue(ipred.isAboveRange(key(4, 0)));
+	}
+
+	/**
+	 * Unit test for inserting into and deleting from a B+ tree keyed on two fields,
+	 * which splits, redistributes and merges leaf and internal pages
+	 */
+	@Test public void insertAndDelete() throws Exception {
+		File f = File.createTempFile("composite", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, KEYS, td);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		List<Tuple> tuples = insertTuples(bf, 3000);
+
+		TransactionId tid = new TransactionId();
+		assertEquals(matching(tuples, new IndexPredicate(null, false, null, false)), keys(bf.iterator(tid)));
+		assertTrue(bf.numPages() > 5);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// delete most of the tuples of some of the tenants
+		int count = 0;
+		Iterator<Tuple> it = tuples.iterator();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(0)).getValue() % 3 == 0 || rand.nextInt(4) == 0) {
+				DbFileIterator found = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(t)));
+				found.open();
+				Database.getBufferPool().deleteTuple(tid, found.next());
+				found.close();
+				it.remove();
+				if (++count % 50 == 0) {
+					Database.getBufferPool().transactionComplete(tid);
+					tid = new TransactionId();
+				}
+			}
+		}
+		assertEquals(matching(tuples, new IndexPredicate(null, false, null, false)), keys(bf.iterator(tid)));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for BTreeFile.indexIterator() and reverseIndexIterator() with a
+	 * predicate on a prefix of the key, over a B+ tree built by BTreeBulkLoader
+	 */
+	@Test public void prefixScans() throws Exception {
+		HeapFile hf = new HeapFile(File.createTempFile("heap", ".dat"), td);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		List<Tuple> tuples = insertTuples(hf, 5000);
+
+		File bFile = File.createTempFile("composite", ".dat");
+		bFile.deleteOnExit();
+		TransactionId tid = new TransactionId();
+		BTreeFile bf = BTreeBulkLoader.load(hf.iterator(tid), bFile, td, KEYS);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		IndexPredicate[] predicates = new IndexPredicate[] {
+				new IndexPredicate(Op.EQUALS, key(4)),
+				new IndexPredicate(Op.EQUALS, key(tuples.get(2500))),
+				new IndexPredicate(key(4, 20000), false, key(4), true),
+				new IndexPredicate(key(4, 20000), true, key(4, 60000), false),
+				new IndexPredicate(Op.LESS_THAN, key(2)),
+				new IndexPredicate(Op.GREATER_THAN, key(7, 50000)) };
+		for (IndexPredicate ipred : predicates) {
+			List<CompositeField> expected = matching(tuples, ipred);
+			assertFalse(expected.isEmpty());
+			assertEquals(expected, keys(bf.indexIterator(tid, ipred)));
+			Collections.reverse(expected);
+			assertEquals(expected, keys(bf.reverseIndexIterator(tid, ipred)));
+		}
+
+		// looking up prefixes of the key returns every tuple starting with them
+		List<CompositeField> expected = matching(tuples, new IndexPredicate(key(2), true, key(2), true));
+		expected.addAll(matching(tuples, new IndexPredicate(key(5), true, key(5), true)));
+		assertEquals(expected, keys(bf.multiKeyIterator(tid, Arrays.asList(key(5), key(2), key(5)))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for the planner scanning the range of a B+ tree keyed on two fields
+	 * matched by an equality filter on the first and a range filter on the second
+	 */
+	@Test public void planner() throws Exception {
+		File f = File.createTempFile("composite", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, KEYS, td);
+		Database.getCatalog().addTable(bf, "composite_table");
+		List<Tuple> tuples = insertTuples(bf, 3000);
+		TableStats.setTableStats("composite_table", new TableStats(bf.getId(), 1000));
+
+		TransactionId tid = new TransactionId();
+		DbIterator plan = new Parser().generateLogicalPlan(tid, "SELECT * FROM composite_table t "
+				+ "WHERE t.c0 = 6 AND t.c1 > 30000 AND t.c1 <= 70000;")
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		BTreeScan scan = findScan(plan);
+		assertNotNull(scan);
+		assertTrue(new IndexPredicate(key(6, 30000), false, key(6, 70000), true)
+				.equals(scan.getIndexPredicate()));
+
+		List<CompositeField> expected = matching(tuples, scan.getIndexPredicate());
+		assertFalse(expected.isEmpty());
+		ArrayList<CompositeField> keys = new ArrayList<CompositeField>();
+		plan.open();
+		while (plan.hasNext())
+			keys.add(key(plan.next()));
+		plan.close();
+		assertEquals(expected, keys);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Returns the BTreeScan of a plan, or null if it has none
+	 */
+	private static BTreeScan findScan(DbIterator plan) {
+		if (plan instanceof BTreeScan)
+			return (BTreeScan) plan;
+		if (plan instanceof Operator) {
+			for (DbIterator child : ((Operator) plan).getChildren()) {
+				BTreeScan scan = findScan(child);
+				if (scan != null)
+					return scan;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompositeKeyTest.class);
+	}
+}
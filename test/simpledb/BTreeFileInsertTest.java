@@ -172,6 +172,31 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().pageNumber() == 2 || otherPage.getId().pageNumber() == 2);
 	}
 
+	@Test
+	public void testReusePageAfterAbort() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0, 3);
+
+		// page 2 is empty once this transaction commits
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		empty.setEmptyPage(tid, dirtypages, 2);
+		Database.getBufferPool().cacheDirtyPages(tid, new ArrayList<Page>(dirtypages.values()));
+		Database.getBufferPool().transactionComplete(tid);
+
+		// claiming it fills the header pages, so the next page comes from the end of the file
+		tid = new TransactionId();
+		dirtypages = new HashMap<PageId, Page>();
+		assertEquals(2, empty.getEmptyPageNo(tid, dirtypages));
+		assertTrue(empty.getEmptyPageNo(tid, dirtypages) > 3);
+		Database.getBufferPool().transactionComplete(tid, false);
+
+		// the claim was rolled back, so page 2 is handed out again
+		tid = new TransactionId();
+		assertEquals(2, empty.getEmptyPageNo(tid, new HashMap<PageId, Page>()));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
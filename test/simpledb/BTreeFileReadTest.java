@@ -201,6 +201,189 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Unit test for BTreeFile.indexIterator() with a range of keys
+	 */
+	@Test public void indexIteratorRange() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		int[][] ranges = { { 100, 1, 400, 0 }, { 100, 0, 400, 1 }, { 300, 1, 300, 1 },
+				{ 300, 0, 300, 1 }, { 400, 1, 100, 1 }, { -5, 1, 1000, 1 } };
+		for (int[] range : ranges) {
+			IntField lower = new IntField(range[0]);
+			IntField upper = new IntField(range[2]);
+			IndexPredicate ipred = new IndexPredicate(lower, range[1] == 1, upper, range[3] == 1);
+			DbFileIterator it = twoLeafPageFile.indexIterator(tid, ipred);
+			it.open();
+			ArrayList<Integer> keys = new ArrayList<Integer>();
+			while(it.hasNext()) {
+				keys.add(((IntField) it.next().getField(0)).getValue());
+			}
+			it.close();
+
+			ArrayList<Integer> expected = new ArrayList<Integer>();
+			for (int i = 1; i <= 520; i++) {
+				if ((range[1] == 1 ? i >= range[0] : i > range[0]) &&
+						(range[3] == 1 ? i <= range[2] : i < range[2]))
+					expected.add(i);
+			}
+			assertEquals(expected, keys);
+		}
+
+		// a range with equal inclusive bounds is an equality predicate
+		IndexPredicate ipred = new IndexPredicate(new IntField(3), true, new IntField(3), true);
+		assertEquals(Op.EQUALS, ipred.getOp());
+		assertTrue(ipred.equals(new IndexPredicate(Op.EQUALS, new IntField(3))));
+		ipred = new IndexPredicate(Op.GREATER_THAN, new IntField(3)).and(Op.LESS_THAN_OR_EQ, new IntField(9))
+				.and(Op.GREATER_THAN_OR_EQ, new IntField(5));
+		assertNull(ipred.getOp());
+		assertEquals(new IntField(5), ipred.getLowerBound());
+		assertTrue(ipred.isLowerInclusive());
+		assertEquals(new IntField(9), ipred.getUpperBound());
+		assertTrue(ipred.isUpperInclusive());
+	}
+
+	/**
+	 * Unit test for BTreeFile.reverseIterator() and reverseIndexIterator()
+	 */
+	@Test public void reverseIterator() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		// duplicates of a key on both leaves
+		for (int i = 0; i < 10; i++) {
+			twoLeafPageFile.insertTuple(tid, BTreeUtility.getBTreeTuple(300, 2));
+		}
+
+		ArrayList<Integer> all = new ArrayList<Integer>();
+		DbFileIterator it = twoLeafPageFile.iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			all.add(((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		it = twoLeafPageFile.reverseIterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		ArrayList<Integer> expected = new ArrayList<Integer>(all);
+		Collections.reverse(expected);
+		assertEquals(expected, keys);
+
+		int[][] ranges = { { 100, 1, 300, 1 }, { 100, 0, 300, 0 }, { 300, 1, 300, 1 },
+				{ 300, 0, 400, 1 }, { 400, 1, 100, 1 }, { -5, 1, 1000, 1 } };
+		for (int[] range : ranges) {
+			IndexPredicate ipred = new IndexPredicate(new IntField(range[0]), range[1] == 1,
+					new IntField(range[2]), range[3] == 1);
+			it = twoLeafPageFile.reverseIndexIterator(tid, ipred);
+			it.open();
+			keys.clear();
+			while(it.hasNext()) {
+				keys.add(((IntField) it.next().getField(0)).getValue());
+			}
+			it.close();
+
+			expected.clear();
+			for (int i : all) {
+				if (ipred.matches(new IntField(i)))
+					expected.add(i);
+			}
+			Collections.reverse(expected);
+			assertEquals(expected, keys);
+		}
+	}
+
+	/**
+	 * Unit test that BTreeFile.findLeafPage() releases the latches on internal pages
+	 * once the leaf page has been locked
+	 */
+	@Test public void findLeafPageReleasesLatches() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		BTreePageId rootPtrPid = BTreeRootPtrPage.getId(twoLeafPageFile.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, rootPtrPid, Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+		// a read-only descent keeps only the leaf locked
+		BTreeLeafPage leaf = twoLeafPageFile.findLeafPage(tid, rootId, Permissions.READ_ONLY, new IntField(5));
+		assertTrue(Database.getBufferPool().holdsLock(tid, leaf.getId()));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+
+		// a read-write descent to a leaf with empty slots releases the path as well
+		TransactionId tid2 = new TransactionId();
+		leaf = twoLeafPageFile.findLeafPage(tid2, rootId, Permissions.READ_WRITE, new IntField(515));
+		assertTrue(leaf.getNumEmptySlots() > 0);
+		assertTrue(Database.getBufferPool().holdsLock(tid2, leaf.getId()));
+		assertFalse(Database.getBufferPool().holdsLock(tid2, rootId));
+		Database.getBufferPool().transactionComplete(tid2);
+
+		// a page which was already locked by the transaction stays locked
+		Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
+		twoLeafPageFile.findLeafPage(tid, rootId, Permissions.READ_ONLY, null);
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootId));
+	}
+
+	/**
+	 * Returns the number of tuples of a B+ tree matching a predicate
+	 */
+	private static int count(BTreeFile f, TransactionId tid, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = (ipred == null ? f.iterator(tid) : f.indexIterator(tid, ipred));
+		int count = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * Unit test that descents go through the cached root pointer and upper levels of the
+	 * tree, and see the changes of committed and aborted splits
+	 */
+	@Test public void cachedUpperLevels() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		BTreePageId rootPtrPid = BTreeRootPtrPage.getId(twoLeafPageFile.getId());
+		TransactionId tid2 = new TransactionId();
+		BTreePageId rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid2, rootPtrPid, Permissions.READ_ONLY)).getRootId();
+		Database.getBufferPool().transactionComplete(tid2);
+
+		// a lookup keeps neither the root pointer page nor the root locked
+		assertEquals(1, count(twoLeafPageFile, tid, new IndexPredicate(Op.EQUALS, new IntField(5))));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrPid));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+		Database.getBufferPool().transactionComplete(tid);
+
+		// splits which abort leave the tree as it was
+		tid2 = new TransactionId();
+		for (int i = 0; i < 600; i++)
+			Database.getBufferPool().insertTuple(tid2, twoLeafPageFile.getId(), BTreeUtility.getBTreeTuple(300, 2));
+		Database.getBufferPool().transactionComplete(tid2, false);
+		tid = new TransactionId();
+		assertEquals(520, count(twoLeafPageFile, tid, null));
+		assertEquals(0, count(twoLeafPageFile, tid, new IndexPredicate(Op.GREATER_THAN, new IntField(520))));
+		Database.getBufferPool().transactionComplete(tid);
+
+		// lookups after committed splits find the moved keys
+		tid2 = new TransactionId();
+		for (int i = 1000; i < 2000; i++)
+			Database.getBufferPool().insertTuple(tid2, twoLeafPageFile.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		Database.getBufferPool().transactionComplete(tid2);
+		tid = new TransactionId();
+		for (int i = 1000; i < 2000; i += 37)
+			assertEquals(1, count(twoLeafPageFile, tid, new IndexPredicate(Op.EQUALS, new IntField(i))));
+		assertEquals(1520, count(twoLeafPageFile, tid, null));
+		BTreeChecker.checkRep(twoLeafPageFile, tid, new HashMap<PageId, Page>(), true);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -313,6 +313,49 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild() and findLastChild(), with empty slots between the
+	 * entries
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 3)
+			page.deleteKeyAndRightChild(entries.get(i));
+
+		it = page.iterator();
+		entries.clear();
+		while (it.hasNext())
+			entries.add(it.next());
+		assertEquals(entries.get(0).getLeftChild(), page.findChild(null));
+		for (int[] entry : EXAMPLE_VALUES) {
+			for (int key = entry[1] - 1; key <= entry[1] + 1; key++) {
+				IntField f = new IntField(key);
+				BTreePageId expected = entries.get(entries.size() - 1).getRightChild();
+				for (BTreeEntry e : entries) {
+					if (f.compare(Predicate.Op.LESS_THAN_OR_EQ, e.getKey())) {
+						expected = e.getLeftChild();
+						break;
+					}
+				}
+				assertEquals(expected, page.findChild(f));
+
+				expected = entries.get(entries.size() - 1).getRightChild();
+				for (BTreeEntry e : entries) {
+					if (f.compare(Predicate.Op.LESS_THAN, e.getKey())) {
+						expected = e.getLeftChild();
+						break;
+					}
+				}
+				assertEquals(expected, page.findLastChild(f));
+			}
+		}
+		assertEquals(entries.get(entries.size() - 1).getRightChild(), page.findLastChild(null));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,52 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeKeyRangeIdTest extends SimpleDbTestBase {
+
+	/**
+	 * Unit test for BTreeKeyRangeId.equals()
+	 */
+	@Test public void equals() {
+		assertEquals(new BTreeKeyRangeId(1, new IntField(5)), new BTreeKeyRangeId(1, new IntField(5)));
+		assertEquals(new BTreeKeyRangeId(1, null), new BTreeKeyRangeId(1, null));
+		assertFalse(new BTreeKeyRangeId(1, new IntField(5)).equals(new BTreeKeyRangeId(2, new IntField(5))));
+		assertFalse(new BTreeKeyRangeId(1, new IntField(5)).equals(new BTreeKeyRangeId(1, null)));
+	}
+
+	/**
+	 * Unit test for BTreeKeyRangeId.serialize() and reading a key range back
+	 * from its serialized representation
+	 */
+	@Test public void serialize() {
+		BTreeKeyRangeId[] ranges = new BTreeKeyRangeId[] {
+				new BTreeKeyRangeId(1, new IntField(-17)),
+				new BTreeKeyRangeId(1, new StringField("key", Type.STRING_LEN)),
+				new BTreeKeyRangeId(2, new CompositeField(new IntField(3),
+						new StringField("abcde", Type.STRING_LEN), new IntField(4))),
+				new BTreeKeyRangeId(2, new CompositeField(new IntField(3))) };
+		for (BTreeKeyRangeId range : ranges) {
+			BTreeKeyRangeId read = new BTreeKeyRangeId(range.serialize());
+			assertEquals(range, read);
+			assertEquals(range.getKey().getClass(), read.getKey().getClass());
+		}
+
+		BTreeKeyRangeId read = new BTreeKeyRangeId(new BTreeKeyRangeId(3, null).serialize());
+		assertEquals(3, read.getTableId());
+		assertNull(read.getKey());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeKeyRangeIdTest.class);
+	}
+}
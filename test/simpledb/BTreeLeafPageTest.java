@@ -336,6 +336,57 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Returns the first slot in a linear scan of the page whose key satisfies
+	 * "key op slot key", or getMaxTuples() if there is none.
+	 */
+	private static int linearSearch(BTreeLeafPage page, Predicate.Op op, Field key) {
+		for (int i = 0; i < page.getMaxTuples(); i++) {
+			if (page.isSlotUsed(i) && key.compare(op, page.getTuple(i).getField(0)))
+				return i;
+		}
+		return page.getMaxTuples();
+	}
+
+	/**
+	 * Unit test for BTreeLeafPage.lowerBound() and upperBound(), with empty slots
+	 * between the tuples and duplicate keys
+	 */
+	@Test public void lowerAndUpperBound() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(0, page.lowerBound(new IntField(0)));
+		assertEquals(page.getMaxTuples(), page.lowerBound(new IntField(70000)));
+
+		// delete every other tuple and add some duplicates
+		Iterator<Tuple> it = page.iterator();
+		boolean delete = false;
+		LinkedList<Tuple> deleted = new LinkedList<Tuple>();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (delete)
+				deleted.add(t);
+			delete = !delete;
+		}
+		for (Tuple t : deleted)
+			page.deleteTuple(t);
+		for (int i = 0; i < 5; i++)
+			page.insertTuple(BTreeUtility.getBTreeTuple(new int[] { 22064, i }));
+
+		for (int[] tuple : EXAMPLE_VALUES) {
+			for (int key = tuple[0] - 1; key <= tuple[0] + 1; key++) {
+				IntField f = new IntField(key);
+				assertEquals(linearSearch(page, Predicate.Op.LESS_THAN_OR_EQ, f), page.lowerBound(f));
+				assertEquals(linearSearch(page, Predicate.Op.LESS_THAN, f), page.upperBound(f));
+			}
+		}
+
+		// iteration from the lower bound returns the duplicates first
+		it = page.iterator(page.lowerBound(new IntField(22064)));
+		for (int i = 0; i < 5; i++)
+			assertEquals(new IntField(22064), it.next().getField(0));
+		assertTrue(((IntField) it.next().getField(0)).getValue() > 22064);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -236,6 +236,75 @@ public class BTreeNextKeyLockingTest extends SimpleDbTestBase {
 		bw1 = null;
 	}
 
+	/**
+	 * Count the tuples of a range scan between two keys, exclusive
+	 */
+	private int countRange(BTreeFile bf, TransactionId tid, int low, int high) throws Exception {
+		DbFileIterator fit = bf.indexIterator(tid,
+				new IndexPredicate(new IntField(low), false, new IntField(high), false));
+		fit.open();
+		int count = 0;
+		while(fit.hasNext()) {
+			fit.next();
+			count++;
+		}
+		fit.close();
+		return count;
+	}
+
+	@Test
+	public void nextKeyLockingTestGap() throws Exception {
+		// keys 1 to 3000 on several leaf pages, with a gap from 1450 to 1550
+		BTreeFile bigFile = BTreeUtility.createBTreeFile(2, 3000, null, null, 0);
+		for(int k = 1450; k <= 1550; k++) {
+			DbFileIterator fit = bigFile.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(k)));
+			fit.open();
+			while(fit.hasNext()) {
+				Database.getBufferPool().deleteTuple(tid, fit.next());
+			}
+			fit.close();
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// scan the range around the gap
+		int countBefore = countRange(bigFile, tid, 1400, 1600);
+		assertEquals(98, countBefore);
+
+		// an insert into the scanned gap has to wait for the scan, while an
+		// insert outside the scanned range does not
+		TransactionId tid1 = new TransactionId();
+		BTreeWriter inside = new BTreeWriter(tid1, bigFile, 1500, 1);
+		inside.start();
+		TransactionId tid2 = new TransactionId();
+		BTreeWriter outside = new BTreeWriter(tid2, bigFile, 2500, 1);
+		outside.start();
+		Thread.sleep(POLL_INTERVAL);
+		for(int i = 0; i < 50 && !outside.succeeded(); i++) {
+			Thread.sleep(POLL_INTERVAL);
+		}
+		assertTrue(outside.succeeded());
+		Database.getBufferPool().transactionComplete(tid2);
+		assertNull(inside.getError());
+		assertFalse(inside.succeeded());
+
+		// the repeated scan sees no phantom
+		assertEquals(countBefore, countRange(bigFile, tid, 1400, 1600));
+		assertFalse(inside.succeeded());
+
+		// once the scan commits, the insert goes through
+		Database.getBufferPool().transactionComplete(tid);
+		for(int i = 0; i < 50 && !inside.succeeded(); i++) {
+			Thread.sleep(POLL_INTERVAL);
+		}
+		assertNull(inside.getError());
+		assertTrue(inside.succeeded());
+		Database.getBufferPool().transactionComplete(tid1);
+
+		tid = new TransactionId();
+		assertEquals(countBefore + 1, countRange(bigFile, tid, 1400, 1600));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,259 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreePrefixCompressionTest extends SimpleDbTestBase {
+	private static final int FIELDS = 6;
+
+	private TupleDesc td;
+	private Random rand;
+
+	/**
+	 * Set up initial resources for each unit test: a TupleDesc of wide tuples of
+	 * string fields, so that leaf pages hold few tuples.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		Type[] types = new Type[FIELDS];
+		Arrays.fill(types, Type.STRING_TYPE);
+		td = new TupleDesc(types);
+		rand = new Random(17);
+	}
+
+	private static StringField field(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	private Tuple tuple(String key) {
+		Tuple t = new Tuple(td);
+		t.setField(0, field(key));
+		for (int i = 1; i < FIELDS; i++)
+			t.setField(i, field(""));
+		return t;
+	}
+
+	/**
+	 * Counts the leaf and internal pages of a B+ tree, and checks that the pages
+	 * other than the root are at least half full.
+	 *
+	 * @return the number of leaf pages and the number of internal pages
+	 */
+	private int[] countPages(BTreeFile bf, TransactionId tid, BTreePageId pid, boolean root)
+			throws Exception {
+		Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		if (pid.pgcateg() == BTreePageId.LEAF) {
+			BTreeLeafPage leaf = (BTreeLeafPage) page;
+			assertTrue(root || leaf.getNumTuples() >= leaf.getMaxTuples() / 2);
+			return new int[] { 1, 0 };
+		}
+		BTreeInternalPage internal = (BTreeInternalPage) page;
+		assertTrue(internal.isPrefixCompressed());
+		assertTrue(root || !internal.isLessThanHalfFull());
+		assertFalse(internal.isOverfull());
+		int[] counts = new int[] { 0, 1 };
+		Iterator<BTreeEntry> it = internal.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			int[] child = countPages(bf, tid, e.getLeftChild(), false);
+			counts[0] += child[0];
+			counts[1] += child[1];
+		}
+		int[] child = countPages(bf, tid, e.getRightChild(), false);
+		counts[0] += child[0];
+		counts[1] += child[1];
+		return counts;
+	}
+
+	private int[] countPages(BTreeFile bf, TransactionId tid) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		return countPages(bf, tid, rootPtr.getRootId(), true);
+	}
+
+	/**
+	 * Returns the keys of the tuples of a B+ tree in iteration order.
+	 */
+	private List<String> keys(BTreeFile bf, TransactionId tid) throws Exception {
+		ArrayList<String> keys = new ArrayList<String>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			keys.add(((StringField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.getSeparator()
+	 */
+	@Test public void separators() throws Exception {
+		assertEquals(field("b"), BTreeInternalPage.getSeparator(field("apple"), field("banana")));
+		assertEquals(field("abd"), BTreeInternalPage.getSeparator(field("abcz"), field("abdef")));
+		assertEquals(field("abc"), BTreeInternalPage.getSeparator(field("ab"), field("abcde")));
+		assertEquals(field("same"), BTreeInternalPage.getSeparator(field("same"), field("same")));
+		assertEquals(new IntField(7), BTreeInternalPage.getSeparator(new IntField(3), new IntField(7)));
+	}
+
+	/**
+	 * Unit test for reading and writing prefix compressed internal pages, which
+	 * hold many more short string keys than fit at full width
+	 */
+	@Test public void compressedPage() throws Exception {
+		File f = File.createTempFile("prefix", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+
+		int fixedWidth = BufferPool.getPageSize() / (Type.STRING_TYPE.getLen() + BTreePage.INDEX_SIZE);
+		int n = 4 * fixedWidth;
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		for (int i = 0; i < n; i++) {
+			entries.add(new BTreeEntry(field(String.format("customer/%06d", i * 7)),
+					new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), i + 2, BTreePageId.LEAF)));
+		}
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreeFileEncoder.convertToInternalPage(
+				entries, BufferPool.getPageSize(), Type.STRING_TYPE, BTreePageId.LEAF), 0);
+		assertEquals(n, page.getNumEntries());
+		assertTrue(page.getUsedBytes() < n * 10);
+
+		// the page is unchanged by writing it out and reading it back
+		page = new BTreeInternalPage(pid, page.getPageData(), 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		for (BTreeEntry e : entries) {
+			BTreeEntry read = it.next();
+			assertEquals(e.getKey(), read.getKey());
+			assertEquals(e.getLeftChild(), read.getLeftChild());
+			assertEquals(e.getRightChild(), read.getRightChild());
+		}
+		assertFalse(it.hasNext());
+		assertEquals(new BTreePageId(bf.getId(), 4, BTreePageId.LEAF),
+				page.findChild(field("customer/000020")));
+
+		// inserts are allowed while they fit in the capacity of the page
+		assertTrue(page.hasRoomFor(field("customer/000001")));
+		while (page.hasRoomFor(field("x"))) {
+			BTreeEntry last = page.reverseIterator().next();
+			page.insertEntry(new BTreeEntry(field(last.getKey() + "x"), last.getRightChild(),
+					new BTreePageId(bf.getId(), last.getRightChild().pageNumber() + 1, BTreePageId.LEAF)));
+		}
+		assertFalse(page.isOverfull());
+		assertEquals(BufferPool.getPageSize(), page.getPageData().length);
+	}
+
+	/**
+	 * Unit test for inserting into and deleting from a B+ tree keyed on a string
+	 * field, which splits, redistributes and merges prefix compressed internal
+	 * pages
+	 */
+	@Test public void insertAndDelete() throws Exception {
+		File f = File.createTempFile("prefix", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+
+		ArrayList<String> expected = new ArrayList<String>();
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 4000; i++) {
+			String key = String.format("customer/%08d", rand.nextInt(100000000));
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(key));
+			expected.add(key);
+			// the leaves hold few of these wide tuples, so commit often enough that the
+			// pages dirtied by the splits of a transaction fit in the buffer pool
+			if (i % 20 == 19) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+		Collections.sort(expected);
+		assertEquals(expected, keys(bf, tid));
+
+		// each internal page holds the separators of many more leaves than fit at full width
+		int[] pages = countPages(bf, tid);
+		int fixedWidth = BufferPool.getPageSize() / (Type.STRING_TYPE.getLen() + BTreePage.INDEX_SIZE);
+		assertTrue(pages[1] > 1);
+		assertTrue(pages[0] > 4 * fixedWidth * pages[1]);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// delete most of the tuples in random order
+		ArrayList<String> deleted = new ArrayList<String>(expected);
+		Collections.shuffle(deleted, rand);
+		deleted.subList(3600, deleted.size()).clear();
+		int count = 0;
+		for (String key : deleted) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, field(key)));
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+			expected.remove(key);
+			if (++count % 50 == 0) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+		assertEquals(expected, keys(bf, tid));
+		countPages(bf, tid);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for BTreeBulkLoader building a B+ tree with prefix compressed
+	 * internal pages
+	 */
+	@Test public void bulkLoad() throws Exception {
+		HeapFile hf = new HeapFile(File.createTempFile("heap", ".dat"), td);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		ArrayList<String> expected = new ArrayList<String>();
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 6000; i++) {
+			String key = "order/" + Integer.toString(rand.nextInt(1 << 30), 36);
+			Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(key));
+			expected.add(key);
+			if (i % 100 == 99) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+		Collections.sort(expected);
+
+		File bFile = File.createTempFile("bulk", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile bf = BTreeBulkLoader.load(hf.iterator(tid), bFile, td, 0);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		assertEquals(expected, keys(bf, tid));
+		int[] pages = countPages(bf, tid);
+		assertTrue(pages[1] > 1);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// lookups find every key
+		for (int i = 0; i < expected.size(); i += 97) {
+			DbFileIterator it = bf.indexIterator(tid,
+					new IndexPredicate(Predicate.Op.EQUALS, field(expected.get(i))));
+			it.open();
+			assertEquals(field(expected.get(i)), it.next().getField(0));
+			it.close();
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreePrefixCompressionTest.class);
+	}
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeReorganizeTest extends SimpleDbTestBase {
+	private static final int PAGE_SIZE = 1024;
+
+	private Random rand;
+
+	/**
+	 * Set up initial resources for each unit test: small pages, so that trees of a few
+	 * thousand tuples have many leaves.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		BufferPool.setPageSize(PAGE_SIZE);
+		Database.reset();
+		rand = new Random(31);
+	}
+
+	@After public void tearDown() throws Exception {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/**
+	 * Creates a B+ tree by inserting tuples with random keys and then deleting most of them,
+	 * which leaves partly empty leaves scattered over the file.
+	 *
+	 * @return the keys of the remaining tuples, in order
+	 */
+	private ArrayList<Integer> createSparseTree(BTreeFile bf) throws Exception {
+		ArrayList<Integer> inserted = new ArrayList<Integer>();
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 5000; i++) {
+			int key = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+			inserted.add(key);
+			if (i % 20 == 19) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+
+		Collections.shuffle(inserted, rand);
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < inserted.size(); i++) {
+			if (i % 4 == 0) {
+				keys.add(inserted.get(i));
+				continue;
+			}
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS,
+					new IntField(inserted.get(i))));
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+			if (i % 20 == 19) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		Collections.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * Returns the keys of the tuples of a B+ tree, in order
+	 */
+	private static ArrayList<Integer> keys(BTreeFile bf, TransactionId tid) throws Exception {
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Returns the page numbers of the leaves of a B+ tree, in key order
+	 */
+	private static ArrayList<Integer> leaves(BTreeFile bf, TransactionId tid) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		while (pid.pgcateg() != BTreePageId.LEAF) {
+			BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid,
+					Permissions.READ_ONLY);
+			pid = page.iterator().next().getLeftChild();
+		}
+		ArrayList<Integer> leaves = new ArrayList<Integer>();
+		while (pid != null) {
+			leaves.add(pid.pageNumber());
+			pid = ((BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY))
+					.getRightSiblingId();
+		}
+		return leaves;
+	}
+
+	private static boolean isAscending(List<Integer> pageNos) {
+		for (int i = 1; i < pageNos.size(); i++) {
+			if (pageNos.get(i) <= pageNos.get(i - 1))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Unit test for BTreeFile.reorganize(), which fills the leaves of a sparse tree and
+	 * moves them to ascending pages
+	 */
+	@Test public void reorganize() throws Exception {
+		File f = File.createTempFile("reorganize", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		ArrayList<Integer> expected = createSparseTree(bf);
+
+		TransactionId tid = new TransactionId();
+		ArrayList<Integer> before = leaves(bf, tid);
+		assertFalse(isAscending(before));
+		Database.getBufferPool().transactionComplete(tid);
+
+		int leafCount = bf.reorganize();
+
+		tid = new TransactionId();
+		assertEquals(expected, keys(bf, tid));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		ArrayList<Integer> after = leaves(bf, tid);
+		assertEquals(after.size(), leafCount);
+		assertTrue(isAscending(after));
+		// the leaves are full, except the last one
+		int maxTuples = BTreeUtility.getNumTuplesPerPage(2);
+		assertTrue(after.size() < before.size());
+		assertEquals((expected.size() + maxTuples - 1) / maxTuples, after.size());
+
+		// reorganizing again only moves leaves to the pages freed by the first pass
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(leafCount, bf.reorganize());
+		tid = new TransactionId();
+		ArrayList<Integer> again = leaves(bf, tid);
+		assertTrue(isAscending(again));
+		assertTrue(again.get(again.size() - 1) <= after.get(after.size() - 1));
+		assertEquals(expected, keys(bf, tid));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for reorganizing a B+ tree in transactions of one leaf each while another
+	 * thread inserts tuples into it
+	 */
+	@Test public void concurrentInserts() throws Exception {
+		File f = File.createTempFile("reorganize", ".dat");
+		f.deleteOnExit();
+		final BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		final ArrayList<Integer> expected = createSparseTree(bf);
+
+		final ArrayList<Exception> errors = new ArrayList<Exception>();
+		Thread inserter = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < 300; i++) {
+						int key = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+						while (true) {
+							TransactionId tid = new TransactionId();
+							try {
+								Database.getBufferPool().insertTuple(tid, bf.getId(),
+										BTreeUtility.getBTreeTuple(key, 2));
+								Database.getBufferPool().transactionComplete(tid);
+								break;
+							} catch (TransactionAbortedException e) {
+								Database.getBufferPool().transactionComplete(tid, false);
+							}
+						}
+						synchronized (expected) {
+							expected.add(key);
+						}
+					}
+				} catch (Exception e) {
+					errors.add(e);
+				}
+			}
+		};
+		inserter.start();
+		bf.reorganize(BTreeBulkLoader.DEFAULT_FILL_FACTOR, 1);
+		inserter.join();
+		assertTrue(errors.isEmpty());
+
+		TransactionId tid = new TransactionId();
+		Collections.sort(expected);
+		assertEquals(expected, keys(bf, tid));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for the REORGANIZE INDEX statement
+	 */
+	@Test public void statement() throws Exception {
+		File f = File.createTempFile("reorganize", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		Database.getCatalog().addTable(bf, "reorganize_table");
+		ArrayList<Integer> expected = createSparseTree(bf);
+		TransactionId tid = new TransactionId();
+		int before = leaves(bf, tid).size();
+		Database.getBufferPool().transactionComplete(tid);
+
+		new Parser().processNextStatement("REORGANIZE INDEX reorganize_table;");
+
+		tid = new TransactionId();
+		assertEquals(expected, keys(bf, tid));
+		assertTrue(leaves(bf, tid).size() < before);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeReorganizeTest.class);
+	}
+}
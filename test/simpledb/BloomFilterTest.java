@@ -0,0 +1,180 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public int readCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private static final int PAGES = 20;
+    private static final int PAGES_PER_GROUP = 4;
+    private int numTuples;
+    private File f;
+    private InstrumentedHeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a table of PAGES full
+     * pages of tuples (i * 7919 % numTuples, i), so that the values of the
+     * first field are spread over every page, with Bloom filters on it built
+     * as when the table is loaded.
+     */
+    @Before public void setUp() throws Exception {
+        numTuples = PAGES * (BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1));
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < numTuples; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i * 7919 % numTuples, i)));
+        f = File.createTempFile("bloom", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        hf.addBloomFilter(0, 0.01, PAGES_PER_GROUP);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        hf.buildBloomFilters(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+    }
+
+    /**
+     * Returns the number of tuples satisfying the given predicate returned by
+     * a scan of hf with it.
+     */
+    private int count(TransactionId tid, Predicate p) throws Exception {
+        DbFileIterator it = hf.iterator(tid, new Predicate[] { p });
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            if (p.filter(it.next()))
+                count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Unit test for BloomFilter.add() and mightContain()
+     */
+    @Test public void falsePositives() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++)
+            filter.add(new IntField(i));
+        for (int i = 0; i < 1000; i++)
+            assertTrue(filter.mightContain(new IntField(i)));
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (filter.mightContain(new IntField(i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 2000);
+        assertEquals(0.01, filter.getFalsePositiveRate(), 0.005);
+        // about 9.6 bits per field for a 1% false positive rate
+        assertEquals(9586, filter.getNumBits(), 10);
+    }
+
+    /**
+     * Unit test for HeapFile.iterator() with an equality predicate skipping
+     * groups of pages
+     */
+    @Test public void skipGroups() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(1, count(tid, new Predicate(0, Predicate.Op.EQUALS, new IntField(1234))));
+        assertEquals(PAGES_PER_GROUP, hf.readCount);
+
+        PageGroupBloomFilter filter = hf.getBloomFilter(0);
+        assertEquals(PAGES / PAGES_PER_GROUP, filter.getNumGroups());
+        assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+        assertTrue(filter.getMemoryBytes() < numTuples * 10 / 8 + 100);
+        assertNull(hf.getBloomFilter(1));
+
+        // other predicates do not use the filters
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        assertEquals(numTuples - 1, count(tid, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0))));
+        assertEquals(PAGES, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // inserted values are added to the filters
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { -5, -5 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(tid, new Predicate(0, Predicate.Op.EQUALS, new IntField(-5))));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(PAGES / PAGES_PER_GROUP + 1, filter.getNumGroups());
+    }
+
+    /**
+     * Unit test for rebuilding the Bloom filters while a transaction has
+     * uncommitted inserts
+     */
+    @Test public void uncommittedInserts() throws Exception {
+        // every page is full, so the tuple goes on a new page, which is only
+        // on disk empty until the transaction commits
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -5, -5 }));
+        hf.addBloomFilter(1, 0.01, PAGES_PER_GROUP);
+        assertEquals(1, count(tid, new Predicate(0, Predicate.Op.EQUALS, new IntField(-5))));
+        assertEquals(1, count(tid, new Predicate(1, Predicate.Op.EQUALS, new IntField(-5))));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1, count(tid, new Predicate(1, Predicate.Op.EQUALS, new IntField(-5))));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(PAGES / PAGES_PER_GROUP + 1, hf.getBloomFilter(1).getNumGroups());
+    }
+
+    /**
+     * Unit test for Bloom filters declared in the catalog
+     */
+    @Test public void catalog() throws Exception {
+        File dir = f.getParentFile();
+        String name = f.getName().substring(0, f.getName().length() - ".dat".length());
+        File catalogFile = File.createTempFile("catalog", ".txt", dir);
+        catalogFile.deleteOnExit();
+        PrintWriter pw = new PrintWriter(catalogFile);
+        pw.println(name + " (a int bloom(0.05), b int) heap");
+        pw.close();
+
+        Database.getCatalog().loadSchema(catalogFile.getPath());
+        HeapFile loaded = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(name));
+        PageGroupBloomFilter filter = loaded.getBloomFilter(0);
+        assertEquals(0.05, filter.getFalsePositiveRate(), 0);
+        assertEquals(HeapFile.DEFAULT_PAGES_PER_BLOOM_GROUP, filter.getPagesPerGroup());
+        // built as the table is loaded
+        assertEquals((PAGES + filter.getPagesPerGroup() - 1) / filter.getPagesPerGroup(),
+                filter.getNumGroups());
+        assertNull(loaded.getBloomFilter(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private ColumnarFile cf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnarFile(f, td);
+        for (int i = 0; i < td.numFields(); i++)
+            cf.getColumnFile(i).deleteOnExit();
+        Database.getCatalog().addTable(cf);
+    }
+
+    private Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    private List<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Unit test for ColumnarFile.insertTuple(), deleteTuple() and iterator(),
+     * across the page boundaries of the string column
+     */
+    @Test public void insertDeleteScan() throws Exception {
+        int n = 2000;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), getTuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> tuples = scan(cf.iterator(tid));
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++)
+            assertTrue(TestUtil.compareTuples(getTuple(i), tuples.get(i)));
+
+        // delete every other row
+        for (int i = 0; i < n; i += 2)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        tuples = scan(cf.iterator(tid));
+        assertEquals(n / 2, tuples.size());
+        for (int i = 0; i < n / 2; i++)
+            assertTrue(TestUtil.compareTuples(getTuple(2 * i + 1), tuples.get(i)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for SeqScan over a subset of the columns of a ColumnarFile
+     */
+    @Test public void scanSomeColumns() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), getTuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "t", new int[] { 2 });
+        assertEquals(1, scan.getTupleDesc().numFields());
+        assertEquals("t." + td.getFieldName(2), scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(scan.getTupleDesc(), t.getTupleDesc());
+            assertEquals(new IntField(-count), t.getField(0));
+            assertNotNull(t.getRecordId());
+            count++;
+        }
+        scan.close();
+        assertEquals(100, count);
+
+        // only the row map and the scanned column were read
+        assertTrue(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 2, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 1, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the encodings chosen for column pages and for
+     * ColumnarFile.iterator() with predicates
+     */
+    @Test public void compression() throws Exception {
+        int n = 5000;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i % 16));
+            t.setField(1, new StringField("s" + (i % 5), Type.STRING_LEN));
+            t.setField(2, new IntField(i / 1000));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        ColumnPage.Encoding[] expected = { ColumnPage.Encoding.FRAME_OF_REFERENCE,
+                ColumnPage.Encoding.DICTIONARY, ColumnPage.Encoding.RLE };
+        for (int i = 0; i < td.numFields(); i++) {
+            // every column fits on a single page
+            assertEquals(BufferPool.getPageSize(), cf.getColumnFile(i).length());
+            ColumnPageId pid = new ColumnPageId(cf.getId(), i, 0);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(expected[i], page.getEncoding());
+            assertEquals(n, page.getNumValues());
+
+            ColumnPage copy = new ColumnPage(pid, page.getPageData());
+            assertEquals(n, copy.getNumValues());
+            for (int j = 0; j < n; j++)
+                assertEquals(page.getField(j), copy.getField(j));
+        }
+
+        DbFileIterator it = cf.iterator(tid, new int[] { 0, 2 }, new Predicate[] {
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(3)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("s1", Type.STRING_LEN)),
+                new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2)) });
+        List<Tuple> tuples = scan(it);
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (i % 16 != 3 || i % 5 == 1 || i < 2000)
+                continue;
+            Tuple t = tuples.get(count++);
+            assertEquals(new IntField(3), t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(i / 1000), t.getField(2));
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertEquals(count, tuples.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
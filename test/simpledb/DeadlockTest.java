@@ -7,6 +7,8 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +213,81 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Not a deadlock, although t1 waits for two transactions which both wait
+   * for the same transaction: t2 and t3 acquire p0.read; t4 acquires
+   * p1.write; t2 and t3 attempt p1.read; t1 attempts p0.write. No
+   * transaction may be aborted, and every lock is granted once t4 and then
+   * t2 and t3 complete.
+   */
+  @Test public void testSharedWaitNotDeadlock() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    TransactionId tid4 = new TransactionId();
+
+    LockGrabber lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
+    LockGrabber lg3Read = startGrabber(tid3, p0, Permissions.READ_ONLY);
+    LockGrabber lg4Write = startGrabber(tid4, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    LockGrabber lg2Wait = startGrabber(tid2, p1, Permissions.READ_ONLY);
+    LockGrabber lg3Wait = startGrabber(tid3, p1, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+
+    LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    assertTrue(lg2Read.acquired() && lg3Read.acquired() && lg4Write.acquired());
+    assertNull(lg1Write.getError());
+    assertFalse(lg1Write.acquired());
+
+    bp.transactionComplete(tid4);
+    Thread.sleep(POLL_INTERVAL);
+    assertNull(lg2Wait.getError());
+    assertNull(lg3Wait.getError());
+    assertTrue(lg2Wait.acquired() && lg3Wait.acquired());
+
+    bp.transactionComplete(tid2);
+    bp.transactionComplete(tid3);
+    Thread.sleep(POLL_INTERVAL);
+    assertNull(lg1Write.getError());
+    assertTrue(lg1Write.acquired());
+  }
+
+  /**
+   * Not a deadlock once a lock t1 waits for is released: t2 and t3 acquire
+   * p0.read; t1 acquires p2.write; t1 attempts p0.write; t2 releases p0 and
+   * attempts p2.read. t1 now only waits for t3, so t2 may not be aborted.
+   */
+  @Test public void testReleasedWaitNotDeadlock() throws Exception {
+    TransactionId tid3 = new TransactionId();
+
+    LockGrabber lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
+    LockGrabber lg3Read = startGrabber(tid3, p0, Permissions.READ_ONLY);
+    LockGrabber lg1Write2 = startGrabber(tid1, p2, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg2Read.acquired() && lg3Read.acquired() && lg1Write2.acquired());
+    assertFalse(lg1Write0.acquired());
+
+    bp.releasePage(tid2, p0);
+    LockGrabber lg2Read2 = startGrabber(tid2, p2, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertNull(lg1Write0.getError());
+    assertNull(lg2Read2.getError());
+    assertFalse(lg2Read2.acquired());
+
+    bp.transactionComplete(tid3);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Write0.acquired());
+
+    bp.transactionComplete(tid1);
+    Thread.sleep(POLL_INTERVAL);
+    assertNull(lg2Read2.getError());
+    assertTrue(lg2Read2.acquired());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,431 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHashFile extends HashFile {
+        public int readCount = 0;
+
+        public InstrumentedHashFile(File f, int key, TupleDesc td) {
+            super(f, key, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private File f;
+    private InstrumentedHashFile hf;
+
+    /**
+     * Set up initial resources for each unit test: an empty hash file of
+     * two int fields, keyed on the first.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        hf = new InstrumentedHashFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Inserts tuples (key, value) into hf, committing every 100 inserts so
+     * that the buffer pool does not fill with dirty pages.
+     */
+    private void insert(int[][] tuples) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < tuples.length; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(tuples[i]));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Returns the values of the second field of the tuples returned by an
+     * iterator.
+     */
+    private static List<Integer> values(DbFileIterator it) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(1)).getValue());
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private List<Integer> lookup(TransactionId tid, int key) throws Exception {
+        return values(hf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+    }
+
+    private HashMetaPage meta(TransactionId tid) throws Exception {
+        return (HashMetaPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(hf.getId(), 0, HashPageId.META), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Unit test for HashFile.insertTuple() splitting buckets, and for
+     * equality lookups with HashFile.indexIterator()
+     */
+    @Test public void insertAndLookup() throws Exception {
+        int n = 20 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2));
+        int[][] tuples = new int[n][];
+        for (int i = 0; i < n; i++)
+            tuples[i] = new int[] { i * 7, i };
+        insert(tuples);
+
+        TransactionId tid = new TransactionId();
+        assertTrue(meta(tid).getGlobalDepth() >= 5);
+        for (int i = 0; i < n; i += 37)
+            assertEquals(Arrays.asList(i), lookup(tid, i * 7));
+        assertEquals(Collections.emptyList(), lookup(tid, 3));
+        assertEquals(n, values(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a lookup reads the meta page, one directory page and one bucket page
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        tid = new TransactionId();
+        assertEquals(Arrays.asList(1000), lookup(tid, 7000));
+        assertEquals(3, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for tuples with the same key, which cannot be split apart
+     */
+    @Test public void duplicates() throws Exception {
+        int n = 3 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2));
+        int[][] tuples = new int[n + 1][];
+        for (int i = 0; i < n; i++)
+            tuples[i] = new int[] { 5, i };
+        tuples[n] = new int[] { 6, -1 };
+        insert(tuples);
+
+        TransactionId tid = new TransactionId();
+        List<Integer> values = lookup(tid, 5);
+        assertEquals(n, values.size());
+        assertEquals(n - 1, (int) values.get(n - 1));
+        assertEquals(Arrays.asList(-1), lookup(tid, 6));
+        assertTrue(meta(tid).getGlobalDepth() < HashFile.getMaxGlobalDepth());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HashFile.deleteTuple(), and for aborted inserts
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        int n = 5 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2));
+        int[][] tuples = new int[n][];
+        for (int i = 0; i < n; i++)
+            tuples[i] = new int[] { i, i };
+        insert(tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(10)));
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            deleted.add(it.next());
+        it.close();
+        assertEquals(10, deleted.size());
+        for (Tuple t : deleted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(Collections.emptyList(), lookup(tid, 3));
+        assertEquals(Arrays.asList(10), lookup(tid, 10));
+        assertEquals(n - 10, values(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // inserts which may split buckets are all undone
+        tid = new TransactionId();
+        int depth = meta(tid).getGlobalDepth();
+        for (int i = 0; i < 200; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -i - 1, 0 }));
+        assertEquals(Arrays.asList(0), lookup(tid, -50));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(Collections.emptyList(), lookup(tid, -50));
+        assertEquals(depth, meta(tid).getGlobalDepth());
+        assertEquals(n - 10, values(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HashIndexScan
+     */
+    @Test public void indexScan() throws Exception {
+        int[][] tuples = new int[500][];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = new int[] { i % 50, i };
+        insert(tuples);
+
+        TransactionId tid = new TransactionId();
+        HashIndexScan scan = new HashIndexScan(tid, hf.getId(), "h",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(7)));
+        assertEquals("h." + Utility.getTupleDesc(2).getFieldName(0), scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertEquals(new IntField(7), scan.next().getField(0));
+            count++;
+        }
+        assertEquals(10, count);
+        scan.rewind();
+        assertTrue(scan.hasNext());
+        scan.close();
+
+        scan = new HashIndexScan(tid, hf.getId(), "h",
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(45)));
+        scan.open();
+        count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(50, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for concurrent inserts which split buckets: an insert only
+     * locks the meta page with read-write permission when it splits a
+     * bucket, so inserts which both split do not deadlock
+     */
+    @Test public void concurrentSplits() throws Exception {
+        final int THREADS = 4;
+        final int PER_THREAD = 2 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2));
+        final AtomicInteger aborts = new AtomicInteger();
+        final ArrayList<Exception> errors = new ArrayList<Exception>();
+
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < PER_THREAD; j++) {
+                            Tuple t = Utility.getHeapTuple(new int[] { j * THREADS + thread, thread });
+                            while (true) {
+                                TransactionId tid = new TransactionId();
+                                try {
+                                    Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+                                    Database.getBufferPool().transactionComplete(tid);
+                                    break;
+                                } catch (TransactionAbortedException e) {
+                                    aborts.incrementAndGet();
+                                    Database.getBufferPool().transactionComplete(tid, false);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++)
+            threads[i].join();
+        assertTrue(errors.isEmpty());
+        assertEquals(0, aborts.get());
+
+        TransactionId tid = new TransactionId();
+        assertTrue(meta(tid).getGlobalDepth() >= 2);
+        assertEquals(THREADS * PER_THREAD, values(hf.iterator(tid)).size());
+        for (int i = 0; i < THREADS * PER_THREAD; i += 101)
+            assertEquals(Arrays.asList(i % THREADS), lookup(tid, i));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the locks held by an open index scan: only the bucket it
+     * reads stays locked, so that other buckets can be split
+     */
+    @Test public void scanLocks() throws Exception {
+        int[][] tuples = new int[5 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2))][];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = new int[] { i, i };
+        insert(tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(7)));
+        it.open();
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HashPageId(hf.getId(), 0, HashPageId.META)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HashPageId(hf.getId(), 1, HashPageId.DIRECTORY)));
+        assertTrue(it.hasNext());
+        it.close();
+
+        // a transaction which splits a bucket keeps the meta page locked
+        for (int i = 0; i < tuples.length; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -i - 1, 0 }));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HashPageId(hf.getId(), 0, HashPageId.META)));
+        assertEquals(Arrays.asList(7), lookup(tid, 7));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts tuples (-1, 0), (-2, 0), ... as part of a transaction until it
+     * doubles the directory.
+     */
+    private void insertUntilDoubled(TransactionId tid) throws Exception {
+        int depth = meta(tid).getGlobalDepth();
+        for (int i = 1; meta(tid).getGlobalDepth() == depth; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -i, 0 }));
+    }
+
+    /**
+     * Unit test for the locks kept by a split: once the directory is
+     * updated, the locks on the meta page and the directory are downgraded
+     * to read-only ones, so that other transactions can look buckets up, but
+     * not split one, until the split commits or is rolled back
+     */
+    @Test public void splitDowngradesLocks() throws Exception {
+        int[][] tuples = new int[3 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2))][];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = new int[] { i, i };
+        insert(tuples);
+
+        TransactionId tid = new TransactionId();
+        int depth = meta(tid).getGlobalDepth();
+        insertUntilDoubled(tid);
+
+        HashPageId metaPid = new HashPageId(hf.getId(), 0, HashPageId.META);
+        TransactionId readerTid = new TransactionId();
+        TestUtil.LockGrabber metaReader = new TestUtil.LockGrabber(readerTid, metaPid, Permissions.READ_ONLY);
+        TestUtil.LockGrabber directoryReader = new TestUtil.LockGrabber(readerTid,
+                new HashPageId(hf.getId(), 1, HashPageId.DIRECTORY), Permissions.READ_ONLY);
+        TransactionId writerTid = new TransactionId();
+        TestUtil.LockGrabber metaWriter = new TestUtil.LockGrabber(writerTid, metaPid, Permissions.READ_WRITE);
+        metaReader.start();
+        directoryReader.start();
+        metaWriter.start();
+        Thread.sleep(100);
+        assertTrue(metaReader.acquired());
+        assertTrue(directoryReader.acquired());
+        assertFalse(metaWriter.acquired());
+
+        Database.getBufferPool().transactionComplete(tid, false);
+        Database.getBufferPool().transactionComplete(readerTid);
+        Thread.sleep(100);
+        assertTrue(metaWriter.acquired());
+        Database.getBufferPool().transactionComplete(writerTid);
+
+        tid = new TransactionId();
+        assertEquals(depth, meta(tid).getGlobalDepth());
+        assertEquals(Collections.emptyList(), lookup(tid, -1));
+        assertEquals(tuples.length, values(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for an insert which reads the directory of a split that is
+     * rolled back while the insert waits for the bucket: the insert looks
+     * its bucket up again, rather than inserting into the bucket the split
+     * had added
+     */
+    @Test public void rolledBackSplit() throws Exception {
+        int[][] tuples = new int[3 * HashBucketPage.getMaxTuples(Utility.getTupleDesc(2))][];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = new int[] { i, i };
+        insert(tuples);
+
+        // the buckets of some keys before the split
+        TransactionId tid = new TransactionId();
+        int[] before = new int[1000];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = hf.getBucketPageNo(tid, new HashMap<PageId, Page>(),
+                    HashFile.hash(new IntField(100000 + i)), new LinkedList<HashPageId>());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // find a key whose bucket is the one added by the split
+        tid = new TransactionId();
+        insertUntilDoubled(tid);
+        int key = -1;
+        for (int i = 0; i < before.length && key < 0; i++) {
+            if (hf.getBucketPageNo(tid, new HashMap<PageId, Page>(), HashFile.hash(new IntField(100000 + i)),
+                    new LinkedList<HashPageId>()) != before[i])
+                key = 100000 + i;
+        }
+        assertTrue(key > 0);
+
+        final Tuple t = Utility.getHeapTuple(new int[] { key, 1 });
+        final TransactionId insertTid = new TransactionId();
+        final ArrayList<Exception> errors = new ArrayList<Exception>();
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    Database.getBufferPool().insertTuple(insertTid, hf.getId(), t);
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            }
+        };
+        inserter.start();
+        Thread.sleep(100);
+        assertTrue(inserter.isAlive());
+
+        Database.getBufferPool().transactionComplete(tid, false);
+        inserter.join();
+        assertTrue(errors.isEmpty());
+        Database.getBufferPool().transactionComplete(insertTid);
+
+        tid = new TransactionId();
+        assertEquals(Arrays.asList(1), lookup(tid, key));
+        assertEquals(tuples.length + 1, values(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for hash tables declared in the catalog
+     */
+    @Test public void catalog() throws Exception {
+        String name = f.getName().substring(0, f.getName().length() - ".dat".length());
+        File catalogFile = File.createTempFile("catalog", ".txt", f.getParentFile());
+        catalogFile.deleteOnExit();
+        PrintWriter pw = new PrintWriter(catalogFile);
+        pw.println(name + " (a int, b int pk) hash");
+        pw.close();
+
+        Database.getCatalog().loadSchema(catalogFile.getPath());
+        DbFile loaded = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(loaded instanceof HashFile);
+        assertEquals(1, ((HashFile) loaded).keyField());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -77,6 +77,28 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() past the end of the file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readPagePastEnd() throws Exception {
+        hf.readPage(new HeapPageId(hf.getId(), hf.numPages()));
+    }
+
+    /**
+     * Unit test for HeapFile.close(), after which the file can still be used
+     */
+    @Test
+    public void closeAndReopen() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.close();
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+        hf.close();
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        assertEquals(504, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +143,7 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+
     /**
      * JUnit suite target
      */
@@ -43,6 +43,63 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple() on a file whose first pages are full
+     */
+    @Test public void addTupleSkipsFullPages() throws Exception {
+        // fill the first two pages and start a third
+        for (int i = 0; i < 1009; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        // the next insert should not need to lock the full pages
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 2)));
+
+        // once a tuple is deleted from the first page, its slot is reused
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        empty.deleteTuple(tid, t);
+        Page p = empty.insertTuple(tid, Utility.getHeapTuple(1, 2)).get(0);
+        assertEquals(0, p.getId().pageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() after a transaction which filled a
+     * page aborts: the slots it freed are used again before a page is appended
+     */
+    @Test public void addTupleAfterAbortedFill() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 10; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+
+        // fill the first page and start a second one, then roll back
+        tid = new TransactionId();
+        for (int i = 0; i < 495; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        bp.transactionComplete(tid, false);
+
+        // the second page fills up, then the 494 free slots of the first
+        tid = new TransactionId();
+        int inserts = 0;
+        while (empty.numPages() == 2) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(inserts, 2));
+            inserts++;
+        }
+        assertEquals(504 + 494 + 1, inserts);
+    }
+
     /**
      * JUnit suite target
      */
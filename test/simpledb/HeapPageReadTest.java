@@ -120,6 +120,50 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            for (int j = 0; j < 2; ++j)
+                assertEquals(new IntField(EXAMPLE_VALUES[i][j]), page.getField(i, j));
+        }
+
+        // unchanged tuples are written back exactly as they were read
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.filterSlots() and iterator() over some slots
+     */
+    @Test public void filterSlots() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        int[] slots = page.getUsedSlots();
+        assertEquals(20, slots.length);
+        slots = page.filterSlots(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)), slots);
+        slots = page.filterSlots(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(40000)), slots);
+        assertTrue(Arrays.equals(new int[] { 0, 8, 11, 15, 17, 18 }, slots));
+
+        Iterator<Tuple> it = page.iterator(slots);
+        for (int slot : slots)
+            assertEquals(new IntField(EXAMPLE_VALUES[slot][0]), it.next().getField(0));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for the HeapPage constructor keeping its own copy of the data
+     */
+    @Test public void copiesData() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Arrays.fill(data, (byte) 0);
+        assertEquals(new IntField(EXAMPLE_VALUES[3][1]), page.getField(3, 1));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,185 @@
+package simpledb;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+    private static final String TABLE = "ios_table";
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 100;
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public int readCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private InstrumentedHeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a heap table of three int
+     * fields c0, c1 and c2 with random values, named TABLE in the catalog.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(3, ROWS, MAX_VALUE, null, tuples);
+        hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(3, "c"));
+        Database.getCatalog().addTable(hf, TABLE);
+    }
+
+    /**
+     * Returns the tuples returned by an iterator.
+     */
+    private static List<Tuple> scan(DbIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    /**
+     * Returns whether a plan reads a table through an IndexOnlyScan.
+     */
+    private static boolean isIndexOnly(DbIterator plan) {
+        if (plan instanceof IndexOnlyScan)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (isIndexOnly(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unit test for SecondaryIndex.covers() and Catalog.getCoveringIndex()
+     */
+    @Test public void covering() throws Exception {
+        SecondaryIndex i0 = Database.getCatalog().createIndex("ios_c0", TABLE, "c0");
+        SecondaryIndex i1 = Database.getCatalog().createIndex("ios_c1", TABLE, "c1", "c0");
+        assertTrue(i0.covers(new int[] { 0 }));
+        assertFalse(i0.covers(new int[] { 0, 1 }));
+        assertTrue(i1.covers(new int[] { 0, 1 }));
+        assertEquals(1, i1.getEntryField(0));
+        assertEquals(-1, i1.getEntryField(2));
+
+        Set<Integer> none = Collections.emptySet();
+        assertSame(i0, Database.getCatalog().getCoveringIndex(hf.getId(), new int[] { 0 }, none));
+        assertSame(i1, Database.getCatalog().getCoveringIndex(hf.getId(), new int[] { 0 },
+                Collections.singleton(1)));
+        assertSame(i1, Database.getCatalog().getCoveringIndex(hf.getId(), new int[] { 1, 0 }, none));
+        assertNull(Database.getCatalog().getCoveringIndex(hf.getId(), new int[] { 2 }, none));
+    }
+
+    /**
+     * Unit test for IndexOnlyScan returning the covered fields of the tuples
+     * matching a predicate without reading the table
+     */
+    @Test public void indexOnlyScan() throws Exception {
+        SecondaryIndex index = Database.getCatalog().createIndex("ios_c1", TABLE, "c1", "c2");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> result = scan(new IndexOnlyScan(tid, index, "t",
+                new IndexPredicate(Op.LESS_THAN, new IntField(10))));
+        ArrayList<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 10)
+                expected.add(t.get(1) + " " + t.get(2));
+        }
+        ArrayList<String> actual = new ArrayList<String>();
+        for (Tuple t : result) {
+            assertNull(t.getField(0));
+            actual.add(t.getField(1) + " " + t.getField(2));
+        }
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        assertEquals(ROWS, scan(new IndexOnlyScan(tid, index, "t", null)).size());
+        assertEquals(0, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for LogicalPlan answering queries from a covering index,
+     * created with CREATE INDEX ... INCLUDE
+     */
+    @Test public void planner() throws Exception {
+        Parser p = new Parser();
+        p.processNextStatement("CREATE INDEX ios_c0 ON " + TABLE + " (c0);");
+        TableStats.setTableStats(TABLE, new TableStats(hf.getId(), 1000));
+        int[] counts = new int[MAX_VALUE];
+        for (ArrayList<Integer> t : tuples)
+            counts[t.get(0)]++;
+
+        // a grouped count of the indexed field reads only the index
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        TransactionId tid = new TransactionId();
+        DbIterator plan = p.generateLogicalPlan(tid, "SELECT t.c0, COUNT(t.c0) FROM " + TABLE
+                + " t GROUP BY t.c0;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(isIndexOnly(plan));
+        for (Tuple t : scan(plan)) {
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(new IntField(counts[key]), t.getField(1));
+        }
+        assertEquals(0, hf.readCount);
+
+        // another field is not covered
+        plan = p.generateLogicalPlan(tid, "SELECT t.c0, t.c1 FROM " + TABLE
+                + " t WHERE t.c0 = 3;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(isIndexOnly(plan));
+        Database.getBufferPool().transactionComplete(tid);
+
+        p.processNextStatement("CREATE INDEX ios_c0_c1 ON " + TABLE + " (c0) INCLUDE (c1);");
+        SecondaryIndex covering = Database.getCatalog().getIndexes(hf.getId()).get(1);
+        assertEquals("ios_c0_c1", covering.getName());
+        assertArrayEquals(new int[] { 1 }, covering.getIncludedFields());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        tid = new TransactionId();
+        plan = p.generateLogicalPlan(tid, "SELECT t.c0, t.c1 FROM " + TABLE
+                + " t WHERE t.c0 = 3;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(isIndexOnly(plan));
+        assertEquals(counts[3], scan(plan).size());
+        assertEquals(0, hf.readCount);
+
+        // SELECT * reads the table
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + TABLE
+                + " t WHERE t.c0 = 3;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(isIndexOnly(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
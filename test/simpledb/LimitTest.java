@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = new TestUtil.MockScan(-5, 5, testWidth);
+  }
+
+  /**
+   * Unit test for Limit.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Limit op = new Limit(3, scan);
+    assertEquals(Utility.getTupleDesc(testWidth), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for Limit.getNext() returning the first tuples of its child,
+   *   and for Limit.rewind()
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(3, scan);
+    op.open();
+    for (int i = -5; i < -2; i++) {
+      assertTrue(op.hasNext());
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-5, testWidth), op.next()));
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.getNext() with a limit above the number of tuples
+   *   of its child
+   */
+  @Test public void limitAboveCount() throws Exception {
+    Limit op = new Limit(100, scan);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(10, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for OperatorCardinality estimating at most the limit of tuples
+   *   for a Limit
+   */
+  @Test public void estimatedCardinality() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(testWidth, 10, null, null);
+    String name = Database.getCatalog().getTableName(f.getId());
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(name, new TableStats(f.getId(), 1000));
+    HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+    aliases.put(name, f.getId());
+
+    TransactionId tid = new TransactionId();
+    Limit op = new Limit(3, new SeqScan(tid, f.getId()));
+    OperatorCardinality.updateOperatorCardinality(op, aliases, stats);
+    assertEquals(3, op.getEstimatedCardinality());
+
+    op = new Limit(100, new SeqScan(tid, f.getId()));
+    OperatorCardinality.updateOperatorCardinality(op, aliases, stats);
+    assertEquals(10, op.getEstimatedCardinality());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
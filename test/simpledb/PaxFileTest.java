@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+    }
+
+    private Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(i % 7));
+        return t;
+    }
+
+    /**
+     * Unit test for PaxPage.insertTuple(), deleteTuple(), getPageData() and
+     * filterSlots()
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, 0);
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData());
+        int count = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(getTuple(count));
+            count++;
+        }
+        // as many tuples as on a HeapPage
+        assertEquals(new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots(), count);
+        page.deleteTuple(page.iterator().next());
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        assertEquals(1, copy.getNumEmptySlots());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 1; i < count; i++)
+            assertTrue(TestUtil.compareTuples(getTuple(i), it.next()));
+        assertFalse(it.hasNext());
+
+        int[] slots = copy.filterSlots(new Predicate(2, Predicate.Op.EQUALS, new IntField(3)),
+                copy.getUsedSlots());
+        slots = copy.filterSlots(new Predicate(1, Predicate.Op.NOT_EQUALS,
+                new StringField("s3", Type.STRING_LEN)), slots);
+        it = copy.iterator(slots);
+        for (int i = 10; i < count; i += 7)
+            assertTrue(TestUtil.compareTuples(getTuple(i), it.next()));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for PaxFile.insertTuple() and iterator() with predicates
+     */
+    @Test public void insertAndScan() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxFile pf = new PaxFile(f, td);
+        Database.getCatalog().addTable(pf);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, pf.getId(), getTuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(pf.numPages() > 1);
+
+        tid = new TransactionId();
+        DbFileIterator it = pf.iterator(tid, new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)),
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(0)) });
+        it.open();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(TestUtil.compareTuples(getTuple(i), t));
+            seen.add(i);
+        }
+        it.close();
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (int i = 504; i < 1000; i += 7)
+            expected.add(i);
+        assertEquals(expected, seen);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private static final String TABLE = "sidx_table";
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 1000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a heap table of two int
+     * fields c0 and c1 with random values, named TABLE in the catalog.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, MAX_VALUE, null, tuples);
+        hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, TABLE);
+    }
+
+    /**
+     * Returns the tuples returned by an iterator.
+     */
+    private static List<Tuple> scan(DbIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    private static int count(Op op, int value, int field, List<ArrayList<Integer>> tuples) {
+        int count = 0;
+        Predicate p = new Predicate(0, op, new IntField(value));
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(Utility.getHeapTuple(new int[] { t.get(field), 0 })))
+                count++;
+        }
+        return count;
+    }
+
+    private static Tuple tuple(int c0, int c1) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2, "c"));
+        t.setField(0, new IntField(c0));
+        t.setField(1, new IntField(c1));
+        return t;
+    }
+
+    /**
+     * Unit test for Catalog.createIndex() and for SecondaryIndexScan
+     * returning the tuples matching a predicate
+     */
+    @Test public void createAndScan() throws Exception {
+        SecondaryIndex index = Database.getCatalog().createIndex("sidx_c0", TABLE, "c0");
+        assertSame(index, Database.getCatalog().getIndex(hf.getId(), 0));
+        assertNull(Database.getCatalog().getIndex(hf.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, scan(new SecondaryIndexScan(tid, index, "t", null)).size());
+        for (Op op : new Op[] { Op.EQUALS, Op.LESS_THAN, Op.GREATER_THAN_OR_EQ }) {
+            int value = tuples.get(17).get(0);
+            List<Tuple> result = scan(new SecondaryIndexScan(tid, index, "t",
+                    new IndexPredicate(op, new IntField(value))));
+            assertEquals(count(op, value, 0, tuples), result.size());
+            Predicate p = new Predicate(0, op, new IntField(value));
+            for (Tuple t : result)
+                assertTrue(p.filter(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for SecondaryIndexScan fetching the tuples of each batch of
+     * entries in order of page and slot
+     */
+    @Test public void batchOrder() throws Exception {
+        SecondaryIndex index = Database.getCatalog().createIndex("sidx_c0", TABLE, "c0");
+        TransactionId tid = new TransactionId();
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(Op.LESS_THAN, new IntField(MAX_VALUE / 2)));
+        assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+        List<Tuple> result = scan(scan);
+        assertTrue(result.size() > 2 * SecondaryIndexScan.BATCH_SIZE);
+        for (int i = 1; i < result.size(); i++) {
+            if (i % SecondaryIndexScan.BATCH_SIZE == 0)
+                continue;
+            RecordId prev = result.get(i - 1).getRecordId(), rid = result.get(i).getRecordId();
+            assertTrue(prev.getPageId().pageNumber() < rid.getPageId().pageNumber()
+                    || (prev.getPageId().pageNumber() == rid.getPageId().pageNumber()
+                            && prev.tupleno() < rid.tupleno()));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferPool.insertTuple() and deleteTuple() maintaining
+     * the indexes of a table, and for aborts undoing index changes
+     */
+    @Test public void maintenance() throws Exception {
+        SecondaryIndex index = Database.getCatalog().createIndex("sidx_c1", TABLE, "c1");
+        IndexPredicate missing = new IndexPredicate(Op.EQUALS, new IntField(-7));
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1, -7));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(2, -7));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> result = scan(new SecondaryIndexScan(tid, index, "t", missing));
+        assertEquals(2, result.size());
+        Database.getBufferPool().deleteTuple(tid, result.get(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        result = scan(new SecondaryIndexScan(tid, index, "t", missing));
+        assertEquals(1, result.size());
+        Database.getBufferPool().deleteTuple(tid, result.get(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(3, -7));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        result = scan(new SecondaryIndexScan(tid, index, "t", missing));
+        assertEquals(1, result.size());
+        assertEquals(new IntField(2), result.get(0).getField(0));
+        assertEquals(ROWS + 1, scan(new SecondaryIndexScan(tid, index, "t", null)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Returns whether a plan reads a table through a SecondaryIndexScan.
+     */
+    private static boolean usesIndex(DbIterator plan) {
+        if (plan instanceof SecondaryIndexScan)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (usesIndex(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unit test for the CREATE INDEX statement, and for LogicalPlan using an
+     * index for selective filters only
+     */
+    @Test public void planner() throws Exception {
+        Parser p = new Parser();
+        p.processNextStatement("CREATE INDEX sidx_c0 ON " + TABLE + " (c0);");
+        SecondaryIndex index = Database.getCatalog().getIndex(hf.getId(), 0);
+        assertNotNull(index);
+        assertEquals("sidx_c0", index.getName());
+
+        TableStats.setTableStats(TABLE, new TableStats(hf.getId(), 1000));
+        TransactionId tid = new TransactionId();
+        int value = tuples.get(0).get(0);
+        DbIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM " + TABLE
+                + " t WHERE t.c0 = " + value + ";").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(usesIndex(plan));
+        assertEquals(count(Op.EQUALS, value, 0, tuples), scan(plan).size());
+
+        // a filter matching most of the table is cheaper with a sequential scan
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + TABLE
+                + " t WHERE t.c0 > 10;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(usesIndex(plan));
+        assertEquals(count(Op.GREATER_THAN, 10, 0, tuples), scan(plan).size());
+
+        // a range of filters on the field is selective although neither filter is
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + TABLE
+                + " t WHERE t.c0 > 400 AND t.c0 <= 420;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(usesIndex(plan));
+        assertEquals(count(Op.GREATER_THAN, 400, 0, tuples) - count(Op.GREATER_THAN, 420, 0, tuples),
+                scan(plan).size());
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + TABLE
+                + " t WHERE t.c1 = " + value + ";").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(usesIndex(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    }
+
+    private Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + (i % 100), Type.STRING_LEN));
+        return t;
+    }
+
+    private <F extends DbFile> F addTable(F f) {
+        Database.getCatalog().addTable(f);
+        return f;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple(), deleteTuple() and getPageData()
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, 0);
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int free = page.getFreeSpace();
+
+        int count = 0;
+        while (page.hasRoomFor(getTuple(count))) {
+            page.insertTuple(getTuple(count));
+            count++;
+        }
+        // a 4 byte int and a short string take far less than a fixed size tuple
+        assertTrue(count > 5 * (BufferPool.getPageSize() / td.getSize()));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < count; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(getTuple(i), t));
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+
+        // deleting every tuple frees all of the space again
+        it = copy.iterator();
+        while (it.hasNext())
+            copy.deleteTuple(it.next());
+        assertEquals(free, copy.getFreeSpace());
+        assertFalse(new SlottedHeapPage(pid, copy.getPageData()).iterator().hasNext());
+    }
+
+    /**
+     * Unit test for SlottedHeapFile.insertTuple() and iterator(), comparing
+     * its size to that of a HeapFile with the same tuples
+     */
+    @Test public void insertAndScan() throws Exception {
+        File slottedFile = File.createTempFile("slotted", ".dat");
+        slottedFile.deleteOnExit();
+        File heapFile = File.createTempFile("heap", ".dat");
+        heapFile.deleteOnExit();
+        SlottedHeapFile slotted = addTable(new SlottedHeapFile(slottedFile, td));
+        HeapFile heap = addTable(new HeapFile(heapFile, td));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, slotted.getId(), getTuple(i));
+            Database.getBufferPool().insertTuple(tid, heap.getId(), getTuple(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(slotted.numPages() * 5 < heap.numPages());
+
+        tid = new TransactionId();
+        DbFileIterator it = slotted.iterator(tid);
+        it.open();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(TestUtil.compareTuples(getTuple(i), t));
+            seen.add(i);
+        }
+        it.close();
+        assertEquals(2000, seen.size());
+
+        // freed space is reused before the file grows
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        int numPages = slotted.numPages();
+        Database.getBufferPool().insertTuple(tid, slotted.getId(), getTuple(0));
+        assertEquals(numPages, slotted.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for varchar(n) fields: values longer than n characters are
+     * rejected on insert
+     */
+    @Test public void varcharLength() throws Exception {
+        File catalogFile = File.createTempFile("catalog", ".txt");
+        catalogFile.deleteOnExit();
+        String name = catalogFile.getName().substring(0, catalogFile.getName().length() - ".txt".length()) + "_t";
+        new File(catalogFile.getParentFile(), name + ".dat").deleteOnExit();
+        PrintWriter pw = new PrintWriter(catalogFile);
+        pw.println(name + " (a int, b varchar(4))");
+        pw.close();
+
+        Database.getCatalog().loadSchema(catalogFile.getPath());
+        SlottedHeapFile loaded = (SlottedHeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(name));
+        assertEquals(4, loaded.getMaxLength(1));
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(loaded.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("abcd", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, loaded.getId(), t);
+        t = new Tuple(loaded.getTupleDesc());
+        t.setField(0, new IntField(2));
+        t.setField(1, new StringField("abcde", Type.STRING_LEN));
+        try {
+            Database.getBufferPool().insertTuple(tid, loaded.getId(), t);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = loaded.iterator(tid);
+        it.open();
+        assertEquals("abcd", ((StringField) it.next().getField(1)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            loaded.setMaxLength(0, 4);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -214,6 +214,9 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void close() {
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -236,6 +239,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] predicates) {
+            throw new RuntimeException("not implemented");
+        }
+
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
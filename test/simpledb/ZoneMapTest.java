@@ -0,0 +1,268 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public int readCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private static final int PAGES = 10;
+    private int tuplesPerPage;
+    private File f;
+    private InstrumentedHeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a table of PAGES full
+     * pages of tuples (i, i % 10) in order of i, written without a zone map,
+     * whose zones are learned by a scan.
+     */
+    @Before public void setUp() throws Exception {
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples(0), f, BufferPool.getPageSize(), 2);
+        hf = open();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(PAGES * tuplesPerPage, scan(tid).size());
+        assertEquals(PAGES, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Returns the tuples (i + offset, i % 10) of PAGES full pages
+     */
+    private ArrayList<ArrayList<Integer>> tuples(int offset) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < PAGES * tuplesPerPage; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i + offset, i % 10)));
+        return tuples;
+    }
+
+    private InstrumentedHeapFile open() throws Exception {
+        InstrumentedHeapFile file = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        file.getZoneMapFile().deleteOnExit();
+        file.enableZoneMap();
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    /**
+     * Returns the values of the first field of the tuples returned by a scan
+     * of hf with the given predicates which satisfy them.
+     */
+    private List<Integer> matching(TransactionId tid, Predicate... predicates) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        DbFileIterator it = hf.iterator(tid, predicates);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean matches = true;
+            for (Predicate p : predicates)
+                matches &= p.filter(t);
+            if (matches)
+                values.add(((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        return values;
+    }
+
+    /**
+     * As matching(), with an empty buffer pool, after resetting the count of
+     * pages read.
+     */
+    private List<Integer> scan(TransactionId tid, Predicate... predicates) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        return matching(tid, predicates);
+    }
+
+    private static Predicate predicate(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /**
+     * Unit test for HeapFile.iterator() with predicates skipping pages
+     */
+    @Test public void skipPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        int from = (PAGES - 2) * tuplesPerPage;
+        List<Integer> values = scan(tid, predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, from));
+        assertEquals(2 * tuplesPerPage, values.size());
+        assertEquals(from, (int) values.get(0));
+        assertEquals(2, hf.readCount);
+
+        // the values of the second field are spread over every page
+        assertEquals(PAGES * tuplesPerPage / 10, scan(tid, predicate(1, Predicate.Op.EQUALS, 3)).size());
+        assertEquals(PAGES, hf.readCount);
+
+        values = scan(tid, predicate(0, Predicate.Op.LESS_THAN, tuplesPerPage / 2),
+                predicate(1, Predicate.Op.EQUALS, 3));
+        assertEquals(tuplesPerPage / 20, values.size());
+        assertEquals(1, hf.readCount);
+
+        assertEquals(0, scan(tid, predicate(0, Predicate.Op.EQUALS, -1)).size());
+        assertEquals(0, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for learning the zones of the pages as they are scanned, and
+     * for heap files without a zone map
+     */
+    @Test public void learnZones() throws Exception {
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples(0), f, BufferPool.getPageSize(), 2);
+        hf = open();
+
+        // the first scan reads the pages whose zones are not known yet
+        TransactionId tid = new TransactionId();
+        int from = (PAGES - 2) * tuplesPerPage;
+        assertEquals(2 * tuplesPerPage, scan(tid, predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, from)).size());
+        assertEquals(PAGES, hf.readCount);
+        assertEquals(2 * tuplesPerPage, scan(tid, predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, from)).size());
+        assertEquals(2, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // no side file is written for heap files which do not keep a zone map
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, plain.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        DbFileIterator it = plain.iterator(tid, new Predicate[] { predicate(0, Predicate.Op.EQUALS, 1) });
+        it.open();
+        it.close();
+        assertFalse(plain.hasZoneMap());
+        assertFalse(plain.getZoneMapFile().exists());
+    }
+
+    /**
+     * Unit test for the zone map after inserts and deletes, committed or not
+     */
+    @Test public void insertAndDelete() throws Exception {
+        // empty the last page, and delete one tuple of the third page
+        TransactionId tid = new TransactionId();
+        int last = (PAGES - 1) * tuplesPerPage;
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            if (v >= last || v == 2 * tuplesPerPage)
+                deleted.add(t);
+        }
+        it.close();
+        for (Tuple t : deleted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(last - 1, scan(tid, predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 0)).size());
+        assertEquals(PAGES - 1, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a tuple inserted into the third page is seen before it commits
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1000000, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(new HeapPageId(hf.getId(), 2), t.getRecordId().getPageId());
+        assertEquals(Arrays.asList(1000000), matching(tid, predicate(0, Predicate.Op.GREATER_THAN, last)));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(0, scan(tid, predicate(0, Predicate.Op.GREATER_THAN, last)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for reading the zone map back from its side file
+     */
+    @Test public void sideFile() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid, predicate(0, Predicate.Op.EQUALS, 0));
+        Database.getBufferPool().transactionComplete(tid);
+        // the smallest and largest value of two int fields for every page
+        // the version, then the version of the zone and the smallest and
+        // largest value of two int fields for every page
+        assertEquals(4 + PAGES * 20, hf.getZoneMapFile().length());
+
+        hf = open();
+        tid = new TransactionId();
+        assertEquals(Arrays.asList(tuplesPerPage * 3 + 1),
+                scan(tid, predicate(0, Predicate.Op.EQUALS, tuplesPerPage * 3 + 1)));
+        assertEquals(1, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // rewriting the file outside of HeapFile makes the zones stale
+        int offset = PAGES * tuplesPerPage;
+        HeapFileEncoder.convert(tuples(offset), f, BufferPool.getPageSize(), 2);
+        hf = open();
+        tid = new TransactionId();
+        assertEquals(Arrays.asList(offset + tuplesPerPage * 3 + 1),
+                scan(tid, predicate(0, Predicate.Op.EQUALS, offset + tuplesPerPage * 3 + 1)));
+        assertEquals(PAGES, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for zone maps declared in the catalog
+     */
+    @Test public void catalog() throws Exception {
+        String name = f.getName().substring(0, f.getName().length() - ".dat".length());
+        File catalogFile = File.createTempFile("catalog", ".txt", f.getParentFile());
+        catalogFile.deleteOnExit();
+        PrintWriter pw = new PrintWriter(catalogFile);
+        pw.println(name + " (a int, b int) heap zonemap");
+        pw.close();
+
+        Database.getCatalog().loadSchema(catalogFile.getPath());
+        HeapFile loaded = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(name));
+        assertTrue(loaded.hasZoneMap());
+        // the zones learned by the scan in setUp are read from the side file
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = loaded.iterator(tid,
+                new Predicate[] { predicate(0, Predicate.Op.LESS_THAN, tuplesPerPage) });
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuplesPerPage, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -74,6 +74,41 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		} 
 	}
 
+	@Test public void testPreallocatePages() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 1);
+		long extentBytes = BTreeFile.EXTENT_PAGES * BufferPool.getPageSize();
+
+		// the first split extends the file by a whole extent
+		for (int i = 0; i < 503; ++i)
+			empty.insertTuple(tid, BTreeUtility.getBTreeTuple(i, 2));
+		assertEquals(3, empty.numPages());
+		long length = emptyFile.length();
+		assertEquals(BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize() + extentBytes, length);
+
+		// later splits use the preallocated pages
+		for (int i = 503; i < 2000; ++i)
+			empty.insertTuple(tid, BTreeUtility.getBTreeTuple(i, 2));
+		assertTrue(empty.numPages() > 5);
+		assertEquals(length, emptyFile.length());
+		Database.getBufferPool().transactionComplete(tid);
+
+		// the preallocated pages are not counted when the file is opened again, and are
+		// handed out before the file is extended
+		int numPages = empty.numPages();
+		Database.reset();
+		BTreeFile reopened = BTreeUtility.openBTreeFile(2, emptyFile, 1);
+		assertEquals(numPages, reopened.numPages());
+		tid = new TransactionId();
+		for (int i = 2000; i < 3000; ++i)
+			reopened.insertTuple(tid, BTreeUtility.getBTreeTuple(i, 2));
+		assertTrue(reopened.numPages() > numPages);
+		assertEquals(length, emptyFile.length());
+		BTreeChecker.checkRep(reopened, tid, new HashMap<PageId, Page>(), true);
+	}
+
 	@Test public void addDuplicateTuples() throws Exception {
 		// create an empty B+ tree file keyed on the second field of a 2-field tuple
 		File emptyFile = File.createTempFile("empty", ".dat");
@@ -282,6 +282,185 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that scanning the BTree for a range of keys only reads the leaf pages of the range */
+    @Test public void testReadPageRange() throws Exception {
+        final int LEAF_PAGES = 30;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int keyField = 0;
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, keyField);
+        TupleDesc td = Utility.getTupleDesc(2);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), keyField, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        int lower = r.nextInt(LEAF_PAGES*502/2);
+        int upper = lower + 3*502;
+        IndexPredicate ipred = new IndexPredicate(new IntField(lower), false, new IntField(upper), true);
+        ArrayList<ArrayList<Integer>> tuplesFiltered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (tup.get(keyField) > lower && tup.get(keyField) <= upper)
+                tuplesFiltered.add(tup);
+        }
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        BTreeScan scan = new BTreeScan(tid, f.getId(), "table", ipred);
+        SystemTestUtil.matchTuples(scan, tuplesFiltered);
+        // root pointer page + root + the leaf pages of the range, and the leaf page
+        // of the next key past it for next key locking
+        assertTrue(table.readCount <= 2 + 5);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test looking up a batch of keys, including duplicates and keys not in the BTree,
+     *  in one pass over the leaf pages */
+    @Test public void testMultiKeyIterator() throws Exception {
+        final int LEAF_PAGES = 30;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, 0);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> lookedUp = new ArrayList<Integer>();
+        for (int i = 0; i < 300; i++) {
+            int key = r.nextInt(LEAF_PAGES*502 + 100) - 50;
+            keys.add(new IntField(key));
+            lookedUp.add(key);
+        }
+        keys.add(keys.get(0));
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (lookedUp.contains(tup.get(0)))
+                expected.add(tup.get(0));
+        }
+        Collections.sort(expected);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.multiKeyIterator(tid, keys);
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            found.add(((IntField) it.next().getField(0)).getValue());
+        assertEquals(expected, found);
+        // root pointer page + root + each leaf page at most once
+        assertTrue(table.readCount <= 2 + LEAF_PAGES);
+
+        it.rewind();
+        found.clear();
+        while (it.hasNext())
+            found.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        assertEquals(expected, found);
+
+        it = table.multiKeyIterator(tid, Collections.singletonList(new IntField(LEAF_PAGES*502 + 1)));
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Returns whether a plan has an operator of the given class. */
+    private static boolean hasOperator(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (hasOperator(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Estimates the cardinalities of the operators of a plan and returns it printed as a tree */
+    private static String printPlan(LogicalPlan lp, DbIterator plan) {
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        return new QueryPlanVisualizer().getQueryPlanTree(plan);
+    }
+
+    /** Test that the planner answers ORDER BY ... DESC on the key with a descending scan
+     *  instead of a sort, and MAX of the key by reading a single leaf page */
+    @Test public void testReverseScanPlans() throws Exception {
+        final int LEAF_PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, 0);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "reverse_table");
+        TableStats.setTableStats("reverse_table", new TableStats(table.getId(), 1000));
+        Parser p = new Parser();
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM reverse_table t WHERE t.c0 < 5000 "
+                + "ORDER BY t.c0 DESC;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(hasOperator(plan, OrderBy.class));
+        assertTrue(printPlan(lp, plan).contains("btree scan desc(reverse_table t)"));
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (tup.get(0) < 5000)
+                expected.add(tup.get(0));
+        }
+        Collections.sort(expected, Collections.reverseOrder());
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            keys.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        assertEquals(expected, keys);
+
+        // the maximum is the first tuple of a descending scan
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        tid = new TransactionId();
+        lp = p.generateLogicalPlan(tid, "SELECT MAX(t.c0) FROM reverse_table t;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        String tree = printPlan(lp, plan);
+        assertTrue(tree.contains("limit(1),card:"));
+        assertTrue(tree.contains("btree scan desc(reverse_table t)"));
+        plan.open();
+        assertEquals(new IntField(LEAF_PAGES*502), plan.next().getField(0));
+        plan.close();
+        // root pointer page + root + last leaf page
+        assertEquals(3, table.readCount);
+
+        lp = p.generateLogicalPlan(tid, "SELECT MIN(t.c0) FROM reverse_table t WHERE t.c0 > 777;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        tree = printPlan(lp, plan);
+        assertTrue(tree.contains("limit(1),card:"));
+        assertTrue(tree.contains("btree scan(reverse_table t)"));
+        plan.open();
+        assertEquals(new IntField(778), plan.next().getField(0));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that the cardinality of a plan scanning a range of a BTree is estimated from
+     *  the size of its table, and that the plan can be printed */
+    @Test public void testRangeScanPlanTree() throws Exception {
+        final int LEAF_PAGES = 10;
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, null, 0);
+        BTreeFile table = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "range_table");
+        TableStats.setTableStats("range_table", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT t.c0 FROM range_table t WHERE t.c0 > 5 AND t.c0 < 10;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(hasOperator(plan, BTreeScan.class));
+        assertTrue(printPlan(lp, plan).contains("btree scan(range_table t)"));
+        int card = ((Operator) plan).getEstimatedCardinality();
+        assertTrue(card > 0 && card < LEAF_PAGES*502);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
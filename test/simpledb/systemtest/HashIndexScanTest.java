@@ -0,0 +1,136 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Compares equality probes on a HashFile with HashIndexScan to the same
+ * probes on a BTreeFile with BTreeScan.
+ */
+public class HashIndexScanTest extends SimpleDbTestBase {
+    private final static Random r = new Random();
+    private final static int ROWS = 30000;
+    private final static int PROBES = 200;
+
+    /** Counts the number of readPage operations. */
+    class InstrumentedBTreeFile extends BTreeFile {
+        public int readCount = 0;
+
+        public InstrumentedBTreeFile(File f, int keyField, TupleDesc td) {
+            super(f, keyField, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    /** Counts the number of readPage operations. */
+    class InstrumentedHashFile extends HashFile {
+        public int readCount = 0;
+
+        public InstrumentedHashFile(File f, int keyField, TupleDesc td) {
+            super(f, keyField, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Uses small pages, so that a B+ tree of ROWS tuples has several levels
+     * of internal pages.
+     */
+    @Before public void setPageSize() {
+        BufferPool.setPageSize(1024);
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    /**
+     * Returns the number of tuples returned by a scan.
+     */
+    private static int count(DbIterator scan) throws Exception {
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /** Probes both indexes for the same keys, each probe on an empty buffer pool. */
+    @Test public void testEqualityProbes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, ROWS, null, tuples, 0);
+        InstrumentedBTreeFile btree = new InstrumentedBTreeFile(bf.getFile(), 0, bf.getTupleDesc());
+        Database.getCatalog().addTable(btree, SystemTestUtil.getUUID());
+
+        File f = File.createTempFile("table_hash", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        InstrumentedHashFile hash = new InstrumentedHashFile(f, 0, bf.getTupleDesc());
+        Database.getCatalog().addTable(hash, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = new Tuple(bf.getTupleDesc());
+            t.setField(0, new IntField(tuples.get(i).get(0)));
+            t.setField(1, new IntField(tuples.get(i).get(1)));
+            Database.getBufferPool().insertTuple(tid, hash.getId(), t);
+            if (i % 20 == 19) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        btree.readCount = 0;
+        hash.readCount = 0;
+
+        for (int i = 0; i < PROBES; i++) {
+            int key = i % 2 == 0 ? tuples.get(r.nextInt(ROWS)).get(0)
+                    : r.nextInt(BTreeUtility.MAX_RAND_VALUE);
+            IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(key));
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            int btreeCount = count(new BTreeScan(tid, btree.getId(), "b", ipred));
+            Database.getBufferPool().transactionComplete(tid);
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            int hashCount = count(new HashIndexScan(tid, hash.getId(), "h", ipred));
+            Database.getBufferPool().transactionComplete(tid);
+
+            assertEquals(btreeCount, hashCount);
+        }
+
+        // the root pointer, two or more internal pages and a leaf, against
+        // the meta page, a directory page and a bucket page
+        assertTrue(btree.readCount >= 4 * PROBES);
+        assertTrue(hash.readCount < btree.readCount);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashIndexScanTest.class);
+    }
+}